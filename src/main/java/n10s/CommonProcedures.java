@@ -1,25 +1,41 @@
 package n10s;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.FetchCache;
+import n10s.utils.ParallelBZip2InputStream;
+import n10s.utils.ParallelNTriplesParser;
+import n10s.utils.ReadAheadInputStream;
+import n10s.utils.ServerDirectories;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParser;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
@@ -86,10 +102,12 @@ public class CommonProcedures {
 
   protected void checkIndexExist() throws RDFImportPreRequisitesNotMet {
 
-    if (isConstraintOnResourceUriPresent() || missingIndexOnResourceUri()) {
+    if (isConstraintOnResourceUriPresent() || missingIndexOnResourceUri()
+        || missingIndexOnResourceUriAndGraphUri()) {
       throw new RDFImportPreRequisitesNotMet(
-          "An index on :Resource(uri) is required for importing RDF Quads. "
-              + "Please run 'CREATE INDEX ON :Resource(uri)' and try again. "
+          "Indexes on :Resource(uri) and :Resource(uri, graphUri) are required for importing RDF "
+              + "Quads. Please run 'CREATE INDEX FOR (r:Resource) ON (r.uri)' and "
+              + "'CREATE INDEX FOR (r:Resource) ON (r.uri, r.graphUri)' and try again. "
               + "Note that uniqueness constraint needs to be dropped if existing");
     }
   }
@@ -109,17 +127,82 @@ public class CommonProcedures {
     return true;
   }
 
+  /**
+   * Resources in named graphs are looked up by uri and graph uri, the composite index seeks
+   * them directly.
+   */
+  protected boolean missingIndexOnResourceUriAndGraphUri() {
+    Iterator<IndexDefinition> indexesIterator = tx.schema().getIndexes().iterator();
+    while (indexesIterator.hasNext()) {
+      IndexDefinition indexDef = indexesIterator.next();
+      if (indexDef.isCompositeIndex() && indexDef.isNodeIndex()
+          && indexDef.getLabels().iterator().next().name().equals("Resource")) {
+        Iterator<String> keys = indexDef.getPropertyKeys().iterator();
+        if (keys.next().equals("uri") && keys.next().equals("graphUri") && !keys.hasNext()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   protected void parseRDFPayloadOrFromUrl( RDFFormat format, String url, String rdfFragment,
      Map<String, Object> props, ConfiguredStatementHandler statementLoader) throws IOException {
     if (rdfFragment != null) {
       instantiateAndKickOffParser(
           new ByteArrayInputStream(rdfFragment.getBytes(Charset.defaultCharset())),
           "http://neo4j.com/base/", format, statementLoader);
+    } else if (ParallelNTriplesParser.canParse(url, format,
+        statementLoader.getParserConfig().getParserThreads())) {
+      new ParallelNTriplesParser(format, statementLoader.getParserConfig().getParserThreads(),
+          statementLoader.getParserConfig().isVerifyUriSyntax(), log)
+          .parse(Paths.get(URI.create(url)), statementLoader);
+    } else if (isArchiveEntryPattern(url)) {
+      parseArchiveEntries(format, url, props, statementLoader);
     } else {
-      instantiateAndKickOffParser(getInputStream(url, props), url, format, statementLoader);
+      instantiateAndKickOffParser(getInputStream(url, props,
+          statementLoader.getParserConfig().isParallelDecompression()), url, format,
+          statementLoader);
     }
   }
 
+  /**
+   * Parses every entry of a zip or tgz archive matching a glob (url!glob), one after the other
+   * with the same handler, as if they were a single payload. Blank nodes are scoped to each
+   * entry.
+   */
+  protected void parseArchiveEntries(RDFFormat format, String url, Map<String, Object> props,
+      ConfiguredStatementHandler handler) throws IOException {
+    String archiveUrl = url.substring(0, url.indexOf('!'));
+    Predicate<String> matches = archiveEntryMatcher(url.substring(url.indexOf('!') + 1));
+    ArchiveEntriesHandler entriesHandler = new ArchiveEntriesHandler(handler);
+    URLConnection urlConn = new URL(archiveUrl).openConnection();
+    try (InputStream archive = openArchive(archiveUrl, fetchPayload(urlConn, archiveUrl, props),
+        handler.getParserConfig().isParallelDecompression())) {
+      while (nextArchiveEntry(archive, matches)) {
+        // parsers may close the stream when they are done with the entry
+        instantiateAndKickOffParser(CloseShieldInputStream.wrap(archive), url, format,
+            entriesHandler);
+      }
+    }
+    if (!entriesHandler.started) {
+      throw new FileNotFoundException("No entry matching '"
+          + url.substring(url.indexOf('!') + 1) + "' in " + archiveUrl);
+    }
+    handler.endRDF();
+  }
+
+  /**
+   * Parses a local N-Triples / N-Quads file from a byte offset, reporting the offset of every
+   * statement to the handler (see {@link ParallelNTriplesParser#canSeek(String, RDFFormat)}).
+   */
+  protected void parseFromOffset(RDFFormat format, String url, long offset, String bnodePrefix,
+      ConfiguredStatementHandler statementLoader) throws IOException {
+    new ParallelNTriplesParser(format, statementLoader.getParserConfig().getParserThreads(),
+        statementLoader.getParserConfig().isVerifyUriSyntax(), log, bnodePrefix)
+        .parse(Paths.get(URI.create(url)), offset, true, statementLoader);
+  }
+
   protected void instantiateAndKickOffParser(InputStream inputStream, @Name("url") String url,
       @Name("format") RDFFormat format,
       ConfiguredStatementHandler handler)
@@ -128,10 +211,25 @@ public class CommonProcedures {
     rdfParser
         .set(BasicParserSettings.VERIFY_URI_SYNTAX, handler.getParserConfig().isVerifyUriSyntax());
     rdfParser.setRDFHandler(handler);
-    rdfParser.parse(inputStream, url);
+    try (InputStream in = inputStream) {
+      rdfParser.parse(in, url);
+    }
   }
 
   protected InputStream getInputStream(String url, Map<String, Object> props) throws IOException {
+    return getInputStream(url, props, false);
+  }
+
+  /**
+   * Payloads ending in .gz or .bz2 are decompressed. Of a zip archive (url!entry), the entry is
+   * returned, a tgz archive is returned as is unless an entry is given. An entry missing from the
+   * archive is reported as a missing file, so the import ends KO as when there's no payload.
+   *
+   * @param parallelDecompression true to decompress gzip payloads on a read ahead thread and
+   * bzip2 ones block parallel
+   */
+  protected InputStream getInputStream(String url, Map<String, Object> props,
+      boolean parallelDecompression) throws IOException {
     URLConnection urlConn;
 
     if ((url.contains(".zip") || url.contains(".tgz")|| url.contains(".gz")|| url.contains(".bz2"))) {
@@ -149,35 +247,28 @@ public class CommonProcedures {
       }
       urlConn = new URL(url).openConnection();
 
-      if (url.endsWith(".zip")) {
-        ZipInputStream zip = new ZipInputStream(urlConn.getInputStream());
-        if (zipFileName!=null){
-          ZipEntry zipEntry;
-          while ((zipEntry = zip.getNextEntry()) != null) {
-            if (!zipEntry.isDirectory() && zipEntry.getName().equals(zipFileName)) {
-              return new ByteArrayInputStream(IOUtils.toByteArray(zip));
-            }
-          }
-        }else {
-          throw new IllegalArgumentException("Filename is required for zip files (use '!' notation)");
+      if (url.endsWith(".zip") || url.endsWith(".tar.gz") || url.endsWith(".tgz")) {
+        if (url.endsWith(".zip") && zipFileName == null) {
+          throw new IllegalArgumentException(
+              "Filename is required for zip files (use '!' notation)");
         }
-      } else if (url.endsWith(".tar.gz") || url.endsWith(".tgz")) {
-        TarArchiveInputStream tgz = new TarArchiveInputStream(new GZIPInputStream(urlConn.getInputStream()));
-        if (zipFileName!=null){
-          ArchiveEntry zipEntry;
-          while ((zipEntry = tgz.getNextEntry()) != null) {
-            if (!zipEntry.isDirectory() && zipEntry.getName().equals(zipFileName)) {
-              return new ByteArrayInputStream(IOUtils.toByteArray(tgz));
-            }
-          }
-        } else {
-          return tgz;
+        InputStream archive = openArchive(url, fetchPayload(urlConn, url, props),
+            parallelDecompression);
+        if (zipFileName == null) {
+          return archive;
         }
+        // the archive stream is left at the entry, which is read (streamed) till its end
+        if (nextArchiveEntry(archive, archiveEntryMatcher(zipFileName))) {
+          return archive;
+        }
+        archive.close();
+        throw new FileNotFoundException("No entry matching '" + zipFileName + "' in " + url);
       } else if (url.endsWith(".gz")){
-        return new GZIPInputStream(urlConn.getInputStream());
+        return gunzip(fetchPayload(urlConn, url, props), parallelDecompression);
       } else if (url.endsWith(".bz2")){
-        return new BZip2CompressorInputStream(urlConn.getInputStream());
+        return bunzip2(fetchPayload(urlConn, url, props), parallelDecompression);
       }
+      // not a compressed payload after all (.gz or .zip elsewhere in the url)
     }else {
       urlConn = new URL(url).openConnection();
     }
@@ -199,14 +290,181 @@ public class CommonProcedures {
         writer.write(props.get("payload").toString());
         writer.close();
       }
+      InputStream payload = fetchFromCache(urlConn, url, props);
+      if (payload != null) {
+        return payload;
+      }
       String newUrl = handleRedirect(urlConn, url);
       if (newUrl != null && !url.equals(newUrl)) {
         urlConn.getInputStream().close();
-        return getInputStream(newUrl, props);
+        return getInputStream(newUrl, props, parallelDecompression);
       }
       return urlConn.getInputStream();
   }
 
+  private InputStream fetchPayload(URLConnection urlConn, String url, Map<String, Object> props)
+      throws IOException {
+    InputStream payload = fetchFromCache(urlConn, url, props);
+    return payload != null ? payload : urlConn.getInputStream();
+  }
+
+  /**
+   * Fetches the payload of a GET request through the fetch cache, when enabled (fetchCache
+   * param). Unchanged payloads are served from the cache.
+   *
+   * @return the payload, null if not fetched through the cache (the caller sends the request)
+   */
+  private InputStream fetchFromCache(URLConnection urlConn, String url,
+      Map<String, Object> props) throws IOException {
+    Map<String, String> headerParams = (Map<String, String>) props.get("headerParams");
+    if (!(props.containsKey("fetchCache") && (Boolean) props.get("fetchCache"))
+        || !(urlConn instanceof HttpURLConnection) || props.containsKey("payload")
+        || (headerParams != null && headerParams.containsKey("method")
+        && !"GET".equalsIgnoreCase(String.valueOf(headerParams.get("method"))))) {
+      return null;
+    }
+    Path dataDirectory = ServerDirectories.dataDirectory(db);
+    if (dataDirectory == null) {
+      log.warn("The data directory of the server is unknown, " + url
+          + " is fetched without the fetch cache");
+      return null;
+    }
+    Path directory = dataDirectory.resolve("n10s").resolve("fetch-cache");
+    long maxSize = props.containsKey("fetchCacheMaxSize")
+        ? (long) props.get("fetchCacheMaxSize") : FetchCache.DEFAULT_MAX_SIZE;
+    return new FetchCache(directory, maxSize)
+        .fetch((HttpURLConnection) urlConn, FetchCache.key(url, headerParams));
+  }
+
+  private static boolean isArchiveEntryPattern(String url) {
+    if (url == null || !url.contains("!")) {
+      return false;
+    }
+    String entry = url.substring(url.indexOf('!') + 1);
+    for (int i = 0; i < entry.length(); i++) {
+      if ("*?[{".indexOf(entry.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Predicate<String> archiveEntryMatcher(String entryNameOrGlob) {
+    if (!isArchiveEntryPattern("!" + entryNameOrGlob)) {
+      return entryNameOrGlob::equals;
+    }
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + entryNameOrGlob);
+    return name -> matcher.matches(Paths.get(name));
+  }
+
+  /**
+   * @return a zip or tgz archive stream, positioned before its first entry
+   */
+  private static InputStream openArchive(String url, InputStream in,
+      boolean parallelDecompression) throws IOException {
+    if (url.endsWith(".zip")) {
+      return new ZipInputStream(in);
+    } else if (url.endsWith(".tar.gz") || url.endsWith(".tgz")) {
+      return new TarArchiveInputStream(gunzip(in, parallelDecompression));
+    }
+    throw new IllegalArgumentException("'!' notation for filenames can only be used with zip or tgz files");
+  }
+
+  /**
+   * Moves the archive stream to the next regular file entry with a matching name.
+   *
+   * @return false if there are no more
+   */
+  private static boolean nextArchiveEntry(InputStream archive, Predicate<String> matches)
+      throws IOException {
+    if (archive instanceof ZipInputStream) {
+      ZipEntry zipEntry;
+      while ((zipEntry = ((ZipInputStream) archive).getNextEntry()) != null) {
+        if (!zipEntry.isDirectory() && matches.test(zipEntry.getName())) {
+          return true;
+        }
+      }
+    } else {
+      ArchiveEntry tarEntry;
+      while ((tarEntry = ((TarArchiveInputStream) archive).getNextEntry()) != null) {
+        if (!tarEntry.isDirectory() && matches.test(tarEntry.getName())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Multi-member (concatenated) gzip payloads are read to the end, not just the first member.
+   */
+  private static InputStream gunzip(InputStream in, boolean parallelDecompression)
+      throws IOException {
+    InputStream gz = new GzipCompressorInputStream(new BufferedInputStream(in), true);
+    return parallelDecompression ? new ReadAheadInputStream(gz) : gz;
+  }
+
+  /**
+   * Concatenated bzip2 streams (pbzip2 output) are read to the end, not just the first one.
+   */
+  private static InputStream bunzip2(InputStream in, boolean parallelDecompression)
+      throws IOException {
+    return parallelDecompression ? new ParallelBZip2InputStream(in,
+        Math.max(2, Runtime.getRuntime().availableProcessors()))
+        : new BZip2CompressorInputStream(new BufferedInputStream(in), true);
+  }
+
+  /**
+   * Handler for the entries of an archive parsed one after the other: the import starts with
+   * the first one and is ended by the caller after the last one.
+   */
+  private static class ArchiveEntriesHandler extends ConfiguredStatementHandler {
+
+    private final ConfiguredStatementHandler handler;
+    private boolean started = false;
+
+    ArchiveEntriesHandler(ConfiguredStatementHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public RDFParserConfig getParserConfig() {
+      return handler.getParserConfig();
+    }
+
+    @Override
+    public void startRDF() throws RDFHandlerException {
+      if (!started) {
+        started = true;
+        handler.startRDF();
+      }
+    }
+
+    @Override
+    public void endRDF() throws RDFHandlerException {
+    }
+
+    @Override
+    public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
+      handler.handleNamespace(prefix, uri);
+    }
+
+    @Override
+    public void handleStatement(Statement st) throws RDFHandlerException {
+      handler.handleStatement(st);
+    }
+
+    @Override
+    public void handleComment(String comment) throws RDFHandlerException {
+      handler.handleComment(comment);
+    }
+
+    @Override
+    public void handleMalformedLine(String message) {
+      handler.handleMalformedLine(message);
+    }
+  }
+
   //Taken from APOC (apoc.util.Util)
   private static String handleRedirect(URLConnection con, String url) throws IOException {
     if (!(con instanceof HttpURLConnection)) return url;
@@ -229,6 +487,33 @@ public class CommonProcedures {
   }
 
 
+  /**
+   * Paths of files procedures read or write on the server are relative to its import directory
+   * (the one LOAD CSV reads from), and not accepted at all when file urls are not allowed.
+   *
+   * @param path relative path, may contain glob wildcards
+   * @param param name of the procedure param the path comes from, for the error messages
+   * @return the path resolved in the import directory
+   */
+  protected Path resolveInImportDirectory(String path, String param) throws RDFImportBadParams {
+    Path importDirectory = ServerDirectories.importDirectory(db);
+    if (importDirectory == null) {
+      throw new RDFImportBadParams(param + " is resolved in the import directory of the server, "
+          + "which is not set (server.directories.import) or not accessible "
+          + "(dbms.security.allow_csv_import_from_file_urls)");
+    }
+    boolean parentSegment = false;
+    for (String segment : path.split("[/\\\\]")) {
+      parentSegment |= segment.equals("..");
+    }
+    if (parentSegment || path.startsWith("/") || path.startsWith("\\")
+        || Paths.get(path.replaceAll("[*?\\[\\]{}]", "_")).isAbsolute()) {
+      throw new RDFImportBadParams(param + " must be a path relative to the import directory "
+          + "of the server, without '..'");
+    }
+    return importDirectory.resolve(path).normalize();
+  }
+
   protected RDFFormat getFormat(String format) throws RDFImportBadParams {
     if (format != null) {
       for (RDFFormat parser : availableParsers) {
@@ -6,8 +6,30 @@ import org.eclipse.rdf4j.rio.RDFParseException;
 
 public abstract class ConfiguredStatementHandler implements RDFHandler {
 
+    private long malformedLineCount = 0;
+
     public abstract RDFParserConfig getParserConfig();
 
+    /**
+     * Called by parsers that skip the lines they can't parse instead of aborting the import.
+     */
+    public void handleMalformedLine(String message) {
+      malformedLineCount++;
+    }
+
+    public long getMalformedLineCount() {
+      return malformedLineCount;
+    }
+
+    /**
+     * Called by parsers that know the position of the statements in the payload, before each
+     * statement is handled.
+     *
+     * @param offset byte offset in the payload where the statement after this one starts
+     */
+    public void markSourceOffset(long offset) {
+    }
+
     public class TripleLimitReached extends RDFParseException {
 
     public TripleLimitReached(String s) {
@@ -2,32 +2,27 @@ package n10s;
 
 import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.RDFParserConfig;
-import n10s.utils.DateUtils;
+import n10s.utils.ImportMetrics;
+import n10s.utils.ImportMetrics.Phase;
 import n10s.utils.InvalidNamespacePrefixDefinitionInDB;
+import n10s.utils.LiteralConversion;
+import n10s.utils.MultivalMerge;
+import n10s.utils.NodeIdCache;
 import n10s.utils.NsPrefixMap;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
-import org.neo4j.exceptions.InvalidArgumentException;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.internal.helpers.collection.Iterables;
 import org.neo4j.logging.Log;
-import org.neo4j.values.storable.PointValue;
 
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.time.format.DateTimeParseException;
-import java.time.temporal.ChronoField;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static n10s.graphconfig.GraphConfig.*;
 import static n10s.graphconfig.Params.*;
@@ -44,6 +39,7 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
   public static final int LABEL = 1;
   public static final int PROPERTY = 2;
   public static final int DATATYPE = 3;
+  public static final String BNODE_PREFIX = "bnode://";
   protected final Log log;
   private static final String[] EMPTY_ARRAY = new String[0];
   protected Transaction tx;
@@ -61,6 +57,14 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
   protected final ValueFactory vf = SimpleValueFactory.getInstance();
   protected StringBuilder loadWarnings = new StringBuilder();
   protected boolean datatypeConflictFound = false;
+  protected final ImportMetrics importMetrics = new ImportMetrics();
+  // when the loader last handed control back to the parser
+  private long lastStatementHandled = 0;
+  // blank node label to compact uri, for the document being parsed
+  private final Map<String, String> bnodeUris = new HashMap<>();
+  private final String documentId = newDocumentId();
+  // blank nodes given compact uris in a document, none unless the processor asks for them
+  private int maxCompactBNodes = 0;
 
 
   public RDFToLPGStatementProcessor(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
@@ -86,6 +90,48 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     }
   }
 
+  private static String newDocumentId() {
+    UUID uuid = UUID.randomUUID();
+    return Long.toUnsignedString(uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits(),
+        36);
+  }
+
+  /**
+   * Blank node labels are only meaningful in the document, and the ones generated by the parsers
+   * are long (a unique prefix of 33 hex digits, then the label in the document if any). Processors
+   * that enable it skolemize each one as a compact uri instead: a random id of the document and a
+   * counter, both in base 36. The others keep the uri derived from the label.
+   *
+   * @return the uri of the blank node in this document
+   */
+  protected String bnodeUri(Resource bnode) {
+    String label = bnode.stringValue();
+    String uri = bnodeUris.get(label);
+    if (uri == null) {
+      if (bnodeUris.size() >= maxCompactBNodes) {
+        return BNODE_PREFIX + label;
+      }
+      uri = BNODE_PREFIX + documentId + "-" + Integer.toString(bnodeUris.size(), 36);
+      bnodeUris.put(label, uri);
+      if (bnodeUris.size() == maxCompactBNodes) {
+        log.warn("Compact uris given to the first " + maxCompactBNodes + " blank nodes of the "
+            + "document, the ones found from now on keep the uri derived from their label");
+      }
+    }
+    return uri;
+  }
+
+  /**
+   * Gives compact uris to the first max blank nodes of the document (see {@link
+   * #bnodeUri(Resource)}). Past that, new blank nodes keep the uri derived from their label, while
+   * the ones already given a compact uri keep it: every blank node has a single uri in the
+   * document either way. Zero, the default, for parses that have to give blank nodes the same
+   * uris as a previous parse of the document (resumed imports) or that report them.
+   */
+  protected void compactBNodes(int max) {
+    maxCompactBNodes = max;
+  }
+
   private void loadNamespaces() throws InvalidNamespacePrefixDefinitionInDB {
     namespaces = new NsPrefixMap(tx, false);
   }
@@ -94,13 +140,15 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
    * Processing for literals as follows Mapping according to this figure:
    * https://www.w3.org/TR/xmlschema11-2/#built-in-datatypes String -> String Each sub-category of
    * integer -> long decimal, float, and double -> double boolean -> boolean Custom data type ->
-   * String (value + CUSTOM_DATA_TYPE_SEPERATOR + custom DT IRI)
+   * String (value + CUSTOM_DATA_TYPE_SEPERATOR + custom DT IRI). Built-in datatypes are
+   * converted by {@link LiteralConversion}.
    *
    * @return processed literal
    */
   protected Object getObjectValue(IRI propertyIRI, Literal object) {
     IRI datatype = object.getDatatype();
-    if (datatype.equals(XMLSchema.STRING) || datatype.equals(RDF.LANGSTRING)) {
+    LiteralConversion conversion = LiteralConversion.forDatatype(datatype);
+    if (conversion == LiteralConversion.STRING) {
       final Optional<String> language = object.getLanguage();
       if (parserConfig.getLanguageFilter() == null || !language.isPresent() || parserConfig
           .getLanguageFilter().equals(language.get())) {
@@ -112,46 +160,8 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
         //filtered by lang
         return null;
       }
-    } else if (typeMapsToLongType(datatype)) {
-      return object.longValue();
-    } else if (typeMapsToDouble(datatype)) {
-      return object.doubleValue();
-    } else if (datatype.equals(XMLSchema.BOOLEAN)) {
-      return object.booleanValue();
-    } else if (datatype.equals(XMLSchema.DATETIME)) {
-      try {
-        return ZonedDateTime.parse(object.stringValue());
-      }catch(DateTimeParseException dtpe){
-        try{
-          //formatter to support the format shown int the cypher refcard (timezone but no offset)
-          DateTimeFormatter neo4jZonedDateFormat = new DateTimeFormatterBuilder()
-                  .appendPattern("yyyy-MM-dd'T'HH:mm:ss")
-                  .appendFraction(ChronoField.MILLI_OF_SECOND, 0, 9, true)
-                  .appendPattern("'['").appendZoneId().appendPattern("']'").toFormatter();
-          return ZonedDateTime.parse(object.stringValue(), neo4jZonedDateFormat);
-        }catch(DateTimeParseException dtpe2){
-          try {
-            return DateUtils.parseDateTime(object.stringValue());
-          } catch (IllegalArgumentException e) {
-            //if date cannot be parsed we return string value
-            return object.stringValue();
-          }
-        }
-      }
-    }else if (datatype.equals(vf.createIRI(GEOSPARQL_NS, WKTLITERAL))) {
-      try {
-        return PointValue.parse(wktToCartesian(object.stringValue()));
-      } catch (InvalidArgumentException e) {
-        //if pointvalue cannot be parsed we return string value
-        return object.stringValue();
-      }
-    } else if (datatype.equals(XMLSchema.DATE)) {
-      try {
-        return DateUtils.parseDate(object.stringValue());
-      } catch (IllegalArgumentException e) {
-        //if date cannot be parsed we return string value
-        return object.stringValue();
-      }
+    } else if (conversion != null) {
+      return conversion.convert(object);
     } else {
       //it's a custom data type
       if (parserConfig.getGraphConf().isKeepCustomDataTypes() && !(
@@ -171,21 +181,16 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return object.stringValue();
   }
 
-  private String wktToCartesian(String wktString) {
-    Pattern wktRegex = Pattern.compile("^Point\\((?:(\\-?\\d+(?:\\.\\d+)?)\\s+)?(\\-?\\d+(?:\\.\\d+)?)\\s+(\\-?\\d+(?:\\.\\d+)?)\\)$");
-    Matcher m = wktRegex.matcher(wktString);
-    if(m.matches() && m.groupCount() == 3 && m.group(1)==null){
-      return m.replaceFirst("point({x: $2, y: $3, crs: 'cartesian'})");
-    } else if(m.matches() && m.groupCount() == 3 && m.group(1)!=null){
-      return m.replaceFirst("point({x: $1, y: $2, z: $3, crs: 'cartesian-3d'})");
-    } else {
-      // if it cannot be parsed it's left unchanged and will crash
-      // when trying to create a PointObject out of it (exception will be thrown)
-      return wktString;
-    }
+  /**
+   * {@link #getObjectValue(IRI, Literal)} timed as literal conversion in the import metrics
+   */
+  protected Object convertLiteral(IRI propertyIRI, Literal object) {
+    long conversionStart = System.nanoTime();
+    Object value = getObjectValue(propertyIRI, object);
+    importMetrics.add(Phase.LITERAL_CONVERSION, System.nanoTime() - conversionStart);
+    return value;
   }
 
-
   protected String getValueWithDatatype(IRI datatype, String value) {
     StringBuilder result = new StringBuilder(value);
     result.append(CUSTOM_DATA_TYPE_SEPERATOR);
@@ -197,23 +202,6 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return result.toString();
   }
 
-  private boolean typeMapsToDouble(IRI datatype) {
-    return datatype.equals(XMLSchema.DECIMAL) || datatype.equals(XMLSchema.DOUBLE) ||
-        datatype.equals(XMLSchema.FLOAT);
-  }
-
-  private boolean typeMapsToLongType(IRI datatype) {
-    return datatype.equals(XMLSchema.INTEGER) || datatype.equals(XMLSchema.LONG) || datatype
-        .equals(XMLSchema.INT) ||
-        datatype.equals(XMLSchema.SHORT) || datatype.equals(XMLSchema.BYTE) ||
-        datatype.equals(XMLSchema.NON_NEGATIVE_INTEGER) || datatype
-        .equals(XMLSchema.POSITIVE_INTEGER) ||
-        datatype.equals(XMLSchema.UNSIGNED_LONG) || datatype.equals(XMLSchema.UNSIGNED_INT) ||
-        datatype.equals(XMLSchema.UNSIGNED_SHORT) || datatype.equals(XMLSchema.UNSIGNED_BYTE) ||
-        datatype.equals(XMLSchema.NON_POSITIVE_INTEGER) || datatype
-        .equals(XMLSchema.NEGATIVE_INTEGER);
-  }
-
   @Override
   public void handleComment(String comment) throws RDFHandlerException {
 
@@ -271,13 +259,16 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
   @Override
   public void startRDF() throws RDFHandlerException {
+    importMetrics.start();
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN ||
         parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN_STRICT) {
       //differentiate between map/shorten and keep_long urls?
-      try {
-        loadNamespaces();
-      } catch (InvalidNamespacePrefixDefinitionInDB e) {
-        throw new RDFHandlerException(e.getMessage());
+      if (namespaces == null) {
+        try {
+          loadNamespaces();
+        } catch (InvalidNamespacePrefixDefinitionInDB e) {
+          throw new RDFHandlerException(e.getMessage());
+        }
       }
       log.debug(
           "Found " + namespaces.getPrefixes().size() + " namespaces in the DB: " + namespaces);
@@ -293,6 +284,25 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     statements.add(st);
   }
 
+  /**
+   * Buffers a relationship between two resources. By default it's kept as an rdf4j Statement in
+   * the statements set.
+   */
+  protected void addRelationship(String subjectUri, IRI predicate, String objectUri) {
+    addStatement(vf.createStatement(vf.createIRI(subjectUri), predicate, vf.createIRI(objectUri)));
+  }
+
+  /**
+   * Buffers a relationship along with one of its properties (RDF-star annotation).
+   */
+  protected void addRelationshipWithProperty(String subjectUri, IRI predicate, String objectUri,
+      IRI propertyIRI, Literal propValueRaw) {
+    Statement stmt = vf.createStatement(vf.createIRI(subjectUri), predicate,
+        vf.createIRI(objectUri));
+    addStatement(stmt);
+    addRelProp(stmt, propertyIRI, propValueRaw);
+  }
+
 
   private void initialise(String subjectUri) {
     initialiseResourceProps(resourceProps, subjectUri);
@@ -322,7 +332,7 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
   protected boolean setProp(String subjectUri, IRI propertyIRI, Literal propValueRaw) {
     Map<String, Object> props;
-    Object propValue = getObjectValue(propertyIRI, propValueRaw);
+    Object propValue = convertLiteral(propertyIRI, propValueRaw);
     if (propValue != null) {
       if (!resourceProps.containsKey(subjectUri)) {
         props = initialiseResourceProps(resourceProps,subjectUri);
@@ -339,9 +349,11 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return propValue != null;
   }
 
-  private void addPropertyValueToElementProps(IRI propertyIRI, Map<String, Object> props, Object propValue) {
+  protected void addPropertyValueToElementProps(IRI propertyIRI, Map<String, Object> props, Object propValue) {
 
+    long iriStart = System.nanoTime();
     String propName = handleIRI(propertyIRI, PROPERTY);
+    importMetrics.add(Phase.IRI_HANDLING, System.nanoTime() - iriStart);
 
     if (parserConfig.getGraphConf().getHandleMultival() == GRAPHCONF_MULTIVAL_PROP_OVERWRITE) {
       // Ok for single valued props. If applied to multivalued ones
@@ -391,12 +403,16 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
   @Override
   public void handleStatement(Statement st) {
+    long handleStart = System.nanoTime();
+    if (lastStatementHandled != 0) {
+      importMetrics.add(Phase.PARSE, handleStart - lastStatementHandled);
+    }
     IRI predicate = st.getPredicate();
     Resource subject = st.getSubject();
     Value object = st.getObject();
 
 
-    String subjectUri = (subject instanceof BNode? "bnode://" + subject.stringValue(): subject.stringValue());
+    String subjectUri = (subject instanceof BNode? bnodeUri(subject): subject.stringValue());
 
     if (parserConfig.getPredicateExclusionList() == null || !parserConfig
         .getPredicateExclusionList()
@@ -409,17 +425,15 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
         if (!(reifiedStatement.getObject() instanceof Literal ||
             reifiedStatement.getPredicate().equals(RDF.TYPE)) && object instanceof Literal){
             //reified datatype property statements cannot be easily mapped to a PG. Ignore
-          String subjectUri1 = reifiedStatement.getSubject() instanceof BNode? "bnode://" +
-                  reifiedStatement.getSubject().stringValue(): reifiedStatement.getSubject().stringValue();
-          String objectUri1 = reifiedStatement.getObject() instanceof BNode? "bnode://" +
-                  reifiedStatement.getObject().stringValue(): reifiedStatement.getObject().stringValue();
+          String subjectUri1 = reifiedStatement.getSubject() instanceof BNode?
+                  bnodeUri(reifiedStatement.getSubject()): reifiedStatement.getSubject().stringValue();
+          String objectUri1 = reifiedStatement.getObject() instanceof BNode?
+                  bnodeUri((BNode) reifiedStatement.getObject()): reifiedStatement.getObject().stringValue();
 
           addResource(subjectUri1);
           addResource(objectUri1);
-          Statement stmt = vf.createStatement(vf.createIRI(subjectUri1),
-              reifiedStatement.getPredicate(), vf.createIRI(objectUri1));
-          addStatement(stmt);
-          addRelProp(stmt, predicate, (Literal)object);
+          addRelationshipWithProperty(subjectUri1, reifiedStatement.getPredicate(), objectUri1,
+              predicate, (Literal) object);
           mappedTripleCounter++;
         }
       } else if (object instanceof Literal) {
@@ -433,15 +447,16 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
           && predicate.equals(RDF.TYPE)
           && !(object instanceof BNode)) {
 
-        setLabel(subjectUri, handleIRI((IRI) object, LABEL));
+        long iriStart = System.nanoTime();
+        String label = handleIRI((IRI) object, LABEL);
+        importMetrics.add(Phase.IRI_HANDLING, System.nanoTime() - iriStart);
+        setLabel(subjectUri, label);
 
         if (parserConfig.getGraphConf().getHandleRDFTypes()
             == GRAPHCONF_RDFTYPES_AS_LABELS_AND_NODES) {
           addResource(subjectUri);
           addResource(object.stringValue());
-          //addStatement(st);
-          addStatement(vf.createStatement(vf.createIRI(subjectUri),
-                  predicate, object));
+          addRelationship(subjectUri, predicate, object.stringValue());
         }
 
         mappedTripleCounter++;
@@ -450,25 +465,27 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
         //ignore RDF* statements with triples as object
       } else {
         addResource(subjectUri);
-        String objectUri = object instanceof BNode? "bnode://" + object.stringValue(): object.stringValue();
+        String objectUri = object instanceof BNode? bnodeUri((BNode) object): object.stringValue();
         addResource(objectUri);
-        addStatement(vf.createStatement(vf.createIRI(subjectUri),
-                predicate, vf.createIRI(objectUri)));
+        addRelationship(subjectUri, predicate, objectUri);
         mappedTripleCounter++;
       }
     }
     totalTriplesParsed++;
+    lastStatementHandled = System.nanoTime();
+    importMetrics.add(Phase.MAPPING, lastStatementHandled - handleStart);
 
     if (!parserConfig.isUseSingleTx() && parserConfig.getCommitSize() != Long.MAX_VALUE && mappedTripleCounter != 0
         && mappedTripleCounter % parserConfig.getCommitSize() == 0) {
       periodicOperation();
+      lastStatementHandled = System.nanoTime();
     }
   }
 
   protected boolean addRelProp(Statement stmt, IRI predicate, Literal propValueRaw){
 
     Map<String, Object> props;
-    Object propValue = getObjectValue(predicate, propValueRaw);
+    Object propValue = convertLiteral(predicate, propValueRaw);
     if (propValue != null) {
       if (!relProps.containsKey(stmt)) {
         props = initialiseRelProps(relProps,stmt);
@@ -490,10 +507,41 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return parserConfig;
   }
 
+  /**
+   * Makes the processor use a prefix map shared with other processors (several payloads
+   * imported concurrently) instead of loading its own from the DB when the parse starts.
+   */
+  public void shareNamespaces(NsPrefixMap shared) {
+    this.namespaces = shared;
+  }
+
   public Map<String, String> getNamespaces() {
     return (namespaces == null ? null : namespaces.getPrefixToNs());
   }
 
+  /**
+   * Merges the values parsed for a multivalued property with the ones already stored for the
+   * element (currentValue, null if none). The result has set semantics (multivalued props in
+   * RDF). Values with a datatype different from the stored (or first) one are discarded when
+   * strictDataTypeCheck is on, otherwise all values are converted to string.
+   */
+  protected MergedValue mergeMultivalValues(String k, Object currentValue, List<Object> values) {
+    MultivalMerge merge = MultivalMerge.merge(currentValue, values,
+        getParserConfig().isStrictDataTypeCheck(),
+        v -> getValueWithDatatype(getBestGuessDatatype(v.getClass()), v.toString()));
+    if (merge.getConflicting().isEmpty()) {
+      //no discarded elements. all good
+      return new MergedValue(merge.getValue(), 0);
+    }
+    this.datatypeConflictFound |= true;
+    if (getParserConfig().isStrictDataTypeCheck()) {
+      log.warn("The following values for property '" + k + "' have been discarded because of datatype heterogeneity (previously stored values are of type " + merge.getDatatype() + ") : " + merge.getConflicting() );
+      return new MergedValue(merge.getValue(), merge.getConflicting().size());
+    }
+    //all values defaulted to string
+    return new MergedValue(merge.getValue(), 0);
+  }
+
   // Stolen from APOC ;)
   protected Object toPropertyValue(Object value) {
     Iterable it = (Iterable) value;
@@ -504,16 +552,6 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return Iterables.asArray(first.getClass(), it);
   }
 
-  protected List<String> defaultToString(Iterator it) {
-      List<String> list = new ArrayList<>();
-      while(it.hasNext()) {
-        Object next = it.next();
-        list.add(next instanceof String? next.toString(): getValueWithDatatype(getBestGuessDatatype(next.getClass()),next.toString()));
-      }
-    return list;
-
-  }
-
   private IRI getBestGuessDatatype(Class<?> c) {
     if (c.equals(Double.class)){
       return XMLSchema.DOUBLE;
@@ -532,8 +570,29 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
   protected abstract void periodicOperation();
 
+  /**
+   * Releases any resource held by the processor beyond the parse (threads, temp files...).
+   * Called once the import is over, whether it completed or not.
+   */
+  public void close() {
+
+  }
+
+  /**
+   * @return the uri to node cache kept by the loader across partial commits, null if it has none
+   */
+  public NodeIdCache<?> getNodeCache() {
+    return null;
+  }
+
+  public ImportMetrics getImportMetrics() {
+    return importMetrics;
+  }
+
   public String getWarnings() {
-    return loadWarnings.toString() + (datatypeConflictFound?datatypeConflictMessage():"");
+    return loadWarnings.toString() + (datatypeConflictFound?datatypeConflictMessage():"")
+        + (getMalformedLineCount() > 0 ? getMalformedLineCount()
+        + " malformed lines were skipped. Check logs for details." : "");
   }
 
   private String datatypeConflictMessage() {
@@ -546,6 +605,29 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     }
   }
 
+  /**
+   * Result of merging multivalued property values: the value to store and the number of values
+   * discarded because of datatype heterogeneity.
+   */
+  protected static class MergedValue {
+
+    private final Object value;
+    private final int discarded;
+
+    MergedValue(Object value, int discarded) {
+      this.value = value;
+      this.discarded = discarded;
+    }
+
+    public Object getValue() {
+      return value;
+    }
+
+    public int getDiscarded() {
+      return discarded;
+    }
+  }
+
   protected class NamespacePrefixConflict extends RDFHandlerException {
     public NamespacePrefixConflict(String s, Exception  e) {
       super(s,e);
@@ -14,19 +14,43 @@ public class RDFParserConfig {
   private static final long DEFAULT_COMMIT_SIZE = 25000;
   //nodes kept in the cache when writing to disk
   private static final long DEFAULT_NODE_CACHE_SIZE = 10000;
+  //batches waiting to be written when the import is pipelined
+  private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1;
+  //adaptive commits: target duration of a partial commit and transaction memory ceiling
+  private static final long DEFAULT_TARGET_COMMIT_MILLIS = 1000;
+  private static final long DEFAULT_MAX_TX_MEMORY = 256 * 1024 * 1024;
+  //singleTx imports: triples buffered before they are written to the transaction
+  private static final long DEFAULT_SINGLE_TX_BUFFER_SIZE = 0;
+  //files imported at the same time by n10s.rdf.import.fetchAll
+  private static final int DEFAULT_WORKERS = 4;
   //number of triples streamed by default
   private static final int DEFAULT_STREAM_TRIPLE_LIMIT = 1000;
   private final Set<String> predicateExclusionList;
   private final boolean verifyUriSyntax;
   private final long nodeCacheSize;
   private final String languageFilter;
-  private long commitSize;
+  // changes during adaptive imports, read by the parser while the writer sets it
+  private volatile long commitSize;
   private long streamTripleLimit;
   private boolean abortOnError;
   private GraphConfig graphConf;
   private boolean strictDataTypeCheck;
 
   private boolean singleTx;
+  private long singleTxBufferSize;
+  private boolean pipelined;
+  private int parallelism;
+  private int pipelineQueueSize;
+  private boolean skipExistenceCheck;
+  private int parserThreads;
+  private boolean checkpoint;
+  private boolean adaptiveCommit;
+  private long targetCommitMillis;
+  private long maxTxMemory;
+  private boolean parallelDecompression;
+  private boolean ledger;
+  private long expectedTriples;
+  private int workers;
 
   public RDFParserConfig(Map<String, Object> props, GraphConfig gc) {
     this.graphConf = gc;
@@ -51,6 +75,37 @@ public class RDFParserConfig {
             .get("strictDataTypeCheck") : true;
     singleTx = props.containsKey("singleTx") ? (Boolean) props
               .get("singleTx") : false;
+    singleTxBufferSize = props.containsKey("singleTxBufferSize") ? (long) props
+        .get("singleTxBufferSize") : DEFAULT_SINGLE_TX_BUFFER_SIZE;
+    pipelined = props.containsKey("pipelined") ? (Boolean) props
+              .get("pipelined") : false;
+    parallelism = props.containsKey("parallelism") && (long) props
+        .get("parallelism") > 0 ? ((Long) props.get("parallelism")).intValue() : 1;
+    pipelineQueueSize = props.containsKey("pipelineQueueSize") && (long) props
+        .get("pipelineQueueSize") > 0 ? ((Long) props.get("pipelineQueueSize")).intValue()
+        : DEFAULT_PIPELINE_QUEUE_SIZE;
+    skipExistenceCheck = props.containsKey("skipExistenceCheck") ? (Boolean) props
+              .get("skipExistenceCheck") : false;
+    parserThreads = props.containsKey("parserThreads") && (long) props
+        .get("parserThreads") > 0 ? ((Long) props.get("parserThreads")).intValue() : 1;
+    checkpoint = props.containsKey("checkpoint") ? (Boolean) props
+        .get("checkpoint") : false;
+    adaptiveCommit = props.containsKey("adaptiveCommit") ? (Boolean) props
+        .get("adaptiveCommit") : false;
+    targetCommitMillis = props.containsKey("targetCommitMillis") && (long) props
+        .get("targetCommitMillis") > 0 ? (long) props.get("targetCommitMillis")
+        : DEFAULT_TARGET_COMMIT_MILLIS;
+    maxTxMemory = props.containsKey("maxTxMemory") && (long) props.get("maxTxMemory") > 0
+        ? (long) props.get("maxTxMemory") : DEFAULT_MAX_TX_MEMORY;
+    parallelDecompression = props.containsKey("parallelDecompression") ? (Boolean) props
+        .get("parallelDecompression") : false;
+    ledger = props.containsKey("ledger") ? (Boolean) props.get("ledger") : false;
+    //relationships remembered by an import so that repeated triples skip the existence check
+    //(off unless asked for, the table can take a lot of heap)
+    expectedTriples = props.containsKey("expectedTriples") ? (long) props
+        .get("expectedTriples") : 0;
+    workers = props.get("workers") instanceof Long && (long) props.get("workers") > 0
+        ? ((Long) props.get("workers")).intValue() : DEFAULT_WORKERS;
   }
 
   public Set<String> getPredicateExclusionList() {
@@ -65,6 +120,101 @@ public class RDFParserConfig {
     return singleTx;
   }
 
+  /**
+   * @return mapped triples buffered by single transaction imports before they are written to
+   * the transaction (zero or less, the default, to buffer the whole payload). An import that
+   * fails after part of the payload was written fails its transaction instead of reporting KO
+   */
+  public long getSingleTxBufferSize() {
+    return singleTxBufferSize;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public int getPipelineQueueSize() {
+    return pipelineQueueSize;
+  }
+
+  /**
+   * @return true if relationships are created without checking whether they already exist
+   * (append-only loads)
+   */
+  public boolean isSkipExistenceCheck() {
+    return skipExistenceCheck;
+  }
+
+  /**
+   * @return number of threads parsing N-Triples / N-Quads files (one means the Rio parser)
+   */
+  public int getParserThreads() {
+    return parserThreads;
+  }
+
+  /**
+   * @return true if the position of the import is recorded with every partial commit so that
+   * it can be resumed (n10s.rdf.import.resume)
+   */
+  public boolean isCheckpoint() {
+    return checkpoint;
+  }
+
+  /**
+   * @return true if the size of each partial commit is chosen from the duration and memory of
+   * the previous ones, starting from commitSize
+   */
+  public boolean isAdaptiveCommit() {
+    return adaptiveCommit;
+  }
+
+  public long getTargetCommitMillis() {
+    return targetCommitMillis;
+  }
+
+  /**
+   * @return bytes of transaction memory (heap and native, as tracked by the kernel) adaptive
+   * commits stay under
+   */
+  public long getMaxTxMemory() {
+    return maxTxMemory;
+  }
+
+  /**
+   * @return true if compressed payloads (gzip, bzip2) are decompressed on other threads than the
+   * parser's, bzip2 blocks in parallel
+   */
+  public boolean isParallelDecompression() {
+    return parallelDecompression;
+  }
+
+  /**
+   * @return true if inline payloads already applied (with the same params and graph config) are
+   * skipped, and the ones applied are recorded
+   */
+  public boolean isLedger() {
+    return ledger;
+  }
+
+  /**
+   * @return number of files n10s.rdf.import.fetchAll imports at the same time
+   */
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * @return number of relationships the import remembers (created or found) so that triples
+   * repeated in later batches skip the existence check, 0 if none
+   */
+  public long getExpectedTriples() {
+    return expectedTriples;
+  }
+
   public long getCommitSize() {
     return commitSize;
   }
@@ -120,6 +270,56 @@ public class RDFParserConfig {
       summary.put("abortOnError", abortOnError);
     }
 
+    if (singleTx && singleTxBufferSize != DEFAULT_SINGLE_TX_BUFFER_SIZE) {
+      summary.put("singleTxBufferSize", singleTxBufferSize);
+    }
+
+    if (pipelined) {
+      summary.put("pipelined", pipelined);
+    }
+
+    if (parallelism > 1) {
+      summary.put("parallelism", parallelism);
+    }
+
+    if (pipelineQueueSize != DEFAULT_PIPELINE_QUEUE_SIZE) {
+      summary.put("pipelineQueueSize", pipelineQueueSize);
+    }
+
+    if (skipExistenceCheck) {
+      summary.put("skipExistenceCheck", skipExistenceCheck);
+    }
+
+    if (parserThreads > 1) {
+      summary.put("parserThreads", parserThreads);
+    }
+
+    if (checkpoint) {
+      summary.put("checkpoint", checkpoint);
+    }
+
+    if (adaptiveCommit) {
+      summary.put("adaptiveCommit", adaptiveCommit);
+      summary.put("targetCommitMillis", targetCommitMillis);
+      summary.put("maxTxMemory", maxTxMemory);
+    }
+
+    if (parallelDecompression) {
+      summary.put("parallelDecompression", parallelDecompression);
+    }
+
+    if (ledger) {
+      summary.put("ledger", ledger);
+    }
+
+    if (workers != DEFAULT_WORKERS) {
+      summary.put("workers", workers);
+    }
+
+    if (expectedTriples > 0) {
+      summary.put("expectedTriples", expectedTriples);
+    }
+
     if (streamTripleLimit != DEFAULT_STREAM_TRIPLE_LIMIT) {
       summary.put("limit", streamTripleLimit);
     }
@@ -73,6 +73,7 @@ public class OntoProcedures extends CommonProcedures {
         importResults.setConfigSummary(props);
         e.printStackTrace();
       }
+      importResults.addMetrics("nodeCache", ontoImporter.getNodeCache().getStats());
     }
     return importResults;
   }
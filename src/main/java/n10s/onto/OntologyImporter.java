@@ -1,15 +1,11 @@
 package n10s.onto;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
 import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
@@ -48,14 +44,12 @@ public class OntologyImporter extends RDFToLPGStatementProcessor {
   protected Map<BNode,OWLRestriction> allOpenRestrictions = new HashMap<>();
   protected Map<IRI,List<OWLRestriction>> openSubClassRestrictions = new HashMap<>();
   protected Map<IRI,List<OWLRestriction>> openEquivRestrictions = new HashMap<>();
-  Cache<String, Node> nodeCache;
+  NodeIdCache<String> nodeCache;
 
   public OntologyImporter(GraphDatabaseService db, Transaction tx,
       RDFParserConfig conf, Log l) {
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    nodeCache = new NodeIdCache<>(conf.getNodeCacheSize());
   }
 
   @Override
@@ -81,6 +75,8 @@ public class OntologyImporter extends RDFToLPGStatementProcessor {
               + totalTriplesMapped);
       totalTriplesMapped += mappedTripleCounter;
     } catch (Exception e) {
+      // ids of the nodes created in the rolled back transaction can't be trusted anymore
+      nodeCache.invalidateAll();
       log.error("Problems when running partial commit. Partial transaction rolled back. "  + mappedTripleCounter + " triples lost.", e);
       if (getParserConfig().isAbortOnError()){
         throw new PartialCommitException("Problems when running partial commit. Partial transaction rolled back. " , e);
@@ -309,57 +305,36 @@ public class OntologyImporter extends RDFToLPGStatementProcessor {
   public Integer runPartialTx(Transaction inThreadTransaction) {
 
     for (Map.Entry<String, Set<String>> entry : resourceLabels.entrySet()) {
-      try {
-        if (!entry.getValue().isEmpty()) {
-          // if the uri is for an element for which we have not parsed the
-          // onto element type (class, property, rel) then it's an extra-statement
-          // and should be processed when the element in question is parsed
-
-          final Node node;
-          node = nodeCache.get(entry.getKey(), new Callable<Node>() {
-            @Override
-            public Node call() {
-              Node node = inThreadTransaction.findNode(RESOURCE, "uri", entry.getKey());
-              if (node == null) {
-                node = inThreadTransaction.createNode(RESOURCE);
-                node.setProperty("uri", entry.getKey());
-              }
-              return node;
-            }
-          });
-
-          entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
-
-          resourceProps.get(entry.getKey()).forEach((k, v) -> {
-            //node.setProperty(k, v);
-            if (v instanceof List) {
-              Object currentValue = node.getProperty(k, null);
-              if (currentValue == null) {
-                node.setProperty(k, toPropertyValue(v));
-              } else {
-                if (currentValue.getClass().isArray()) {
-                  Object[] properties = (Object[]) currentValue;
-                  for (Object property : properties) {
-                    ((List) v).add(property);
-                    //here an exception can be raised if types are conflicting
-                  }
-                } else {
-                  ((List) v).add(node.getProperty(k));
-                }
-                //we make it a set to remove duplicates. Semantics of multivalued props in RDF.
-                node.setProperty(k,
-                    toPropertyValue(((List) v).stream().collect(Collectors.toSet())));
-              }
-            } else {
-              node.setProperty(k, v);
-            }
-          });
-          //and after processing the props for all uris, then we clear them from resourceProps
-          resourceProps.remove(entry.getKey());
+      if (!entry.getValue().isEmpty()) {
+        // if the uri is for an element for which we have not parsed the
+        // onto element type (class, property, rel) then it's an extra-statement
+        // and should be processed when the element in question is parsed
+
+        final Node node;
+        node = nodeCache.get(inThreadTransaction, entry.getKey(), key -> {
+          Node resource = inThreadTransaction.findNode(RESOURCE, "uri", key);
+          if (resource == null) {
+            resource = inThreadTransaction.createNode(RESOURCE);
+            resource.setProperty("uri", key);
+          }
+          return resource;
+        });
+
+        entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
+
+        resourceProps.get(entry.getKey()).forEach((k, v) -> {
+          //node.setProperty(k, v);
+          if (v instanceof List) {
+            //merged as a set to remove duplicates. Semantics of multivalued props in RDF.
+            node.setProperty(k, mergeMultivalValues(k, node.getProperty(k, null), (List<Object>) v)
+                .getValue());
+          } else {
+            node.setProperty(k, v);
+          }
+        });
+        //and after processing the props for all uris, then we clear them from resourceProps
+        resourceProps.remove(entry.getKey());
 
-        }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
       }
     }
 
@@ -393,111 +368,86 @@ public class OntologyImporter extends RDFToLPGStatementProcessor {
     }
 
     for (Statement st : statements) {
-      try {
-        final Node fromNode = nodeCache.get(st.getSubject().stringValue(), new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            return inThreadTransaction.findNode(RESOURCE, "uri", st.getSubject().stringValue());
-          }
-        });
-
-        final Node toNode = nodeCache.get(st.getObject().stringValue(), new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            return inThreadTransaction.findNode(RESOURCE, "uri", st.getObject().stringValue());
-          }
-        });
-
-        // check if the rel is already present. If so, don't recreate.
-        // explore the node with the lowest degree
-        boolean found = false;
-        if (fromNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
-            Direction.OUTGOING) <
-            toNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
-                Direction.INCOMING)) {
-          for (Relationship rel : fromNode
-              .getRelationships(Direction.OUTGOING,
-                  RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()),RELATIONSHIP)))) {
-            if (rel.getEndNode().equals(toNode)) {
-              found = true;
-              break;
-            }
+      final Node fromNode = nodeCache.get(inThreadTransaction, st.getSubject().stringValue(),
+          key -> inThreadTransaction.findNode(RESOURCE, "uri", key));
+
+      final Node toNode = nodeCache.get(inThreadTransaction, st.getObject().stringValue(),
+          key -> inThreadTransaction.findNode(RESOURCE, "uri", key));
+
+      // check if the rel is already present. If so, don't recreate.
+      // explore the node with the lowest degree
+      boolean found = false;
+      if (fromNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
+          Direction.OUTGOING) <
+          toNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
+              Direction.INCOMING)) {
+        for (Relationship rel : fromNode
+            .getRelationships(Direction.OUTGOING,
+                RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()),RELATIONSHIP)))) {
+          if (rel.getEndNode().equals(toNode)) {
+            found = true;
+            break;
           }
-        } else {
-          for (Relationship rel : toNode
-              .getRelationships(Direction.INCOMING,
-                  RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()),RELATIONSHIP)))) {
-            if (rel.getStartNode().equals(fromNode)) {
-              found = true;
-              break;
-            }
+        }
+      } else {
+        for (Relationship rel : toNode
+            .getRelationships(Direction.INCOMING,
+                RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()),RELATIONSHIP)))) {
+          if (rel.getStartNode().equals(fromNode)) {
+            found = true;
+            break;
           }
         }
+      }
 
-        if (!found) {
-          fromNode.createRelationshipTo(
-              toNode,
-              RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()),RELATIONSHIP)));
-        }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+      if (!found) {
+        fromNode.createRelationshipTo(
+            toNode,
+            RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()),RELATIONSHIP)));
       }
     }
 
     statements.clear();
     resourceLabels.clear();
-    nodeCache.invalidateAll();
     return 0;
   }
 
   private void processRestriction(Transaction tx, IRI c, OWLRestriction rest, int type) {
       //process restriction
-      try {
-        final Node fromNode = nodeCache.get(c.stringValue(), new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            return tx.findNode(RESOURCE, "uri", c.stringValue());
-          }
-        });
+      final Node fromNode = nodeCache.get(tx, c.stringValue(),
+          key -> tx.findNode(RESOURCE, "uri", key));
 
-        final Node toNode = nodeCache.get(rest.getTargetClass().stringValue(), new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            return tx.findNode(RESOURCE, "uri", rest.getTargetClass().stringValue());
-          }
-        });
+      final Node toNode = nodeCache.get(tx, rest.getTargetClass().stringValue(),
+          key -> tx.findNode(RESOURCE, "uri", key));
 
-        //check if an identical restriction exists already, if not create
-        boolean found = false;
-        for (Relationship rel : fromNode
-                .getRelationships(Direction.OUTGOING,
-                        RelationshipType.withName(handleIRI(vf.createIRI(DEFAULT_BASE_SCH_NS +
-                                getRestrictionRelName(type)), RELATIONSHIP)))) {
-          if (rel.getEndNode().equals(toNode)) {
-            found = rel.getProperty("onPropertyURI").equals(rest.getRelName().stringValue()) &&
-                    rel.getProperty("onPropertyName").equals(rest.getRelName().getLocalName()) &&
-                    rel.getProperty("restrictionType").equals(getTypeAsString(rest)) &&
-                    ((!rel.hasProperty("cardinalityVal")&&!rest.isCardinalityConstraint()) ||
-                            (rel.getProperty("cardinalityVal").equals(rest.getCardinalityVal())));
-            break;
-          }
+      //check if an identical restriction exists already, if not create
+      boolean found = false;
+      for (Relationship rel : fromNode
+              .getRelationships(Direction.OUTGOING,
+                      RelationshipType.withName(handleIRI(vf.createIRI(DEFAULT_BASE_SCH_NS +
+                              getRestrictionRelName(type)), RELATIONSHIP)))) {
+        if (rel.getEndNode().equals(toNode)) {
+          found = rel.getProperty("onPropertyURI").equals(rest.getRelName().stringValue()) &&
+                  rel.getProperty("onPropertyName").equals(rest.getRelName().getLocalName()) &&
+                  rel.getProperty("restrictionType").equals(getTypeAsString(rest)) &&
+                  ((!rel.hasProperty("cardinalityVal")&&!rest.isCardinalityConstraint()) ||
+                          (rel.getProperty("cardinalityVal").equals(rest.getCardinalityVal())));
+          break;
         }
+      }
 
-        if (!found) {
-
-          Relationship restrictionRel = fromNode.createRelationshipTo(
-                  toNode,
-                  RelationshipType.withName(handleIRI(vf.createIRI(DEFAULT_BASE_SCH_NS + getRestrictionRelName(type)), RELATIONSHIP)));
-          restrictionRel.setProperty("onPropertyURI", rest.getRelName().stringValue());
-          restrictionRel.setProperty("onPropertyName", rest.getRelName().getLocalName());
-          restrictionRel.setProperty("restrictionType", getTypeAsString(rest));
-          if(rest.isCardinalityConstraint()){
-            restrictionRel.setProperty("cardinalityVal", rest.getCardinalityVal());
-          }
+      if (!found) {
 
+        Relationship restrictionRel = fromNode.createRelationshipTo(
+                toNode,
+                RelationshipType.withName(handleIRI(vf.createIRI(DEFAULT_BASE_SCH_NS + getRestrictionRelName(type)), RELATIONSHIP)));
+        restrictionRel.setProperty("onPropertyURI", rest.getRelName().stringValue());
+        restrictionRel.setProperty("onPropertyName", rest.getRelName().getLocalName());
+        restrictionRel.setProperty("restrictionType", getTypeAsString(rest));
+        if(rest.isCardinalityConstraint()){
+          restrictionRel.setProperty("cardinalityVal", rest.getCardinalityVal());
         }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+
       }
   }
 
@@ -543,4 +493,9 @@ public class OntologyImporter extends RDFToLPGStatementProcessor {
     }
   }
 
+  @Override
+  public NodeIdCache<String> getNodeCache() {
+    return nodeCache;
+  }
+
 }
@@ -0,0 +1,117 @@
+package n10s.quadrdf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import n10s.utils.NodeIdCache;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Resolves context resources to their nodes with index seeks on the core api, instead of a
+ * Cypher query planned for each one. Resources in a named graph are found through the composite
+ * :Resource(uri, graphUri) index. Resources in the default graph have no graphUri (so they are
+ * not in the composite index) and are found through the :Resource(uri) index.
+ *
+ * @see n10s.CommonProcedures#checkIndexExist()
+ */
+final class ContextResourceNodes {
+
+  private static final Label RESOURCE = Label.label("Resource");
+  // sorted keys make consecutive seeks hit neighbouring index pages
+  private static final Comparator<ContextResource> INDEX_ORDER = Comparator
+      .comparing(ContextResource::getUri)
+      .thenComparing(ContextResource::getGraphUri,
+          Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  private ContextResourceNodes() {
+  }
+
+  /**
+   * @return the node of the resource, null if it is not in the graph
+   * @throws IllegalStateException if more than one node matches
+   */
+  static Node find(Transaction tx, ContextResource resource) {
+    Node found = null;
+    try (ResourceIterator<Node> nodes = resource.getGraphUri() != null
+        ? tx.findNodes(RESOURCE, "uri", resource.getUri(), "graphUri", resource.getGraphUri())
+        : tx.findNodes(RESOURCE, "uri", resource.getUri())) {
+      while (nodes.hasNext()) {
+        Node node = nodes.next();
+        if (resource.getGraphUri() == null && node.hasProperty("graphUri")) {
+          continue;
+        }
+        if (found != null) {
+          throw new IllegalStateException(
+              "There are multiple matching nodes for the given properties {uri: "
+                  + resource.getUri() + (resource.getGraphUri() == null ? "}"
+                  : ", graphUri: " + resource.getGraphUri() + "}"));
+        }
+        found = node;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return true if the node is the one of the resource, to check the nodes rebound from cached
+   * ids
+   */
+  static boolean identifies(ContextResource resource, Node node) {
+    return resource.getUri().equals(node.getProperty("uri", null))
+        && Objects.equals(resource.getGraphUri(), node.getProperty("graphUri", null));
+  }
+
+  /**
+   * Resolves all the resources of a batch before anything is written. Cached ids are rebound
+   * first, the rest are looked up in index order and cached.
+   *
+   * @param create true to create the resources not in the graph yet, false to leave out the
+   * ones not in the graph and the ones matching more than one node
+   * @return nodes by resource
+   */
+  static Map<ContextResource, Node> prefetch(Transaction tx, Collection<ContextResource> resources,
+      NodeIdCache<ContextResource> nodeCache, boolean create) {
+    Map<ContextResource, Node> nodes = new HashMap<>(resources.size() * 2);
+    List<ContextResource> notCached = new ArrayList<>();
+    for (ContextResource resource : resources) {
+      Node node = nodeCache.getIfPresent(tx, resource);
+      if (node != null) {
+        nodes.put(resource, node);
+      } else {
+        notCached.add(resource);
+      }
+    }
+    notCached.sort(INDEX_ORDER);
+    for (ContextResource resource : notCached) {
+      Node node;
+      try {
+        node = find(tx, resource);
+      } catch (IllegalStateException e) {
+        if (create) {
+          throw e;
+        }
+        continue;
+      }
+      if (node == null && create) {
+        node = tx.createNode(RESOURCE);
+        node.setProperty("uri", resource.getUri());
+        if (resource.getGraphUri() != null) {
+          node.setProperty("graphUri", resource.getGraphUri());
+        }
+      }
+      if (node != null) {
+        nodes.put(resource, node);
+        nodeCache.put(resource, node.getElementId());
+      }
+    }
+    return nodes;
+  }
+
+}
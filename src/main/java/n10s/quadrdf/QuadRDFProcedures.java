@@ -7,6 +7,7 @@ import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.RDFParserConfig;
 import n10s.rdf.RDFProcedures.DeleteResults;
 import n10s.rdf.RDFProcedures.ImportResults;
+import n10s.rdf.load.ImportLedger;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
@@ -53,7 +54,10 @@ public class QuadRDFProcedures extends CommonProcedures {
         importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
         importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
         importResults.setConfigSummary(props);
+      } finally {
+        statementLoader.close();
       }
+      importResults.addMetrics("nodeCache", statementLoader.getNodeCache().getStats());
     }
 
     return importResults;
@@ -88,6 +92,8 @@ public class QuadRDFProcedures extends CommonProcedures {
     if (statementDeleter != null) {
 
       try {
+        // payloads applied before may be partly undone, they can't be skipped anymore
+        ImportLedger.clear(tx);
         parseRDFPayloadOrFromUrl(rdfFormat, url, rdfFragment, props, statementDeleter);
         deleteResults.setTriplesDeleted(statementDeleter.totalTriplesMapped -
             statementDeleter.getNotDeletedStatementCount());
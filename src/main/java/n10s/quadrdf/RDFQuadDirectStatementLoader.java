@@ -2,18 +2,26 @@ package n10s.quadrdf;
 
 import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.neo4j.graphdb.Direction;
@@ -22,7 +30,6 @@ import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 
@@ -34,198 +41,77 @@ import org.neo4j.logging.Log;
 
 public class RDFQuadDirectStatementLoader extends RDFQuadToLPGStatementProcessor {
 
-  private static final Label RESOURCE = Label.label("Resource");
-  private Cache<ContextResource, Node> nodeCache;
+  private NodeIdCache<ContextResource> nodeCache;
+  // parallel imports: one writer per lane, the quads of a named graph always go to the same lane
+  private final ExecutorService[] graphWriters;
+  // partitions queued or being written, the parser waits when the writers fall behind
+  private final Semaphore partitionsInFlight;
+  // triples of the current batch by lane, counted once the partition of the lane is committed
+  private final long[] mappedByLane;
+  private final AtomicLong committedTriples = new AtomicLong();
+  private final AtomicReference<Exception> writerFailure = new AtomicReference<>();
 
   public RDFQuadDirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
       Log l) {
 
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    nodeCache = new NodeIdCache<>(conf.getNodeCacheSize(), ContextResourceNodes::identifies);
+    if (conf.getParallelism() > 1) {
+      graphWriters = new ExecutorService[conf.getParallelism()];
+      for (int i = 0; i < graphWriters.length; i++) {
+        graphWriters[i] = Executors.newSingleThreadExecutor(r -> {
+          Thread t = new Thread(r, "n10s-quad-graph-writer");
+          t.setDaemon(true);
+          return t;
+        });
+      }
+      partitionsInFlight = new Semaphore(conf.getParallelism() * 2);
+      mappedByLane = new long[conf.getParallelism()];
+    } else {
+      graphWriters = null;
+      partitionsInFlight = null;
+      mappedByLane = null;
+    }
   }
 
   @Override
   public void endRDF() throws RDFHandlerException {
 
     periodicOperation();
+    if (graphWriters != null) {
+      awaitGraphWriters();
+      totalTriplesMapped = committedTriples.get();
+      throwIfWriterFailed();
+    }
     log.debug("Import complete: " + totalTriplesMapped + "  triples ingested out of "
         + totalTriplesParsed + " parsed");
   }
 
-
-  public Integer runPartialTx(Transaction txInThread) {
-    int count = 0;
-
-    for (Map.Entry<ContextResource, Set<String>> entry : resourceLabels.entrySet()) {
-      try {
-        final Node node = nodeCache.get(entry.getKey(), new Callable<Node>() {
-          @Override
-          public Node call() {
-            Node node = null;
-            Map<String, Object> params = new HashMap<>();
-            String cypher = buildCypher(entry.getKey().getUri(),
-                entry.getKey().getGraphUri(),
-                params);
-            Result result = txInThread.execute(cypher, params);
-            if (result.hasNext()) {
-              node = (Node) result.next().get("n");
-              if (result.hasNext()) {
-                String props =
-                    "{uri: " + entry.getKey().getUri() +
-                        (entry.getKey().getGraphUri() == null ? "}" :
-                            ", graphUri: " + entry.getKey().getGraphUri() + "}");
-                throw new IllegalStateException(
-                    "There are multiple matching nodes for the given properties " + props);
-              }
-            }
-            if (node == null) {
-              node = txInThread.createNode(RESOURCE);
-              node.setProperty("uri", entry.getKey().getUri());
-              if (entry.getKey().getGraphUri() != null) {
-                node.setProperty("graphUri", entry.getKey().getGraphUri());
-              }
-            }
-            return node;
-          }
-        });
-
-        entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
-        resourceProps.get(entry.getKey()).forEach((k, v) -> {
-          if (v instanceof List) {
-            Object currentValue = node.getProperty(k, null);
-            if (currentValue == null) {
-              node.setProperty(k, toPropertyValue(v));
-            } else {
-              if (currentValue.getClass().isArray()) {
-                Object[] properties = (Object[]) currentValue;
-                for (int i = 0; i < properties.length; i++) {
-                  ((List) v).add(properties[i]);
-                  //here an exception can be raised if types are conflicting
-                }
-              } else {
-                ((List) v).add(node.getProperty(k));
-              }
-              //we make it a set to remove duplicates. Semantics of multivalued props in RDF.
-              node.setProperty(k, toPropertyValue(((List) v).stream().collect(Collectors.toSet())));
-            }
-          } else {
-            node.setProperty(k, v);
-          }
-        });
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+  @Override
+  public void close() {
+    if (graphWriters != null) {
+      for (ExecutorService writer : graphWriters) {
+        writer.shutdownNow();
       }
     }
+  }
 
-    for (Statement st : statements) {
-      try {
-        ContextResource from = new ContextResource(st.getSubject().stringValue(),
-            st.getContext() != null ? st.getContext().stringValue() : null);
-        final Node fromNode = nodeCache.get(from, new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            Node node;
-            Map<String, Object> params = new HashMap<>();
-            String cypher = buildCypher(st.getSubject().stringValue(),
-                st.getContext() != null ? st.getContext().stringValue() : null,
-                params);
-            Result result = txInThread.execute(cypher, params);
-            if (result.hasNext()) {
-              node = (Node) result.next().get("n");
-              if (result.hasNext()) {
-                String props =
-                    "{uri: " + st.getSubject().stringValue() +
-                        (st.getContext() == null ? "}" :
-                            ", graphUri: " + st.getContext().stringValue() + "}");
-                throw new IllegalStateException(
-                    "There are multiple matching nodes for the given properties " + props);
-              }
-            } else {
-              throw new NoSuchElementException(
-                  "There exists no node with \"uri\": " + st.getSubject().stringValue()
-                      + " and \"graphUri\": " + st.getContext().stringValue());
-            }
-            return node;
-          }
-        });
-        ContextResource to = new ContextResource(st.getObject().stringValue(),
-            st.getContext() != null ? st.getContext().stringValue() : null);
-        final Node toNode = nodeCache.get(to, new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            Node node;
-            Map<String, Object> params = new HashMap<>();
-            String cypher = buildCypher(st.getObject().stringValue(),
-                st.getContext() != null ? st.getContext().stringValue() : null,
-                params);
-            Result result = txInThread.execute(cypher, params);
-            if (result.hasNext()) {
-              node = (Node) result.next().get("n");
-              if (result.hasNext()) {
-                String props =
-                    "{uri: " + st.getObject().stringValue() +
-                        (st.getContext() == null ? "}" :
-                            ", graphUri: " + st.getContext().stringValue() + "}");
-                throw new IllegalStateException(
-                    "There are multiple matching nodes for the given properties " + props);
-              }
-            } else {
-              throw new NoSuchElementException(
-                  "There exists no node with \"uri\": " + st.getSubject().stringValue()
-                      + " and \"graphUri\": " + st.getContext().stringValue());
-            }
-            return node;
-          }
-        });
-
-        // check if the rel is already present. If so, don't recreate.
-        // explore the node with the lowest degree
-        boolean found = false;
-        if (fromNode.getDegree(RelationshipType
-                .withName(handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)),
-            Direction.OUTGOING) <
-            toNode.getDegree(RelationshipType
-                    .withName(handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)),
-                Direction.INCOMING)) {
-          for (Relationship rel : fromNode
-              .getRelationships(Direction.OUTGOING,
-                  RelationshipType.withName(
-                      handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)))) {
-            if (rel.getEndNode().equals(toNode)) {
-              found = true;
-              break;
-            }
-          }
-        } else {
-          for (Relationship rel : toNode
-              .getRelationships(Direction.INCOMING,
-                  RelationshipType.withName(
-                      handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)))) {
-            if (rel.getStartNode().equals(fromNode)) {
-              found = true;
-              break;
-            }
-          }
-        }
-
-        if (!found) {
-          fromNode.createRelationshipTo(
-              toNode,
-              RelationshipType
-                  .withName(handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)));
-        }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
-      }
+  @Override
+  protected void tripleMapped(Resource context) {
+    super.tripleMapped(context);
+    if (mappedByLane != null) {
+      mappedByLane[laneOf(context != null ? context.stringValue() : null)]++;
     }
+  }
+
+  public Integer runPartialTx(Transaction txInThread) {
+    writeQuads(txInThread, resourceLabels, resourceProps, statements, predicate -> RelationshipType
+        .withName(handleIRI(predicate, RDFToLPGStatementProcessor.RELATIONSHIP)));
 
     statements.clear();
     resourceLabels.clear();
     resourceProps.clear();
     relProps.clear();
-    nodeCache.invalidateAll();
     Integer result = 0;
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
       result = namespaces.partialRefresh(txInThread);
@@ -234,32 +120,219 @@ public class RDFQuadDirectStatementLoader extends RDFQuadToLPGStatementProcessor
     return result;
   }
 
+  private void writeQuads(Transaction txInThread, Map<ContextResource, Set<String>> labels,
+      Map<ContextResource, Map<String, Object>> props, Collection<Statement> quads,
+      Function<IRI, RelationshipType> relationshipTypes) {
+    Map<ContextResource, Node> batchNodes = ContextResourceNodes
+        .prefetch(txInThread, labels.keySet(), nodeCache, true);
+
+    for (Map.Entry<ContextResource, Set<String>> entry : labels.entrySet()) {
+      final Node node = batchNodes.get(entry.getKey());
+      entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
+      props.get(entry.getKey()).forEach((k, v) -> {
+        if (v instanceof List) {
+          //merged as a set to remove duplicates. Semantics of multivalued props in RDF.
+          node.setProperty(k, mergeMultivalValues(k, node.getProperty(k, null), (List<Object>) v)
+              .getValue());
+        } else {
+          node.setProperty(k, v);
+        }
+      });
+    }
+
+    for (Statement st : quads) {
+      String graphUri = st.getContext() != null ? st.getContext().stringValue() : null;
+      // both ends are resources of the batch
+      Node fromNode = batchNodes.get(new ContextResource(st.getSubject().stringValue(), graphUri));
+      Node toNode = batchNodes.get(new ContextResource(st.getObject().stringValue(), graphUri));
+      RelationshipType type = relationshipTypes.apply(st.getPredicate());
+
+      // check if the rel is already present. If so, don't recreate.
+      // explore the node with the lowest degree
+      boolean found = false;
+      if (fromNode.getDegree(type, Direction.OUTGOING)
+          < toNode.getDegree(type, Direction.INCOMING)) {
+        for (Relationship rel : fromNode.getRelationships(Direction.OUTGOING, type)) {
+          if (rel.getEndNode().equals(toNode)) {
+            found = true;
+            break;
+          }
+        }
+      } else {
+        for (Relationship rel : toNode.getRelationships(Direction.INCOMING, type)) {
+          if (rel.getStartNode().equals(fromNode)) {
+            found = true;
+            break;
+          }
+        }
+      }
+
+      if (!found) {
+        fromNode.createRelationshipTo(toNode, type);
+      }
+    }
+  }
+
 
   @Override
   protected void periodicOperation() {
 
+    // parallel imports: relationship types are named (and their prefixes added) before the
+    // namespaces are synced, the writers don't touch the namespaces
+    Map<IRI, RelationshipType> relationshipTypes = null;
+    if (graphWriters != null) {
+      relationshipTypes = new HashMap<>();
+      for (Statement st : statements) {
+        relationshipTypes.computeIfAbsent(st.getPredicate(), p -> RelationshipType
+            .withName(handleIRI(p, RDFToLPGStatementProcessor.RELATIONSHIP)));
+      }
+    }
+
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
       try (Transaction tempTransaction = graphdb.beginTx()) {
         namespaces.partialRefresh(tempTransaction);
         tempTransaction.commit();
         log.debug("namespace prefixes synced: " + namespaces.toString());
       }catch (Exception e) {
-        e.printStackTrace();
+        log.error("Problems syncing up namespace prefixes in partial commit. ", e);
       }
     }
 
-    try (Transaction tempTransaction = graphdb.beginTx()) {
-      this.runPartialTx(tempTransaction);
-      tempTransaction.commit();
-      log.debug("partial commit: " + mappedTripleCounter + " triples ingested. Total so far: "
-          + totalTriplesMapped);
-    }catch (Exception e) {
-      e.printStackTrace();
+    if (graphWriters != null) {
+      writeByGraph(relationshipTypes);
+      // partitions still being written are counted when they commit
+      totalTriplesMapped = committedTriples.get();
+    } else {
+      try (Transaction tempTransaction = graphdb.beginTx()) {
+        this.runPartialTx(tempTransaction);
+        tempTransaction.commit();
+        totalTriplesMapped += mappedTripleCounter;
+        log.debug("partial commit: " + mappedTripleCounter + " triples ingested. Total so far: "
+            + totalTriplesMapped);
+      }catch (Exception e) {
+        // ids of the nodes created in the rolled back transaction can't be trusted anymore
+        nodeCache.invalidateAll();
+        log.error("Problems when running partial commit. Partial transaction rolled back. "
+            + mappedTripleCounter + " triples lost.", e);
+      }
     }
 
-    totalTriplesMapped += mappedTripleCounter;
     mappedTripleCounter = 0;
 
   }
 
+  /**
+   * Splits the batch by named graph and hands each partition to the writer of its graph, where
+   * it is committed on its own. Nodes are keyed by uri and graph uri, so partitions of different
+   * graphs never touch the same nodes (or relationships) and writers don't need to lock anything.
+   * The writer of a graph writes its partitions in order, while the parser moves on to the next
+   * batch. The triples of a partition are counted once it is committed. A partition that fails
+   * fails the import (unless abortOnError is false, then its triples are just not counted): the
+   * parser stops at the next batch, or once the last partitions are written.
+   */
+  private void writeByGraph(Map<IRI, RelationshipType> relationshipTypes) {
+    throwIfWriterFailed();
+    GraphPartition[] partitions = new GraphPartition[graphWriters.length];
+    for (Map.Entry<ContextResource, Set<String>> entry : resourceLabels.entrySet()) {
+      GraphPartition partition = partitionOf(partitions, entry.getKey().getGraphUri());
+      partition.labels.put(entry.getKey(), entry.getValue());
+      partition.props.put(entry.getKey(), resourceProps.get(entry.getKey()));
+    }
+    for (Statement st : statements) {
+      partitionOf(partitions, st.getContext() != null ? st.getContext().stringValue() : null)
+          .quads.add(st);
+    }
+    for (int lane = 0; lane < partitions.length; lane++) {
+      if (partitions[lane] != null) {
+        partitions[lane].mappedTriples = mappedByLane[lane];
+      }
+      mappedByLane[lane] = 0;
+    }
+    statements = new HashSet<>();
+    resourceLabels = new HashMap<>();
+    resourceProps = new HashMap<>();
+    relProps.clear();
+
+    for (int lane = 0; lane < partitions.length; lane++) {
+      GraphPartition partition = partitions[lane];
+      if (partition == null) {
+        continue;
+      }
+      try {
+        partitionsInFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RDFHandlerException("Interrupted while waiting for the graph writers", e);
+      }
+      graphWriters[lane].execute(() -> {
+        try (Transaction tempTransaction = graphdb.beginTx()) {
+          writeQuads(tempTransaction, partition.labels, partition.props, partition.quads,
+              relationshipTypes::get);
+          tempTransaction.commit();
+          committedTriples.addAndGet(partition.mappedTriples);
+        } catch (Exception e) {
+          // ids of the nodes created in the rolled back transaction can't be trusted anymore
+          nodeCache.invalidateAll();
+          log.error("Problems when writing a partition of named graphs. Partial transaction "
+              + "rolled back. " + partition.mappedTriples + " triples lost.", e);
+          writerFailure.compareAndSet(null, e);
+        } finally {
+          partitionsInFlight.release();
+        }
+      });
+    }
+  }
+
+  private GraphPartition partitionOf(GraphPartition[] partitions, String graphUri) {
+    int lane = laneOf(graphUri);
+    if (partitions[lane] == null) {
+      partitions[lane] = new GraphPartition();
+    }
+    return partitions[lane];
+  }
+
+  private int laneOf(String graphUri) {
+    return Math.floorMod(Objects.hashCode(graphUri), graphWriters.length);
+  }
+
+  private void throwIfWriterFailed() {
+    Exception failure = writerFailure.get();
+    if (failure != null && getParserConfig().isAbortOnError()) {
+      // the partitions already handed over are written (and counted) before reporting
+      awaitGraphWriters();
+      totalTriplesMapped = committedTriples.get();
+      throw new PartialCommitException("Problems when writing a partition of named graphs. "
+          + "Partial transaction rolled back. ", failure);
+    }
+  }
+
+  private void awaitGraphWriters() {
+    for (ExecutorService writer : graphWriters) {
+      writer.shutdown();
+    }
+    try {
+      for (ExecutorService writer : graphWriters) {
+        while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+          // keep waiting, the last partitions are being committed
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RDFHandlerException("Interrupted while waiting for the graph writers", e);
+    }
+  }
+
+  @Override
+  public NodeIdCache<ContextResource> getNodeCache() {
+    return nodeCache;
+  }
+
+  private static class GraphPartition {
+
+    private final Map<ContextResource, Set<String>> labels = new HashMap<>();
+    private final Map<ContextResource, Map<String, Object>> props = new HashMap<>();
+    private final List<Statement> quads = new ArrayList<>();
+    private long mappedTriples;
+  }
+
 }
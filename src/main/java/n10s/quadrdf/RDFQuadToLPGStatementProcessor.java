@@ -62,7 +62,7 @@ abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor
       if (object instanceof Literal) {
         if (setProp(sub, predicate, (Literal) object)) {
           // property may be filtered because of lang filter hence the conditional increment.
-          mappedTripleCounter++;
+          tripleMapped(context);
         }
       } else if ((parserConfig.getGraphConf().getHandleRDFTypes() == GRAPHCONF_RDFTYPES_AS_LABELS
           && predicate.equals(RDF.TYPE) ||
@@ -78,12 +78,12 @@ abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor
           addStatement(st);
         }
 
-        mappedTripleCounter++;
+        tripleMapped(context);
       } else {
         addResource(sub);
         addResource(obj);
         addStatement(st);
-        mappedTripleCounter++;
+        tripleMapped(context);
       }
     }
     totalTriplesParsed++;
@@ -94,6 +94,15 @@ abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor
     }
   }
 
+  /**
+   * Counts a triple mapped into the current batch.
+   *
+   * @param context named graph of the triple, null for the default graph
+   */
+  protected void tripleMapped(Resource context) {
+    mappedTripleCounter++;
+  }
+
   protected abstract void periodicOperation();
 
   String buildCypher(String uri, String graphUri, Map<String, Object> params) {
@@ -9,13 +9,22 @@ import static n10s.graphconfig.Params.SHORTENED_URI_PATTERN;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import n10s.CommonProcedures;
 import n10s.ConfiguredStatementHandler.TripleLimitReached;
@@ -24,17 +33,27 @@ import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.GraphConfig.InvalidParamException;
 import n10s.graphconfig.RDFParserConfig;
 import n10s.rdf.delete.DirectStatementDeleter;
+import n10s.rdf.export.LPGRDFToRDFProcesssor;
 import n10s.rdf.load.DirectNodeAdder;
 import n10s.rdf.load.DirectRelationshipAdder;
 import n10s.rdf.load.DirectStatementLoader;
+import n10s.rdf.load.ImportCheckpoint;
+import n10s.rdf.load.ImportCheckpoint.InvalidCheckpoint;
+import n10s.rdf.load.ImportLedger;
+import n10s.rdf.load.PipelinedStatementLoader;
 import n10s.rdf.preview.StatementPreviewer;
 import n10s.rdf.stream.StarFormatStatementStreamer;
 import n10s.rdf.stream.StatementStreamer;
+import n10s.rdf.sync.SnapshotDiff;
 import n10s.result.GraphResult;
 import n10s.result.StreamedStatement;
 import n10s.utils.InvalidNamespacePrefixDefinitionInDB;
+import n10s.utils.NodeIdCache;
 import n10s.utils.NsPrefixMap;
+import n10s.utils.ParallelNTriplesParser;
+import n10s.utils.ServerDirectories;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.util.URIUtil;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
@@ -43,6 +62,7 @@ import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.QueryExecutionException;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.procedure.Description;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.UserFunction;
@@ -57,10 +77,22 @@ public class RDFProcedures extends CommonProcedures {
 
   protected ImportResults doImport(String format, String url,
       String rdfFragment, Map<String, Object> props, boolean reuseCurrentTx) {
+    return doImport(format, url, rdfFragment, props, reuseCurrentTx, null);
+  }
+
+  /**
+   * @param resumeFrom checkpoint of the import to resume, null for a new import
+   */
+  protected ImportResults doImport(String format, String url,
+      String rdfFragment, Map<String, Object> props, boolean reuseCurrentTx,
+      ImportCheckpoint resumeFrom) {
 
     DirectStatementLoader statementLoader = null;
     RDFParserConfig conf = null;
     RDFFormat rdfFormat = null;
+    ImportCheckpoint checkpoint = null;
+    String ledgerKey = null;
+    boolean seek = false;
     ImportResults importResults = new ImportResults();
     try {
       checkConstraintExist();
@@ -69,35 +101,303 @@ public class RDFProcedures extends CommonProcedures {
       }
       conf = new RDFParserConfig(props, new GraphConfig(tx));
       rdfFormat = getFormat(format);
-      statementLoader = new DirectStatementLoader(db, tx, conf, log);
+      if (conf.isLedger()) {
+        if (rdfFragment == null) {
+          throw new RDFImportBadParams("The import ledger is only kept for inline payloads");
+        }
+        ledgerKey = ImportLedger.key(tx, format, props, rdfFragment);
+        Map<String, Object> applied = ImportLedger.find(tx, ledgerKey);
+        if (applied != null) {
+          importResults.setSkipped("An identical payload was already imported on "
+              + applied.get("applied") + " with the same params and graph config");
+          importResults.setConfigSummary(props);
+          return importResults;
+        }
+      }
+      if (resumeFrom != null || conf.isCheckpoint()) {
+        if (url == null || conf.isUseSingleTx()) {
+          throw new RDFImportBadParams("Checkpoints are only recorded for imports from an url "
+              + "with partial commits (singleTx: false)");
+        }
+        checkpoint = (resumeFrom != null ? resumeFrom
+            : ImportCheckpoint.create(db, url, format, props,
+                ParallelNTriplesParser.newBNodePrefix()));
+        // the line based parser skips malformed lines where Rio aborts, so it is only used when
+        // asked for (parserThreads) or to resume an import it checkpointed
+        seek = ParallelNTriplesParser.canSeek(url, rdfFormat)
+            && (conf.getParserThreads() > 1 || checkpoint.getByteOffset() > 0);
+      }
+      statementLoader = (conf.isPipelined() && !conf.isUseSingleTx()
+          ? new PipelinedStatementLoader(db, tx, conf, log)
+          : new DirectStatementLoader(db, tx, conf, log));
+      if (checkpoint != null) {
+        statementLoader.setCheckpoint(checkpoint, seek);
+        importResults.setCheckpointId(checkpoint.getId());
+      }
     } catch (RDFImportPreRequisitesNotMet e) {
       importResults.setTerminationKO(e.getMessage());
     } catch (GraphConfig.GraphConfigNotFound e) {
       importResults
           .setTerminationKO("A Graph Config is required for RDF importing procedures to run");
-    } catch (RDFImportBadParams e) {
+    } catch (RDFImportBadParams | InvalidCheckpoint e) {
       importResults.setTerminationKO(e.getMessage());
     }
 
     if (statementLoader != null) {
       try {
-        parseRDFPayloadOrFromUrl(rdfFormat, url, rdfFragment, props, statementLoader);
+        if (seek) {
+          parseFromOffset(rdfFormat, url, checkpoint.getByteOffset(),
+              checkpoint.getBNodePrefix(), statementLoader);
+        } else {
+          parseRDFPayloadOrFromUrl(rdfFormat, url, rdfFragment, props, statementLoader);
+        }
         importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
         importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
         importResults.setNamespaces(statementLoader.getNamespaces());
         importResults.setConfigSummary(props);
         importResults.setExtraInfo(statementLoader.getWarnings());
+        if (checkpoint != null) {
+          checkpoint.finish(db, ImportCheckpoint.STATUS_COMPLETE, null);
+        }
+        if (ledgerKey != null) {
+          recordInLedger(ledgerKey, statementLoader, conf.isUseSingleTx());
+        }
 
       } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+        if (statementLoader.isPartiallyWritten()) {
+          // reporting KO would commit the part of the payload already in the transaction
+          throw new RuntimeException("Import failed after part of the payload had been written "
+              + "to the transaction: " + e.getMessage());
+        }
         importResults.setTerminationKO(e.getMessage());
+        importResults.setConfigSummary(props);
+      } finally {
+        statementLoader.close();
+      }
+      if (importResults.terminationStatus.equals("KO")) {
+        // counters read once any batch still being written is done
         importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
         importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
-        importResults.setConfigSummary(props);
+        if (checkpoint != null) {
+          checkpoint.finish(db, ImportCheckpoint.STATUS_FAILED, importResults.extraInfo);
+        }
+      }
+      if (statementLoader instanceof PipelinedStatementLoader) {
+        importResults.addMetrics("pipeline",
+            ((PipelinedStatementLoader) statementLoader).getPipelineMetrics());
+      }
+      importResults.addMetrics("nodeCache", statementLoader.getNodeCache().getStats());
+      if (statementLoader.getAdaptiveCommitStats() != null) {
+        importResults.addMetrics("adaptiveCommit", statementLoader.getAdaptiveCommitStats());
+      }
+      importResults.addMetrics("blankNodes", statementLoader.getBlankNodeStats());
+      if (statementLoader.getImportedRelationshipsStats() != null) {
+        importResults.addMetrics("importedRelationships",
+            statementLoader.getImportedRelationshipsStats());
       }
+      statementLoader.getImportMetrics().getStats(statementLoader.totalTriplesParsed)
+          .forEach(importResults::addMetrics);
     }
     return importResults;
   }
 
+  /**
+   * Records a payload applied, in the transaction it was written to (single transaction imports)
+   * or in its own one once all its partial commits are done.
+   */
+  private void recordInLedger(String ledgerKey, DirectStatementLoader statementLoader,
+      boolean singleTx) {
+    if (singleTx) {
+      ImportLedger.record(tx, ledgerKey, statementLoader.totalTriplesParsed,
+          statementLoader.totalTriplesMapped);
+    } else {
+      // waits for any batch still being written (pipelined imports)
+      statementLoader.close();
+      try (Transaction ledgerTx = db.beginTx()) {
+        ImportLedger.record(ledgerTx, ledgerKey, statementLoader.totalTriplesParsed,
+            statementLoader.totalTriplesMapped);
+        ledgerTx.commit();
+      }
+    }
+  }
+
+  /**
+   * Resumes an import from the last partial commit recorded in its checkpoint, with the same
+   * params, provided the graph config has not changed since.
+   */
+  protected ImportResults doResume(String checkpointId) {
+    ImportResults importResults = new ImportResults();
+    ImportCheckpoint checkpoint;
+    try {
+      checkpoint = ImportCheckpoint.load(tx, checkpointId);
+    } catch (InvalidCheckpoint e) {
+      importResults.setTerminationKO(e.getMessage());
+      return importResults;
+    }
+    importResults.setCheckpointId(checkpointId);
+    if (checkpoint.getStatus().equals(ImportCheckpoint.STATUS_COMPLETE)) {
+      importResults.setTriplesLoaded(checkpoint.getTriplesLoaded());
+      importResults.setTriplesParsed(checkpoint.getTriplesParsed());
+      importResults.setExtraInfo("The import was already complete");
+      return importResults;
+    }
+    if (!checkpoint.getConfigHash().equals(ImportCheckpoint.configHash(tx,
+        checkpoint.getFormat(), checkpoint.getParams()))) {
+      importResults.setTerminationKO("The Graph Config has changed since the import was "
+          + "checkpointed. It can't be resumed");
+      return importResults;
+    }
+    return doImport(checkpoint.getFormat(), checkpoint.getUrl(), null, checkpoint.getParams(),
+        false, checkpoint);
+  }
+
+  /**
+   * Imports every file in a directory (or matching a glob) with a pool of workers, each file in
+   * its own sequence of partial commits. The namespace prefix map and the uri to node id cache
+   * are shared by all the files, so a resource created by one of them is not looked up again by
+   * the others.
+   */
+  protected ImportAllResults doImportAll(String format, String globOrDirectory,
+      Map<String, Object> props) {
+
+    ImportAllResults results = new ImportAllResults();
+    List<String> urls = null;
+    GraphConfig graphConfig = null;
+    RDFFormat rdfFormat = null;
+    NsPrefixMap sharedNamespaces = null;
+    NodeIdCache<String> sharedNodeCache = null;
+    int workers = 1;
+    props = new HashMap<>(props);
+    try {
+      checkConstraintExist();
+      // each file is committed in its own transactions, the current one is not shared
+      if (Boolean.TRUE.equals(props.get("singleTx"))) {
+        throw new RDFImportBadParams("Files are imported concurrently, each with its own "
+            + "partial commits: singleTx is not supported");
+      }
+      props.put("singleTx", false);
+      if (props.containsKey("workers") && !(props.get("workers") instanceof Long
+          && (long) props.get("workers") > 0)) {
+        throw new RDFImportBadParams("'workers' must be a positive integer");
+      }
+      graphConfig = new GraphConfig(tx);
+      RDFParserConfig conf = new RDFParserConfig(props, graphConfig);
+      rdfFormat = getFormat(format);
+      workers = conf.getWorkers();
+      urls = resolveFiles(globOrDirectory);
+      if (graphConfig.getHandleVocabUris() == GraphConfig.GRAPHCONF_VOC_URI_SHORTEN ||
+          graphConfig.getHandleVocabUris() == GraphConfig.GRAPHCONF_VOC_URI_SHORTEN_STRICT) {
+        sharedNamespaces = new NsPrefixMap(tx, false);
+      }
+      sharedNodeCache = new NodeIdCache<>(conf.getNodeCacheSize());
+    } catch (RDFImportPreRequisitesNotMet | RDFImportBadParams e) {
+      results.setTerminationKO(e.getMessage());
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      results.setTerminationKO("A Graph Config is required for RDF importing procedures to run");
+    } catch (InvalidNamespacePrefixDefinitionInDB | IOException e) {
+      results.setTerminationKO(e.getMessage());
+    }
+
+    if (urls != null) {
+      ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers,
+          Math.max(urls.size(), 1)), r -> {
+        Thread t = new Thread(r, "n10s-import-file-worker");
+        t.setDaemon(true);
+        return t;
+      });
+      List<Future<ImportResults>> perFile = new ArrayList<>(urls.size());
+      Map<String, Object> fileProps = props;
+      for (String url : urls) {
+        RDFFormat fileFormat = rdfFormat;
+        GraphConfig fileGraphConfig = graphConfig;
+        NsPrefixMap namespaces = sharedNamespaces;
+        NodeIdCache<String> nodeCache = sharedNodeCache;
+        perFile.add(pool.submit(() -> importFile(fileFormat, url, new HashMap<>(fileProps),
+            fileGraphConfig, namespaces, nodeCache)));
+      }
+      pool.shutdown();
+      for (int i = 0; i < urls.size(); i++) {
+        try {
+          results.addFileResults(urls.get(i), perFile.get(i).get());
+        } catch (ExecutionException e) {
+          // the file fails, the others are reported as usual
+          ImportResults failed = new ImportResults();
+          failed.setTerminationKO(e.getCause().getMessage());
+          results.addFileResults(urls.get(i), failed);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          pool.shutdownNow();
+          results.setTerminationKO("Interrupted while importing " + urls.get(i));
+          break;
+        }
+      }
+      if (sharedNamespaces != null) {
+        results.setNamespaces(new HashMap<>(sharedNamespaces.getPrefixToNs()));
+      }
+      results.addMetrics("nodeCache", sharedNodeCache.getStats());
+      results.setConfigSummary(props);
+    }
+    return results;
+  }
+
+  private ImportResults importFile(RDFFormat rdfFormat, String url, Map<String, Object> props,
+      GraphConfig graphConfig, NsPrefixMap namespaces, NodeIdCache<String> nodeCache)
+      throws RDFImportBadParams {
+    RDFParserConfig conf = new RDFParserConfig(props, graphConfig);
+    DirectStatementLoader statementLoader = (conf.isPipelined()
+        ? new PipelinedStatementLoader(db, null, conf, log, nodeCache)
+        : new DirectStatementLoader(db, null, conf, log, nodeCache));
+    statementLoader.shareNamespaces(namespaces);
+    ImportResults importResults = new ImportResults();
+    try {
+      parseRDFPayloadOrFromUrl(rdfFormat, url, null, props, statementLoader);
+      importResults.setExtraInfo(statementLoader.getWarnings());
+    } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+      importResults.setTerminationKO(e.getMessage());
+    } finally {
+      statementLoader.close();
+    }
+    importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
+    importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
+    statementLoader.getImportMetrics().getStats(statementLoader.totalTriplesParsed)
+        .forEach(importResults::addMetrics);
+    return importResults;
+  }
+
+  /**
+   * The regular files in a directory or matching a glob (only the last segments of the path can
+   * contain wildcards) of the import directory of the server, as file urls in lexicographic
+   * order.
+   */
+  private List<String> resolveFiles(String globOrDirectory) throws IOException,
+      RDFImportBadParams {
+    Path resolved = resolveInImportDirectory(globOrDirectory, "globOrDirectory");
+    Path importDirectory = ServerDirectories.importDirectory(db);
+    String glob = importDirectory.relativize(resolved).toString();
+    int firstWildcard = -1;
+    for (int i = 0; i < glob.length() && firstWildcard < 0; i++) {
+      if ("*?[{".indexOf(glob.charAt(i)) >= 0) {
+        firstWildcard = i;
+      }
+    }
+    Stream<Path> candidates;
+    if (firstWildcard < 0) {
+      if (!Files.isDirectory(resolved)) {
+        throw new RDFImportBadParams("Not a directory: " + globOrDirectory);
+      }
+      candidates = Files.list(resolved);
+    } else {
+      Path base = importDirectory.resolve(glob.substring(0, glob.lastIndexOf('/', firstWildcard)
+          + 1));
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      candidates = Files.walk(base).filter(f -> matcher.matches(importDirectory.relativize(f)));
+    }
+    try (Stream<Path> files = candidates) {
+      return files.filter(Files::isRegularFile).sorted()
+          .map(f -> f.toUri().toString()).collect(Collectors.toList());
+    }
+  }
+
   protected GraphResult doPreview(@Name("url") String url, @Name("rdf") String rdfFragment,
       @Name("format") String format,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props)
@@ -149,15 +449,11 @@ public class RDFProcedures extends CommonProcedures {
       //no params being passed to the config
     }
 
-    try {
-      parseRDFPayloadOrFromUrl(rdfFormat, url, rdfFragment, props, statementStreamer);
-
-    } catch (TripleLimitReached e) {
-      //streaming interrupted when limit reached. This is fine.
-    } catch (IOException | QueryExecutionException | RDFParseException e) {
-      throw new RDFImportException(e.getMessage());
-    }
-    return statementStreamer.getStatements().stream();
+    // parsed on a producer thread, as the records are consumed
+    StatementStreamer handler = statementStreamer;
+    RDFFormat payloadFormat = rdfFormat;
+    return statementStreamer.stream(
+        () -> parseRDFPayloadOrFromUrl(payloadFormat, url, rdfFragment, props, handler));
   }
 
   protected DeleteResults doDelete(String format, String url, String rdfFragment,
@@ -187,6 +483,8 @@ public class RDFProcedures extends CommonProcedures {
 
     if (statementDeleter != null) {
       try {
+        // payloads applied before may be partly undone, they can't be skipped anymore
+        ImportLedger.clear(tx);
         parseRDFPayloadOrFromUrl(rdfFormat, url, rdfFragment, props, statementDeleter);
       } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
         deleteResults.setTerminationKO(e.getMessage());
@@ -201,6 +499,107 @@ public class RDFProcedures extends CommonProcedures {
     return deleteResults;
   }
 
+  /**
+   * Brings the resources described in an RDF snapshot in line with it: only the triples removed
+   * from (then the ones added to) their description since the graph was loaded are written. The
+   * snapshot is compared in batches of commitSize triples as it is parsed; the changes of a
+   * resource with triples removed are written at the end, once all its triples have been read.
+   *
+   * @see SnapshotDiff
+   */
+  protected SyncResults doSync(String format, String url, Map<String, Object> props) {
+
+    SnapshotDiff snapshotDiff = null;
+    RDFParserConfig conf = null;
+    RDFFormat rdfFormat = null;
+    SyncResults syncResults = new SyncResults();
+
+    // the caller's map is left as it is (it may be immutable)
+    props = new HashMap<>(props);
+    if (!props.containsKey("singleTx")) {
+      props.put("singleTx", false);
+    }
+    try {
+      checkConstraintExist();
+      conf = new RDFParserConfig(props, new GraphConfig(tx));
+      rdfFormat = getFormat(format);
+      int handleVocabUris = conf.getGraphConf().getHandleVocabUris();
+      if (handleVocabUris != GraphConfig.GRAPHCONF_VOC_URI_SHORTEN
+          && handleVocabUris != GraphConfig.GRAPHCONF_VOC_URI_SHORTEN_STRICT
+          && handleVocabUris != GraphConfig.GRAPHCONF_VOC_URI_KEEP) {
+        throw new RDFImportBadParams("Sync needs the vocabulary uris in the graph "
+            + "(handleVocabUris: 'SHORTEN', 'SHORTEN_STRICT' or 'KEEP') to compare it with the "
+            + "snapshot");
+      }
+      RDFParserConfig syncConf = conf;
+      snapshotDiff = new SnapshotDiff(db, tx, conf, log,
+          new LPGRDFToRDFProcesssor(db, tx, conf.getGraphConf(), false),
+          (removals, additions) -> writeChanges(removals, additions, syncConf, syncResults));
+    } catch (RDFImportPreRequisitesNotMet e) {
+      syncResults.setTerminationKO(e.getMessage());
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      syncResults
+          .setTerminationKO("A Graph Config is required for RDF importing procedures to run");
+    } catch (RDFImportBadParams | InvalidNamespacePrefixDefinitionInDB e) {
+      syncResults.setTerminationKO(e.getMessage());
+    }
+
+    if (snapshotDiff != null) {
+      try {
+        parseRDFPayloadOrFromUrl(rdfFormat, url, null, props, snapshotDiff);
+        syncResults.setTriplesParsed(snapshotDiff.totalTriplesParsed);
+        if (snapshotDiff.getStatementsWithBNodeCount() > 0) {
+          syncResults.setExtraInfo(snapshotDiff.getStatementsWithBNodeCount()
+              + " of the triples in the snapshot were not synced, due to use of blank nodes. "
+              + syncResults.extraInfo);
+        }
+        syncResults.setConfigSummary(props);
+      } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+        syncResults.setTerminationKO(e.getMessage());
+        syncResults.setConfigSummary(props);
+      }
+    }
+    return syncResults;
+  }
+
+  /**
+   * Writes the changes handed over by the comparison of the snapshot, removals first, before the
+   * next batch is compared with the graph.
+   */
+  private void writeChanges(List<Statement> removals, List<Statement> additions,
+      RDFParserConfig conf, SyncResults syncResults) {
+    if (!removals.isEmpty()) {
+      // payloads applied before are partly undone, they can't be skipped anymore
+      ImportLedger.clear(tx);
+      DirectStatementDeleter statementDeleter = new DirectStatementDeleter(db, tx, conf, log);
+      replay(removals, statementDeleter);
+      syncResults.setTriplesRemoved(syncResults.triplesRemoved
+          + statementDeleter.totalTriplesMapped - statementDeleter.getNotDeletedStatementCount());
+    }
+    if (!additions.isEmpty()) {
+      DirectStatementLoader statementLoader = new DirectStatementLoader(db, tx, conf, log);
+      try {
+        replay(additions, statementLoader);
+      } finally {
+        statementLoader.close();
+      }
+      syncResults.setTriplesAdded(syncResults.triplesAdded + statementLoader.totalTriplesMapped);
+      syncResults.setNamespaces(statementLoader.getNamespaces());
+      if (!statementLoader.getWarnings().isEmpty()
+          && !syncResults.extraInfo.contains(statementLoader.getWarnings())) {
+        syncResults.setExtraInfo(syncResults.extraInfo + statementLoader.getWarnings());
+      }
+    }
+  }
+
+  private static void replay(List<Statement> statements, RDFHandler handler) {
+    handler.startRDF();
+    for (Statement st : statements) {
+      handler.handleStatement(st);
+    }
+    handler.endRDF();
+  }
+
   protected DirectStatementLoader doAdd(String rdfFragment, Map<String, Object> props, RDFFormat format, boolean isRel)
           throws RDFImportPreRequisitesNotMet, IOException, GraphConfig.GraphConfigNotFound {
 
@@ -388,6 +787,8 @@ public class RDFProcedures extends CommonProcedures {
     public Map<String, String> namespaces;
     public String extraInfo = "";
     public Map<String, Object> callParams;
+    public Map<String, Object> metrics = new HashMap<>();
+    public String checkpointId;
 
     public void setTriplesLoaded(long count) {
       this.triplesLoaded = count;
@@ -410,10 +811,119 @@ public class RDFProcedures extends CommonProcedures {
       this.extraInfo = message;
     }
 
+    /**
+     * Nothing imported: the payload is in the import ledger
+     */
+    public void setSkipped(String message) {
+      this.terminationStatus = "SKIPPED";
+      this.extraInfo = message;
+    }
+
     public void setExtraInfo(String message) {
       this.extraInfo = message;
     }
 
+    public void addMetrics(String key, Object value) {
+      this.metrics.put(key, value);
+    }
+
+    public void setCheckpointId(String checkpointId) {
+      this.checkpointId = checkpointId;
+    }
+
+  }
+
+  public static class ImportAllResults {
+
+    public String terminationStatus = "OK";
+    public long filesLoaded = 0;
+    public long filesFailed = 0;
+    public long triplesLoaded = 0;
+    public long triplesParsed = 0;
+    public Map<String, String> namespaces;
+    public String extraInfo = "";
+    public Map<String, Object> callParams;
+    public Map<String, Object> metrics = new HashMap<>();
+    public List<Map<String, Object>> files = new ArrayList<>();
+
+    public void addFileResults(String url, ImportResults fileResults) {
+      Map<String, Object> file = new HashMap<>();
+      file.put("url", url);
+      file.put("terminationStatus", fileResults.terminationStatus);
+      file.put("triplesLoaded", fileResults.triplesLoaded);
+      file.put("triplesParsed", fileResults.triplesParsed);
+      file.put("extraInfo", fileResults.extraInfo);
+      file.put("metrics", fileResults.metrics);
+      files.add(file);
+      triplesLoaded += fileResults.triplesLoaded;
+      triplesParsed += fileResults.triplesParsed;
+      if (fileResults.terminationStatus.equals("OK")) {
+        filesLoaded++;
+      } else {
+        filesFailed++;
+        terminationStatus = "KO";
+        extraInfo = filesFailed + " of the files could not be imported. Check the files list for "
+            + "details.";
+      }
+    }
+
+    public void setConfigSummary(Map<String, Object> summary) {
+      this.callParams = summary;
+    }
+
+    public void setNamespaces(Map<String, String> namespaces) {
+      this.namespaces = namespaces;
+    }
+
+    public void setTerminationKO(String message) {
+      this.terminationStatus = "KO";
+      this.extraInfo = message;
+    }
+
+    public void addMetrics(String key, Object value) {
+      this.metrics.put(key, value);
+    }
+
+  }
+
+  public static class SyncResults {
+
+    public String terminationStatus = "OK";
+    public long triplesParsed = 0;
+    public long triplesAdded = 0;
+    public long triplesRemoved = 0;
+    public Map<String, String> namespaces;
+    public String extraInfo = "";
+    public Map<String, Object> callParams;
+
+    public void setTriplesParsed(long triplesParsed) {
+      this.triplesParsed = triplesParsed;
+    }
+
+    public void setTriplesAdded(long triplesAdded) {
+      this.triplesAdded = triplesAdded;
+    }
+
+    public void setTriplesRemoved(long triplesRemoved) {
+      this.triplesRemoved = triplesRemoved;
+    }
+
+    public void setNamespaces(Map<String, String> namespaces) {
+      this.namespaces = namespaces;
+    }
+
+    public void setExtraInfo(String extraInfo) {
+      this.extraInfo = extraInfo;
+    }
+
+    public void setConfigSummary(Map<String, Object> summary) {
+      this.callParams = summary;
+    }
+
+    public void setTerminationKO(String message) {
+      this.terminationStatus = "KO";
+      this.extraInfo = message;
+    }
 
   }
 
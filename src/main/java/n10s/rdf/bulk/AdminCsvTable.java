@@ -0,0 +1,221 @@
+package n10s.rdf.bulk;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.neo4j.values.storable.PointValue;
+
+/**
+ * CSV files in the format expected by neo4j-admin database import (header with typed property
+ * columns). A property column holds a single type, so when the same property key has values of
+ * different types across rows, rows are split into several files, one per combination of types
+ * of the conflicting keys.
+ */
+class AdminCsvTable implements Closeable {
+
+  static final char ARRAY_DELIMITER = '\u001F';
+  static final String ARRAY_DELIMITER_OPTION = "U+001F";
+
+  private final File dir;
+  private final String filePrefix;
+  private final List<String> leadingHeaders;
+  private final List<String> sharedColumns = new ArrayList<>();
+  private final Map<String, String> sharedTypes = new HashMap<>();
+  private final Set<String> conflictingKeys = new TreeSet<>();
+  private final Map<String, Writer> writersBySignature = new HashMap<>();
+  private final Map<String, List<String>> columnsBySignature = new HashMap<>();
+  private final List<String> files = new ArrayList<>();
+  private long rowCount = 0;
+
+  /**
+   * @param typesByKey the admin import types found for each property key across all rows
+   */
+  AdminCsvTable(File dir, String filePrefix, List<String> leadingHeaders,
+      Map<String, Set<String>> typesByKey) {
+    this.dir = dir;
+    this.filePrefix = filePrefix;
+    this.leadingHeaders = leadingHeaders;
+    for (Map.Entry<String, Set<String>> keyTypes : new TreeMap<>(typesByKey).entrySet()) {
+      if (keyTypes.getValue().size() == 1) {
+        sharedColumns.add(keyTypes.getKey());
+        sharedTypes.put(keyTypes.getKey(), keyTypes.getValue().iterator().next());
+      } else {
+        conflictingKeys.add(keyTypes.getKey());
+      }
+    }
+  }
+
+  /**
+   * @param leadingFields values for the leading columns, already formatted
+   */
+  void writeRow(List<String> leadingFields, Map<String, Object> props) throws IOException {
+    StringBuilder signature = new StringBuilder();
+    for (String key : conflictingKeys) {
+      Object value = props.get(key);
+      if (value != null) {
+        signature.append(key).append(':').append(csvType(value)).append(',');
+      }
+    }
+    String sig = signature.toString();
+    Writer writer = writersBySignature.get(sig);
+    if (writer == null) {
+      writer = newFile(sig, props);
+    }
+
+    StringBuilder row = new StringBuilder();
+    for (String field : leadingFields) {
+      if (row.length() > 0) {
+        row.append(',');
+      }
+      row.append(field);
+    }
+    for (String column : columnsBySignature.get(sig)) {
+      row.append(',');
+      Object value = props.get(column);
+      if (value != null) {
+        row.append(format(value));
+      }
+    }
+    row.append('\n');
+    writer.write(row.toString());
+    rowCount++;
+  }
+
+  private Writer newFile(String signature, Map<String, Object> props) throws IOException {
+    List<String> columns = new ArrayList<>(sharedColumns);
+    for (String key : conflictingKeys) {
+      if (props.get(key) != null) {
+        columns.add(key);
+      }
+    }
+    File file = new File(dir, filePrefix + "-" + writersBySignature.size() + ".csv");
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    StringBuilder header = new StringBuilder();
+    for (String leading : leadingHeaders) {
+      if (header.length() > 0) {
+        header.append(',');
+      }
+      header.append(quote(leading));
+    }
+    for (String column : columns) {
+      String type = sharedTypes.containsKey(column) ? sharedTypes.get(column)
+          : csvType(props.get(column));
+      header.append(',').append(quote(column + ":" + type));
+    }
+    header.append('\n');
+    writer.write(header.toString());
+    writersBySignature.put(signature, writer);
+    columnsBySignature.put(signature, columns);
+    files.add(file.getAbsolutePath());
+    return writer;
+  }
+
+  List<String> getFiles() {
+    return files;
+  }
+
+  long getRowCount() {
+    return rowCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Writer writer : writersBySignature.values()) {
+      writer.close();
+    }
+  }
+
+  /**
+   * @return the admin import type for a property value as produced by the literal mapping
+   */
+  static String csvType(Object value) {
+    if (value.getClass().isArray()) {
+      return scalarType(value.getClass().getComponentType()) + "[]";
+    }
+    return scalarType(value.getClass());
+  }
+
+  private static String scalarType(Class<?> c) {
+    if (c == Long.class || c == long.class) {
+      return "long";
+    } else if (c == Integer.class || c == int.class) {
+      return "int";
+    } else if (c == Short.class || c == short.class) {
+      return "short";
+    } else if (c == Byte.class || c == byte.class) {
+      return "byte";
+    } else if (c == Double.class || c == double.class) {
+      return "double";
+    } else if (c == Float.class || c == float.class) {
+      return "float";
+    } else if (c == Boolean.class || c == boolean.class) {
+      return "boolean";
+    } else if (c == LocalDate.class) {
+      return "date";
+    } else if (c == LocalDateTime.class) {
+      return "localdatetime";
+    } else if (c == ZonedDateTime.class) {
+      return "datetime";
+    } else if (c == Character.class || c == char.class) {
+      return "char";
+    } else if (PointValue.class.isAssignableFrom(c)) {
+      return "point";
+    } else {
+      return "string";
+    }
+  }
+
+  static String format(Object value) {
+    if (value.getClass().isArray()) {
+      StringBuilder joined = new StringBuilder();
+      int length = Array.getLength(value);
+      for (int i = 0; i < length; i++) {
+        if (i > 0) {
+          joined.append(ARRAY_DELIMITER);
+        }
+        joined.append(formatScalar(Array.get(value, i)));
+      }
+      return quote(joined.toString());
+    }
+    String formatted = formatScalar(value);
+    return value instanceof String || value instanceof Character || value instanceof PointValue
+        ? quote(formatted) : formatted;
+  }
+
+  private static String formatScalar(Object value) {
+    if (value instanceof PointValue) {
+      PointValue point = (PointValue) value;
+      double[] coordinates = point.coordinate();
+      StringBuilder sb = new StringBuilder("{crs:'")
+          .append(point.getCoordinateReferenceSystem().getName()).append("',x:")
+          .append(coordinates[0]).append(",y:").append(coordinates[1]);
+      if (coordinates.length > 2) {
+        sb.append(",z:").append(coordinates[2]);
+      }
+      return sb.append('}').toString();
+    }
+    return value.toString();
+  }
+
+  static String quote(String s) {
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+
+}
@@ -0,0 +1,279 @@
+package n10s.rdf.bulk;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import n10s.RDFToLPGStatementProcessor;
+import n10s.graphconfig.RDFParserConfig;
+import n10s.rdf.bulk.SortedRuns.Record;
+import n10s.rdf.load.RelationshipBuffer;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+/**
+ * Maps RDF to the same property graph as the DirectStatementLoader but, instead of writing it to
+ * the database, produces the CSV files for an offline neo4j-admin database import.
+ * <p>
+ * Every batch of commitSize triples is spilled to disk as a run sorted by key (uri for
+ * resources, start/type/end for relationships). At the end of the parse, runs are merged so that
+ * all the fragments of a resource (or relationship) are combined with the same rules the loader
+ * applies across partial commits (labels are accumulated, multivalued properties are merged,
+ * single valued ones are overwritten) and written once. Memory use is bounded by the batch size,
+ * whatever the size of the payload.
+ */
+public class AdminImportCsvWriter extends RDFToLPGStatementProcessor {
+
+  static final String RESOURCE = "Resource";
+  private static final String SPILL_DIR = ".n10s-spill";
+  private static final char KEY_SEPARATOR = '\u0000';
+
+  private final File outputDir;
+  private final File spillDir;
+  private final SortedRuns nodeRuns;
+  private final SortedRuns relRuns;
+  private RelationshipBuffer relationships = new RelationshipBuffer();
+  private int batchSequence = 0;
+  private final List<String> nodeFiles = new ArrayList<>();
+  private final List<String> relationshipFiles = new ArrayList<>();
+  private long nodeCount = 0;
+  private long relationshipCount = 0;
+
+  public AdminImportCsvWriter(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, File outputDir) {
+    super(db, tx, conf, l);
+    this.outputDir = outputDir;
+    this.spillDir = new File(outputDir, SPILL_DIR);
+    this.nodeRuns = new SortedRuns(spillDir, "nodes");
+    this.relRuns = new SortedRuns(spillDir, "relationships");
+  }
+
+  @Override
+  public void startRDF() throws RDFHandlerException {
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new RDFHandlerException("Could not create output directory " + outputDir);
+    }
+    if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+      throw new RDFHandlerException("Could not create spill directory " + spillDir);
+    }
+    super.startRDF();
+  }
+
+  @Override
+  protected void addRelationship(String subjectUri, IRI predicate, String objectUri) {
+    relationships.add(subjectUri, predicate, objectUri);
+  }
+
+  @Override
+  protected void addRelationshipWithProperty(String subjectUri, IRI predicate, String objectUri,
+      IRI propertyIRI, Literal propValueRaw) {
+    int rel = relationships.add(subjectUri, predicate, objectUri);
+    Object propValue = getObjectValue(propertyIRI, propValueRaw);
+    if (propValue != null) {
+      addPropertyValueToElementProps(propertyIRI, relationships.getOrCreateProperties(rel),
+          propValue);
+    }
+  }
+
+  @Override
+  protected void periodicOperation() {
+    try {
+      List<Record> nodes = new ArrayList<>(resourceLabels.size());
+      for (Entry<String, Set<String>> resource : resourceLabels.entrySet()) {
+        String uri = resource.getKey();
+        nodes.add(new Record(uri, batchSequence, new ArrayList<>(resource.getValue()),
+            resourceProps.getOrDefault(uri, Map.of())));
+      }
+      nodes.sort((a, b) -> a.key.compareTo(b.key));
+      nodeRuns.addRun(nodes);
+
+      List<Record> rels = new ArrayList<>(relationships.size());
+      for (int rel = 0; rel < relationships.size(); rel++) {
+        Map<String, Object> props = relationships.getProperties(rel);
+        rels.add(new Record(relationshipKey(relationships.getSubject(rel),
+            handleIRI(relationships.getPredicate(rel), RELATIONSHIP),
+            relationships.getObject(rel)), batchSequence, List.of(),
+            props != null ? props : Map.of()));
+      }
+      rels.sort((a, b) -> a.key.compareTo(b.key));
+      relRuns.addRun(rels);
+    } catch (IOException e) {
+      throw new RDFHandlerException("Could not spill batch to " + spillDir, e);
+    }
+
+    batchSequence++;
+    relationships = new RelationshipBuffer();
+    resourceLabels = new HashMap<>();
+    resourceProps = new HashMap<>();
+    totalTriplesMapped += mappedTripleCounter;
+    mappedTripleCounter = 0;
+  }
+
+  @Override
+  public void endRDF() throws RDFHandlerException {
+    periodicOperation();
+    try {
+      writeNodes();
+      writeRelationships();
+      writeSingletonNode("graphconfig", "_GraphConfig", graphConfigProperties());
+      Map<String, String> prefixes = getNamespaces();
+      if (prefixes != null && !prefixes.isEmpty()) {
+        writeSingletonNode("nsprefixes", "_NsPrefDef", new HashMap<>(prefixes));
+      }
+    } catch (IOException e) {
+      throw new RDFHandlerException("Could not write import files to " + outputDir, e);
+    }
+    log.debug("CSV export complete: " + totalTriplesMapped + " triples mapped out of "
+        + totalTriplesParsed + " parsed");
+  }
+
+  private void writeNodes() throws IOException {
+    File combined = new File(spillDir, "nodes.combined");
+    Map<String, Set<String>> typesByKey = combineGroups(nodeRuns, combined, true);
+    try (AdminCsvTable table = new AdminCsvTable(outputDir, "nodes",
+        List.of("uri:ID", ":LABEL"), typesByKey)) {
+      SortedRuns.forEach(combined, r -> table.writeRow(
+          List.of(AdminCsvTable.quote(r.key),
+              AdminCsvTable.quote(String.join(String.valueOf(AdminCsvTable.ARRAY_DELIMITER),
+                  r.labels))),
+          toPropertyValues(r.props)));
+      nodeFiles.addAll(table.getFiles());
+      nodeCount += table.getRowCount();
+    }
+  }
+
+  private void writeRelationships() throws IOException {
+    File combined = new File(spillDir, "relationships.combined");
+    Map<String, Set<String>> typesByKey = combineGroups(relRuns, combined, false);
+    try (AdminCsvTable table = new AdminCsvTable(outputDir, "relationships",
+        List.of(":START_ID", ":TYPE", ":END_ID"), typesByKey)) {
+      SortedRuns.forEach(combined, r -> {
+        String[] parts = r.key.split(String.valueOf(KEY_SEPARATOR), 3);
+        table.writeRow(Arrays.asList(AdminCsvTable.quote(parts[0]),
+            AdminCsvTable.quote(parts[1]), AdminCsvTable.quote(parts[2])),
+            toPropertyValues(r.props));
+      });
+      relationshipFiles.addAll(table.getFiles());
+      relationshipCount += table.getRowCount();
+    }
+  }
+
+  /**
+   * First pass over the merged runs: combines all the records of each key into one (written to
+   * the combined file) and collects the types of every property key, needed for the CSV
+   * headers.
+   */
+  private Map<String, Set<String>> combineGroups(SortedRuns runs, File combined,
+      boolean withLabels) throws IOException {
+    Map<String, Set<String>> typesByKey = new HashMap<>();
+    try (DataOutputStream out = SortedRuns.open(combined)) {
+      runs.merge(group -> {
+        Set<String> labels = new TreeSet<>();
+        Map<String, Object> props = new HashMap<>();
+        for (Record fragment : group) {
+          labels.addAll(fragment.labels);
+          for (Entry<String, Object> prop : fragment.props.entrySet()) {
+            if (prop.getValue() instanceof List) {
+              MergedValue merged = mergeMultivalValues(prop.getKey(), props.get(prop.getKey()),
+                  (List<Object>) prop.getValue());
+              props.put(prop.getKey(), merged.getValue());
+              totalTriplesMapped -= merged.getDiscarded();
+            } else {
+              props.put(prop.getKey(), prop.getValue());
+            }
+          }
+        }
+        if (withLabels) {
+          labels.add(RESOURCE);
+        }
+        for (Entry<String, Object> prop : props.entrySet()) {
+          typesByKey.computeIfAbsent(prop.getKey(), k -> new HashSet<>())
+              .add(AdminCsvTable.csvType(prop.getValue()));
+        }
+        new Record(group.get(0).key, 0, new ArrayList<>(labels), props).write(out);
+      });
+    } finally {
+      runs.close();
+    }
+    return typesByKey;
+  }
+
+  /**
+   * Combined multivalued properties are read back from the spill as lists.
+   */
+  private Map<String, Object> toPropertyValues(Map<String, Object> props) {
+    for (Entry<String, Object> prop : props.entrySet()) {
+      if (prop.getValue() instanceof List) {
+        prop.setValue(toPropertyValue(prop.getValue()));
+      }
+    }
+    return props;
+  }
+
+  private void writeSingletonNode(String filePrefix, String label, Map<String, Object> props)
+      throws IOException {
+    Map<String, Set<String>> typesByKey = new HashMap<>();
+    props.forEach((k, v) -> typesByKey.put(k, Set.of(AdminCsvTable.csvType(v))));
+    try (AdminCsvTable table = new AdminCsvTable(outputDir, filePrefix, List.of(":LABEL"),
+        typesByKey)) {
+      table.writeRow(List.of(AdminCsvTable.quote(label)), props);
+      nodeFiles.addAll(table.getFiles());
+      nodeCount += table.getRowCount();
+    }
+  }
+
+  private Map<String, Object> graphConfigProperties() {
+    try (ResourceIterator<Node> configNodes = tx.findNodes(Label.label("_GraphConfig"))) {
+      return configNodes.hasNext() ? configNodes.next().getAllProperties() : new HashMap<>();
+    }
+  }
+
+  private static String relationshipKey(String start, String type, String end) {
+    return start + KEY_SEPARATOR + type + KEY_SEPARATOR + end;
+  }
+
+  @Override
+  public void close() {
+    nodeRuns.close();
+    relRuns.close();
+    File[] leftovers = spillDir.listFiles();
+    if (leftovers != null) {
+      for (File f : leftovers) {
+        f.delete();
+      }
+    }
+    spillDir.delete();
+  }
+
+  public List<String> getNodeFiles() {
+    return nodeFiles;
+  }
+
+  public List<String> getRelationshipFiles() {
+    return relationshipFiles;
+  }
+
+  public long getNodeCount() {
+    return nodeCount;
+  }
+
+  public long getRelationshipCount() {
+    return relationshipCount;
+  }
+
+}
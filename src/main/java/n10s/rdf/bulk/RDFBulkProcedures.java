@@ -0,0 +1,105 @@
+package n10s.rdf.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import n10s.graphconfig.GraphConfig;
+import n10s.graphconfig.RDFParserConfig;
+import n10s.rdf.RDFProcedures;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.neo4j.graphdb.QueryExecutionException;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+public class RDFBulkProcedures extends RDFProcedures {
+
+  @Procedure(name = "n10s.rdf.bulk.fetch", mode = Mode.READ)
+  @Description("Maps RDF from an url (file or http) to a property graph like n10s.rdf.import.fetch "
+      + "but, instead of writing to the database, produces in outputDirectory (relative to the "
+      + "import directory of the server) the CSV files for an offline neo4j-admin database import "
+      + "(into a new database)")
+  public Stream<BulkExportResults> fetch(@Name("url") String url, @Name("format") String format,
+      @Name("outputDirectory") String outputDirectory,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    BulkExportResults results = new BulkExportResults();
+    AdminImportCsvWriter csvWriter = null;
+    RDFFormat rdfFormat = null;
+    try {
+      RDFParserConfig conf = new RDFParserConfig(props, new GraphConfig(tx));
+      rdfFormat = getFormat(format);
+      csvWriter = new AdminImportCsvWriter(db, tx, conf, log,
+          resolveInImportDirectory(outputDirectory, "outputDirectory").toFile());
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      results.setTerminationKO(
+          "A Graph Config is required for RDF importing procedures to run");
+    } catch (RDFImportBadParams e) {
+      results.setTerminationKO(e.getMessage());
+    }
+
+    if (csvWriter != null) {
+      try {
+        parseRDFPayloadOrFromUrl(rdfFormat, url, null, props, csvWriter);
+        results.setExtraInfo(csvWriter.getWarnings());
+        results.setFiles(csvWriter.getNodeFiles(), csvWriter.getRelationshipFiles(),
+            db.databaseName());
+        results.nodes = csvWriter.getNodeCount();
+        results.relationships = csvWriter.getRelationshipCount();
+      } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+        results.setTerminationKO(e.getMessage());
+      } finally {
+        csvWriter.close();
+      }
+      results.triplesLoaded = csvWriter.totalTriplesMapped;
+      results.triplesParsed = csvWriter.totalTriplesParsed;
+      results.callParams = props;
+    }
+    return Stream.of(results);
+  }
+
+  public static class BulkExportResults {
+
+    public String terminationStatus = "OK";
+    public long triplesLoaded = 0;
+    public long triplesParsed = 0;
+    public long nodes = 0;
+    public long relationships = 0;
+    public List<String> files = new ArrayList<>();
+    public String adminImportCommand;
+    public String postImportStatement = UNIQUENESS_CONSTRAINT_STATEMENT;
+    public String extraInfo = "";
+    public Map<String, Object> callParams;
+
+    void setFiles(List<String> nodeFiles, List<String> relationshipFiles, String database) {
+      StringBuilder command = new StringBuilder("neo4j-admin database import full ")
+          .append(database)
+          .append(" --array-delimiter=").append(AdminCsvTable.ARRAY_DELIMITER_OPTION)
+          .append(" --multiline-fields=true");
+      for (String f : nodeFiles) {
+        command.append(" --nodes=").append(f);
+        files.add(f);
+      }
+      for (String f : relationshipFiles) {
+        command.append(" --relationships=").append(f);
+        files.add(f);
+      }
+      this.adminImportCommand = command.toString();
+    }
+
+    void setTerminationKO(String message) {
+      this.terminationStatus = "KO";
+      this.extraInfo = message;
+    }
+
+    void setExtraInfo(String message) {
+      this.extraInfo = message;
+    }
+  }
+
+}
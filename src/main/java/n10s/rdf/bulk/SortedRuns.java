@@ -0,0 +1,342 @@
+package n10s.rdf.bulk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.neo4j.values.storable.PointValue;
+
+/**
+ * External sort of keyed records (resources by uri, relationships by start/type/end). Every batch
+ * of parsed triples is written as a run file already sorted by key, and runs are merged at the
+ * end so that all the records for the same key come together, in the order they were parsed.
+ * When there are more runs than {@link #MAX_FAN_IN}, consecutive runs are merged into larger
+ * ones first so that the number of open files stays bounded.
+ */
+class SortedRuns implements Closeable {
+
+  static final int MAX_FAN_IN = 64;
+
+  private static final Comparator<Record> KEY_THEN_SEQUENCE = Comparator
+      .comparing((Record r) -> r.key).thenComparingInt(r -> r.sequence);
+
+  private final File dir;
+  private final String name;
+  private final List<File> runs = new ArrayList<>();
+  private int filesCreated = 0;
+
+  SortedRuns(File dir, String name) {
+    this.dir = dir;
+    this.name = name;
+  }
+
+  /**
+   * Writes a run. Records must be sorted by key, and share the sequence number of the batch.
+   */
+  void addRun(List<Record> sortedRecords) throws IOException {
+    if (sortedRecords.isEmpty()) {
+      return;
+    }
+    File run = newFile();
+    try (DataOutputStream out = open(run)) {
+      for (Record r : sortedRecords) {
+        r.write(out);
+      }
+    }
+    runs.add(run);
+  }
+
+  int getRunCount() {
+    return runs.size();
+  }
+
+  /**
+   * Merges all the runs, calling the consumer once per key with all its records (in parse
+   * order).
+   */
+  void merge(GroupConsumer consumer) throws IOException {
+    while (runs.size() > MAX_FAN_IN) {
+      List<File> merged = new ArrayList<>();
+      for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+        List<File> group = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+        if (group.size() == 1) {
+          merged.add(group.get(0));
+          continue;
+        }
+        File run = newFile();
+        try (DataOutputStream out = open(run)) {
+          mergeRecords(group, r -> r.write(out));
+        }
+        group.forEach(File::delete);
+        merged.add(run);
+      }
+      runs.clear();
+      runs.addAll(merged);
+    }
+
+    List<Record> group = new ArrayList<>();
+    mergeRecords(runs, r -> {
+      if (!group.isEmpty() && !group.get(0).key.equals(r.key)) {
+        consumer.accept(group);
+        group.clear();
+      }
+      group.add(r);
+    });
+    if (!group.isEmpty()) {
+      consumer.accept(group);
+    }
+  }
+
+  private void mergeRecords(List<File> sources, RecordConsumer consumer) throws IOException {
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      PriorityQueue<RunReader> heads = new PriorityQueue<>(
+          Comparator.comparing((RunReader reader) -> reader.head, KEY_THEN_SEQUENCE));
+      for (File source : sources) {
+        RunReader reader = new RunReader(source);
+        readers.add(reader);
+        if (reader.advance()) {
+          heads.add(reader);
+        }
+      }
+      while (!heads.isEmpty()) {
+        RunReader reader = heads.poll();
+        consumer.accept(reader.head);
+        if (reader.advance()) {
+          heads.add(reader);
+        }
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private File newFile() {
+    return new File(dir, name + "-" + (filesCreated++) + ".run");
+  }
+
+  static DataOutputStream open(File f) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+  }
+
+  /**
+   * Reads back, in order, the records written to a file with {@link Record#write}.
+   */
+  static void forEach(File f, RecordConsumer consumer) throws IOException {
+    try (RunReader reader = new RunReader(f)) {
+      while (reader.advance()) {
+        consumer.accept(reader.head);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    runs.forEach(File::delete);
+    runs.clear();
+  }
+
+  /**
+   * A resource (labels and properties) or a relationship (properties) as parsed in one batch.
+   */
+  static class Record {
+
+    final String key;
+    final int sequence;
+    final List<String> labels;
+    final Map<String, Object> props;
+
+    Record(String key, int sequence, List<String> labels, Map<String, Object> props) {
+      this.key = key;
+      this.sequence = sequence;
+      this.labels = labels;
+      this.props = props;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      writeString(out, key);
+      out.writeInt(sequence);
+      out.writeInt(labels.size());
+      for (String label : labels) {
+        writeString(out, label);
+      }
+      out.writeInt(props.size());
+      for (Map.Entry<String, Object> prop : props.entrySet()) {
+        writeString(out, prop.getKey());
+        writeValue(out, prop.getValue());
+      }
+    }
+
+    static Record read(DataInputStream in) throws IOException {
+      String key = readString(in);
+      int sequence = in.readInt();
+      int labelCount = in.readInt();
+      List<String> labels = new ArrayList<>(labelCount);
+      for (int i = 0; i < labelCount; i++) {
+        labels.add(readString(in));
+      }
+      int propCount = in.readInt();
+      Map<String, Object> props = new HashMap<>(propCount * 2);
+      for (int i = 0; i < propCount; i++) {
+        props.put(readString(in), readValue(in));
+      }
+      return new Record(key, sequence, labels, props);
+    }
+  }
+
+  // values are tagged with their type so that they are read back exactly as produced by the
+  // literal mapping (getObjectValue)
+  private static final byte STRING = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte BOOLEAN = 3;
+  private static final byte DATE = 4;
+  private static final byte LOCAL_DATE_TIME = 5;
+  private static final byte DATE_TIME = 6;
+  private static final byte POINT = 7;
+  private static final byte LIST = 8;
+
+  static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof LocalDate) {
+      out.writeByte(DATE);
+      out.writeLong(((LocalDate) value).toEpochDay());
+    } else if (value instanceof LocalDateTime) {
+      out.writeByte(LOCAL_DATE_TIME);
+      writeString(out, value.toString());
+    } else if (value instanceof ZonedDateTime) {
+      out.writeByte(DATE_TIME);
+      writeString(out, value.toString());
+    } else if (value instanceof PointValue) {
+      out.writeByte(POINT);
+      writeString(out, value.toString());
+    } else if (value instanceof List) {
+      out.writeByte(LIST);
+      List<?> values = (List<?>) value;
+      out.writeInt(values.size());
+      for (Object v : values) {
+        writeValue(out, v);
+      }
+    } else if (value.getClass().isArray()) {
+      // merged multivalued props, read back as lists
+      out.writeByte(LIST);
+      int length = Array.getLength(value);
+      out.writeInt(length);
+      for (int i = 0; i < length; i++) {
+        writeValue(out, Array.get(value, i));
+      }
+    } else {
+      out.writeByte(STRING);
+      writeString(out, String.valueOf(value));
+    }
+  }
+
+  static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case STRING:
+        return readString(in);
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case BOOLEAN:
+        return in.readBoolean();
+      case DATE:
+        return LocalDate.ofEpochDay(in.readLong());
+      case LOCAL_DATE_TIME:
+        return LocalDateTime.parse(readString(in));
+      case DATE_TIME:
+        return ZonedDateTime.parse(readString(in));
+      case POINT:
+        return PointValue.parse(readString(in));
+      case LIST:
+        int size = in.readInt();
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          values.add(readValue(in));
+        }
+        return values;
+      default:
+        throw new IOException("Corrupted run file, unknown value type " + type);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class RunReader implements Closeable {
+
+    private final DataInputStream in;
+    private Record head;
+
+    RunReader(File run) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+    }
+
+    boolean advance() throws IOException {
+      try {
+        head = Record.read(in);
+        return true;
+      } catch (EOFException e) {
+        head = null;
+        return false;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  interface GroupConsumer {
+
+    void accept(List<Record> group) throws IOException;
+  }
+
+  interface RecordConsumer {
+
+    void accept(Record record) throws IOException;
+  }
+
+}
@@ -4,15 +4,15 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.collect.Iterators;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.MultivalRemoval;
+import n10s.utils.RelationshipDeletes;
 import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
@@ -21,7 +21,6 @@ import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
@@ -91,54 +90,12 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
           if (v instanceof List) {
             List valuesToDelete = (List) v;
             if (node != null && node.hasProperty(k)) {
-              ArrayList<Object> newProps = new ArrayList<>();
               Object prop = node.getProperty(k);
-              if (prop instanceof long[]) {
-                long[] props = (long[]) prop;
-                for (long currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof double[]) {
-                double[] props = (double[]) prop;
-                for (double currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof boolean[]) {
-                boolean[] props = (boolean[]) prop;
-                for (boolean currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof LocalDateTime[]) {
-                LocalDateTime[] props = (LocalDateTime[]) prop;
-                for (LocalDateTime currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof LocalDate[]) {
-                LocalDate[] props = (LocalDate[]) prop;
-                for (LocalDate currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else {
-                Object[] props = (Object[]) prop;
-                for (Object currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              }
-              node.removeProperty(k);
-              if (!newProps.isEmpty()) {
-                node.setProperty(k, toPropertyValue(newProps));
+              Object left = MultivalRemoval.remove(prop, valuesToDelete);
+              if (left == null) {
+                node.removeProperty(k);
+              } else if (left != prop) {
+                node.setProperty(k, left);
               }
             } else {
               notDeletedStatementCount += valuesToDelete.size();
@@ -159,6 +116,8 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
       }
     }
 
+    RelationshipDeletes relationshipDeletes = new RelationshipDeletes();
+    Set<Node> endNodes = new LinkedHashSet<>();
     for (Statement st : statements) {
       try {
         if ((st.getSubject() instanceof IRI && st.getSubject().stringValue().startsWith("bnode://")) !=
@@ -190,39 +149,18 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
           notDeletedStatementCount++;
           continue;
         }
-        // find relationship if it exists
-        if (fromNode
-            .getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                Direction.OUTGOING) <
-            toNode.getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                Direction.INCOMING)) {
-          for (Relationship rel : fromNode
-              .getRelationships(Direction.OUTGOING,
-                  RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP))
-              )) {
-            if (rel.getEndNode().equals(toNode)) {
-              rel.delete();
-              break;
-            }
-          }
-        } else {
-          for (Relationship rel : toNode
-              .getRelationships(Direction.INCOMING,
-                  RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP))
-              )) {
-            if (rel.getStartNode().equals(fromNode)) {
-              rel.delete();
-              break;
-            }
-          }
-        }
-        deleteNodeIfEmpty(toNode);
-        deleteNodeIfEmpty(fromNode);
+        relationshipDeletes.add(fromNode,
+            RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)), toNode);
+        endNodes.add(fromNode);
+        endNodes.add(toNode);
       } catch (ExecutionException e) {
         e.printStackTrace();
       }
     }
 
+    relationshipDeletes.deleteAll();
+    endNodes.forEach(this::deleteNodeIfEmpty);
+
     statements.clear();
     resourceLabels.clear();
     resourceProps.clear();
@@ -220,6 +220,28 @@ public class LPGRDFToRDFProcesssor extends ExportProcessor {
     return result.stream();
   }
 
+  /**
+   * @return the triples describing a resource, as exported: its types (labels), properties and
+   * outgoing relationships to other resources
+   */
+  public Set<Statement> describeResource(Node node) {
+    Set<Statement> result = processNode(node, null, null);
+    for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+      if (!filterRelationship(rel, null)) {
+        result.addAll(processRelationship(rel, null));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the literal a value stored in a property is exported as
+   */
+  public Literal exportedLiteral(Object value) {
+    return createTypedLiteral(value instanceof String
+        ? buildCustomDTFromShortURI((String) value) : value);
+  }
+
   @Override
   protected boolean filterRelationship(Relationship rel, Map<Long, IRI> ontologyEntitiesUris) {
     //TODO: this type check is going to slow down the query. think how to improve it
@@ -0,0 +1,137 @@
+package n10s.rdf.load;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import n10s.graphconfig.RDFParserConfig;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.memory.MemoryTracker;
+
+/**
+ * Sizes partial commits (adaptiveCommit param) from how the previous ones went: the next batch
+ * grows or shrinks in proportion to how far the last commit was from the target duration
+ * (targetCommitMillis) and from the transaction memory ceiling (maxTxMemory), whichever is
+ * closer. Literal heavy batches hit the memory ceiling first, relationship heavy ones (long
+ * existence checks) the target duration. Steps are limited to halving or doubling the size so
+ * a single outlier commit doesn't swing it.
+ * <p>
+ * The commit size of the parser config is updated, so the parser picks it up for the batch it
+ * is filling. It is kept between MIN_COMMIT_SIZE (or the commitSize param, if lower) and
+ * MAX_COMMIT_SIZE.
+ * <p>
+ * The memory of a transaction is only known to the kernel. It is read through its internal api,
+ * which can change between Neo4j versions: if it can't be read, commits are sized on their
+ * duration only.
+ */
+class AdaptiveCommitSize {
+
+  static final long MIN_COMMIT_SIZE = 1000;
+  static final long MAX_COMMIT_SIZE = 1000000;
+  private static final double MAX_GROWTH = 2.0;
+  private static final double MAX_SHRINK = 0.5;
+  // only the first sizes are listed in the metrics, the rest are summarised
+  private static final int MAX_LISTED_SIZES = 100;
+  private static volatile boolean memoryTracked = true;
+
+  private final RDFParserConfig conf;
+  private final long targetNanos;
+  private final long maxTxMemory;
+  private final long initialCommitSize;
+  private final long floorCommitSize;
+  private final List<Long> commitSizes = new ArrayList<>();
+  private long minCommitSize;
+  private long maxCommitSize;
+  private long peakTxMemory = 0;
+  private long maxCommitMillis = 0;
+  private long adjustments = 0;
+
+  AdaptiveCommitSize(RDFParserConfig conf) {
+    this.conf = conf;
+    this.targetNanos = conf.getTargetCommitMillis() * 1000000L;
+    this.maxTxMemory = conf.getMaxTxMemory();
+    this.initialCommitSize = Math.max(1, Math.min(MAX_COMMIT_SIZE, conf.getCommitSize()));
+    // smaller commits than the ones asked for are fine, just not smaller than the minimum
+    this.floorCommitSize = Math.min(initialCommitSize, MIN_COMMIT_SIZE);
+    this.minCommitSize = initialCommitSize;
+    this.maxCommitSize = initialCommitSize;
+    conf.setCommitSize(initialCommitSize);
+  }
+
+  /**
+   * @return memory tracked by the kernel for the transaction (heap and native), 0 if unknown
+   */
+  static long transactionMemory(Transaction tx) {
+    if (!memoryTracked) {
+      return 0;
+    }
+    try {
+      return KernelMemory.of(tx);
+    } catch (RuntimeException | LinkageError e) {
+      // not there (or not the same) in this version of the kernel
+      memoryTracked = false;
+      return 0;
+    }
+  }
+
+  /**
+   * Sets the size of the next batch from the last commit.
+   *
+   * @param batchTriples mapped triples in the committed batch
+   * @param nanos time taken to write and commit it
+   * @param txMemory memory of its transaction before the commit, 0 if unknown
+   */
+  synchronized void afterCommit(long batchTriples, long nanos, long txMemory) {
+    peakTxMemory = Math.max(peakTxMemory, txMemory);
+    maxCommitMillis = Math.max(maxCommitMillis, nanos / 1000000);
+    // the last batch of the payload is usually a partial one, it says little about the next
+    if (batchTriples * 2 < conf.getCommitSize()) {
+      return;
+    }
+    double factor = (double) targetNanos / Math.max(nanos, 1);
+    if (txMemory > 0) {
+      factor = Math.min(factor, (double) maxTxMemory / txMemory);
+    }
+    factor = Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, factor));
+    long next = Math.max(floorCommitSize,
+        Math.min(MAX_COMMIT_SIZE, Math.round(batchTriples * factor)));
+    conf.setCommitSize(next);
+    adjustments++;
+    if (commitSizes.size() < MAX_LISTED_SIZES) {
+      commitSizes.add(next);
+    }
+    minCommitSize = Math.min(minCommitSize, next);
+    maxCommitSize = Math.max(maxCommitSize, next);
+  }
+
+  synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("initialCommitSize", initialCommitSize);
+    stats.put("lastCommitSize", conf.getCommitSize());
+    stats.put("minCommitSize", minCommitSize);
+    stats.put("maxCommitSize", maxCommitSize);
+    stats.put("commitSizes", new ArrayList<>(commitSizes));
+    stats.put("adjustments", adjustments);
+    stats.put("targetCommitMillis", targetNanos / 1000000);
+    stats.put("maxCommitMillis", maxCommitMillis);
+    stats.put("maxTxMemory", maxTxMemory);
+    stats.put("peakTxMemory", peakTxMemory);
+    return stats;
+  }
+
+  /**
+   * The only reference to the internal api, so that it is only loaded when the memory is read.
+   */
+  private static class KernelMemory {
+
+    static long of(Transaction tx) {
+      if (tx instanceof InternalTransaction) {
+        MemoryTracker tracker = ((InternalTransaction) tx).kernelTransaction().memoryTracker();
+        return tracker.estimatedHeapMemory() + tracker.usedNativeMemory();
+      }
+      return 0;
+    }
+  }
+
+}
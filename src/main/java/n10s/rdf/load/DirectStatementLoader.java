@@ -2,19 +2,26 @@ package n10s.rdf.load;
 
 import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
-import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.ImportMetrics.Phase;
+import n10s.utils.NodeIdCache;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.neo4j.graphdb.*;
@@ -27,186 +34,686 @@ import org.neo4j.logging.Log;
 public class DirectStatementLoader extends RDFToLPGStatementProcessor {
 
   private static final Label RESOURCE = Label.label("Resource");
-  private Cache<String, Node> nodeCache;
+  private static final int PREFETCH_CHUNK_SIZE = 10000;
+  static final int MAX_RETRIES = 3;
+  // blank nodes of the document whose node is kept for the whole import
+  private static final int MAX_DOCUMENT_BNODES = 1000000;
+  private static final String BULK_LOOKUP =
+      "UNWIND $uris AS uri MATCH (r:Resource { uri: uri }) RETURN uri, r";
+  private static final String BULK_MERGE =
+      "UNWIND $uris AS uri MERGE (r:Resource { uri: uri }) RETURN uri, r";
+  private final NodeIdCache<String> nodeCache;
+  private final boolean lockResources;
+  private final AdaptiveCommitSize adaptiveCommitSize;
+  private final ImportedRelationships importedRelationships;
+  // blank node uri to node element id, for the blank nodes of the document created so far
+  private final Map<String, String> documentBNodes = new ConcurrentHashMap<>();
+  // false once the blank nodes of the document may be in the graph without being in the map
+  private volatile boolean documentBNodesComplete = true;
+  private final AtomicLong bnodeHits = new AtomicLong();
+  private ParallelBatchWriter parallelWriter;
+  private RelationshipBuffer relationships = new RelationshipBuffer();
+  private ImportCheckpoint checkpoint;
+  private long sourceOffset = -1;
+  private long statementsToSkip = 0;
+  // singleTx imports: mapped triple count when the buffers were last written to the transaction
+  private long writtenToTransaction = 0;
+  private boolean partiallyWritten = false;
 
   public DirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
       Log l) {
+    this(db, tx, conf, l, new NodeIdCache<>(conf.getNodeCacheSize()), false);
+  }
+
+  /**
+   * For loaders importing different payloads concurrently. Resources are write locked (in uri
+   * order) before they are read, so that multivalued properties and relationships written at
+   * the same time by another loader are not lost or duplicated.
+   *
+   * @param nodeCache uri to node cache shared with the other loaders
+   */
+  public DirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, NodeIdCache<String> nodeCache) {
+    this(db, tx, conf, l, nodeCache, true);
+  }
+
+  DirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, NodeIdCache<String> nodeCache, boolean lockResources) {
 
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    this.nodeCache = nodeCache;
+    this.lockResources = lockResources;
+    // every compact blank node uri fits in the map of the blank nodes of the document
+    compactBNodes(MAX_DOCUMENT_BNODES);
+    this.adaptiveCommitSize = conf.isAdaptiveCommit() && !conf.isUseSingleTx()
+        ? new AdaptiveCommitSize(conf) : null;
+    this.importedRelationships = conf.getExpectedTriples() > 0 && !conf.isSkipExistenceCheck()
+        ? new ImportedRelationships(conf.getExpectedTriples()) : null;
+  }
+
+  /**
+   * Records the position of the import in the checkpoint with every partial commit. When the
+   * checkpoint is not at the start of the payload, the import is resumed: counters start from
+   * the checkpoint and, unless the parse seeks to its byte offset, the statements already
+   * committed are skipped.
+   *
+   * @param seek true if the parse starts at the byte offset of the checkpoint
+   */
+  public void setCheckpoint(ImportCheckpoint checkpoint, boolean seek) {
+    this.checkpoint = checkpoint;
+    this.totalTriplesParsed = checkpoint.getTriplesParsed();
+    this.totalTriplesMapped = checkpoint.getTriplesLoaded();
+    this.sourceOffset = checkpoint.getByteOffset();
+    this.statementsToSkip = seek ? 0 : checkpoint.getTriplesParsed();
+    // a resumed parse has to give blank nodes the uris (and nodes) they got before
+    compactBNodes(0);
+    if (checkpoint.getTriplesParsed() > 0) {
+      documentBNodesComplete = false;
+    }
+  }
+
+  public ImportCheckpoint getCheckpoint() {
+    return checkpoint;
+  }
+
+  @Override
+  public void markSourceOffset(long offset) {
+    sourceOffset = offset;
+  }
+
+  @Override
+  public void handleStatement(Statement st) {
+    if (statementsToSkip > 0) {
+      statementsToSkip--;
+      return;
+    }
+    super.handleStatement(st);
+    if (parserConfig.isUseSingleTx() && parserConfig.getSingleTxBufferSize() > 0
+        && mappedTripleCounter - writtenToTransaction >= parserConfig.getSingleTxBufferSize()) {
+      writeBufferedToTransaction();
+      partiallyWritten = true;
+    }
+  }
+
+  /**
+   * Writes what has been buffered since the last call to the import transaction. Single
+   * transaction imports do it every singleTxBufferSize mapped triples so that only the
+   * transaction state has to fit in memory, not a second copy of the payload in the buffers.
+   * Multivalued properties and relationships written earlier in the transaction are merged
+   * with as if they had been committed.
+   */
+  private void writeBufferedToTransaction() {
+    if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
+      namespaces.partialRefresh(tx);
+      log.debug("namespace prefixes synced: " + namespaces.toString());
+    }
+    long[] started = importMetrics.batchStarted();
+    long writeStart = System.nanoTime();
+    long batchTriples = mappedTripleCounter - writtenToTransaction;
+    this.runPartialTx(tx);
+    writtenToTransaction = mappedTripleCounter;
+    log.debug("rdf import batch written: "
+        + importMetrics.batchWritten(batchTriples, System.nanoTime() - writeStart, started));
+  }
+
+  /**
+   * @return true if part of a single transaction import is already in the transaction, which
+   * then has to be failed as a whole if the import does not complete
+   */
+  public boolean isPartiallyWritten() {
+    return partiallyWritten;
   }
 
   @Override
   public void endRDF() throws RDFHandlerException {
     if(parserConfig.isUseSingleTx()){
-      if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
-        namespaces.partialRefresh(tx);
-        log.debug("namespace prefixes synced: " + namespaces.toString());
-      }
-      
-      this.runPartialTx(tx);
+      writeBufferedToTransaction();
       log.debug("rdf import commit: " + mappedTripleCounter + " triples ingested.");
       //not sure this is needed here
       totalTriplesMapped += mappedTripleCounter;
     } else {
       periodicOperation();
     }
+    importMetrics.finish();
     log.debug("Import complete: " + totalTriplesMapped + "  triples ingested out of "
-        + totalTriplesParsed + " parsed");
+        + totalTriplesParsed + " parsed. " + importMetrics.getStats(totalTriplesParsed));
   }
 
   public Integer runPartialTx(Transaction inThreadTransaction) {
-
+    ImportBatch batch = takeBatch();
     try {
-      for (Map.Entry<String, Set<String>> entry : resourceLabels.entrySet()) {
-        try {
-          final Node node;
-          node = nodeCache.get(entry.getKey(), () -> {
-            Node node1 = inThreadTransaction.findNode(RESOURCE, "uri", entry.getKey());
-            if (node1 == null) {
-              node1 = inThreadTransaction.createNode(RESOURCE);
-              node1.setProperty("uri", entry.getKey());
-            }
-            return node1;
-          });
+      return writeBatch(inThreadTransaction, batch);
+    } finally {
+      mappedTripleCounter -= batch.getDiscardedTriples();
+    }
+  }
 
-          entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
-          resourceProps.get(entry.getKey()).forEach((k, v) -> setProperty(node,k,v));
-        } catch (ExecutionException e) {
-          e.printStackTrace();
-        }
-      }
+  /**
+   * Detaches the state accumulated since the last commit from the parser. The mapped triple
+   * counter is left untouched.
+   */
+  protected ImportBatch takeBatch() {
+    ImportBatch batch = new ImportBatch(relationships, resourceLabels, resourceProps,
+        mappedTripleCounter);
+    batch.setPosition(sourceOffset, totalTriplesParsed);
+    relationships = new RelationshipBuffer();
+    resourceLabels = new HashMap<>();
+    resourceProps = new HashMap<>();
+    return batch;
+  }
 
-      for (Statement st : statements) {
-        try {
-
-          final Node fromNode = nodeCache
-                  .get(st.getSubject().stringValue(), () -> {  //throws AnyException
-                    return inThreadTransaction.findNode(RESOURCE, "uri", st.getSubject().stringValue());
-                  });
-
-          final Node toNode = nodeCache
-                  .get(st.getObject().stringValue(), () -> {  //throws AnyException
-                    return inThreadTransaction.findNode(RESOURCE, "uri", st.getObject().stringValue());
-                  });
-
-          // check if the rel is already present. If so, don't recreate.
-          // explore the node with the lowest degree
-          boolean found = false;
-          Relationship theRel = null;
-          if (fromNode
-                  .getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                          Direction.OUTGOING) <
-                  toNode.getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                          Direction.INCOMING)) {
-            for (Relationship rel : fromNode
-                    .getRelationships(Direction.OUTGOING,
-                            RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)))) {
-              if (rel.getEndNode().equals(toNode)) {
-                found = true;
-                theRel = rel;
-                break;
-              }
+  /**
+   * Writes and commits a batch in its own transaction, or across parallel worker transactions
+   * when the parallelism param is greater than one.
+   */
+  protected void commitBatch(ImportBatch batch) throws ExecutionException, InterruptedException {
+    try {
+      if (parserConfig.getParallelism() > 1) {
+        if (parallelWriter == null) {
+          parallelWriter = new ParallelBatchWriter(this, graphdb, parserConfig.getParallelism());
+        }
+        long[] started = importMetrics.batchStarted();
+        long writeStart = System.nanoTime();
+        parallelWriter.write(batch);
+        // workers commit their own partitions, commit time can't be told apart
+        batchCommitted(batch, started, System.nanoTime() - writeStart, 0, 0);
+        if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN
+            || checkpoint != null) {
+          try (Transaction tempTransaction = graphdb.beginTx()) {
+            if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
+              namespaces.partialRefresh(tempTransaction);
             }
-          } else {
-            for (Relationship rel : toNode
-                    .getRelationships(Direction.INCOMING,
-                            RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)))) {
-              if (rel.getStartNode().equals(fromNode)) {
-                found = true;
-                theRel = rel;
-                break;
-              }
+            // the workers have committed the batch, the checkpoint follows
+            updateCheckpoint(tempTransaction, batch);
+            tempTransaction.commit();
+          }
+        }
+      } else {
+        long[] started = importMetrics.batchStarted();
+        long writeStart = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+          try (Transaction tempTransaction = graphdb.beginTx()) {
+            writeBatch(tempTransaction, batch);
+            updateCheckpoint(tempTransaction, batch);
+            long txMemory = transactionMemory(tempTransaction);
+            long commitStart = System.nanoTime();
+            tempTransaction.commit();
+            long commitEnd = System.nanoTime();
+            importMetrics.add(Phase.COMMIT, commitEnd - commitStart);
+            batchCommitted(batch, started, commitEnd - writeStart, commitEnd - commitStart,
+                txMemory);
+            break;
+          } catch (TransientFailureException | ConstraintViolationException e) {
+            // deadlock with, or resource created concurrently by, another import. The retry
+            // finds the resources committed in the meantime
+            if (attempt == MAX_RETRIES) {
+              throw e;
             }
+            invalidateCaches();
+            batch.resetDiscardedTriples();
           }
+        }
+      }
+    } catch (ExecutionException | InterruptedException | RuntimeException e) {
+      // ids of nodes created by the rolled back transaction(s) can't be trusted anymore
+      invalidateCaches();
+      freezeCheckpoint();
+      throw e;
+    }
+  }
 
-          if (!found) {
-            theRel = fromNode.createRelationshipTo(
-                    toNode,
-                    RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)));
-          }
+  /**
+   * Moves the checkpoint (if any) to the end of the batch, in the transaction committing it.
+   */
+  void updateCheckpoint(Transaction inThreadTransaction, ImportBatch batch) {
+    if (checkpoint != null) {
+      checkpoint.update(inThreadTransaction, batch.getSourceOffset(), batch.getTriplesParsed(),
+          totalTriplesMapped + batch.getMappedTriples() - batch.getDiscardedTriples());
+    }
+  }
 
-          Map<String, Object> relProps = this.relProps.get(st);
-          if (relProps != null) {
-            for (Entry<String, Object> entry : relProps.entrySet()) {
+  /**
+   * @return memory used by the transaction writing a batch, when commits are adaptive
+   */
+  long transactionMemory(Transaction inThreadTransaction) {
+    return adaptiveCommitSize != null ? AdaptiveCommitSize.transactionMemory(inThreadTransaction)
+        : 0;
+  }
 
-              setProperty(theRel, entry.getKey(), entry.getValue());
-            }
-          }
+  /**
+   * Records the batch just committed in the import metrics and lets adaptive commits size the
+   * next one from it.
+   *
+   * @param started import metrics counters when the batch started
+   * @param nanos time taken to write and commit the batch
+   * @param commitNanos part of it taken by the commit, 0 if unknown
+   */
+  void batchCommitted(ImportBatch batch, long[] started, long nanos, long commitNanos,
+      long txMemory) {
+    log.debug("rdf import batch committed: "
+        + importMetrics.batchWritten(batch.getMappedTriples(), nanos, started));
+    if (adaptiveCommitSize != null) {
+      adaptiveCommitSize.afterCommit(batch.getMappedTriples(), nanos, txMemory);
+    }
+  }
 
-        } catch (ExecutionException e) {
-          e.printStackTrace();
-        }
+  /**
+   * @return the commit sizes chosen by adaptive commits, null if the import is not adaptive
+   */
+  public Map<String, Object> getAdaptiveCommitStats() {
+    return adaptiveCommitSize != null ? adaptiveCommitSize.getStats() : null;
+  }
+
+  /**
+   * @return stats of the relationships remembered by the import, null if it doesn't remember
+   * them (expectedTriples 0 or skipExistenceCheck)
+   */
+  public Map<String, Object> getImportedRelationshipsStats() {
+    return importedRelationships != null ? importedRelationships.getStats() : null;
+  }
+
+  /**
+   * @return blank nodes of the document created (without an index lookup) and found again in
+   * later batches, also without an index lookup
+   */
+  public Map<String, Object> getBlankNodeStats() {
+    return Map.of("size", (long) documentBNodes.size(), "hits", bnodeHits.get());
+  }
+
+  /**
+   * Forgets the nodes and relationships cached, after a batch is rolled back.
+   */
+  void invalidateCaches() {
+    nodeCache.invalidateAll();
+    // the blank nodes of the batches committed are in the graph, only the index finds them now
+    documentBNodesComplete = false;
+    documentBNodes.clear();
+    if (importedRelationships != null) {
+      importedRelationships.clear();
+    }
+  }
+
+  /**
+   * A batch was lost: the checkpoint stays at the last one committed.
+   */
+  void freezeCheckpoint() {
+    if (checkpoint != null) {
+      checkpoint.freeze();
+    }
+  }
+
+  @Override
+  protected void addRelationship(String subjectUri, IRI predicate, String objectUri) {
+    relationships.add(subjectUri, predicate, objectUri);
+  }
+
+  @Override
+  protected void addRelationshipWithProperty(String subjectUri, IRI predicate, String objectUri,
+      IRI propertyIRI, Literal propValueRaw) {
+    int rel = relationships.add(subjectUri, predicate, objectUri);
+    Object propValue = convertLiteral(propertyIRI, propValueRaw);
+    if (propValue != null) {
+      addPropertyValueToElementProps(propertyIRI, relationships.getOrCreateProperties(rel),
+          propValue);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (parallelWriter != null) {
+      parallelWriter.shutdown();
+    }
+  }
+
+  protected Integer writeBatch(Transaction inThreadTransaction, ImportBatch batch) {
+
+    Map<String, Node> batchNodes = prefetchResources(inThreadTransaction, batch);
+    if (lockResources) {
+      lockResources(inThreadTransaction, batchNodes);
+    }
+
+    for (String uri : batch.getResourceLabels().keySet()) {
+      batch.addDiscardedTriples(setLabelsAndProperties(batchNodes.get(uri), uri, batch));
+    }
+
+    RelationshipBuffer rels = batch.getRelationships();
+    Node[] nodesByUriId = new Node[rels.getUriCount()];
+    for (int uriId = 0; uriId < nodesByUriId.length; uriId++) {
+      nodesByUriId[uriId] = batchNodes.get(rels.getUri(uriId));
+    }
+    int[] order = rels.sortedBySubjectAndPredicate();
+    batch.addDiscardedTriples(writeRelationships(inThreadTransaction, batch,
+        resolveRelationshipTypes(rels), order, 0, order.length, uriId -> nodesByUriId[uriId]));
+
+    Integer result = 0;
+    if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
+      result = namespaces.partialRefresh(inThreadTransaction);
+    }
+
+    return result;
+  }
+
+  /**
+   * Resolves all the resources in the batch before anything is written so that writing
+   * relationships never waits on an index lookup. Cached ids are rebound first, the rest are
+   * looked up in bulk against the uri index (sorted, in chunks of {@link #PREFETCH_CHUNK_SIZE})
+   * and the ones not in the graph yet are created in one pass.
+   *
+   * @return nodes by uri. Relationship ends that are not resources of the batch and do not
+   * exist in the graph are not created (nor returned).
+   */
+  Map<String, Node> prefetchResources(Transaction inThreadTransaction, ImportBatch batch) {
+    Set<String> uris = new HashSet<>(batch.getResourceLabels().keySet());
+    RelationshipBuffer rels = batch.getRelationships();
+    for (int uriId = 0; uriId < rels.getUriCount(); uriId++) {
+      uris.add(rels.getUri(uriId));
+    }
+    return prefetchResources(inThreadTransaction, uris, batch);
+  }
+
+  /**
+   * Resolves the resources of a partition of the batch written by a worker of the parallel
+   * writer, the same way and with the same locks as the ones of a whole batch.
+   */
+  Map<String, Node> resolvePartition(Transaction inThreadTransaction, Collection<String> uris,
+      ImportBatch batch) {
+    Map<String, Node> partitionNodes = prefetchResources(inThreadTransaction, uris, batch);
+    if (lockResources) {
+      lockResources(inThreadTransaction, partitionNodes);
+    }
+    return partitionNodes;
+  }
+
+  /**
+   * Locks the nodes the relationships written by a worker of the parallel writer are attached
+   * to, when other loaders may be writing relationships of the same resources.
+   */
+  void lockPartitionNodes(Transaction inThreadTransaction, Map<String, Node> partitionNodes) {
+    if (lockResources) {
+      lockResources(inThreadTransaction, partitionNodes);
+    }
+  }
+
+  private Map<String, Node> prefetchResources(Transaction inThreadTransaction,
+      Collection<String> uris, ImportBatch batch) {
+    long lookupStart = System.nanoTime();
+    Map<String, Node> batchNodes = new HashMap<>(uris.size() * 2);
+    List<String> notCached = new ArrayList<>();
+    for (String uri : uris) {
+      Node node = cachedNode(inThreadTransaction, uri);
+      if (node != null) {
+        batchNodes.put(uri, node);
+      } else if (isNewBNode(uri) && batch.getResourceLabels().containsKey(uri)) {
+        batchNodes.put(uri, createBNode(inThreadTransaction, uri));
+      } else {
+        notCached.add(uri);
       }
+    }
 
+    // sorted keys make consecutive seeks hit neighbouring index pages
+    Collections.sort(notCached);
+    for (int from = 0; from < notCached.size(); from += PREFETCH_CHUNK_SIZE) {
+      List<String> chunk = notCached.subList(from,
+          Math.min(from + PREFETCH_CHUNK_SIZE, notCached.size()));
+      Result result = inThreadTransaction.execute(BULK_LOOKUP, Map.of("uris", chunk));
+      while (result.hasNext()) {
+        Map<String, Object> row = result.next();
+        Node node = (Node) row.get("r");
+        batchNodes.put((String) row.get("uri"), node);
+        nodeCache.put((String) row.get("uri"), node.getElementId());
+      }
+    }
 
-      Integer result = 0;
-      if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
-        result = namespaces.partialRefresh(inThreadTransaction);
+    List<String> missing = new ArrayList<>();
+    for (String uri : notCached) {
+      if (!batchNodes.containsKey(uri) && batch.getResourceLabels().containsKey(uri)) {
+        missing.add(uri);
+      }
+    }
+    if (lockResources) {
+      // another loader may be creating the same resources: MERGE waits for it and matches
+      for (int from = 0; from < missing.size(); from += PREFETCH_CHUNK_SIZE) {
+        Result result = inThreadTransaction.execute(BULK_MERGE, Map.of("uris",
+            missing.subList(from, Math.min(from + PREFETCH_CHUNK_SIZE, missing.size()))));
+        while (result.hasNext()) {
+          Map<String, Object> row = result.next();
+          Node node = (Node) row.get("r");
+          batchNodes.put((String) row.get("uri"), node);
+          nodeCache.put((String) row.get("uri"), node.getElementId());
+        }
+      }
+    } else {
+      for (String uri : missing) {
+        Node node = inThreadTransaction.createNode(RESOURCE);
+        node.setProperty("uri", uri);
+        batchNodes.put(uri, node);
+        nodeCache.put(uri, node.getElementId());
       }
+    }
+    importMetrics.add(Phase.NODE_LOOKUP, System.nanoTime() - lookupStart);
+    return batchNodes;
+  }
 
-      return result;
+  /**
+   * Locks all the nodes of the batch, the ones updated and the ones relationships are attached
+   * to. Always taking them in uri order means loaders sharing resources never deadlock each
+   * other.
+   */
+  private void lockResources(Transaction inThreadTransaction, Map<String, Node> batchNodes) {
+    for (Node node : new TreeMap<>(batchNodes).values()) {
+      inThreadTransaction.acquireWriteLock(node);
+    }
+  }
 
-    } finally {
-      statements.clear();
-      resourceLabels.clear();
-      resourceProps.clear();
-      relProps.clear();
-      nodeCache.invalidateAll();
-    }
-  }
-
-  private void setProperty(Entity node, String k, Object v) {
-    if (v instanceof List) {
-      Object currentValue = node.getProperty(k, null);
-      List<Object> newList = new ArrayList<>();
-      if (currentValue != null) {
-        //initialise with existing values
-        if (currentValue.getClass().isArray()) {
-          int length = Array.getLength(currentValue);
-          for (int i = 0; i < length; i ++) {
-            Object atomicValue = Array.get(currentValue, i);
-            newList.add(atomicValue);
-          }
-        } else {
-          //TODO: this logic could go because now it's not possible to change
-          // from atomic to multival without emptying the DB
-          newList.add(node.getProperty(k));
+  /**
+   * Same as {@link #findOrCreateResource(Transaction, String)} going through the node cache.
+   */
+  Node getOrCreateResource(Transaction inThreadTransaction, String uri) {
+    long lookupStart = System.nanoTime();
+    Node node = cachedNode(inThreadTransaction, uri);
+    if (node == null) {
+      node = isNewBNode(uri) ? createBNode(inThreadTransaction, uri)
+          : nodeCache.get(inThreadTransaction, uri,
+              key -> findOrCreateResource(inThreadTransaction, key));
+    }
+    importMetrics.add(Phase.NODE_LOOKUP, System.nanoTime() - lookupStart);
+    return node;
+  }
+
+  /**
+   * Blank nodes of the document are kept apart from the node cache: they are never evicted (so
+   * a blank node is looked up in the index at most once, if ever) and don't push the other
+   * resources out of the cache.
+   */
+  private Node cachedNode(Transaction inThreadTransaction, String uri) {
+    if (!uri.startsWith(BNODE_PREFIX)) {
+      return nodeCache.getIfPresent(inThreadTransaction, uri);
+    }
+    String elementId = documentBNodes.get(uri);
+    if (elementId != null) {
+      try {
+        Node node = inThreadTransaction.getNodeByElementId(elementId);
+        // deleted and its id reused since, otherwise
+        if (uri.equals(node.getProperty("uri", null))) {
+          bnodeHits.incrementAndGet();
+          return node;
         }
+      } catch (NotFoundException e) {
+        // deleted since it was created
       }
+      documentBNodes.remove(uri);
+    }
+    return nodeCache.getIfPresent(inThreadTransaction, uri);
+  }
+
+  /**
+   * @return true if the uri is the one of a blank node of the document not created yet: blank
+   * node labels only mean something in the document, so it can't be in the graph
+   */
+  private boolean isNewBNode(String uri) {
+    return documentBNodesComplete && uri.startsWith(BNODE_PREFIX)
+        && !documentBNodes.containsKey(uri) && documentBNodes.size() < MAX_DOCUMENT_BNODES;
+  }
+
+  private Node createBNode(Transaction inThreadTransaction, String uri) {
+    Node node = inThreadTransaction.createNode(RESOURCE);
+    node.setProperty("uri", uri);
+    documentBNodes.put(uri, node.getElementId());
+    return node;
+  }
 
-      Class<?> currentDatatype = newList.isEmpty()?((List) v).get(0).getClass():newList.get(0).getClass();
+  @Override
+  public NodeIdCache<String> getNodeCache() {
+    return nodeCache;
+  }
+
+  Node findOrCreateResource(Transaction inThreadTransaction, String uri) {
+    Node node = inThreadTransaction.findNode(RESOURCE, "uri", uri);
+    if (node == null) {
+      node = inThreadTransaction.createNode(RESOURCE);
+      node.setProperty("uri", uri);
+    }
+    return node;
+  }
+
+  /**
+   * @return triples discarded (properties of a conflicting datatype)
+   */
+  long setLabelsAndProperties(Node node, String uri, ImportBatch batch) {
+    batch.getResourceLabels().get(uri).forEach(l -> node.addLabel(Label.label(l)));
+    long discarded = 0;
+    for (Entry<String, Object> prop : batch.getResourceProps().get(uri).entrySet()) {
+      discarded += setProperty(node, prop.getKey(), prop.getValue());
+    }
+    return discarded;
+  }
+
+  /**
+   * @return the relationship type of each predicate in the buffer (indexed by predicate id), so
+   * that predicates are translated once per batch instead of once per statement
+   */
+  RelationshipType[] resolveRelationshipTypes(RelationshipBuffer rels) {
+    List<IRI> predicates = rels.getPredicates();
+    RelationshipType[] types = new RelationshipType[predicates.size()];
+    for (int predicateId = 0; predicateId < types.length; predicateId++) {
+      types[predicateId] = RelationshipType
+          .withName(handleIRI(predicates.get(predicateId), RELATIONSHIP));
+    }
+    return types;
+  }
+
+  /**
+   * Writes the relationships at positions [from, to) of order (as returned by {@link
+   * RelationshipBuffer#sortedBySubjectAndPredicate()}) one (start node, type) group at a time.
+   *
+   * @return triples discarded (relationship properties of a conflicting datatype)
+   */
+  long writeRelationships(Transaction inThreadTransaction, ImportBatch batch,
+      RelationshipType[] types, int[] order, int from, int to, IntFunction<Node> nodesByUriId) {
+    RelationshipBuffer rels = batch.getRelationships();
+    int groupStart = from;
+    long discarded = 0;
+    while (groupStart < to) {
+      int subjectId = rels.getSubjectId(order[groupStart]);
+      int predicateId = rels.getPredicateId(order[groupStart]);
+      int groupEnd = groupStart + 1;
+      while (groupEnd < to && rels.getSubjectId(order[groupEnd]) == subjectId
+          && rels.getPredicateId(order[groupEnd]) == predicateId) {
+        groupEnd++;
+      }
+      discarded += writeRelationshipGroup(inThreadTransaction, nodesByUriId.apply(subjectId),
+          types[predicateId], batch, order, groupStart, groupEnd, nodesByUriId);
+      groupStart = groupEnd;
+    }
+    return discarded;
+  }
 
-      List<Object> discardedItems = new ArrayList<>();
+  private long writeRelationshipGroup(Transaction inThreadTransaction, Node fromNode,
+      RelationshipType type, ImportBatch batch, int[] order, int groupStart, int groupEnd,
+      IntFunction<Node> nodesByUriId) {
+    RelationshipBuffer rels = batch.getRelationships();
+    Node[] targets = new Node[groupEnd - groupStart];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = nodesByUriId.apply(rels.getObjectId(order[groupStart + i]));
+    }
 
-      for(Object x:(List)v) {
-        if (x.getClass().equals(currentDatatype)){
-          newList.add(x);
-        }  else {
-          discardedItems.add(x);
+    // check if the rels are already present. If so, don't recreate.
+    long checkStart = System.nanoTime();
+    Relationship[] existing = parserConfig.isSkipExistenceCheck()
+        ? new Relationship[targets.length]
+        : findExisting(inThreadTransaction, fromNode, type, targets);
+    importMetrics.add(Phase.RELATIONSHIP_CHECK, System.nanoTime() - checkStart);
+
+    long discarded = 0;
+    for (int i = 0; i < targets.length; i++) {
+      Relationship theRel = existing[i];
+      if (theRel == null) {
+        theRel = fromNode.createRelationshipTo(targets[i], type);
+        if (importedRelationships != null) {
+          importedRelationships.add(fromNode, type, targets[i], theRel);
         }
       }
+      Map<String, Object> relProps = rels.getProperties(order[groupStart + i]);
+      if (relProps != null) {
+        for (Entry<String, Object> entry : relProps.entrySet()) {
+          discarded += setProperty(theRel, entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    return discarded;
+  }
 
-      if(!discardedItems.isEmpty()){
-        this.datatypeConflictFound |= true;
-        if (getParserConfig().isStrictDataTypeCheck()){
-          this.mappedTripleCounter-= discardedItems.size();
-          log.warn("The following values for property '" + k + "' have been discarded because of datatype heterogeneity (previously stored values are of type " + currentDatatype + ") : " + discardedItems );
-          node.setProperty(k, toPropertyValue(newList.stream().collect(Collectors.toSet())));
-        } else {
-          //default all to string if they're not already return defaultToString(it.iterator());
-          newList.addAll(discardedItems);
-          node.setProperty(k, toPropertyValue(defaultToString(newList.iterator()).stream().collect(Collectors.toSet())));
+  /**
+   * @return for each target, the existing relationship from the start node or null. The ones
+   * this import has created or found already are not looked up in the store again
+   */
+  private Relationship[] findExisting(Transaction inThreadTransaction, Node fromNode,
+      RelationshipType type, Node[] targets) {
+    if (importedRelationships == null) {
+      return RelationshipExistenceChecker.findExisting(fromNode, type, targets);
+    }
+    Relationship[] existing = new Relationship[targets.length];
+    int[] unseen = new int[targets.length];
+    int unseenCount = 0;
+    for (int i = 0; i < targets.length; i++) {
+      existing[i] = importedRelationships.find(inThreadTransaction, fromNode, type, targets[i]);
+      if (existing[i] == null) {
+        unseen[unseenCount++] = i;
+      }
+    }
+    if (unseenCount > 0) {
+      Node[] unseenTargets = new Node[unseenCount];
+      for (int i = 0; i < unseenCount; i++) {
+        unseenTargets[i] = targets[unseen[i]];
+      }
+      Relationship[] found = RelationshipExistenceChecker
+          .findExisting(fromNode, type, unseenTargets);
+      for (int i = 0; i < unseenCount; i++) {
+        if (found[i] != null) {
+          existing[unseen[i]] = found[i];
+          importedRelationships.add(fromNode, type, unseenTargets[i], found[i]);
         }
-      } else {
-        //no discarded elements. all good, newlist contains all the values. nothing to do
-        node.setProperty(k, toPropertyValue(newList.stream().collect(Collectors.toSet())));
       }
+    }
+    return existing;
+  }
 
-    } else {
-      node.setProperty(k, v);
+  /**
+   * @return number of values discarded because of datatype heterogeneity (strict mode only)
+   */
+  private int setProperty(Entity node, String k, Object v) {
+    long mergeStart = System.nanoTime();
+    try {
+      if (v instanceof List) {
+        MergedValue merged = mergeMultivalValues(k, node.getProperty(k, null), (List<Object>) v);
+        node.setProperty(k, merged.getValue());
+        return merged.getDiscarded();
+      } else {
+        node.setProperty(k, v);
+      }
+      return 0;
+    } finally {
+      importMetrics.add(Phase.PROPERTY_MERGE, System.nanoTime() - mergeStart);
     }
   }
 
@@ -227,9 +734,10 @@ public class DirectStatementLoader extends RDFToLPGStatementProcessor {
       }
     }
 
-    try (Transaction tempTransaction = graphdb.beginTx()) {
-      this.runPartialTx(tempTransaction);
-      tempTransaction.commit();
+    ImportBatch batch = takeBatch();
+    try {
+      commitBatch(batch);
+      mappedTripleCounter -= batch.getDiscardedTriples();
       log.debug("partial commit: " + mappedTripleCounter + " triples ingested. Total so far: "
           + totalTriplesMapped);
       totalTriplesMapped += mappedTripleCounter;
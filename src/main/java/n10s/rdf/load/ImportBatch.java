@@ -0,0 +1,86 @@
+package n10s.rdf.load;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ImportBatch groups the state accumulated by the parser between two partial commits
+ * (relationships with their properties, node labels and node properties) so that it can be
+ * written to the graph independently from the parser that produced it.
+ *
+ * @see DirectStatementLoader
+ * @see PipelinedStatementLoader
+ */
+public class ImportBatch {
+
+  private final RelationshipBuffer relationships;
+  private final Map<String, Set<String>> resourceLabels;
+  private final Map<String, Map<String, Object>> resourceProps;
+  private final long mappedTriples;
+  private long discardedTriples = 0;
+  private long sourceOffset = -1;
+  private long triplesParsed = 0;
+
+  public ImportBatch(RelationshipBuffer relationships, Map<String, Set<String>> resourceLabels,
+      Map<String, Map<String, Object>> resourceProps, long mappedTriples) {
+    this.relationships = relationships;
+    this.resourceLabels = resourceLabels;
+    this.resourceProps = resourceProps;
+    this.mappedTriples = mappedTriples;
+  }
+
+  public RelationshipBuffer getRelationships() {
+    return relationships;
+  }
+
+  public Map<String, Set<String>> getResourceLabels() {
+    return resourceLabels;
+  }
+
+  public Map<String, Map<String, Object>> getResourceProps() {
+    return resourceProps;
+  }
+
+  /**
+   * @return number of mapped triples buffered in this batch
+   */
+  public long getMappedTriples() {
+    return mappedTriples;
+  }
+
+  /**
+   * @return byte offset in the payload where the statement after this batch starts, -1 if the
+   * parser does not report offsets
+   */
+  public long getSourceOffset() {
+    return sourceOffset;
+  }
+
+  /**
+   * @return number of statements parsed up to the end of this batch
+   */
+  public long getTriplesParsed() {
+    return triplesParsed;
+  }
+
+  void setPosition(long sourceOffset, long triplesParsed) {
+    this.sourceOffset = sourceOffset;
+    this.triplesParsed = triplesParsed;
+  }
+
+  /**
+   * @return number of values discarded while writing this batch because of datatype conflicts
+   */
+  public synchronized long getDiscardedTriples() {
+    return discardedTriples;
+  }
+
+  synchronized void addDiscardedTriples(long count) {
+    discardedTriples += count;
+  }
+
+  synchronized void resetDiscardedTriples() {
+    discardedTriples = 0;
+  }
+
+}
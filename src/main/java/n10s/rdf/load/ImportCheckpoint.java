@@ -0,0 +1,214 @@
+package n10s.rdf.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Position of an import in its payload, persisted as a _ImportCheckpoint node updated in the
+ * transaction of every partial commit, so that a failed import can be resumed from the last
+ * committed batch instead of from the start (n10s.rdf.import.resume).
+ * <p>
+ * For N-Triples and N-Quads local files the position is the byte offset where the line after
+ * the last committed statement starts, and a resumed parse seeks to it. Other payloads are
+ * parsed again from the start and the statements already committed (triplesParsed) are
+ * skipped. Their blank node ids are generated again on every parse, so blank nodes referenced
+ * on both sides of the checkpoint are not reconnected.
+ */
+public class ImportCheckpoint {
+
+  public static final String STATUS_RUNNING = "RUNNING";
+  public static final String STATUS_FAILED = "FAILED";
+  public static final String STATUS_COMPLETE = "COMPLETE";
+  private static final Label CHECKPOINT = Label.label("_ImportCheckpoint");
+  private static final ObjectMapper JSON = new ObjectMapper()
+      .configure(DeserializationFeature.USE_LONG_FOR_INTS, true)
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  private final String id;
+  private final String url;
+  private final String format;
+  private final Map<String, Object> params;
+  private final String configHash;
+  private final String bnodePrefix;
+  private final String status;
+  private final long byteOffset;
+  private final long triplesParsed;
+  private final long triplesLoaded;
+  // set when a batch could not be committed: the position can't move past it anymore
+  private volatile boolean frozen = false;
+
+  private ImportCheckpoint(Node node) throws InvalidCheckpoint {
+    this.id = (String) node.getProperty("id");
+    this.url = (String) node.getProperty("url");
+    this.format = (String) node.getProperty("format");
+    try {
+      this.params = JSON.readValue((String) node.getProperty("params"), Map.class);
+    } catch (JsonProcessingException e) {
+      throw new InvalidCheckpoint("Unreadable params in checkpoint " + id);
+    }
+    this.configHash = (String) node.getProperty("configHash");
+    this.bnodePrefix = (String) node.getProperty("bnodePrefix");
+    this.status = (String) node.getProperty("status");
+    this.byteOffset = (long) node.getProperty("byteOffset");
+    this.triplesParsed = (long) node.getProperty("triplesParsed");
+    this.triplesLoaded = (long) node.getProperty("triplesLoaded");
+  }
+
+  /**
+   * Creates the checkpoint of a new import (in its own transaction, the partial commits have to
+   * see it) positioned at the start of the payload.
+   */
+  public static ImportCheckpoint create(GraphDatabaseService db, String url, String format,
+      Map<String, Object> params, String bnodePrefix) throws InvalidCheckpoint {
+    String paramsJson;
+    try {
+      paramsJson = JSON.writeValueAsString(params);
+    } catch (JsonProcessingException e) {
+      throw new InvalidCheckpoint("Import params can't be saved in a checkpoint: "
+          + e.getMessage());
+    }
+    try (Transaction tx = db.beginTx()) {
+      Node node = tx.createNode(CHECKPOINT);
+      node.setProperty("id", UUID.randomUUID().toString());
+      node.setProperty("url", url);
+      node.setProperty("format", format);
+      node.setProperty("params", paramsJson);
+      node.setProperty("configHash", configHash(tx, format, params));
+      node.setProperty("bnodePrefix", bnodePrefix);
+      node.setProperty("status", STATUS_RUNNING);
+      node.setProperty("byteOffset", 0L);
+      node.setProperty("triplesParsed", 0L);
+      node.setProperty("triplesLoaded", 0L);
+      node.setProperty("updated", ZonedDateTime.now());
+      ImportCheckpoint checkpoint = new ImportCheckpoint(node);
+      tx.commit();
+      return checkpoint;
+    }
+  }
+
+  public static ImportCheckpoint load(Transaction tx, String id) throws InvalidCheckpoint {
+    Node node = tx.findNode(CHECKPOINT, "id", id);
+    if (node == null) {
+      throw new InvalidCheckpoint("No import checkpoint with id " + id);
+    }
+    return new ImportCheckpoint(node);
+  }
+
+  /**
+   * @return a hash of the format, the import params and the graph config, which have to be the
+   * same when an import is resumed
+   */
+  public static String configHash(Transaction tx, String format, Map<String, Object> params) {
+    Map<String, Object> graphConfig = new HashMap<>();
+    try (ResourceIterator<Node> configNodes = tx.findNodes(Label.label("_GraphConfig"))) {
+      if (configNodes.hasNext()) {
+        graphConfig.putAll(configNodes.next().getAllProperties());
+      }
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      String canonical = format + JSON.writeValueAsString(params)
+          + JSON.writeValueAsString(graphConfig);
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(canonical.getBytes(StandardCharsets.UTF_8))) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Moves the checkpoint to the end of a batch, in the transaction that commits it.
+   */
+  void update(Transaction tx, long byteOffset, long triplesParsed, long triplesLoaded) {
+    if (frozen) {
+      return;
+    }
+    Node node = tx.findNode(CHECKPOINT, "id", id);
+    node.setProperty("byteOffset", byteOffset);
+    node.setProperty("triplesParsed", triplesParsed);
+    node.setProperty("triplesLoaded", triplesLoaded);
+    node.setProperty("updated", ZonedDateTime.now());
+  }
+
+  void freeze() {
+    frozen = true;
+  }
+
+  public void finish(GraphDatabaseService db, String status, String message) {
+    try (Transaction tx = db.beginTx()) {
+      Node node = tx.findNode(CHECKPOINT, "id", id);
+      node.setProperty("status", frozen && status.equals(STATUS_COMPLETE) ? STATUS_FAILED
+          : status);
+      node.setProperty("message", frozen && message == null
+          ? "Some partial commits failed. Resume to import again from the last one committed"
+          : message == null ? "" : message);
+      node.setProperty("updated", ZonedDateTime.now());
+      tx.commit();
+    }
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getFormat() {
+    return format;
+  }
+
+  public Map<String, Object> getParams() {
+    return new HashMap<>(params);
+  }
+
+  public String getConfigHash() {
+    return configHash;
+  }
+
+  public String getBNodePrefix() {
+    return bnodePrefix;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public long getByteOffset() {
+    return byteOffset;
+  }
+
+  public long getTriplesParsed() {
+    return triplesParsed;
+  }
+
+  public long getTriplesLoaded() {
+    return triplesLoaded;
+  }
+
+  public static class InvalidCheckpoint extends Exception {
+
+    public InvalidCheckpoint(String message) {
+      super(message);
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+package n10s.rdf.load;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Payloads already applied by inline imports run with the ledger on (ledger param), persisted
+ * as _ImportLedger nodes keyed by a hash of the payload, the format, the import params and the
+ * graph config. An identical payload imported again with the same params and graph config
+ * would change nothing, so it is skipped.
+ * <p>
+ * The n10s delete procedures clear the ledger, since they can take out what an applied payload
+ * wrote (and deleting the whole graph takes the ledger with it). Partial deletes done in plain
+ * Cypher are not tracked: imports following them should run without the ledger.
+ */
+public class ImportLedger {
+
+  private static final Label LEDGER = Label.label("_ImportLedger");
+
+  /**
+   * @return the ledger key of a payload, which changes with the import params and the graph
+   * config (see {@link ImportCheckpoint#configHash(Transaction, String, Map)})
+   */
+  public static String key(Transaction tx, String format, Map<String, Object> params,
+      String payload) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(ImportCheckpoint.configHash(tx, format, params)
+          .getBytes(StandardCharsets.UTF_8));
+      digest.update(payload.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the ledger entry of a payload (when it was applied and the triples it loaded), null
+   * if it hasn't been applied
+   */
+  public static Map<String, Object> find(Transaction tx, String key) {
+    try (ResourceIterator<Node> entries = tx.findNodes(LEDGER, "key", key)) {
+      return entries.hasNext() ? entries.next().getAllProperties() : null;
+    }
+  }
+
+  public static void record(Transaction tx, String key, long triplesParsed,
+      long triplesLoaded) {
+    try (ResourceIterator<Node> entries = tx.findNodes(LEDGER, "key", key)) {
+      Node entry = entries.hasNext() ? entries.next() : tx.createNode(LEDGER);
+      entry.setProperty("key", key);
+      entry.setProperty("applied", ZonedDateTime.now());
+      entry.setProperty("triplesParsed", triplesParsed);
+      entry.setProperty("triplesLoaded", triplesLoaded);
+    }
+  }
+
+  /**
+   * Forgets every payload applied, in the transaction of a delete.
+   */
+  public static void clear(Transaction tx) {
+    try (ResourceIterator<Node> entries = tx.findNodes(LEDGER)) {
+      entries.forEachRemaining(Node::delete);
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+package n10s.rdf.load;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Relationships created or found by an import, so that a triple repeated in a later batch
+ * (denormalized dumps) skips the existence check in the store. It is a fingerprint filter: a
+ * 64 bit hash of (start node, type, end node) per relationship, with the element id of the
+ * relationship. A triple whose fingerprint isn't there has definitely not been seen. One whose
+ * fingerprint is there is confirmed by reading the relationship it points to, which is much
+ * cheaper than comparing degrees and scanning the relationships of either node. Fingerprint
+ * collisions, and relationships rolled back or deleted meanwhile, fail the confirmation and
+ * fall back to the exact check.
+ * <p>
+ * It is only kept when asked for, with the expected triple count (expectedTriples param). The
+ * table grows with the import up to the capacity for that count, then relationships not yet in
+ * it are no longer recorded.
+ */
+final class ImportedRelationships {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final double MAX_LOAD = 0.75;
+
+  private final int maxCapacity;
+  // open addressing (linear probing), 0 marks an empty slot
+  private long[] fingerprints = new long[INITIAL_CAPACITY];
+  private String[] elementIds = new String[INITIAL_CAPACITY];
+  private int size = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long falsePositives = 0;
+
+  ImportedRelationships(long expectedTriples) {
+    long capacity = INITIAL_CAPACITY;
+    while (capacity * MAX_LOAD < expectedTriples && capacity < (1 << 30)) {
+      capacity <<= 1;
+    }
+    this.maxCapacity = (int) capacity;
+  }
+
+  /**
+   * @return the relationship if this import has created or found it, null if it has definitely
+   * not, or can't tell (then the store has to be checked)
+   */
+  synchronized Relationship find(Transaction tx, Node from, RelationshipType type, Node to) {
+    long fingerprint = fingerprint(from, type, to);
+    int slot = slotOf(fingerprint);
+    if (slot < 0 || fingerprints[slot] == 0) {
+      misses++;
+      return null;
+    }
+    try {
+      Relationship rel = tx.getRelationshipByElementId(elementIds[slot]);
+      if (rel.isType(type) && rel.getStartNode().equals(from) && rel.getEndNode().equals(to)) {
+        hits++;
+        return rel;
+      }
+    } catch (NotFoundException e) {
+      // rolled back or deleted since it was recorded
+    }
+    falsePositives++;
+    return null;
+  }
+
+  synchronized void add(Node from, RelationshipType type, Node to, Relationship rel) {
+    long fingerprint = fingerprint(from, type, to);
+    int slot = slotOf(fingerprint);
+    if (slot >= 0 && fingerprints[slot] == 0) {
+      if (size + 1 > fingerprints.length * MAX_LOAD) {
+        if (fingerprints.length == maxCapacity) {
+          return;
+        }
+        grow();
+        slot = slotOf(fingerprint);
+      }
+      fingerprints[slot] = fingerprint;
+      size++;
+    }
+    if (slot >= 0) {
+      elementIds[slot] = rel.getElementId();
+    }
+  }
+
+  /**
+   * Forgets every relationship, when a batch fails. Entries are confirmed before they are used,
+   * but the ones of a rolled back batch would only cost confirmations failing.
+   */
+  synchronized void clear() {
+    Arrays.fill(fingerprints, 0);
+    Arrays.fill(elementIds, null);
+    size = 0;
+  }
+
+  /**
+   * @return hits (triples skipping the existence check), misses, false positives and size
+   */
+  synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("falsePositives", falsePositives);
+    stats.put("size", (long) size);
+    return stats;
+  }
+
+  /**
+   * @return the slot holding the fingerprint or the empty one it would go to, -1 if the table
+   * is full
+   */
+  private int slotOf(long fingerprint) {
+    int mask = fingerprints.length - 1;
+    int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    for (int probes = 0; probes < fingerprints.length; probes++) {
+      if (fingerprints[slot] == 0 || fingerprints[slot] == fingerprint) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void grow() {
+    long[] oldFingerprints = fingerprints;
+    String[] oldElementIds = elementIds;
+    fingerprints = new long[oldFingerprints.length * 2];
+    elementIds = new String[oldFingerprints.length * 2];
+    for (int i = 0; i < oldFingerprints.length; i++) {
+      if (oldFingerprints[i] != 0) {
+        int slot = slotOf(oldFingerprints[i]);
+        fingerprints[slot] = oldFingerprints[i];
+        elementIds[slot] = oldElementIds[i];
+      }
+    }
+  }
+
+  private static long fingerprint(Node from, RelationshipType type, Node to) {
+    long h = mix(from.getElementId().hashCode());
+    h = mix(h ^ type.name().hashCode());
+    h = mix(h ^ ((long) to.getElementId().hashCode() << 32));
+    return h != 0 ? h : 1;
+  }
+
+  // finalizer of murmur3 (64 bit)
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
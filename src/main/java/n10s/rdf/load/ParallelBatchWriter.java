@@ -0,0 +1,173 @@
+package n10s.rdf.load;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+import n10s.utils.ImportMetrics.Phase;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+
+/**
+ * Writes an {@link ImportBatch} using several worker transactions in two phases: <ol> <li>all
+ * the batch nodes are upserted, partitioned by uri hash so that no two workers touch the same
+ * node</li> <li>relationships are created, partitioned by start node, so that all the
+ * relationships of a given (dense) node are written by the same worker.</li> </ol> Each
+ * partition is committed independently which means a batch is no longer atomic. A partition
+ * failing on a transient error (deadlock, lock timeout) is retried.
+ * <p>
+ * When loaders share resources (n10s.rdf.import.fetchAll) the missing nodes are merged, and the
+ * nodes a partition writes (both ends of its relationships in phase two) are locked in uri
+ * order, as the loader does for a whole batch.
+ */
+class ParallelBatchWriter {
+
+  private static final int MAX_RETRIES = 3;
+
+  private final DirectStatementLoader loader;
+  private final GraphDatabaseService graphdb;
+  private final int parallelism;
+  private final ExecutorService workers;
+
+  ParallelBatchWriter(DirectStatementLoader loader, GraphDatabaseService graphdb,
+      int parallelism) {
+    this.loader = loader;
+    this.graphdb = graphdb;
+    this.parallelism = parallelism;
+    this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread t = new Thread(r, "n10s-import-worker");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  void write(ImportBatch batch) throws ExecutionException, InterruptedException {
+
+    // phase one: nodes
+    Map<String, String> elementIds = new ConcurrentHashMap<>();
+    runPartitions(batch, partition(batch.getResourceLabels().keySet(), String::hashCode),
+        (tx, uris) -> {
+          Map<String, Node> nodes = loader.resolvePartition(tx, uris, batch);
+          long discarded = 0;
+          for (String uri : uris) {
+            Node node = nodes.get(uri);
+            discarded += loader.setLabelsAndProperties(node, uri, batch);
+            elementIds.put(uri, node.getElementId());
+          }
+          return discarded;
+        });
+
+    // phase two: relationships, one run of relationships sharing start node per item
+    RelationshipBuffer rels = batch.getRelationships();
+    RelationshipType[] types = loader.resolveRelationshipTypes(rels);
+    int[] order = rels.sortedBySubjectAndPredicate();
+    List<int[]> startNodeRuns = new ArrayList<>();
+    int runStart = 0;
+    for (int i = 1; i <= order.length; i++) {
+      if (i == order.length || rels.getSubjectId(order[i]) != rels.getSubjectId(order[runStart])) {
+        startNodeRuns.add(new int[]{runStart, i});
+        runStart = i;
+      }
+    }
+    runPartitions(batch, partition(startNodeRuns,
+            run -> startNodeId(elementIds, rels.getSubject(order[run[0]])).hashCode()),
+        (tx, runs) -> {
+          Map<String, Node> partitionNodes = new HashMap<>();
+          for (int[] run : runs) {
+            for (int i = run[0]; i < run[1]; i++) {
+              for (String uri : new String[]{rels.getSubject(order[i]), rels.getObject(order[i])}) {
+                partitionNodes.computeIfAbsent(uri, u -> getNode(tx, elementIds, u));
+              }
+            }
+          }
+          loader.lockPartitionNodes(tx, partitionNodes);
+          long discarded = 0;
+          for (int[] run : runs) {
+            discarded += loader.writeRelationships(tx, batch, types, order, run[0], run[1],
+                uriId -> getNode(tx, elementIds, rels.getUri(uriId)));
+          }
+          return discarded;
+        });
+  }
+
+  private String startNodeId(Map<String, String> elementIds, String subjectUri) {
+    String id = elementIds.get(subjectUri);
+    return id != null ? id : subjectUri;
+  }
+
+  private Node getNode(Transaction tx, Map<String, String> elementIds, String uri) {
+    String id = elementIds.get(uri);
+    return id != null ? tx.getNodeByElementId(id) : loader.getOrCreateResource(tx, uri);
+  }
+
+  private <T> List<List<T>> partition(Iterable<T> items, ToIntFunction<T> key) {
+    List<List<T>> partitions = new ArrayList<>(parallelism);
+    for (int i = 0; i < parallelism; i++) {
+      partitions.add(new ArrayList<>());
+    }
+    for (T item : items) {
+      partitions.get(Math.floorMod(key.applyAsInt(item), parallelism)).add(item);
+    }
+    return partitions;
+  }
+
+  private <T> void runPartitions(ImportBatch batch, List<List<T>> partitions,
+      PartitionWriter<T> partitionWriter)
+      throws ExecutionException, InterruptedException {
+    List<Future<?>> pending = new ArrayList<>();
+    for (List<T> partition : partitions) {
+      if (!partition.isEmpty()) {
+        pending.add(workers.submit(() -> writePartition(batch, partition, partitionWriter)));
+      }
+    }
+    for (Future<?> f : pending) {
+      f.get();
+    }
+  }
+
+  /**
+   * Triples discarded by a partition are only counted once it commits, not for the attempts
+   * rolled back.
+   */
+  private <T> void writePartition(ImportBatch batch, List<T> partition,
+      PartitionWriter<T> partitionWriter) {
+    for (int attempt = 1; ; attempt++) {
+      try (Transaction tx = graphdb.beginTx()) {
+        long discarded = partitionWriter.write(tx, partition);
+        long commitStart = System.nanoTime();
+        tx.commit();
+        loader.getImportMetrics().add(Phase.COMMIT, System.nanoTime() - commitStart);
+        batch.addDiscardedTriples(discarded);
+        return;
+      } catch (TransientFailureException e) {
+        if (attempt == MAX_RETRIES) {
+          throw e;
+        }
+        // nodes created by the partition were rolled back
+        loader.invalidateCaches();
+      }
+    }
+  }
+
+  void shutdown() {
+    workers.shutdownNow();
+  }
+
+  private interface PartitionWriter<T> {
+
+    /**
+     * @return triples discarded
+     */
+    long write(Transaction tx, List<T> partition);
+  }
+
+}
@@ -0,0 +1,211 @@
+package n10s.rdf.load;
+
+import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+/**
+ * Pipelined version of the {@link DirectStatementLoader}. The parser thread keeps filling a fresh
+ * batch while a dedicated writer thread writes and commits the previous one in its own
+ * transaction. Batches are handed over through a bounded queue so a slow writer blocks (stalls)
+ * the parser instead of letting batches pile up in memory.
+ */
+public class PipelinedStatementLoader extends DirectStatementLoader {
+
+  private static final ImportBatch END_OF_INPUT = new ImportBatch(null, null, null, 0);
+
+  private final BlockingQueue<ImportBatch> pendingBatches;
+  private final Thread writer;
+  private volatile RDFHandlerException writerException;
+
+  private long batchesHandedOver = 0;
+  private long queueStalls = 0;
+  private long queueStallNanos = 0;
+  private volatile long writeNanos = 0;
+  private volatile long commitNanos = 0;
+  private volatile long writerIdleNanos = 0;
+  private long startTime;
+  private long parseNanos = 0;
+
+  public PipelinedStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l) {
+    this(db, tx, conf, l, new NodeIdCache<>(conf.getNodeCacheSize()), false);
+  }
+
+  /**
+   * See {@link DirectStatementLoader#DirectStatementLoader(GraphDatabaseService, Transaction,
+   * RDFParserConfig, Log, NodeIdCache)}
+   */
+  public PipelinedStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, NodeIdCache<String> nodeCache) {
+    this(db, tx, conf, l, nodeCache, true);
+  }
+
+  private PipelinedStatementLoader(GraphDatabaseService db, Transaction tx,
+      RDFParserConfig conf, Log l, NodeIdCache<String> nodeCache, boolean lockResources) {
+    super(db, tx, conf, l, nodeCache, lockResources);
+    pendingBatches = new ArrayBlockingQueue<>(conf.getPipelineQueueSize());
+    writer = new Thread(this::writeBatches, "n10s-import-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public void startRDF() throws RDFHandlerException {
+    super.startRDF();
+    startTime = System.nanoTime();
+  }
+
+  @Override
+  public void endRDF() throws RDFHandlerException {
+    parseNanos = System.nanoTime() - startTime - queueStallNanos;
+    periodicOperation();
+    handOver(END_OF_INPUT);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PartialCommitException("Interrupted while waiting for the import writer", e);
+    }
+    rethrowWriterException();
+    importMetrics.finish();
+    log.debug("Import complete: " + totalTriplesMapped + "  triples ingested out of "
+        + totalTriplesParsed + " parsed. " + importMetrics.getStats(totalTriplesParsed));
+  }
+
+  @Override
+  protected void periodicOperation() {
+    rethrowWriterException();
+    handOver(takeBatch());
+    mappedTripleCounter = 0;
+  }
+
+  private void handOver(ImportBatch batch) {
+    try {
+      if (!pendingBatches.offer(batch)) {
+        // the writer is still busy with previous batches, the parser has to wait
+        queueStalls++;
+        long stallStart = System.nanoTime();
+        pendingBatches.put(batch);
+        queueStallNanos += System.nanoTime() - stallStart;
+      }
+      if (batch != END_OF_INPUT) {
+        batchesHandedOver++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PartialCommitException("Interrupted while handing over batch to import writer", e);
+    }
+  }
+
+  private void writeBatches() {
+    try {
+      while (true) {
+        long idleStart = System.nanoTime();
+        ImportBatch batch = pendingBatches.take();
+        writerIdleNanos += System.nanoTime() - idleStart;
+        if (batch == END_OF_INPUT) {
+          return;
+        }
+        if (writerException == null) {
+          writeHandedOverBatch(batch);
+        }
+      }
+    } catch (InterruptedException e) {
+      // import cancelled
+    }
+  }
+
+  private void writeHandedOverBatch(ImportBatch batch) {
+    if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
+      try (Transaction tempTransaction = graphdb.beginTx()) {
+        namespaces.partialRefresh(tempTransaction);
+        tempTransaction.commit();
+        log.debug("namespace prefixes synced: " + namespaces.toString());
+      } catch (Exception e) {
+        log.error("Problems syncing up namespace prefixes in partial commit. ", e);
+        if (getParserConfig().isAbortOnError()) {
+          writerException = new NamespacePrefixConflict(
+              "Problems syncing up namespace prefixes in partial commit. ", e);
+          freezeCheckpoint();
+          return;
+        }
+      }
+    }
+
+    try {
+      commitBatch(batch);
+      long ingested = batch.getMappedTriples() - batch.getDiscardedTriples();
+      totalTriplesMapped += ingested;
+      log.debug("partial commit: " + ingested + " triples ingested. Total so far: "
+          + totalTriplesMapped);
+    } catch (Exception e) {
+      log.error("Problems when running partial commit. Partial transaction rolled back. "
+          + batch.getMappedTriples() + " triples lost.", e);
+      if (getParserConfig().isAbortOnError()) {
+        writerException = new PartialCommitException(
+            "Problems when running partial commit. Partial transaction rolled back. ", e);
+      }
+    }
+  }
+
+  @Override
+  void batchCommitted(ImportBatch batch, long[] started, long nanos, long commitNanos,
+      long txMemory) {
+    super.batchCommitted(batch, started, nanos, commitNanos, txMemory);
+    writeNanos += nanos - commitNanos;
+    this.commitNanos += commitNanos;
+  }
+
+  private void rethrowWriterException() {
+    if (writerException != null) {
+      throw writerException;
+    }
+  }
+
+  @Override
+  public void close() {
+    shutdownWriter();
+    super.close();
+  }
+
+  private void shutdownWriter() {
+    if (writer.isAlive()) {
+      // parsing stopped before endRDF. The batches already handed over are written (as they
+      // would have been in a non pipelined import) and the writer is released.
+      try {
+        pendingBatches.put(END_OF_INPUT);
+        writer.join();
+      } catch (InterruptedException e) {
+        writer.interrupt();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return timings (ms) of each pipeline stage and how often the parser had to wait for the writer
+   */
+  public Map<String, Object> getPipelineMetrics() {
+    Map<String, Object> metrics = new HashMap<>();
+    metrics.put("batches", batchesHandedOver);
+    metrics.put("parseMillis", TimeUnit.NANOSECONDS.toMillis(parseNanos));
+    metrics.put("writeMillis", TimeUnit.NANOSECONDS.toMillis(writeNanos));
+    metrics.put("commitMillis", TimeUnit.NANOSECONDS.toMillis(commitNanos));
+    metrics.put("writerIdleMillis", TimeUnit.NANOSECONDS.toMillis(writerIdleNanos));
+    metrics.put("queueStalls", queueStalls);
+    metrics.put("queueStallMillis", TimeUnit.NANOSECONDS.toMillis(queueStallNanos));
+    return metrics;
+  }
+
+}
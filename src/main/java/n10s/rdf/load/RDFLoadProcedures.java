@@ -19,6 +19,26 @@ public class RDFLoadProcedures extends RDFProcedures {
     return Stream.of(doImport(format, url, null, props, false)); //check props.reusetx ?
   }
 
+  @Procedure(name = "n10s.rdf.import.resume", mode = Mode.WRITE)
+  @Description("Resumes an import started with the 'checkpoint' param from its last partial "
+      + "commit. Requires a unique constraint on :Resource(uri)")
+  public Stream<ImportResults> resume(@Name("checkpointId") String checkpointId) {
+
+    return Stream.of(doResume(checkpointId));
+  }
+
+  @Procedure(name = "n10s.rdf.import.fetchAll", mode = Mode.WRITE)
+  @Description("Imports all the RDF files in a directory (or matching a glob), relative to the "
+      + "import directory of the server, concurrently, with the number of threads set by the "
+      + "'workers' param (4 by default), and stores them in Neo4j as a property graph. Requires a "
+      + "unique constraint on :Resource(uri)")
+  public Stream<ImportAllResults> fetchAll(@Name("globOrDirectory") String globOrDirectory,
+      @Name("format") String format,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    return Stream.of(doImportAll(format, globOrDirectory, props));
+  }
+
   @Procedure(name = "n10s.rdf.import.inline", mode = Mode.WRITE)
   @Description("Imports an RDF snippet passed as parameter and stores it in Neo4j as a property "
       + "graph. Requires a unique constraint on :Resource(uri)")
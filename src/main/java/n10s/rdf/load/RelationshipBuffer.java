@@ -0,0 +1,217 @@
+package n10s.rdf.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.rdf4j.model.IRI;
+
+/**
+ * Compact buffer for the relationships parsed between two partial commits. Resource uris and
+ * predicates are interned in a dictionary (string to int) and each relationship is stored as a
+ * triple of ints in three parallel arrays, instead of one rdf4j Statement (plus the IRIs and the
+ * HashSet entry wrapping it) per triple. Duplicate triples are collapsed through an open
+ * addressing hash table on the int triples.
+ * <p>
+ * The dictionary lives as long as the buffer (one commit batch) so that memory stays bounded by
+ * the commit size.
+ */
+public class RelationshipBuffer {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Map<String, Integer> uriIds = new HashMap<>();
+  private final List<String> uris = new ArrayList<>();
+  private final Map<IRI, Integer> predicateIds = new HashMap<>();
+  private final List<IRI> predicates = new ArrayList<>();
+
+  private int[] subjectIds = new int[INITIAL_CAPACITY];
+  private int[] predicateIdsByRel = new int[INITIAL_CAPACITY];
+  private int[] objectIds = new int[INITIAL_CAPACITY];
+  private int size = 0;
+
+  // open addressing table holding (relationship index + 1), 0 means empty
+  private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+  private final Map<Integer, Map<String, Object>> relProps = new HashMap<>();
+
+  /**
+   * Adds a relationship unless already buffered.
+   *
+   * @return the index of the relationship in the buffer
+   */
+  public int add(String subjectUri, IRI predicate, String objectUri) {
+    int s = internUri(subjectUri);
+    int p = internPredicate(predicate);
+    int o = internUri(objectUri);
+
+    int mask = slots.length - 1;
+    int slot = hash(s, p, o) & mask;
+    while (slots[slot] != 0) {
+      int rel = slots[slot] - 1;
+      if (subjectIds[rel] == s && predicateIdsByRel[rel] == p && objectIds[rel] == o) {
+        return rel;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (size == subjectIds.length) {
+      int newCapacity = size * 2;
+      subjectIds = Arrays.copyOf(subjectIds, newCapacity);
+      predicateIdsByRel = Arrays.copyOf(predicateIdsByRel, newCapacity);
+      objectIds = Arrays.copyOf(objectIds, newCapacity);
+    }
+    subjectIds[size] = s;
+    predicateIdsByRel[size] = p;
+    objectIds[size] = o;
+    slots[slot] = size + 1;
+    size++;
+
+    if (size * 2 > slots.length) {
+      rehash();
+    }
+    return size - 1;
+  }
+
+  private int internUri(String uri) {
+    Integer id = uriIds.get(uri);
+    if (id == null) {
+      id = uris.size();
+      uris.add(uri);
+      uriIds.put(uri, id);
+    }
+    return id;
+  }
+
+  private int internPredicate(IRI predicate) {
+    Integer id = predicateIds.get(predicate);
+    if (id == null) {
+      id = predicates.size();
+      predicates.add(predicate);
+      predicateIds.put(predicate, id);
+    }
+    return id;
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    int mask = slots.length - 1;
+    for (int rel = 0; rel < size; rel++) {
+      int slot = hash(subjectIds[rel], predicateIdsByRel[rel], objectIds[rel]) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = rel + 1;
+    }
+  }
+
+  private static int hash(int s, int p, int o) {
+    int h = s * 0x9E3779B1;
+    h = (h ^ p) * 0x85EBCA6B;
+    h = (h ^ o) * 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return relationship indexes sorted by subject and then by predicate, so that relationships
+   * sharing start node and type are contiguous. Two counting sort passes on the dictionary ids.
+   */
+  public int[] sortedBySubjectAndPredicate() {
+    return countingSort(countingSort(null, predicateIdsByRel, predicates.size()), subjectIds,
+        uris.size());
+  }
+
+  private int[] countingSort(int[] rels, int[] keys, int keyCount) {
+    int[] next = new int[keyCount + 1];
+    for (int rel = 0; rel < size; rel++) {
+      next[keys[rel] + 1]++;
+    }
+    for (int key = 0; key < keyCount; key++) {
+      next[key + 1] += next[key];
+    }
+    int[] sorted = new int[size];
+    for (int i = 0; i < size; i++) {
+      int rel = rels == null ? i : rels[i];
+      sorted[next[keys[rel]]++] = rel;
+    }
+    return sorted;
+  }
+
+  /**
+   * @return the (mutable) property map of the relationship, created if needed
+   */
+  public Map<String, Object> getOrCreateProperties(int rel) {
+    return relProps.computeIfAbsent(rel, k -> new HashMap<>());
+  }
+
+  /**
+   * @return the property map of the relationship or null if it has no properties
+   */
+  public Map<String, Object> getProperties(int rel) {
+    return relProps.get(rel);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public String getSubject(int rel) {
+    return uris.get(subjectIds[rel]);
+  }
+
+  public String getObject(int rel) {
+    return uris.get(objectIds[rel]);
+  }
+
+  public IRI getPredicate(int rel) {
+    return predicates.get(predicateIdsByRel[rel]);
+  }
+
+  /**
+   * @return dictionary id of the subject uri of the relationship
+   */
+  public int getSubjectId(int rel) {
+    return subjectIds[rel];
+  }
+
+  /**
+   * @return dictionary id of the object uri of the relationship
+   */
+  public int getObjectId(int rel) {
+    return objectIds[rel];
+  }
+
+  /**
+   * @return dictionary id of the predicate of the relationship
+   */
+  public int getPredicateId(int rel) {
+    return predicateIdsByRel[rel];
+  }
+
+  /**
+   * @return uri for a dictionary id
+   */
+  public String getUri(int uriId) {
+    return uris.get(uriId);
+  }
+
+  /**
+   * @return number of distinct uris in the dictionary
+   */
+  public int getUriCount() {
+    return uris.size();
+  }
+
+  /**
+   * @return distinct predicates in the buffer, indexed by predicate id
+   */
+  public List<IRI> getPredicates() {
+    return predicates;
+  }
+
+}
@@ -0,0 +1,86 @@
+package n10s.rdf.load;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Finds which of a group of relationships sharing start node and type already exist in the
+ * graph, so that they are not created twice.
+ * <p>
+ * For a single relationship the endpoint with the lowest degree is explored. For a group, the
+ * start node is scanned once against a hash set of the target nodes whenever that is cheaper
+ * than exploring each pair, which is the case for dense (hub) start nodes receiving many
+ * relationships in the same batch.
+ */
+final class RelationshipExistenceChecker {
+
+  private RelationshipExistenceChecker() {
+  }
+
+  /**
+   * @return for each target, the existing relationship from the start node or null
+   */
+  static Relationship[] findExisting(Node from, RelationshipType type, Node[] targets) {
+    Relationship[] existing = new Relationship[targets.length];
+    int outDegree = from.getDegree(type, Direction.OUTGOING);
+    if (outDegree == 0) {
+      return existing;
+    }
+
+    int[] inDegrees = new int[targets.length];
+    long pairCost = 0;
+    for (int i = 0; i < targets.length; i++) {
+      inDegrees[i] = targets[i].getDegree(type, Direction.INCOMING);
+      pairCost += Math.min(outDegree, inDegrees[i]);
+    }
+
+    if (targets.length > 1 && outDegree <= pairCost) {
+      Map<Node, Integer> pending = new HashMap<>(targets.length * 2);
+      for (int i = 0; i < targets.length; i++) {
+        if (inDegrees[i] > 0) {
+          pending.put(targets[i], i);
+        }
+      }
+      for (Relationship rel : from.getRelationships(Direction.OUTGOING, type)) {
+        if (pending.isEmpty()) {
+          break;
+        }
+        Integer i = pending.remove(rel.getEndNode());
+        if (i != null) {
+          existing[i] = rel;
+        }
+      }
+    } else {
+      for (int i = 0; i < targets.length; i++) {
+        if (inDegrees[i] > 0) {
+          existing[i] = findExisting(from, type, targets[i], outDegree, inDegrees[i]);
+        }
+      }
+    }
+    return existing;
+  }
+
+  private static Relationship findExisting(Node from, RelationshipType type, Node to, int outDegree,
+      int inDegree) {
+    // explore the node with the lowest degree
+    if (outDegree < inDegree) {
+      for (Relationship rel : from.getRelationships(Direction.OUTGOING, type)) {
+        if (rel.getEndNode().equals(to)) {
+          return rel;
+        }
+      }
+    } else {
+      for (Relationship rel : to.getRelationships(Direction.INCOMING, type)) {
+        if (rel.getStartNode().equals(from)) {
+          return rel;
+        }
+      }
+    }
+    return null;
+  }
+
+}
@@ -18,7 +18,7 @@ public class StarFormatStatementStreamer extends StatementStreamer{
 
     @Override
     public void handleStatement(Statement st) throws RDFHandlerException {
-        if (statements.size() < parserConfig.getStreamTripleLimit()) {
+        if (streamedCount < parserConfig.getStreamTripleLimit()) {
             if(parserConfig.getPredicateExclusionList() == null || !parserConfig
                     .getPredicateExclusionList()
                     .contains(st.getPredicate().stringValue())) {
@@ -44,7 +44,7 @@ public class StarFormatStatementStreamer extends StatementStreamer{
                             (object instanceof Literal ? ((Literal) object).getLanguage().orElse(null) : null));
                 }
 
-                statements.add(statement);
+                emit(statement);
             }
         } else {
             throw new TripleLimitReached(parserConfig.getStreamTripleLimit() + " triples streamed");
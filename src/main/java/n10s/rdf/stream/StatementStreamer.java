@@ -1,8 +1,15 @@
 package n10s.rdf.stream;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import n10s.ConfiguredStatementHandler;
+import n10s.RDFImportException;
 import n10s.graphconfig.RDFParserConfig;
 import n10s.result.StreamedStatement;
 import org.eclipse.rdf4j.model.Literal;
@@ -10,10 +17,21 @@ import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 
+/**
+ * Streams the statements of a payload as they are parsed. The parser runs on its own thread and
+ * hands the statements over through a bounded queue: it waits when the consumer of the stream
+ * falls behind, so memory doesn't grow with the number of statements streamed. Closing the
+ * stream (a LIMIT in the query, or the query ending) stops the parse.
+ */
 public class StatementStreamer extends ConfiguredStatementHandler {
 
+  private static final int QUEUE_CAPACITY = 1024;
+  private static final Object END = new Object();
+
   protected final RDFParserConfig parserConfig;
-  protected List<StreamedStatement> statements;
+  protected long streamedCount = 0;
+  private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private volatile boolean closed = false;
 
   public StatementStreamer(
       RDFParserConfig pc) {
@@ -21,9 +39,109 @@ public class StatementStreamer extends ConfiguredStatementHandler {
 
   }
 
+  /**
+   * A parse of the payload, with this streamer as handler.
+   */
+  public interface Parse {
+
+    void run() throws Exception;
+  }
+
+  /**
+   * Starts the parse on a producer thread, and waits for the first statement, so that a payload
+   * that can't be parsed at all fails the call.
+   *
+   * @return the statements, as they are parsed
+   * @throws RDFImportException if the parse fails before the first statement
+   */
+  public Stream<StreamedStatement> stream(Parse parse) throws RDFImportException {
+    Thread producer = new Thread(() -> {
+      try {
+        parse.run();
+        put(END);
+      } catch (TripleLimitReached e) {
+        //streaming interrupted when limit reached. This is fine.
+        put(END);
+      } catch (StreamClosed e) {
+        // nobody is reading anymore
+      } catch (Throwable e) {
+        put(e);
+      }
+    }, "n10s-rdf-stream");
+    producer.setDaemon(true);
+    producer.start();
+
+    Object first = take();
+    if (first instanceof Throwable) {
+      throw new RDFImportException(((Throwable) first).getMessage());
+    }
+
+    Spliterator<StreamedStatement> statements = new Spliterators.AbstractSpliterator<>(
+        Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+      private Object next = first;
+
+      @Override
+      public boolean tryAdvance(Consumer<? super StreamedStatement> action) {
+        if (next == END) {
+          return false;
+        }
+        Object current = next != null ? next : take();
+        next = null;
+        if (current == END) {
+          // asked again after the end, it has to stay ended
+          next = END;
+          return false;
+        }
+        if (current instanceof Throwable) {
+          throw new RuntimeException("Streaming failed after " + streamedCount + " triples: "
+              + ((Throwable) current).getMessage());
+        }
+        action.accept((StreamedStatement) current);
+        return true;
+      }
+    };
+    return StreamSupport.stream(statements, false).onClose(() -> {
+      closed = true;
+      producer.interrupt();
+    });
+  }
+
+  /**
+   * Hands a statement over to the stream, waiting while the queue is full.
+   */
+  protected void emit(StreamedStatement statement) {
+    streamedCount++;
+    put(statement);
+  }
+
+  private void put(Object item) {
+    try {
+      while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+        if (closed) {
+          throw new StreamClosed();
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new StreamClosed();
+    }
+  }
+
+  /**
+   * @throws RuntimeException if the consumer is interrupted: the stream fails rather than look
+   * complete, and the producer stops
+   */
+  private Object take() {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closed = true;
+      throw new RuntimeException("Streaming interrupted after " + streamedCount + " triples");
+    }
+  }
+
   @Override
   public void startRDF() throws RDFHandlerException {
-    statements = new ArrayList<>();
   }
 
   @Override
@@ -38,7 +156,10 @@ public class StatementStreamer extends ConfiguredStatementHandler {
 
   @Override
   public void handleStatement(Statement st) throws RDFHandlerException {
-    if (statements.size() < parserConfig.getStreamTripleLimit()) {
+    if (closed) {
+      throw new StreamClosed();
+    }
+    if (streamedCount < parserConfig.getStreamTripleLimit()) {
       if(parserConfig.getPredicateExclusionList() == null || !parserConfig
               .getPredicateExclusionList()
               .contains(st.getPredicate().stringValue())) {
@@ -48,7 +169,7 @@ public class StatementStreamer extends ConfiguredStatementHandler {
                 (object instanceof Literal),
                 ((object instanceof Literal) ? ((Literal) object).getDatatype().stringValue() : null),
                 (object instanceof Literal ? ((Literal) object).getLanguage().orElse(null) : null));
-        statements.add(statement);
+        emit(statement);
       }
     } else {
       throw new TripleLimitReached(parserConfig.getStreamTripleLimit() + " triples streamed");
@@ -62,13 +183,19 @@ public class StatementStreamer extends ConfiguredStatementHandler {
   }
 
 
-  public List<StreamedStatement> getStatements() {
-    return statements;
-  }
-
   @Override
   public RDFParserConfig getParserConfig() {
     return parserConfig;
   }
 
+  /**
+   * Stops the parse once the stream is closed.
+   */
+  private static class StreamClosed extends RDFHandlerException {
+
+    StreamClosed() {
+      super("Stream closed");
+    }
+  }
+
 }
@@ -0,0 +1,23 @@
+package n10s.rdf.sync;
+
+import java.util.Map;
+import java.util.stream.Stream;
+import n10s.rdf.RDFProcedures;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+public class RDFSyncProcedures extends RDFProcedures {
+
+  @Procedure(mode = Mode.WRITE)
+  @Description(
+      "Brings the resources described in an RDF snapshot (parsed from url) in line with it, "
+          + "writing only the triples added or removed since the graph was loaded. Works on a "
+          + "graph resulted of importing RDF via n10s.rdf.import ")
+  public Stream<SyncResults> fetch(@Name("url") String url, @Name("format") String format,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    return Stream.of(doSync(format, url, props));
+  }
+
+}
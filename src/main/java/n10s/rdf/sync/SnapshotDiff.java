@@ -0,0 +1,192 @@
+package n10s.rdf.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import n10s.RDFToLPGStatementProcessor;
+import n10s.graphconfig.RDFParserConfig;
+import n10s.rdf.export.LPGRDFToRDFProcesssor;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Triple;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+/**
+ * Compares an RDF snapshot, subject by subject as it is parsed, with the triples materialized in
+ * the graph for the same subjects, as the graph exports them (see {@link
+ * LPGRDFToRDFProcesssor#describeResource(Node)}). The triples are buffered by subject until
+ * there are commitSize of them and the subject changes; the buffered subjects are then compared
+ * and the buffer released, so only the uris of the subjects already compared and the changes
+ * found are kept for the whole snapshot. Literals in the snapshot are compared in the form the value the import would store is exported in, so a literal written differently in the
+ * snapshot ("1"^^xsd:integer for a stored long) is not taken for a change.
+ * <p>
+ * Triples the import would not load (excluded predicates, literals filtered by language,
+ * RDF-star) are left out, and so are triples with blank nodes: blank nodes get new uris every
+ * time a document is imported, so they can't be matched with the ones in the graph. Resources
+ * not in the snapshot are not compared, neither are the labels, properties and relationships
+ * of a resource not created by an RDF import (in the base schema namespace).
+ * <p>
+ * The triples of a subject are not necessarily together in the snapshot, so its changes are only
+ * written once they can't change anymore: the additions to a subject with no removals right away
+ * (its triples further in the snapshot can only add to them), the changes of a subject with
+ * removals at the end of the snapshot, when no more triples of it can turn up, removals first.
+ */
+public class SnapshotDiff extends RDFToLPGStatementProcessor {
+
+  private static final Label RESOURCE = Label.label("Resource");
+
+  private final LPGRDFToRDFProcesssor exporter;
+  private final String baseSchemaNamespace;
+  private final BiConsumer<List<Statement>, List<Statement>> changes;
+  private final Map<String, Set<Statement>> batch = new HashMap<>();
+  // subjects compared in a previous batch, the ones with removals have their changes deferred
+  private final Set<String> compared = new HashSet<>();
+  private final Map<String, DeferredChanges> deferred = new HashMap<>();
+  private String lastSubject;
+  private long statementsWithBNodeCount = 0;
+
+  /**
+   * @param changes writes the removals and additions (in this order) handed over, before the
+   * next batch is compared
+   */
+  public SnapshotDiff(GraphDatabaseService db, Transaction tx, RDFParserConfig conf, Log l,
+      LPGRDFToRDFProcesssor exporter, BiConsumer<List<Statement>, List<Statement>> changes) {
+    super(db, tx, conf, l);
+    this.exporter = exporter;
+    this.changes = changes;
+    this.baseSchemaNamespace = conf.getGraphConf().getBaseSchemaNamespace();
+  }
+
+  @Override
+  public void handleStatement(Statement st) {
+    totalTriplesParsed++;
+    if (parserConfig.getPredicateExclusionList() != null && parserConfig
+        .getPredicateExclusionList().contains(st.getPredicate().stringValue())) {
+      return;
+    }
+    if (st.getSubject() instanceof Triple || st.getObject() instanceof Triple) {
+      return;
+    }
+    if (st.getSubject() instanceof BNode || st.getObject() instanceof BNode) {
+      statementsWithBNodeCount++;
+      return;
+    }
+    Value object = st.getObject();
+    if (object instanceof Literal) {
+      Object value = getObjectValue(st.getPredicate(), (Literal) object);
+      if (value == null) {
+        // filtered by lang
+        return;
+      }
+      try {
+        object = exporter.exportedLiteral(value);
+      } catch (RDFHandlerException e) {
+        // custom datatype in a namespace with no prefix yet: the graph can't have the value
+      }
+    }
+    String subject = st.getSubject().stringValue();
+    if (mappedTripleCounter >= parserConfig.getCommitSize() && !subject.equals(lastSubject)) {
+      periodicOperation();
+    }
+    batch.computeIfAbsent(subject, s -> new HashSet<>())
+        .add(vf.createStatement(st.getSubject(), st.getPredicate(), object));
+    lastSubject = subject;
+    mappedTripleCounter++;
+  }
+
+  @Override
+  public void endRDF() throws RDFHandlerException {
+    periodicOperation();
+    List<Statement> removals = new ArrayList<>();
+    List<Statement> additions = new ArrayList<>();
+    for (DeferredChanges subjectChanges : deferred.values()) {
+      removals.addAll(subjectChanges.removals);
+      additions.addAll(subjectChanges.additions);
+    }
+    deferred.clear();
+    if (!removals.isEmpty() || !additions.isEmpty()) {
+      changes.accept(removals, additions);
+    }
+    log.debug("Snapshot compared: " + totalTriplesMapped + " triples about " + compared.size()
+        + " resources");
+  }
+
+  /**
+   * Compares the resources in the batch with their description in the graph, hands over the
+   * additions that can be written already and releases the batch.
+   */
+  @Override
+  protected void periodicOperation() {
+    List<Statement> additions = new ArrayList<>();
+    for (Map.Entry<String, Set<Statement>> entry : batch.entrySet()) {
+      String subject = entry.getKey();
+      Set<Statement> incoming = entry.getValue();
+      DeferredChanges subjectChanges = deferred.get(subject);
+      boolean comparedBefore = !compared.add(subject);
+      Set<Statement> removals = new HashSet<>();
+      Node node = tx.findNode(RESOURCE, "uri", subject);
+      if (node != null) {
+        for (Statement current : exporter.describeResource(node)) {
+          if (incoming.remove(current)) {
+            if (subjectChanges != null) {
+              // in the graph and in the snapshot after all
+              subjectChanges.removals.remove(current);
+            }
+          } else if (!comparedBefore && isComparable(current)) {
+            removals.add(current);
+          }
+        }
+      }
+      if (subjectChanges != null) {
+        subjectChanges.additions.addAll(incoming);
+      } else if (!removals.isEmpty()) {
+        deferred.put(subject, new DeferredChanges(removals, incoming));
+      } else {
+        // the graph has no triples of the subject the snapshot misses: nothing to wait for
+        additions.addAll(incoming);
+      }
+    }
+    batch.clear();
+    totalTriplesMapped += mappedTripleCounter;
+    mappedTripleCounter = 0;
+    if (!additions.isEmpty()) {
+      changes.accept(Collections.emptyList(), additions);
+    }
+  }
+
+  private boolean isComparable(Statement current) {
+    return !current.getPredicate().getNamespace().equals(baseSchemaNamespace)
+        && !(current.getObject() instanceof IRI
+        && (((IRI) current.getObject()).getNamespace().equals(baseSchemaNamespace)
+        || current.getObject().stringValue().startsWith(BNODE_PREFIX)));
+  }
+
+  public long getStatementsWithBNodeCount() {
+    return statementsWithBNodeCount;
+  }
+
+  private static class DeferredChanges {
+
+    private final Set<Statement> removals;
+    private final Set<Statement> additions;
+
+    DeferredChanges(Set<Statement> removals, Set<Statement> additions) {
+      this.removals = removals;
+      this.additions = additions;
+    }
+  }
+
+}
@@ -78,6 +78,7 @@ public class SKOSLoadProcedures extends RDFProcedures {
         importResults.setConfigSummary(props);
         e.printStackTrace();
       }
+      importResults.addMetrics("nodeCache", skosImporter.getNodeCache().getStats());
     }
     return importResults;
   }
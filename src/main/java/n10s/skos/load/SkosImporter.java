@@ -1,17 +1,13 @@
 package n10s.skos.load;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Statement;
@@ -38,14 +34,12 @@ public class SkosImporter extends RDFToLPGStatementProcessor {
   protected Map<String, String> resourceIndirectHiddenProps = new HashMap<>();
   protected Map<String, Literal> pendingLabels = new HashMap<>();
   public static final Label RESOURCE = Label.label("Resource");
-  Cache<String, Node> nodeCache;
+  NodeIdCache<String> nodeCache;
 
   protected SkosImporter(GraphDatabaseService db, Transaction tx,
       RDFParserConfig conf, Log l) {
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    nodeCache = new NodeIdCache<>(conf.getNodeCacheSize());
   }
 
   @Override
@@ -71,6 +65,8 @@ public class SkosImporter extends RDFToLPGStatementProcessor {
               + totalTriplesMapped);
       totalTriplesMapped += mappedTripleCounter;
     } catch (Exception e) {
+      // ids of the nodes created in the rolled back transaction can't be trusted anymore
+      nodeCache.invalidateAll();
       log.error("Problems when running partial commit. Partial transaction rolled back. "  + mappedTripleCounter + " triples lost.", e);
       if (getParserConfig().isAbortOnError()){
         throw new PartialCommitException("Problems when running partial commit. Partial transaction rolled back. " , e);
@@ -226,115 +222,81 @@ public class SkosImporter extends RDFToLPGStatementProcessor {
   public Integer runPartialTx(Transaction inThreadTransaction) {
 
     for (Entry<String, Set<String>> entry : resourceLabels.entrySet()) {
-      try {
-        if (!entry.getValue().isEmpty()) {
-          // if the uri is for an element for which we have not parsed the
-          // onto element type (class, property, rel) then it's an extra-statement
-          // and should be processed when the element in question is parsed
-
-          final Node node = nodeCache.get(entry.getKey(), new Callable<Node>() {
-            @Override
-            public Node call() {
-              Node node = inThreadTransaction.findNode(RESOURCE, "uri", entry.getKey());
-              if (node == null) {
-                node = inThreadTransaction.createNode(RESOURCE);
-                node.setProperty("uri", entry.getKey());
-              }
-              return node;
-            }
-          });
-
-          entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
-
-          resourceProps.get(entry.getKey()).forEach((k, v) -> {
-            //node.setProperty(k, v);
-            if (v instanceof List) {
-              Object currentValue = node.getProperty(k, null);
-              if (currentValue == null) {
-                node.setProperty(k, toPropertyValue(v));
-              } else {
-                if (currentValue.getClass().isArray()) {
-                  Object[] properties = (Object[]) currentValue;
-                  for (Object property : properties) {
-                    ((List) v).add(property);
-                    //here an exception can be raised if types are conflicting
-                  }
-                } else {
-                  ((List) v).add(node.getProperty(k));
-                }
-                //we make it a set to remove duplicates. Semantics of multivalued props in RDF.
-                node.setProperty(k,
-                    toPropertyValue(((List) v).stream().collect(Collectors.toSet())));
-              }
-            } else {
-              node.setProperty(k, v);
-            }
-          });
-          //and after processing the props for all uris, then we clear them from resourceProps
-          resourceProps.remove(entry.getKey());
-
-        }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
-      }
-    }
-
-    for (Statement st : statements) {
-      try {
-        final Node fromNode = nodeCache.get(st.getSubject().stringValue(), new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            return inThreadTransaction.findNode(RESOURCE, "uri", st.getSubject().stringValue());
+      if (!entry.getValue().isEmpty()) {
+        // if the uri is for an element for which we have not parsed the
+        // onto element type (class, property, rel) then it's an extra-statement
+        // and should be processed when the element in question is parsed
+
+        final Node node = nodeCache.get(inThreadTransaction, entry.getKey(), key -> {
+          Node resource = inThreadTransaction.findNode(RESOURCE, "uri", key);
+          if (resource == null) {
+            resource = inThreadTransaction.createNode(RESOURCE);
+            resource.setProperty("uri", key);
           }
+          return resource;
         });
 
-        final Node toNode = nodeCache.get(st.getObject().stringValue(), new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            return inThreadTransaction.findNode(RESOURCE, "uri", st.getObject().stringValue());
+        entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
+
+        resourceProps.get(entry.getKey()).forEach((k, v) -> {
+          //node.setProperty(k, v);
+          if (v instanceof List) {
+            //merged as a set to remove duplicates. Semantics of multivalued props in RDF.
+            node.setProperty(k, mergeMultivalValues(k, node.getProperty(k, null), (List<Object>) v)
+                .getValue());
+          } else {
+            node.setProperty(k, v);
           }
         });
+        //and after processing the props for all uris, then we clear them from resourceProps
+        resourceProps.remove(entry.getKey());
+
+      }
+    }
 
-        // check if the rel is already present. If so, don't recreate.
-        // explore the node with the lowest degree
-        boolean found = false;
-        if (fromNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
-            Direction.OUTGOING) <
-            toNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
-                Direction.INCOMING)) {
-          for (Relationship rel : fromNode
-              .getRelationships(Direction.OUTGOING,
-                  RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)))) {
-            if (rel.getEndNode().equals(toNode)) {
-              found = true;
-              break;
-            }
+    for (Statement st : statements) {
+      final Node fromNode = nodeCache.get(inThreadTransaction, st.getSubject().stringValue(),
+          key -> inThreadTransaction.findNode(RESOURCE, "uri", key));
+
+      final Node toNode = nodeCache.get(inThreadTransaction, st.getObject().stringValue(),
+          key -> inThreadTransaction.findNode(RESOURCE, "uri", key));
+
+      // check if the rel is already present. If so, don't recreate.
+      // explore the node with the lowest degree
+      boolean found = false;
+      if (fromNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
+          Direction.OUTGOING) <
+          toNode.getDegree(RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)),
+              Direction.INCOMING)) {
+        for (Relationship rel : fromNode
+            .getRelationships(Direction.OUTGOING,
+                RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)))) {
+          if (rel.getEndNode().equals(toNode)) {
+            found = true;
+            break;
           }
-        } else {
-          for (Relationship rel : toNode
-              .getRelationships(Direction.INCOMING,
-                  RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)))) {
-            if (rel.getStartNode().equals(fromNode)) {
-              found = true;
-              break;
-            }
+        }
+      } else {
+        for (Relationship rel : toNode
+            .getRelationships(Direction.INCOMING,
+                RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)))) {
+          if (rel.getStartNode().equals(fromNode)) {
+            found = true;
+            break;
           }
         }
+      }
 
-        if (!found) {
-          fromNode.createRelationshipTo(
-              toNode,
-              RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)));
-        }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+      if (!found) {
+        fromNode.createRelationshipTo(
+            toNode,
+            RelationshipType.withName(handleIRI(translateRelName(st.getPredicate()), RELATIONSHIP)));
       }
     }
 
     statements.clear();
     resourceLabels.clear();
     resourceProps.clear();
-    nodeCache.invalidateAll();
 
     return 0;
   }
@@ -350,4 +312,9 @@ public class SkosImporter extends RDFToLPGStatementProcessor {
     }
   }
 
+  @Override
+  public NodeIdCache<String> getNodeCache() {
+    return nodeCache;
+  }
+
 }
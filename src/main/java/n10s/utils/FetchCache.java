@@ -0,0 +1,183 @@
+package n10s.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * On disk cache of payloads fetched over http, for the vocabularies and shapes files fetched
+ * again and again. Payloads are stored with their validators (ETag, Last-Modified) and fetched
+ * again with a conditional request: a 304 Not Modified response is served from the cache without
+ * downloading the payload. Responses without validators are not cached.
+ * <p>
+ * Each entry is a single file (validators on the first two lines, then the payload) replaced
+ * atomically, so concurrent fetches of the same url never see half written entries. The cache
+ * is bounded in size, least recently used entries are evicted first.
+ */
+public class FetchCache {
+
+  public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+  private static final String ENTRY_SUFFIX = ".cached";
+
+  private final Path directory;
+  private final long maxSize;
+
+  public FetchCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return key of the payload of an url, which depends on the request headers too (accept...)
+   */
+  public static String key(String url, Map<String, String> headers) {
+    StringBuilder request = new StringBuilder(url);
+    if (headers != null) {
+      new TreeMap<>(headers)
+          .forEach((k, v) -> request.append('\n').append(k).append(':').append(v));
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(request.toString().getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest) {
+        key.append(String.format("%02x", b));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Sends the request, conditional if the payload is in the cache, on a connection not yet
+   * connected.
+   *
+   * @return the payload, from the cache if not modified, null if the response is neither a 200
+   * nor a 304 (redirects, errors), for the caller to handle
+   */
+  public InputStream fetch(HttpURLConnection connection, String key) throws IOException {
+    Path entry = directory.resolve(key + ENTRY_SUFFIX);
+    // opened before the request, so an eviction meanwhile doesn't take it away
+    InputStream cached = null;
+    try {
+      cached = new BufferedInputStream(Files.newInputStream(entry));
+      String etag = readLine(cached);
+      String lastModified = readLine(cached);
+      if (!etag.isEmpty()) {
+        connection.setRequestProperty("If-None-Match", etag);
+      }
+      if (!lastModified.isEmpty()) {
+        connection.setRequestProperty("If-Modified-Since", lastModified);
+      }
+    } catch (NoSuchFileException e) {
+      // not in the cache
+    }
+
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+      touch(entry);
+      evict();
+      return cached;
+    }
+    if (cached != null) {
+      cached.close();
+    }
+    if (status != HttpURLConnection.HTTP_OK) {
+      return null;
+    }
+    String etag = connection.getHeaderField("ETag");
+    String lastModified = connection.getHeaderField("Last-Modified");
+    if (etag == null && lastModified == null) {
+      return connection.getInputStream();
+    }
+    Files.createDirectories(directory);
+    Path download = Files.createTempFile(directory, key, ".tmp");
+    try (InputStream in = connection.getInputStream();
+        OutputStream out = Files.newOutputStream(download)) {
+      out.write(((etag != null ? etag : "") + "\n" + (lastModified != null ? lastModified : "")
+          + "\n").getBytes(StandardCharsets.UTF_8));
+      in.transferTo(out);
+    } catch (IOException e) {
+      Files.deleteIfExists(download);
+      throw e;
+    }
+    Files.move(download, entry, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    InputStream stored = new BufferedInputStream(Files.newInputStream(entry));
+    readLine(stored);
+    readLine(stored);
+    evict();
+    return stored;
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) >= 0 && b != '\n') {
+      line.write(b);
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  private static void touch(Path entry) {
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // evicted meanwhile
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits in its size.
+   */
+  private void evict() throws IOException {
+    List<Path> entries;
+    try (Stream<Path> files = Files.list(directory)) {
+      entries = files.filter(p -> p.getFileName().toString().endsWith(ENTRY_SUFFIX))
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+    long total = 0;
+    Map<Path, long[]> sizeAndTime = new TreeMap<>();
+    for (Path entry : entries) {
+      try {
+        long size = Files.size(entry);
+        sizeAndTime.put(entry, new long[]{size, Files.getLastModifiedTime(entry).toMillis()});
+        total += size;
+      } catch (NoSuchFileException e) {
+        // evicted by another fetch
+      }
+    }
+    if (total <= maxSize) {
+      return;
+    }
+    List<Path> leastRecentFirst = new ArrayList<>(sizeAndTime.keySet());
+    leastRecentFirst.sort(Comparator.comparingLong(p -> sizeAndTime.get(p)[1]));
+    for (Path entry : leastRecentFirst) {
+      if (total <= maxSize) {
+        break;
+      }
+      Files.deleteIfExists(entry);
+      total -= sizeAndTime.get(entry)[0];
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+package n10s.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent by an import in each of its phases, accumulated in nanoseconds, plus the duration
+ * of every batch written. Counters are cheap enough (a couple of nanoTime calls per statement)
+ * to be always on.
+ * <p>
+ * Parser side phases (parse, mapping and the literal conversion and iri handling within it)
+ * are timed on the parser thread. Writer side phases are summed over all the threads writing
+ * (pipeline writer, parallel workers), so with parallelism above one they can add up to more
+ * than the import took.
+ */
+public class ImportMetrics {
+
+  public enum Phase {
+    // time spent in the rdf parser (rdf4j rio), between statements handed to the loader
+    PARSE("parseMillis"),
+    // statement to labels / properties / relationships mapping, includes the next two
+    MAPPING("mappingMillis"),
+    LITERAL_CONVERSION("literalConversionMillis"),
+    IRI_HANDLING("iriHandlingMillis"),
+    NODE_LOOKUP("nodeLookupMillis"),
+    PROPERTY_MERGE("propertyMergeMillis"),
+    RELATIONSHIP_CHECK("relationshipCheckMillis"),
+    COMMIT("commitMillis");
+
+    private final String key;
+
+    Phase(String key) {
+      this.key = key;
+    }
+  }
+
+  private static final Phase[] BATCH_PHASES = {Phase.NODE_LOOKUP, Phase.PROPERTY_MERGE,
+      Phase.RELATIONSHIP_CHECK, Phase.COMMIT};
+
+  private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+  private long startNanos = 0;
+  private long finishNanos = 0;
+  private long batches = 0;
+  private long batchNanos = 0;
+  private Map<String, Object> slowestBatch = null;
+  private long slowestBatchNanos = -1;
+
+  public ImportMetrics() {
+    for (int i = 0; i < phaseNanos.length; i++) {
+      phaseNanos[i] = new LongAdder();
+    }
+  }
+
+  public void start() {
+    if (startNanos == 0) {
+      startNanos = System.nanoTime();
+    }
+  }
+
+  public void finish() {
+    finishNanos = System.nanoTime();
+  }
+
+  public void add(Phase phase, long nanos) {
+    phaseNanos[phase.ordinal()].add(nanos);
+  }
+
+  /**
+   * @return the writer side counters, to be passed to {@link #batchWritten(long, long, long[])}
+   * once the batch is committed
+   */
+  public long[] batchStarted() {
+    long[] snapshot = new long[BATCH_PHASES.length];
+    for (int i = 0; i < BATCH_PHASES.length; i++) {
+      snapshot[i] = phaseNanos[BATCH_PHASES[i].ordinal()].sum();
+    }
+    return snapshot;
+  }
+
+  /**
+   * Records a batch written (and committed unless in single transaction mode).
+   *
+   * @param triples mapped triples in the batch
+   * @param nanos time taken to write and commit it
+   * @param started counters when the batch started, as returned by {@link #batchStarted()}
+   * @return duration and phases of the batch
+   */
+  public synchronized Map<String, Object> batchWritten(long triples, long nanos, long[] started) {
+    Map<String, Object> batch = new HashMap<>();
+    batch.put("batch", batches);
+    batch.put("triples", triples);
+    batch.put("millis", TimeUnit.NANOSECONDS.toMillis(nanos));
+    for (int i = 0; i < BATCH_PHASES.length; i++) {
+      batch.put(BATCH_PHASES[i].key, TimeUnit.NANOSECONDS
+          .toMillis(phaseNanos[BATCH_PHASES[i].ordinal()].sum() - started[i]));
+    }
+    batches++;
+    batchNanos += nanos;
+    if (nanos > slowestBatchNanos) {
+      slowestBatchNanos = nanos;
+      slowestBatch = batch;
+    }
+    return batch;
+  }
+
+  /**
+   * @param triplesParsed statements parsed by the import, for the throughput
+   */
+  public synchronized Map<String, Object> getStats(long triplesParsed) {
+    Map<String, Object> stats = new HashMap<>();
+    Map<String, Object> phases = new HashMap<>();
+    for (Phase phase : Phase.values()) {
+      phases.put(phase.key, TimeUnit.NANOSECONDS.toMillis(phaseNanos[phase.ordinal()].sum()));
+    }
+    stats.put("phases", phases);
+    long totalNanos = (finishNanos != 0 ? finishNanos : System.nanoTime()) - startNanos;
+    stats.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos));
+    stats.put("triplesPerSecond", totalNanos <= 0 ? 0.0d
+        : triplesParsed * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos);
+    stats.put("batches", batches);
+    stats.put("meanBatchMillis", batches == 0 ? 0.0d
+        : (double) TimeUnit.NANOSECONDS.toMicros(batchNanos) / batches / 1000);
+    stats.put("slowestBatch", slowestBatch != null ? new HashMap<>(slowestBatch) : Map.of());
+    return stats;
+  }
+
+}
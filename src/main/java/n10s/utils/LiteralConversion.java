@@ -0,0 +1,281 @@
+package n10s.utils;
+
+import static n10s.graphconfig.Params.WKTLITERAL_URI;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.neo4j.exceptions.InvalidArgumentException;
+import org.neo4j.values.storable.PointValue;
+
+/**
+ * Conversion of the literals of each xsd (and geosparql) datatype mapped to a property type,
+ * found with a single lookup on the datatype iri. Mapping according to this figure:
+ * https://www.w3.org/TR/xmlschema11-2/#built-in-datatypes Each sub-category of integer -> long,
+ * decimal, float and double -> double, boolean -> boolean, dateTime -> ZonedDateTime (or
+ * LocalDateTime without offset), date -> LocalDate, wktLiteral points -> Point.
+ * <p>
+ * The lexical forms found in practically all data (canonical numbers, booleans, dates and
+ * dateTimes with optional fraction and offset) are scanned by hand. Anything else goes through
+ * the general parsers, with the same results as before.
+ */
+public enum LiteralConversion {
+
+  /**
+   * Strings and language tagged strings, which depend on the import config (language filter
+   * and tags), so the label is returned as is.
+   */
+  STRING {
+    @Override
+    public Object convert(Literal literal) {
+      return literal.stringValue();
+    }
+  },
+
+  LONG {
+    @Override
+    public Object convert(Literal literal) {
+      String label = literal.stringValue();
+      int length = label.length();
+      int start = length > 0 && (label.charAt(0) == '-' || label.charAt(0) == '+') ? 1 : 0;
+      // up to 18 digits can't overflow a long
+      if (length > start && length - start <= 18) {
+        long value = digits(label, start, length - start);
+        if (value >= 0) {
+          return label.charAt(0) == '-' ? -value : value;
+        }
+      }
+      return literal.longValue();
+    }
+  },
+
+  DOUBLE {
+    @Override
+    public Object convert(Literal literal) {
+      String label = literal.stringValue();
+      for (int i = 0; i < label.length(); i++) {
+        if ("0123456789.-+eE".indexOf(label.charAt(i)) < 0) {
+          // INF, NaN, whitespace...
+          return literal.doubleValue();
+        }
+      }
+      return label.isEmpty() ? literal.doubleValue() : Double.parseDouble(label);
+    }
+  },
+
+  BOOLEAN {
+    @Override
+    public Object convert(Literal literal) {
+      switch (literal.stringValue()) {
+        case "true":
+        case "1":
+          return true;
+        case "false":
+        case "0":
+          return false;
+        default:
+          return literal.booleanValue();
+      }
+    }
+  },
+
+  DATE_TIME {
+    @Override
+    public Object convert(Literal literal) {
+      String label = literal.stringValue();
+      Object scanned = scanDateTime(label);
+      if (scanned != null) {
+        return scanned;
+      }
+      try {
+        return ZonedDateTime.parse(label);
+      } catch (DateTimeParseException dtpe) {
+        try {
+          return ZonedDateTime.parse(label, NEO4J_ZONED_DATE_FORMAT);
+        } catch (DateTimeParseException dtpe2) {
+          try {
+            return DateUtils.parseDateTime(label);
+          } catch (IllegalArgumentException e) {
+            //if date cannot be parsed we return string value
+            return label;
+          }
+        }
+      }
+    }
+  },
+
+  DATE {
+    @Override
+    public Object convert(Literal literal) {
+      String label = literal.stringValue();
+      if (label.length() == 10 && label.charAt(4) == '-' && label.charAt(7) == '-') {
+        int year = (int) digits(label, 0, 4);
+        int month = (int) digits(label, 5, 2);
+        int day = (int) digits(label, 8, 2);
+        if (year >= 0 && month >= 0 && day >= 0) {
+          try {
+            return LocalDate.of(year, month, day);
+          } catch (DateTimeException e) {
+            // out of range fields, left to the general parser
+          }
+        }
+      }
+      try {
+        return DateUtils.parseDate(label);
+      } catch (IllegalArgumentException e) {
+        //if date cannot be parsed we return string value
+        return label;
+      }
+    }
+  },
+
+  WKT_POINT {
+    @Override
+    public Object convert(Literal literal) {
+      try {
+        return PointValue.parse(wktToCartesian(literal.stringValue()));
+      } catch (InvalidArgumentException e) {
+        //if pointvalue cannot be parsed we return string value
+        return literal.stringValue();
+      }
+    }
+  };
+
+  //formatter to support the format shown int the cypher refcard (timezone but no offset)
+  private static final DateTimeFormatter NEO4J_ZONED_DATE_FORMAT = new DateTimeFormatterBuilder()
+      .appendPattern("yyyy-MM-dd'T'HH:mm:ss")
+      .appendFraction(ChronoField.MILLI_OF_SECOND, 0, 9, true)
+      .appendPattern("'['").appendZoneId().appendPattern("']'").toFormatter();
+  private static final Pattern WKT_POINT_PATTERN = Pattern.compile(
+      "^Point\\((?:(\\-?\\d+(?:\\.\\d+)?)\\s+)?(\\-?\\d+(?:\\.\\d+)?)\\s+(\\-?\\d+(?:\\.\\d+)?)\\)$");
+  private static final int[] NANOS_SCALE = {0, 100000000, 10000000, 1000000, 100000, 10000,
+      1000, 100, 10, 1};
+  private static final Map<String, LiteralConversion> BY_DATATYPE = new HashMap<>();
+
+  static {
+    BY_DATATYPE.put(XMLSchema.STRING.stringValue(), STRING);
+    BY_DATATYPE.put(RDF.LANGSTRING.stringValue(), STRING);
+    for (IRI integerType : new IRI[]{XMLSchema.INTEGER, XMLSchema.LONG, XMLSchema.INT,
+        XMLSchema.SHORT, XMLSchema.BYTE, XMLSchema.NON_NEGATIVE_INTEGER,
+        XMLSchema.POSITIVE_INTEGER, XMLSchema.UNSIGNED_LONG, XMLSchema.UNSIGNED_INT,
+        XMLSchema.UNSIGNED_SHORT, XMLSchema.UNSIGNED_BYTE, XMLSchema.NON_POSITIVE_INTEGER,
+        XMLSchema.NEGATIVE_INTEGER}) {
+      BY_DATATYPE.put(integerType.stringValue(), LONG);
+    }
+    BY_DATATYPE.put(XMLSchema.DECIMAL.stringValue(), DOUBLE);
+    BY_DATATYPE.put(XMLSchema.DOUBLE.stringValue(), DOUBLE);
+    BY_DATATYPE.put(XMLSchema.FLOAT.stringValue(), DOUBLE);
+    BY_DATATYPE.put(XMLSchema.BOOLEAN.stringValue(), BOOLEAN);
+    BY_DATATYPE.put(XMLSchema.DATETIME.stringValue(), DATE_TIME);
+    BY_DATATYPE.put(XMLSchema.DATE.stringValue(), DATE);
+    BY_DATATYPE.put(WKTLITERAL_URI.stringValue(), WKT_POINT);
+  }
+
+  /**
+   * @return the conversion of the literals of a datatype, null for custom datatypes
+   */
+  public static LiteralConversion forDatatype(IRI datatype) {
+    return BY_DATATYPE.get(datatype.stringValue());
+  }
+
+  public abstract Object convert(Literal literal);
+
+  /**
+   * @return the value of count decimal digits starting at start, -1 if there's anything else
+   */
+  private static long digits(String s, int start, int count) {
+    long value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * yyyy-MM-ddTHH:mm:ss[.fraction][Z|(+|-)HH:mm]
+   *
+   * @return a ZonedDateTime (LocalDateTime without offset) or null if the label has any other
+   * form or out of range fields
+   */
+  private static Object scanDateTime(String s) {
+    int length = s.length();
+    if (length < 19 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+        || s.charAt(13) != ':' || s.charAt(16) != ':') {
+      return null;
+    }
+    int year = (int) digits(s, 0, 4);
+    int month = (int) digits(s, 5, 2);
+    int day = (int) digits(s, 8, 2);
+    int hour = (int) digits(s, 11, 2);
+    int minute = (int) digits(s, 14, 2);
+    int second = (int) digits(s, 17, 2);
+    if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+      return null;
+    }
+    int pos = 19;
+    int nanos = 0;
+    if (pos < length && s.charAt(pos) == '.') {
+      int fractionStart = ++pos;
+      while (pos < length && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+        pos++;
+      }
+      int fractionDigits = pos - fractionStart;
+      if (fractionDigits == 0 || fractionDigits > 9) {
+        return null;
+      }
+      nanos = (int) digits(s, fractionStart, fractionDigits) * NANOS_SCALE[fractionDigits];
+    }
+    try {
+      LocalDateTime dateTime = LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+      if (pos == length) {
+        return dateTime;
+      } else if (pos + 1 == length && s.charAt(pos) == 'Z') {
+        return ZonedDateTime.of(dateTime, ZoneOffset.UTC);
+      } else if (pos + 6 == length && (s.charAt(pos) == '+' || s.charAt(pos) == '-')
+          && s.charAt(pos + 3) == ':') {
+        int offsetHours = (int) digits(s, pos + 1, 2);
+        int offsetMinutes = (int) digits(s, pos + 4, 2);
+        if (offsetHours >= 0 && offsetMinutes >= 0) {
+          int sign = s.charAt(pos) == '-' ? -1 : 1;
+          return ZonedDateTime.of(dateTime,
+              ZoneOffset.ofHoursMinutes(sign * offsetHours, sign * offsetMinutes));
+        }
+      }
+    } catch (DateTimeException e) {
+      // out of range fields, left to the general parsers
+    }
+    return null;
+  }
+
+  private static String wktToCartesian(String wktString) {
+    Matcher m = WKT_POINT_PATTERN.matcher(wktString);
+    if(m.matches() && m.groupCount() == 3 && m.group(1)==null){
+      return m.replaceFirst("point({x: $2, y: $3, crs: 'cartesian'})");
+    } else if(m.matches() && m.groupCount() == 3 && m.group(1)!=null){
+      return m.replaceFirst("point({x: $1, y: $2, z: $3, crs: 'cartesian-3d'})");
+    } else {
+      // if it cannot be parsed it's left unchanged and will crash
+      // when trying to create a PointObject out of it (exception will be thrown)
+      return wktString;
+    }
+  }
+
+}
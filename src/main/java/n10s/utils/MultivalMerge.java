@@ -0,0 +1,222 @@
+package n10s.utils;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Merges the values of a multivalued (ARRAY) property into the ones already stored, without
+ * duplicates (set semantics of multivalued properties in RDF).
+ * <p>
+ * The type of the property is the one of the values already stored (or of the first new value).
+ * New values of any other type are conflicting: in strict mode they are discarded, otherwise all
+ * the values are stored as strings (non string values converted by the function passed in).
+ * <p>
+ * long, double and boolean values are merged in primitive arrays (sorted and deduplicated in
+ * place) and strings in a linked hash set, so merging into a property that already has hundreds
+ * of values doesn't box and re-box every one of them. Strings (and the other object values) keep
+ * the order they were first seen in: the values stored first, then the new ones. The resulting
+ * arrays are what Neo4j returns for the property anyway: long[], double[], boolean[], String[]
+ * and typed object arrays (temporal values, points).
+ */
+public class MultivalMerge {
+
+  private final Object value;
+  private final Class<?> datatype;
+  private final List<Object> conflicting;
+
+  private MultivalMerge(Object value, Class<?> datatype, List<Object> conflicting) {
+    this.value = value;
+    this.datatype = datatype;
+    this.conflicting = conflicting;
+  }
+
+  /**
+   * @param currentValue value stored for the property, an array or a single value (null if
+   * none)
+   * @param values new values
+   * @param strict true to discard conflicting values, false to store everything as strings
+   * @param toStringValue string form of a non string value when conflicts turn the property
+   * into a string array
+   */
+  public static MultivalMerge merge(Object currentValue, List<Object> values, boolean strict,
+      Function<Object, String> toStringValue) {
+    Class<?> datatype = datatypeOf(currentValue, values);
+    List<Object> matching = new ArrayList<>(values.size());
+    List<Object> conflicting = Collections.emptyList();
+    for (Object v : values) {
+      if (v.getClass().equals(datatype)) {
+        matching.add(v);
+      } else {
+        if (conflicting.isEmpty()) {
+          conflicting = new ArrayList<>();
+        }
+        conflicting.add(v);
+      }
+    }
+
+    if (!conflicting.isEmpty() && !strict) {
+      Set<String> strings = new LinkedHashSet<>();
+      forEachValue(currentValue, v -> strings.add(asString(v, toStringValue)));
+      for (Object v : values) {
+        strings.add(asString(v, toStringValue));
+      }
+      return new MultivalMerge(strings.toArray(new String[0]), datatype, conflicting);
+    }
+
+    Object merged;
+    if (datatype == Long.class) {
+      merged = mergeLongs(currentValue, matching);
+    } else if (datatype == Double.class) {
+      merged = mergeDoubles(currentValue, matching);
+    } else if (datatype == Boolean.class) {
+      merged = mergeBooleans(currentValue, matching);
+    } else {
+      Set<Object> set = new LinkedHashSet<>();
+      forEachValue(currentValue, set::add);
+      set.addAll(matching);
+      merged = set.toArray((Object[]) Array.newInstance(datatype, set.size()));
+    }
+    return new MultivalMerge(merged, datatype, conflicting);
+  }
+
+  /**
+   * @return the merged values, as an array
+   */
+  public Object getValue() {
+    return value;
+  }
+
+  /**
+   * @return the type of the values of the property
+   */
+  public Class<?> getDatatype() {
+    return datatype;
+  }
+
+  /**
+   * @return the new values not of the type of the property (discarded in strict mode, stored as
+   * strings otherwise)
+   */
+  public List<Object> getConflicting() {
+    return conflicting;
+  }
+
+  private static Class<?> datatypeOf(Object currentValue, List<Object> values) {
+    if (currentValue == null) {
+      return values.get(0).getClass();
+    } else if (currentValue instanceof long[]) {
+      return ((long[]) currentValue).length > 0 ? Long.class : values.get(0).getClass();
+    } else if (currentValue instanceof double[]) {
+      return ((double[]) currentValue).length > 0 ? Double.class : values.get(0).getClass();
+    } else if (currentValue instanceof boolean[]) {
+      return ((boolean[]) currentValue).length > 0 ? Boolean.class : values.get(0).getClass();
+    } else if (currentValue.getClass().isArray()) {
+      return Array.getLength(currentValue) > 0 ? Array.get(currentValue, 0).getClass()
+          : values.get(0).getClass();
+    }
+    return currentValue.getClass();
+  }
+
+  private static long[] mergeLongs(Object currentValue, List<Object> matching) {
+    long[] current = currentValue instanceof long[] ? (long[]) currentValue : null;
+    int currentLength = current != null ? current.length : countValues(currentValue);
+    long[] merged = new long[currentLength + matching.size()];
+    if (current != null) {
+      System.arraycopy(current, 0, merged, 0, currentLength);
+    } else {
+      int[] i = {0};
+      forEachValue(currentValue, v -> merged[i[0]++] = (Long) v);
+    }
+    for (int i = 0; i < matching.size(); i++) {
+      merged[currentLength + i] = (Long) matching.get(i);
+    }
+    Arrays.sort(merged);
+    int unique = 0;
+    for (int i = 0; i < merged.length; i++) {
+      if (unique == 0 || merged[i] != merged[unique - 1]) {
+        merged[unique++] = merged[i];
+      }
+    }
+    return unique == merged.length ? merged : Arrays.copyOf(merged, unique);
+  }
+
+  private static double[] mergeDoubles(Object currentValue, List<Object> matching) {
+    double[] current = currentValue instanceof double[] ? (double[]) currentValue : null;
+    int currentLength = current != null ? current.length : countValues(currentValue);
+    double[] merged = new double[currentLength + matching.size()];
+    if (current != null) {
+      System.arraycopy(current, 0, merged, 0, currentLength);
+    } else {
+      int[] i = {0};
+      forEachValue(currentValue, v -> merged[i[0]++] = (Double) v);
+    }
+    for (int i = 0; i < matching.size(); i++) {
+      merged[currentLength + i] = (Double) matching.get(i);
+    }
+    // same ordering and equality as Double.equals (NaN equal to itself, -0.0 before 0.0)
+    Arrays.sort(merged);
+    int unique = 0;
+    for (int i = 0; i < merged.length; i++) {
+      if (unique == 0 || Double.compare(merged[i], merged[unique - 1]) != 0) {
+        merged[unique++] = merged[i];
+      }
+    }
+    return unique == merged.length ? merged : Arrays.copyOf(merged, unique);
+  }
+
+  private static boolean[] mergeBooleans(Object currentValue, List<Object> matching) {
+    boolean[] seen = new boolean[2];
+    forEachValue(currentValue, v -> seen[(Boolean) v ? 1 : 0] = true);
+    for (Object v : matching) {
+      seen[(Boolean) v ? 1 : 0] = true;
+    }
+    return seen[0] && seen[1] ? new boolean[]{false, true} : new boolean[]{seen[1]};
+  }
+
+  private static int countValues(Object currentValue) {
+    return currentValue == null ? 0
+        : currentValue.getClass().isArray() ? Array.getLength(currentValue) : 1;
+  }
+
+  private static void forEachValue(Object currentValue, Consumer<Object> c) {
+    if (currentValue == null) {
+      return;
+    }
+    if (currentValue instanceof long[]) {
+      for (long v : (long[]) currentValue) {
+        c.accept(v);
+      }
+    } else if (currentValue instanceof double[]) {
+      for (double v : (double[]) currentValue) {
+        c.accept(v);
+      }
+    } else if (currentValue instanceof boolean[]) {
+      for (boolean v : (boolean[]) currentValue) {
+        c.accept(v);
+      }
+    } else if (currentValue instanceof Object[]) {
+      for (Object v : (Object[]) currentValue) {
+        c.accept(v);
+      }
+    } else if (currentValue.getClass().isArray()) {
+      // other primitive arrays (int[], float[]... set by something else than an import)
+      for (int i = 0; i < Array.getLength(currentValue); i++) {
+        c.accept(Array.get(currentValue, i));
+      }
+    } else {
+      c.accept(currentValue);
+    }
+  }
+
+  private static String asString(Object v, Function<Object, String> toStringValue) {
+    return v instanceof String ? (String) v : toStringValue.apply(v);
+  }
+
+}
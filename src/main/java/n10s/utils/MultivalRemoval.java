@@ -0,0 +1,124 @@
+package n10s.utils;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes values from a multivalued (ARRAY) property, the counterpart of {@link MultivalMerge}
+ * for the delete procedures.
+ * <p>
+ * The values to remove are gathered once per property: long and double values in sorted
+ * primitive arrays (binary searched), booleans in two flags and anything else in a hash set. So
+ * removing many values from a property with many values is not quadratic, and the values stored
+ * in primitive arrays are never boxed. Values match as they would with equals: a value to remove
+ * of another type than the stored ones matches none of them.
+ */
+public class MultivalRemoval {
+
+  private MultivalRemoval() {
+  }
+
+  /**
+   * @param currentValue value stored for the property, an array or a single value
+   * @param values values to remove
+   * @return the values left (an array of the type stored), the value stored if none was
+   * removed, null if none is left
+   */
+  public static Object remove(Object currentValue, Collection<?> values) {
+    if (currentValue instanceof long[]) {
+      return removeLongs((long[]) currentValue, values);
+    } else if (currentValue instanceof double[]) {
+      return removeDoubles((double[]) currentValue, values);
+    } else if (currentValue instanceof boolean[]) {
+      return removeBooleans((boolean[]) currentValue, values);
+    } else if (currentValue.getClass().isArray()) {
+      return removeObjects(currentValue, values);
+    }
+    return values.contains(currentValue) ? null : currentValue;
+  }
+
+  private static Object removeLongs(long[] current, Collection<?> values) {
+    long[] toRemove = new long[values.size()];
+    int count = 0;
+    for (Object v : values) {
+      if (v instanceof Long) {
+        toRemove[count++] = (Long) v;
+      }
+    }
+    Arrays.sort(toRemove, 0, count);
+    long[] left = new long[current.length];
+    int leftCount = 0;
+    for (long v : current) {
+      if (Arrays.binarySearch(toRemove, 0, count, v) < 0) {
+        left[leftCount++] = v;
+      }
+    }
+    return leftCount == current.length ? current
+        : leftCount == 0 ? null : Arrays.copyOf(left, leftCount);
+  }
+
+  private static Object removeDoubles(double[] current, Collection<?> values) {
+    double[] toRemove = new double[values.size()];
+    int count = 0;
+    for (Object v : values) {
+      if (v instanceof Double) {
+        toRemove[count++] = (Double) v;
+      }
+    }
+    // same ordering and equality as Double.equals (NaN equal to itself, -0.0 before 0.0)
+    Arrays.sort(toRemove, 0, count);
+    double[] left = new double[current.length];
+    int leftCount = 0;
+    for (double v : current) {
+      if (Arrays.binarySearch(toRemove, 0, count, v) < 0) {
+        left[leftCount++] = v;
+      }
+    }
+    return leftCount == current.length ? current
+        : leftCount == 0 ? null : Arrays.copyOf(left, leftCount);
+  }
+
+  private static Object removeBooleans(boolean[] current, Collection<?> values) {
+    boolean[] toRemove = new boolean[2];
+    for (Object v : values) {
+      if (v instanceof Boolean) {
+        toRemove[(Boolean) v ? 1 : 0] = true;
+      }
+    }
+    boolean[] left = new boolean[current.length];
+    int leftCount = 0;
+    for (boolean v : current) {
+      if (!toRemove[v ? 1 : 0]) {
+        left[leftCount++] = v;
+      }
+    }
+    return leftCount == current.length ? current
+        : leftCount == 0 ? null : Arrays.copyOf(left, leftCount);
+  }
+
+  private static Object removeObjects(Object current, Collection<?> values) {
+    Set<?> toRemove = values instanceof Set ? (Set<?>) values : new HashSet<>(values);
+    int length = Array.getLength(current);
+    Object left = Array.newInstance(current.getClass().getComponentType(), length);
+    int leftCount = 0;
+    for (int i = 0; i < length; i++) {
+      Object v = Array.get(current, i);
+      if (!toRemove.contains(v)) {
+        Array.set(left, leftCount++, v);
+      }
+    }
+    if (leftCount == length) {
+      return current;
+    }
+    if (leftCount == 0) {
+      return null;
+    }
+    Object trimmed = Array.newInstance(current.getClass().getComponentType(), leftCount);
+    System.arraycopy(left, 0, trimmed, 0, leftCount);
+    return trimmed;
+  }
+
+}
@@ -0,0 +1,176 @@
+package n10s.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Cache of resource key (typically the uri) to node element id that lives for the duration of
+ * an import, across partial commits. Element ids (unlike Node objects) are not bound to a
+ * transaction, so cached entries are rebound in every new transaction with a cheap id lookup
+ * instead of an index seek.
+ * <p>
+ * Eviction is frequency aware (segmented LRU): new entries go to a probation segment and are
+ * promoted to a protected segment when hit again. Hub resources (classes, popular objects) end up
+ * in the protected segment and are not pushed out by a long tail of resources seen only once.
+ * <p>
+ * Entries created in a transaction that is rolled back are not valid anymore (the id can be
+ * reused) so loaders must call {@link #invalidateAll()} when a partial commit fails. The id of a
+ * node deleted since it was cached can be reused too: a rebound node is only returned if it is
+ * still the one of the key.
+ */
+public class NodeIdCache<K> {
+
+  private static final double PROTECTED_RATIO = 0.8;
+
+  private final long maximumSize;
+  private final long protectedMaximumSize;
+  private final BiPredicate<K, Node> identifies;
+  private final LinkedHashMap<K, String> probation = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<K, String> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * Cache keyed by uri: a cached node is the one of the key if its uri property is the key.
+   */
+  public NodeIdCache(long maximumSize) {
+    this(maximumSize, (key, node) -> key.equals(node.getProperty("uri", null)));
+  }
+
+  /**
+   * @param identifies true if the node is the one of the key
+   */
+  public NodeIdCache(long maximumSize, BiPredicate<K, Node> identifies) {
+    this.maximumSize = Math.max(maximumSize, 0);
+    this.protectedMaximumSize = (long) (this.maximumSize * PROTECTED_RATIO);
+    this.identifies = identifies;
+  }
+
+  /**
+   * Returns the node for the key in the given transaction, using the cached element id if
+   * present. Otherwise (or if the cached node does not exist anymore) the node is obtained from
+   * the loader and its id cached. Null results from the loader are not cached.
+   */
+  public Node get(Transaction tx, K key, Function<K, Node> loader) {
+    Node node = getIfPresent(tx, key);
+    if (node == null) {
+      node = loader.apply(key);
+      if (node != null) {
+        put(key, node.getElementId());
+      }
+    }
+    return node;
+  }
+
+  /**
+   * @return the cached node for the key bound to the given transaction, null if not cached (or
+   * if the cached node does not exist anymore, or its id is now the one of another node)
+   */
+  public Node getIfPresent(Transaction tx, K key) {
+    String elementId = lookup(key);
+    if (elementId != null) {
+      try {
+        Node node = tx.getNodeByElementId(elementId);
+        if (identifies.test(key, node)) {
+          return node;
+        }
+      } catch (NotFoundException e) {
+        // deleted since it was cached
+      }
+      invalidate(key);
+    }
+    return null;
+  }
+
+  private synchronized String lookup(K key) {
+    String elementId = protectedSegment.get(key);
+    if (elementId == null) {
+      elementId = probation.remove(key);
+      if (elementId != null) {
+        promote(key, elementId);
+      }
+    }
+    if (elementId != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return elementId;
+  }
+
+  private void promote(K key, String elementId) {
+    protectedSegment.put(key, elementId);
+    if (protectedSegment.size() > protectedMaximumSize) {
+      // the least recently used protected entry gets a second chance in probation
+      Iterator<Map.Entry<K, String>> it = protectedSegment.entrySet().iterator();
+      Map.Entry<K, String> demoted = it.next();
+      it.remove();
+      probation.put(demoted.getKey(), demoted.getValue());
+    }
+  }
+
+  public synchronized void put(K key, String elementId) {
+    if (maximumSize == 0) {
+      return;
+    }
+    if (protectedSegment.containsKey(key)) {
+      protectedSegment.put(key, elementId);
+      return;
+    }
+    probation.put(key, elementId);
+    while (probation.size() + protectedSegment.size() > maximumSize) {
+      LinkedHashMap<K, String> victims = probation.isEmpty() ? protectedSegment : probation;
+      Iterator<K> it = victims.keySet().iterator();
+      it.next();
+      it.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized void invalidate(K key) {
+    probation.remove(key);
+    protectedSegment.remove(key);
+  }
+
+  public synchronized void invalidateAll() {
+    probation.clear();
+    protectedSegment.clear();
+  }
+
+  public synchronized long size() {
+    return probation.size() + protectedSegment.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /**
+   * @return hits, misses, hit rate, evictions and current size of the cache
+   */
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    long requests = hits + misses;
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("hitRate", requests == 0 ? 0.0d : (double) hits / requests);
+    stats.put("missRate", requests == 0 ? 0.0d : (double) misses / requests);
+    stats.put("evictions", evictions);
+    stats.put("size", (long) (probation.size() + protectedSegment.size()));
+    return stats;
+  }
+
+}
@@ -91,7 +91,7 @@ public class NsPrefixMap {
     return nsToPrefix.containsKey(ns);
   }
 
-  public String getPrefixOrAdd(String ns, boolean strict) {
+  public synchronized String getPrefixOrAdd(String ns, boolean strict) {
     if (nsToPrefix.containsKey(ns)) {
       return nsToPrefix.get(ns);
     } else if (!strict) {
@@ -203,7 +203,7 @@ public class NsPrefixMap {
 
   }
 
-  public String toString() {
+  public synchronized String toString() {
     StringBuilder sb = new StringBuilder();
     for (Entry<String, String> pair : prefixToNs.entrySet()) {
       sb.append(pair.getKey() + ": <" + pair.getValue() + ">");
@@ -246,7 +246,7 @@ public class NsPrefixMap {
   }
 
 
-  public Integer partialRefresh(Transaction tx) throws DynamicNamespacePrefixConflict {
+  public synchronized Integer partialRefresh(Transaction tx) throws DynamicNamespacePrefixConflict {
 
     if (reloadFromDB(tx)) {
       flushToDB(tx);
@@ -0,0 +1,244 @@
+package n10s.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Block parallel bzip2 decompression. bzip2 compresses blocks of up to 900k independently, each
+ * one starting with a 48 bit magic number (not byte aligned). A scanner thread finds the blocks
+ * in the compressed stream, each one is wrapped as a single block bzip2 stream and decompressed
+ * by a pool of threads, and the consumer reads the decompressed blocks in order. Concatenated
+ * streams (pbzip2, lbzip2 output) are split the same way.
+ * <p>
+ * The magic number could also show up by chance inside the compressed data (about once every
+ * 30TB). A block wrongly split that way fails to decompress, and the payload has to be read
+ * without parallel decompression.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+  private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+  private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+  // header of the single block streams, 900k blocks hold the blocks of any compression level
+  private static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '9'};
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+
+  private final InputStream source;
+  private final ExecutorService decompressors;
+  // blocks are queued in order as soon as they are found, decompressed or not
+  private final BlockingQueue<Future<byte[]>> blocks;
+  private final Thread scanner;
+  private byte[] current = new byte[0];
+  private int position = 0;
+  private boolean finished = false;
+
+  public ParallelBZip2InputStream(InputStream source, int threads) {
+    this.source = source;
+    this.blocks = new ArrayBlockingQueue<>(threads * 2);
+    this.decompressors = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "n10s-bzip2-decompressor");
+      t.setDaemon(true);
+      return t;
+    });
+    this.scanner = new Thread(this::scan, "n10s-bzip2-scanner");
+    scanner.setDaemon(true);
+    scanner.start();
+  }
+
+  private void scan() {
+    try {
+      // raw bytes of the block being scanned, from the one holding its first bit
+      byte[] block = new byte[1024 * 1024];
+      int length = 0;
+      long blockFirstByte = 0;
+      long blockStart = -1;
+      long blockNumber = 0;
+      long window = 0;
+      long bytesRead = 0;
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      int read;
+      while ((read = source.read(buffer)) >= 0) {
+        for (int i = 0; i < read; i++) {
+          if (length == block.length) {
+            block = Arrays.copyOf(block, length * 2);
+          }
+          block[length++] = buffer[i];
+          window = (window << 8) | (buffer[i] & 0xff);
+          bytesRead++;
+          if (bytesRead == 3 && (window & 0xFFFFFF) != ('B' << 16 | 'Z' << 8 | 'h')) {
+            throw new IOException("Not a bzip2 stream");
+          }
+          // magic numbers ending in any of the bits of this byte
+          for (int shift = 7; shift >= 0 && bytesRead >= 6; shift--) {
+            long candidate = (window >>> shift) & MAGIC_MASK;
+            long magicStart = bytesRead * 8 - shift - 48;
+            if ((candidate == BLOCK_MAGIC || candidate == END_OF_STREAM_MAGIC)
+                && magicStart >= 0) {
+              if (blockStart >= 0) {
+                submit(block, blockFirstByte, blockStart, magicStart, blockNumber++);
+              }
+              int keep = (int) (magicStart / 8 - blockFirstByte);
+              System.arraycopy(block, keep, block, 0, length - keep);
+              length -= keep;
+              blockFirstByte += keep;
+              blockStart = candidate == BLOCK_MAGIC ? magicStart : -1;
+            }
+          }
+          if (blockStart < 0 && length > 8) {
+            // between streams, only the bytes a magic number could start in are kept
+            System.arraycopy(block, length - 7, block, 0, 7);
+            blockFirstByte += length - 7;
+            length = 7;
+          }
+        }
+      }
+      if (blockStart >= 0) {
+        throw new IOException("Truncated bzip2 stream");
+      }
+      blocks.put(END);
+    } catch (IOException e) {
+      CompletableFuture<byte[]> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      try {
+        blocks.put(failed);
+      } catch (InterruptedException ie) {
+        // closed by the consumer
+      }
+    } catch (InterruptedException e) {
+      // closed by the consumer
+    }
+  }
+
+  private void submit(byte[] raw, long rawFirstByte, long start, long end, long blockNumber)
+      throws InterruptedException {
+    int bitOffset = (int) (start - rawFirstByte * 8);
+    long bits = end - start;
+    byte[] blockBytes = Arrays.copyOf(raw, (int) ((bitOffset + bits + 7) / 8));
+    blocks.put(decompressors.submit(() -> decompress(blockBytes, bitOffset, bits, blockNumber)));
+  }
+
+  /**
+   * Decompresses a block as a standalone stream: header, the block bits realigned to the byte,
+   * end of stream magic and the stream crc (the one of its only block).
+   */
+  private static byte[] decompress(byte[] raw, int bitOffset, long bits, long blockNumber)
+      throws IOException {
+    int wholeBytes = (int) (bits / 8);
+    byte[] stream = new byte[STREAM_HEADER.length + wholeBytes + 12];
+    System.arraycopy(STREAM_HEADER, 0, stream, 0, STREAM_HEADER.length);
+    for (int i = 0; i < wholeBytes; i++) {
+      stream[STREAM_HEADER.length + i] = bitOffset == 0 ? raw[i]
+          : (byte) ((raw[i] << bitOffset) | ((raw[i + 1] & 0xff) >>> (8 - bitOffset)));
+    }
+    long bitPos = (STREAM_HEADER.length + wholeBytes) * 8L;
+    int restBits = (int) (bits % 8);
+    bitPos = writeBits(stream, bitPos, readBits(raw, bitOffset + wholeBytes * 8L, restBits),
+        restBits);
+    bitPos = writeBits(stream, bitPos, END_OF_STREAM_MAGIC, 48);
+    bitPos = writeBits(stream, bitPos, readBits(raw, bitOffset + 48, 32), 32);
+    try (InputStream in = new BZip2CompressorInputStream(
+        new ByteArrayInputStream(stream, 0, (int) ((bitPos + 7) / 8)))) {
+      return IOUtils.toByteArray(in);
+    } catch (IOException | RuntimeException e) {
+      throw new IOException("Could not decompress bzip2 block " + blockNumber
+          + ", the payload can only be read without parallel decompression: " + e.getMessage(),
+          e);
+    }
+  }
+
+  private static long readBits(byte[] bytes, long bitPos, int count) {
+    long value = 0;
+    for (int i = 0; i < count; i++, bitPos++) {
+      value = (value << 1) | ((bytes[(int) (bitPos >>> 3)] >>> (7 - (bitPos & 7))) & 1);
+    }
+    return value;
+  }
+
+  private static long writeBits(byte[] bytes, long bitPos, long value, int count) {
+    for (int i = count - 1; i >= 0; i--, bitPos++) {
+      if (((value >>> i) & 1) != 0) {
+        bytes[(int) (bitPos >>> 3)] |= (byte) (0x80 >>> (bitPos & 7));
+      }
+    }
+    return bitPos;
+  }
+
+  /**
+   * @return false at the end of the stream
+   */
+  private boolean nextBlock() throws IOException {
+    while (!finished) {
+      Future<byte[]> next;
+      try {
+        next = blocks.take();
+        if (next == END) {
+          finished = true;
+          decompressors.shutdown();
+          return false;
+        }
+        current = next.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while decompressing");
+      } catch (ExecutionException e) {
+        close();
+        throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+            : new IOException(e.getCause());
+      }
+      position = 0;
+      if (current.length > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position == current.length && !nextBlock()) {
+      return -1;
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (position == current.length && !nextBlock()) {
+      return -1;
+    }
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    finished = true;
+    scanner.interrupt();
+    decompressors.shutdownNow();
+    source.close();
+  }
+
+}
@@ -0,0 +1,630 @@
+package n10s.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import n10s.ConfiguredStatementHandler;
+import org.eclipse.rdf4j.common.net.ParsedIRI;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.neo4j.logging.Log;
+
+/**
+ * Line based N-Triples / N-Quads (and their RDF-star variants) parser for local files. The file
+ * is memory mapped and split on line boundaries into chunks that are parsed by several threads.
+ * Terms are decoded straight from the mapped bytes, without materialising lines. Statements are
+ * handed over in blocks to the calling thread, which is the only one talking to the handler, so
+ * handlers don't need to be thread safe. Blocks are handed over as they are parsed, so
+ * statements from different chunks are interleaved and the order in which the handler sees them
+ * is not the order in the file.
+ * <p>
+ * A parse in file order hands chunks over in the order of the file instead (workers parse ahead
+ * of the handler, up to a few blocks per chunk) and tells the handler the byte offset where the
+ * line after each statement starts ({@link ConfiguredStatementHandler#markSourceOffset(long)}),
+ * which is where a parse can be resumed from. Workers wait for the handler to drain the chunks
+ * before theirs, so it is only meant for imports recording checkpoints.
+ * <p>
+ * Lines that can't be parsed are skipped and reported to the handler
+ * ({@link ConfiguredStatementHandler#handleMalformedLine(String)}) instead of aborting the
+ * parse.
+ */
+public class ParallelNTriplesParser {
+
+  // chunks are sized so that every thread gets a few of them, within these bounds
+  static final long MIN_CHUNK_SIZE = 64 * 1024;
+  static final long MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 4096;
+  // blocks parsed ahead of the handler for each thread (or chunk in progress, in file order)
+  private static final int BLOCKS_AHEAD = 4;
+  private static final int MAX_LOGGED_ERRORS = 10;
+  private static final int MAX_VERIFIED_NAMESPACES = 10000;
+
+  private final ValueFactory vf = SimpleValueFactory.getInstance();
+  private final boolean quads;
+  private final boolean verifyUriSyntax;
+  private final int threads;
+  private final Log log;
+  // blank node ids are scoped to the document, like the ones generated by the Rio parsers
+  private final String bnodePrefix;
+  private final AtomicInteger loggedErrors = new AtomicInteger();
+
+  public ParallelNTriplesParser(RDFFormat format, int threads, boolean verifyUriSyntax, Log log) {
+    this(format, threads, verifyUriSyntax, log, newBNodePrefix());
+  }
+
+  /**
+   * @param bnodePrefix prefix of the blank node ids, the same one as the parse being resumed
+   */
+  public ParallelNTriplesParser(RDFFormat format, int threads, boolean verifyUriSyntax, Log log,
+      String bnodePrefix) {
+    this.quads = format.equals(RDFFormat.NQUADS);
+    this.threads = threads;
+    this.verifyUriSyntax = verifyUriSyntax;
+    this.log = log;
+    this.bnodePrefix = bnodePrefix;
+  }
+
+  /**
+   * @return true if the payload can be read by this parser: N-Triples or N-Quads in an
+   * uncompressed local file, with more than one parser thread requested
+   */
+  public static boolean canParse(String url, RDFFormat format, int threads) {
+    return threads > 1 && canSeek(url, format);
+  }
+
+  /**
+   * @return true if the payload is N-Triples or N-Quads in an uncompressed local file, so a
+   * parse can start at any line
+   */
+  public static boolean canSeek(String url, RDFFormat format) {
+    return url != null && url.startsWith("file:")
+        && (format.equals(RDFFormat.NTRIPLES) || format.equals(RDFFormat.NQUADS))
+        && !url.contains("!") && !url.endsWith(".gz") && !url.endsWith(".tgz")
+        && !url.endsWith(".zip") && !url.endsWith(".bz2");
+  }
+
+  public static String newBNodePrefix() {
+    return "genid-" + UUID.randomUUID().toString().replace("-", "") + "-";
+  }
+
+  public void parse(Path file, ConfiguredStatementHandler handler) throws IOException {
+    parse(file, 0, false, handler);
+  }
+
+  /**
+   * @param fromOffset byte offset of the first line to parse
+   * @param inFileOrder true to hand the statements over in the order of the file, with their
+   * offsets
+   */
+  public void parse(Path file, long fromOffset, boolean inFileOrder,
+      ConfiguredStatementHandler handler) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      List<long[]> chunks = splitOnLines(channel, fromOffset);
+      ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(r, "n10s-ntriples-parser");
+        t.setDaemon(true);
+        return t;
+      });
+      try {
+        if (inFileOrder) {
+          handOverInFileOrder(channel, chunks, workers, handler);
+        } else {
+          handOverAsParsed(channel, chunks, workers, handler);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while parsing " + file);
+      } finally {
+        workers.shutdownNow();
+      }
+    }
+  }
+
+  private void handOverAsParsed(FileChannel channel, List<long[]> chunks,
+      ExecutorService workers, ConfiguredStatementHandler handler)
+      throws IOException, InterruptedException {
+    BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(threads * BLOCKS_AHEAD);
+    for (long[] chunk : chunks) {
+      workers.submit(() -> parseChunk(channel, chunk[0], chunk[1], blocks));
+    }
+    handler.startRDF();
+    int pendingChunks = chunks.size();
+    while (pendingChunks > 0) {
+      Block block = blocks.take();
+      handOver(block, handler, false);
+      if (block.lastOfChunk) {
+        pendingChunks--;
+      }
+    }
+    handler.endRDF();
+  }
+
+  private void handOverInFileOrder(FileChannel channel, List<long[]> chunks,
+      ExecutorService workers, ConfiguredStatementHandler handler)
+      throws IOException, InterruptedException {
+    List<BlockingQueue<Block>> chunkBlocks = new ArrayList<>(chunks.size());
+    // workers take chunks in order, so the one the handler waits for is always in progress
+    for (long[] chunk : chunks) {
+      BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(BLOCKS_AHEAD);
+      chunkBlocks.add(blocks);
+      workers.submit(() -> parseChunk(channel, chunk[0], chunk[1], blocks));
+    }
+    handler.startRDF();
+    for (BlockingQueue<Block> blocks : chunkBlocks) {
+      Block block;
+      do {
+        block = blocks.take();
+        handOver(block, handler, true);
+      } while (!block.lastOfChunk);
+    }
+    handler.endRDF();
+  }
+
+  private void handOver(Block block, ConfiguredStatementHandler handler, boolean withOffsets)
+      throws IOException {
+    if (block.failure instanceof IOException) {
+      throw (IOException) block.failure;
+    } else if (block.failure != null) {
+      throw new RDFParseException(block.failure);
+    }
+    for (int i = 0; i < block.statements.size(); i++) {
+      if (withOffsets) {
+        handler.markSourceOffset(block.nextLineOffsets[i]);
+      }
+      handler.handleStatement(block.statements.get(i));
+    }
+    for (String error : block.errors) {
+      handler.handleMalformedLine(error);
+    }
+  }
+
+  /**
+   * @return [start, end) byte ranges of the file, ending on line boundaries
+   */
+  private List<long[]> splitOnLines(FileChannel channel, long fromOffset) throws IOException {
+    long size = channel.size();
+    long chunkSize = Math.max(MIN_CHUNK_SIZE,
+        Math.min(MAX_CHUNK_SIZE, (size - fromOffset) / (threads * 4L)));
+    List<long[]> chunks = new ArrayList<>();
+    ByteBuffer window = ByteBuffer.allocate(8192);
+    long start = fromOffset;
+    while (start < size) {
+      long end = Math.min(start + chunkSize, size);
+      // move the end past the next line break
+      boolean found = end == size;
+      while (!found) {
+        window.clear();
+        int read = channel.read(window, end);
+        if (read <= 0) {
+          end = size;
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          if (window.get(i) == '\n') {
+            end += i + 1;
+            found = true;
+            break;
+          }
+        }
+        if (!found) {
+          end += read;
+        }
+      }
+      chunks.add(new long[]{start, end});
+      start = end;
+    }
+    return chunks;
+  }
+
+  private void parseChunk(FileChannel channel, long start, long end,
+      BlockingQueue<Block> blocks) {
+    try {
+      if (end - start > Integer.MAX_VALUE) {
+        throw new IOException("Line longer than 2GB at byte " + start);
+      }
+      ChunkParser parser = new ChunkParser(
+          channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+      Block block = new Block();
+      while (parser.nextLine()) {
+        try {
+          Statement st = parser.parseStatement();
+          if (st != null) {
+            block.nextLineOffsets[block.statements.size()] = start + parser.lineEnd + 1;
+            block.statements.add(st);
+          }
+        } catch (MalformedLine e) {
+          String error = "Malformed line at byte " + (start + parser.lineStart) + ": "
+              + e.getMessage();
+          if (loggedErrors.getAndIncrement() < MAX_LOGGED_ERRORS) {
+            log.warn(error);
+          }
+          block.errors.add(error);
+        }
+        if (block.statements.size() == BLOCK_SIZE) {
+          blocks.put(block);
+          block = new Block();
+        }
+      }
+      block.lastOfChunk = true;
+      blocks.put(block);
+    } catch (InterruptedException e) {
+      // parse cancelled
+    } catch (Exception e) {
+      Block failed = new Block();
+      failed.failure = e;
+      failed.lastOfChunk = true;
+      try {
+        blocks.put(failed);
+      } catch (InterruptedException ie) {
+        // parse cancelled
+      }
+    }
+  }
+
+  private static class Block {
+
+    final List<Statement> statements = new ArrayList<>(BLOCK_SIZE);
+    // where the line after each statement starts
+    final long[] nextLineOffsets = new long[BLOCK_SIZE];
+    final List<String> errors = new ArrayList<>(0);
+    boolean lastOfChunk = false;
+    Exception failure;
+  }
+
+  private static class MalformedLine extends RuntimeException {
+
+    MalformedLine(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /**
+   * Parses the lines of a chunk, reading bytes at absolute positions of the mapped buffer.
+   */
+  private class ChunkParser {
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private byte[] scratch = new byte[256];
+    private final Set<String> verifiedNamespaces = new HashSet<>();
+    private int lineStart;
+    private int lineEnd;
+    private int pos;
+
+    ChunkParser(ByteBuffer buf) {
+      this.buf = buf;
+      this.limit = buf.limit();
+      this.lineEnd = -1;
+    }
+
+    boolean nextLine() {
+      lineStart = lineEnd + 1;
+      if (lineStart >= limit) {
+        return false;
+      }
+      int i = lineStart;
+      while (i < limit && buf.get(i) != '\n') {
+        i++;
+      }
+      lineEnd = i;
+      pos = lineStart;
+      return true;
+    }
+
+    /**
+     * @return the statement in the current line, null for empty and comment lines
+     */
+    Statement parseStatement() {
+      skipWhitespace();
+      if (atEndOfLine() || peek() == '#') {
+        return null;
+      }
+      Resource subject = parseSubject();
+      skipWhitespace();
+      IRI predicate = parseIRI();
+      skipWhitespace();
+      Value object = parseObject();
+      skipWhitespace();
+      Resource context = null;
+      if (quads && !atEndOfLine() && (peek() == '<' || peek() == '_')) {
+        context = peek() == '<' ? parseIRI() : parseBNode();
+        skipWhitespace();
+      }
+      expect('.');
+      skipWhitespace();
+      if (!atEndOfLine() && peek() != '#') {
+        throw new MalformedLine("unexpected content after '.'");
+      }
+      return context == null ? vf.createStatement(subject, predicate, object)
+          : vf.createStatement(subject, predicate, object, context);
+    }
+
+    private Resource parseSubject() {
+      if (startsWith("<<")) {
+        return parseTripleTerm();
+      }
+      return peek() == '_' ? parseBNode() : parseIRI();
+    }
+
+    private Value parseObject() {
+      if (startsWith("<<")) {
+        return parseTripleTerm();
+      }
+      byte c = peek();
+      if (c == '"') {
+        return parseLiteral();
+      }
+      return c == '_' ? parseBNode() : parseIRI();
+    }
+
+    private Resource parseTripleTerm() {
+      pos += 2;
+      skipWhitespace();
+      Resource subject = parseSubject();
+      skipWhitespace();
+      IRI predicate = parseIRI();
+      skipWhitespace();
+      Value object = parseObject();
+      skipWhitespace();
+      if (!startsWith(">>")) {
+        throw new MalformedLine("expected '>>' at column " + (pos - lineStart));
+      }
+      pos += 2;
+      return vf.createTriple(subject, predicate, object);
+    }
+
+    private IRI parseIRI() {
+      expect('<');
+      int start = pos;
+      boolean escaped = false;
+      while (pos < lineEnd && buf.get(pos) != '>') {
+        byte c = buf.get(pos);
+        if (c == '\\') {
+          escaped = true;
+        } else if (c == ' ' || c == '<' || c == '"') {
+          throw new MalformedLine("invalid character in IRI at column " + (pos - lineStart));
+        }
+        pos++;
+      }
+      String iri = decode(start, pos);
+      expect('>');
+      if (escaped) {
+        iri = unescape(iri);
+      }
+      if (verifyUriSyntax) {
+        verify(iri);
+      }
+      try {
+        return vf.createIRI(iri);
+      } catch (IllegalArgumentException e) {
+        throw new MalformedLine("invalid IRI <" + iri + ">");
+      }
+    }
+
+    private Resource parseBNode() {
+      expect('_');
+      expect(':');
+      int start = pos;
+      while (pos < lineEnd && !isWhitespace(buf.get(pos)) && buf.get(pos) != '<'
+          && buf.get(pos) != '"') {
+        pos++;
+      }
+      // a label can't end with '.', that's the end of the statement
+      while (pos > start && buf.get(pos - 1) == '.') {
+        pos--;
+      }
+      if (pos == start) {
+        throw new MalformedLine("empty blank node label at column " + (pos - lineStart));
+      }
+      return vf.createBNode(bnodePrefix + decode(start, pos));
+    }
+
+    private Value parseLiteral() {
+      expect('"');
+      int start = pos;
+      boolean escaped = false;
+      while (pos < lineEnd && buf.get(pos) != '"') {
+        if (buf.get(pos) == '\\') {
+          escaped = true;
+          pos++;
+        }
+        pos++;
+      }
+      if (pos >= lineEnd) {
+        throw new MalformedLine("unterminated literal");
+      }
+      String label = decode(start, pos);
+      pos++;
+      if (escaped) {
+        label = unescape(label);
+      }
+      if (!atEndOfLine() && peek() == '@') {
+        pos++;
+        int langStart = pos;
+        while (pos < lineEnd && (Character.isLetterOrDigit(buf.get(pos)) || buf.get(pos) == '-')) {
+          pos++;
+        }
+        if (pos == langStart) {
+          throw new MalformedLine("empty language tag");
+        }
+        return vf.createLiteral(label, decode(langStart, pos));
+      } else if (startsWith("^^")) {
+        pos += 2;
+        return vf.createLiteral(label, parseIRI());
+      }
+      return vf.createLiteral(label);
+    }
+
+    /**
+     * Full syntax checks are expensive, so they are done once per namespace (up to the last '/'
+     * or '#' in the path) and local names are only checked for characters that are valid
+     * anywhere in a path, query or fragment.
+     */
+    private void verify(String iri) {
+      int split = Math.max(iri.lastIndexOf('/'), iri.lastIndexOf('#')) + 1;
+      int authority = iri.indexOf("://");
+      boolean inPath = split > 0 && (iri.charAt(split - 1) == '#' || authority < 0
+          || iri.indexOf('/', authority + 3) < split);
+      if (inPath && isSafeLocalName(iri, split)) {
+        String namespace = iri.substring(0, split);
+        if (!verifiedNamespaces.contains(namespace)) {
+          verifyFully(namespace);
+          if (verifiedNamespaces.size() == MAX_VERIFIED_NAMESPACES) {
+            verifiedNamespaces.clear();
+          }
+          verifiedNamespaces.add(namespace);
+        }
+      } else {
+        verifyFully(iri);
+      }
+    }
+
+    private void verifyFully(String iri) {
+      try {
+        if (!new ParsedIRI(iri).isAbsolute()) {
+          throw new MalformedLine("relative IRI <" + iri + ">");
+        }
+      } catch (URISyntaxException e) {
+        throw new MalformedLine(e.getMessage());
+      }
+    }
+
+    private boolean isSafeLocalName(String iri, int from) {
+      for (int i = from; i < iri.length(); i++) {
+        char c = iri.charAt(i);
+        if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+            || "-._~!$&'()*+,;=:@".indexOf(c) >= 0)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private String decode(int start, int end) {
+      int length = end - start;
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        scratch[i] = buf.get(start + i);
+      }
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void skipWhitespace() {
+      while (pos < lineEnd && isWhitespace(buf.get(pos))) {
+        pos++;
+      }
+    }
+
+    private boolean isWhitespace(byte c) {
+      return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private boolean atEndOfLine() {
+      return pos >= lineEnd;
+    }
+
+    private byte peek() {
+      if (pos >= lineEnd) {
+        throw new MalformedLine("unexpected end of line");
+      }
+      return buf.get(pos);
+    }
+
+    private boolean startsWith(String token) {
+      if (pos + token.length() > lineEnd) {
+        return false;
+      }
+      for (int i = 0; i < token.length(); i++) {
+        if (buf.get(pos + i) != token.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void expect(char c) {
+      if (peek() != c) {
+        throw new MalformedLine("expected '" + c + "' at column " + (pos - lineStart));
+      }
+      pos++;
+    }
+  }
+
+  /**
+   * Resolves the string escapes (\t, \n, \", \\...) and the numeric ones (\\uXXXX,
+   * \\UXXXXXXXX).
+   */
+  static String unescape(String s) {
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      if (++i == s.length()) {
+        throw new MalformedLine("incomplete escape sequence");
+      }
+      char e = s.charAt(i);
+      switch (e) {
+        case 't':
+          sb.append('\t');
+          break;
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case '"':
+        case '\'':
+        case '\\':
+          sb.append(e);
+          break;
+        case 'u':
+        case 'U':
+          int digits = e == 'u' ? 4 : 8;
+          try {
+            sb.appendCodePoint(Integer.parseInt(s.substring(i + 1, i + 1 + digits), 16));
+          } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new MalformedLine("invalid escape sequence");
+          }
+          i += digits;
+          break;
+        default:
+          throw new MalformedLine("invalid escape sequence \\" + e);
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,123 @@
+package n10s.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a stream on its own thread, a few chunks ahead of the consumer. Wrapping a decompressing
+ * stream (gzip) moves the decompression off the parser thread, so both run at the same time.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int CHUNKS_AHEAD = 16;
+  private static final byte[] END = new byte[0];
+
+  private final InputStream source;
+  private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+  private final Thread reader;
+  private volatile IOException failure;
+  private byte[] current = new byte[0];
+  private int position = 0;
+  private boolean finished = false;
+
+  public ReadAheadInputStream(InputStream source) {
+    this.source = source;
+    this.reader = new Thread(this::readAhead, "n10s-read-ahead");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void readAhead() {
+    try {
+      while (true) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int filled = 0;
+        int read = 0;
+        while (filled < CHUNK_SIZE
+            && (read = source.read(chunk, filled, CHUNK_SIZE - filled)) >= 0) {
+          filled += read;
+        }
+        if (filled > 0) {
+          chunks.put(filled == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, filled));
+        }
+        if (read < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      // closed by the consumer
+      return;
+    }
+    try {
+      chunks.put(END);
+    } catch (InterruptedException e) {
+      // closed by the consumer
+    }
+  }
+
+  /**
+   * @return false at the end of the stream
+   */
+  private boolean nextChunk() throws IOException {
+    if (finished) {
+      return false;
+    }
+    try {
+      current = chunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading ahead");
+    }
+    position = 0;
+    if (current == END) {
+      finished = true;
+      if (failure != null) {
+        throw failure;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position == current.length && !nextChunk()) {
+      return -1;
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (position == current.length && !nextChunk()) {
+      return -1;
+    }
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    finished = true;
+    reader.interrupt();
+    source.close();
+  }
+
+}
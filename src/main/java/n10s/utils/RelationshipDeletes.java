@@ -0,0 +1,72 @@
+package n10s.utils;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Relationships to delete in a batch, grouped by start node and type. Each group is deleted in
+ * one pass over the relationships of the start node (or, when cheaper, of the end nodes), so a
+ * dense node losing many relationships of a type in a batch is scanned once, not once per
+ * relationship.
+ */
+public class RelationshipDeletes {
+
+  private final Map<Node, Map<String, Set<Node>>> byStartNode = new LinkedHashMap<>();
+
+  public void add(Node from, RelationshipType type, Node to) {
+    byStartNode.computeIfAbsent(from, n -> new LinkedHashMap<>())
+        .computeIfAbsent(type.name(), t -> new HashSet<>()).add(to);
+  }
+
+  /**
+   * Deletes one relationship (if there is any) for each (start node, type, end node) added.
+   */
+  public void deleteAll() {
+    for (Map.Entry<Node, Map<String, Set<Node>>> group : byStartNode.entrySet()) {
+      Node from = group.getKey();
+      for (Map.Entry<String, Set<Node>> targets : group.getValue().entrySet()) {
+        delete(from, RelationshipType.withName(targets.getKey()), targets.getValue());
+      }
+    }
+    byStartNode.clear();
+  }
+
+  private static void delete(Node from, RelationshipType type, Set<Node> targets) {
+    // explore the side with the lowest degree
+    long outgoing = from.getDegree(type, Direction.OUTGOING);
+    long incoming = 0;
+    for (Node to : targets) {
+      incoming += to.getDegree(type, Direction.INCOMING);
+      if (incoming > outgoing) {
+        break;
+      }
+    }
+
+    if (outgoing < incoming) {
+      for (Relationship rel : from.getRelationships(Direction.OUTGOING, type)) {
+        if (targets.remove(rel.getEndNode())) {
+          rel.delete();
+          if (targets.isEmpty()) {
+            break;
+          }
+        }
+      }
+    } else {
+      for (Node to : targets) {
+        for (Relationship rel : to.getRelationships(Direction.INCOMING, type)) {
+          if (rel.getStartNode().equals(from)) {
+            rel.delete();
+            break;
+          }
+        }
+      }
+    }
+  }
+
+}
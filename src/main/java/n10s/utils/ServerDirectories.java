@@ -0,0 +1,50 @@
+package n10s.utils;
+
+import java.nio.file.Path;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * Directories of the server, for the procedures that keep files on it. The dbms config and
+ * layout are not part of the procedure api (they are reached through the kernel), so they are
+ * read defensively: when they can't be reached the directory is unknown (null) and callers do
+ * without it.
+ */
+public final class ServerDirectories {
+
+  private ServerDirectories() {
+  }
+
+  /**
+   * @return the import directory (server.directories.import), null if it is not set, file urls
+   * are not allowed (dbms.security.allow_csv_import_from_file_urls) or the config can't be read
+   */
+  public static Path importDirectory(GraphDatabaseService db) {
+    try {
+      Config config = ((GraphDatabaseAPI) db).getDependencyResolver()
+          .resolveDependency(Config.class);
+      if (!config.get(GraphDatabaseSettings.allow_file_urls)) {
+        return null;
+      }
+      Path importDirectory = config.get(GraphDatabaseSettings.load_csv_file_url_root);
+      return importDirectory != null ? importDirectory.toAbsolutePath().normalize() : null;
+    } catch (RuntimeException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the data directory (server.directories.data), null if the config can't be read
+   */
+  public static Path dataDirectory(GraphDatabaseService db) {
+    try {
+      return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Config.class)
+          .get(GraphDatabaseSettings.data_directory).toAbsolutePath().normalize();
+    } catch (RuntimeException | LinkageError e) {
+      return null;
+    }
+  }
+
+}
@@ -10,18 +10,36 @@ import static org.junit.Assert.assertTrue;
 import static org.neo4j.driver.Values.NULL;
 import static org.neo4j.driver.Values.ofNode;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import com.sun.net.httpserver.HttpServer;
 import n10s.experimental.ExperimentalImports;
 import n10s.graphconfig.GraphConfigProcedures;
 import n10s.mapping.MappingUtils;
@@ -29,13 +47,18 @@ import n10s.nsprefixes.NsPrefixDefProcedures;
 import n10s.quadrdf.delete.QuadRDFDeleteProcedures;
 import n10s.quadrdf.load.QuadRDFLoadProcedures;
 import n10s.rdf.RDFProcedures;
+import n10s.rdf.bulk.RDFBulkProcedures;
 import n10s.rdf.delete.RDFDeleteProcedures;
 import n10s.rdf.load.RDFLoadProcedures;
 import n10s.rdf.preview.RDFPreviewProcedures;
 import n10s.rdf.stream.RDFStreamProcedures;
+import n10s.rdf.sync.RDFSyncProcedures;
 import n10s.skos.load.SKOSLoadProcedures;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
 import org.junit.*;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.driver.*;
 import org.neo4j.driver.Record;
 import org.neo4j.driver.internal.InternalRelationship;
@@ -52,13 +75,18 @@ import org.neo4j.harness.junit.rule.Neo4jRule;
  */
 public class RDFProceduresTest {
   public static Driver driver;
+  // n10s.rdf.bulk.fetch writes in the import directory
+  private static final Path importDirectory = Paths.get("target", "n10s-import").toAbsolutePath();
 
   @ClassRule
   public static Neo4jRule neo4j = new Neo4jRule()
+          .withConfig(GraphDatabaseSettings.load_csv_file_url_root, importDirectory)
           .withProcedure(RDFLoadProcedures.class)
           .withProcedure(RDFDeleteProcedures.class)
+          .withProcedure(RDFSyncProcedures.class)
           .withProcedure(RDFPreviewProcedures.class)
           .withProcedure(RDFStreamProcedures.class)
+          .withProcedure(RDFBulkProcedures.class)
           .withFunction(RDFProcedures.class)
           .withProcedure(QuadRDFLoadProcedures.class)
           .withProcedure(QuadRDFDeleteProcedures.class)
@@ -79,9 +107,12 @@ public class RDFProceduresTest {
     driver.session().run("match (n) detach delete n").consume();
     driver.session().run("drop constraint n10s_unique_uri if exists").consume();
     driver.session().run("drop index uri_index if exists").consume();
+    driver.session().run("drop index uri_graph_uri_index if exists").consume();
   }
 
   final String CREATE_URI_INDEX = "CREATE INDEX uri_index FOR (n:Resource) ON (n.uri)";
+  final String CREATE_URI_GRAPH_URI_INDEX =
+      "CREATE INDEX uri_graph_uri_index FOR (n:Resource) ON (n.uri, n.graphUri)";
 
   private String jsonLdFragment = "{\n" +
           "  \"@context\": {\n" +
@@ -632,7 +663,165 @@ public class RDFProceduresTest {
       assertEquals(60L, importResults
               .single().get("triplesLoaded").asLong());
 
+      long multilabel = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("rdf.zip").toURI()
+              + "!rdf/moviesontologyMultilabel.owl','RDF/XML')").single()
+              .get("triplesLoaded").asLong();
+
+      // every matching entry in a single call
+      for (String archive : new String[]{"rdf.zip", "rdf.tar.gz"}) {
+        Record all = session.run("CALL n10s.rdf.import.fetch('" +
+                RDFProceduresTest.class.getClassLoader().getResource(archive).toURI()
+                + "!rdf/*.owl','RDF/XML', { parallelDecompression: true })").single();
+        assertEquals("OK", all.get("terminationStatus").asString());
+        assertEquals(60L + multilabel, all.get("triplesLoaded").asLong());
+      }
+
+      // missing entries: KO
+      for (String entry : new String[]{"rdf/*.ttl", "rdf/missing.owl"}) {
+        Record missing = session.run("CALL n10s.rdf.import.fetch('" +
+                RDFProceduresTest.class.getClassLoader().getResource("rdf.zip").toURI()
+                + "!" + entry + "','RDF/XML')").single();
+        assertEquals("KO", missing.get("terminationStatus").asString());
+        assertTrue(missing.get("extraInfo").asString()
+                .contains("No entry matching '" + entry + "'"));
+      }
+    }
+  }
+
+  @Test
+  public void compressionExtensionInsideTheUrl() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      // .gz and .zip in the name, not at the end: a plain payload
+      File file = File.createTempFile("snapshot.zip.gz", ".ttl");
+      file.deleteOnExit();
+      Files.writeString(file.toPath(), "<http://ex.org/a> <http://ex.org/name> \"a\" .");
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" + file.toURI()
+              + "','Turtle')").single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(1L, importResult.get("triplesLoaded").asLong());
+    }
+  }
+
+  @Test
+  public void importLedgerSkipsUnchangedPayloads() throws Exception {
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+      String payload = "<http://ex.org/a> <http://ex.org/name> \"a\" ; "
+              + "<http://ex.org/knows> <http://ex.org/b> . "
+              + "<http://ex.org/b> <http://ex.org/name> \"b\"@en .";
+      String inline = "CALL n10s.rdf.import.inline($rdf, 'Turtle', $params)";
+
+      Record first = session.run(inline, Map.of("rdf", payload, "params",
+              Map.of("ledger", true))).next();
+      assertEquals("OK", first.get("terminationStatus").asString());
+      assertEquals(3L, first.get("triplesLoaded").asLong());
+      Record again = session.run(inline, Map.of("rdf", payload, "params",
+              Map.of("ledger", true))).next();
+      assertEquals("SKIPPED", again.get("terminationStatus").asString());
+      assertEquals(0L, again.get("triplesLoaded").asLong());
+      assertEquals(0L, again.get("triplesParsed").asLong());
+
+      // other params or no ledger: imported
+      assertEquals("OK", session.run(inline, Map.of("rdf", payload, "params",
+              Map.of("ledger", true, "languageFilter", "en"))).next()
+              .get("terminationStatus").asString());
+      assertEquals("OK", session.run(inline, Map.of("rdf", payload, "params", Map.of())).next()
+              .get("terminationStatus").asString());
+
+      // partial commits record the payload once all of them are done
+      Map<String, Object> partialCommits = Map.of("ledger", true, "singleTx", false,
+              "commitSize", 1L);
+      assertEquals("OK", session.run(inline, Map.of("rdf", payload, "params", partialCommits))
+              .next().get("terminationStatus").asString());
+      assertEquals("SKIPPED", session.run(inline, Map.of("rdf", payload, "params",
+              partialCommits)).next().get("terminationStatus").asString());
+
+      // a delete invalidates the ledger
+      session.run("CALL n10s.rdf.delete.inline('<http://ex.org/a> <http://ex.org/knows> "
+              + "<http://ex.org/b> .', 'Turtle')").consume();
+      assertEquals(0L, session.run("MATCH (:Resource)-[r:knows]->() RETURN count(r) AS c")
+              .next().get("c").asLong());
+      Record afterDelete = session.run(inline, Map.of("rdf", payload, "params",
+              Map.of("ledger", true))).next();
+      assertEquals("OK", afterDelete.get("terminationStatus").asString());
+      assertEquals(1L, session.run("MATCH (:Resource)-[r:knows]->() RETURN count(r) AS c")
+              .next().get("c").asLong());
+      assertEquals("SKIPPED", session.run(inline, Map.of("rdf", payload, "params",
+              Map.of("ledger", true))).next().get("terminationStatus").asString());
+
+      Record fetched = session.run("CALL n10s.rdf.import.fetch('" + RDFProceduresTest.class
+              .getClassLoader().getResource("event.json").toURI()
+              + "', 'JSON-LD', { ledger: true })").next();
+      assertEquals("KO", fetched.get("terminationStatus").asString());
+      assertEquals("The import ledger is only kept for inline payloads",
+              fetched.get("extraInfo").asString());
+    }
+  }
 
+  @Test
+  public void fetchCacheParams() throws Exception {
+    String payload = "<http://ex.org/a> <http://ex.org/p> \"v1\" .";
+    // response status of each request
+    List<Integer> responses = Collections.synchronizedList(new ArrayList<>());
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/etag.nt", exchange -> {
+      if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        responses.add(304);
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        responses.add(200);
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/etag.nt";
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+      String fetch = "CALL n10s.rdf.import.fetch($url, 'N-Triples', $params)";
+      Map<String, Object> cached = Map.of("fetchCache", true);
+      for (int i = 0; i < 2; i++) {
+        assertEquals(1L, session.run(fetch, Map.of("url", url, "params", cached))
+                .next().get("triplesLoaded").asLong());
+      }
+      assertEquals(Arrays.asList(200, 304), responses);
+
+      // the cache is shared by all the fetch procedures
+      session.run("CALL n10s.skos.import.fetch($url, 'N-Triples', $params)",
+              Map.of("url", url, "params", cached)).consume();
+      assertEquals(Arrays.asList(200, 304, 304), responses);
+
+      // not cached unless asked for
+      session.run(fetch, Map.of("url", url, "params", Map.of())).consume();
+      assertEquals(Arrays.asList(200, 304, 304, 200), responses);
+
+      // nothing fits in a cache this small
+      session.run(fetch, Map.of("url", url, "params", Map.of("fetchCache", true,
+              "fetchCacheMaxSize", 10L))).consume();
+      session.run(fetch, Map.of("url", url, "params", cached)).consume();
+      assertEquals(Arrays.asList(200, 304, 304, 200, 304, 200), responses);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void parallelDecompression() throws Exception {
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY'}");
+      for (String resource : new String[]{"schema.rdf.bz2", "schema.rdf.gz"}) {
+        assertEquals(10774L, session.run("CALL n10s.rdf.import.fetch('"
+                + RDFProceduresTest.class.getClassLoader().getResource(resource).toURI()
+                + "','RDF/XML', { parallelDecompression: true })").next().get("triplesLoaded")
+                .asLong());
+      }
     }
   }
 
@@ -1986,6 +2175,37 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void testStreamLazily() throws Exception {
+    StringBuilder nt = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      nt.append("<http://ex.org/r").append(i).append("> <http://ex.org/name> \"n").append(i)
+          .append("\" .\n");
+    }
+    File ntFile = File.createTempFile("streamed", ".nt");
+    ntFile.deleteOnExit();
+    Files.writeString(ntFile.toPath(), nt.toString());
+
+    try (Session session = driver.session()) {
+      assertEquals(150000L, session.run("CALL n10s.rdf.stream.fetch('" + ntFile.toURI()
+          + "','N-Triples', { limit: 150000 }) YIELD subject RETURN count(*) AS c").next()
+          .get("c").asLong());
+
+      // the query only takes a few, the rest of the payload is never parsed
+      List<Record> first = session.run("CALL n10s.rdf.stream.fetch('" + ntFile.toURI()
+          + "','N-Triples', { limit: 10000000 }) YIELD subject, object "
+          + "RETURN subject, object LIMIT 3").list();
+      assertEquals(3, first.size());
+      assertEquals("n0", first.get(0).get("object").asString());
+    }
+    for (int i = 0; i < 50 && Thread.getAllStackTraces().keySet().stream()
+        .anyMatch(t -> t.getName().equals("n10s-rdf-stream")); i++) {
+      Thread.sleep(100);
+    }
+    assertFalse(Thread.getAllStackTraces().keySet().stream()
+        .anyMatch(t -> t.getName().equals("n10s-rdf-stream")));
+  }
+
   @Test
   public void testStreamFromFileWithLimit() throws Exception {
     try (Session session = driver.session()) {
@@ -2796,6 +3016,875 @@ public class RDFProceduresTest {
 
   }
 
+  @Test
+  public void dbpediaFragmentPipelinedTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200 })").next();
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      long relCount = session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong();
+      long labelCount = session.run("MATCH (n:Resource) UNWIND labels(n) AS l "
+              + "RETURN count(l) AS labelCount").next().get("labelCount").asLong();
+      Map<String, Set<String>> nonPipelined = ntGraphSignature(session);
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, pipelined: true })").next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      assertEquals(25000L, importResult.get("triplesParsed").asLong());
+      Map<String, Object> pipelineMetrics = (Map<String, Object>) importResult.get("metrics")
+              .asMap().get("pipeline");
+      assertTrue((Long) pipelineMetrics.get("batches") > 1L);
+      assertTrue(pipelineMetrics.containsKey("queueStalls"));
+
+      assertEquals(4497L, session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ")
+              .next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ")
+              .next().get("relCount").asLong());
+      assertEquals(labelCount, session.run("MATCH (n:Resource) UNWIND labels(n) AS l "
+              + "RETURN count(l) AS labelCount").next().get("labelCount").asLong());
+      assertEquals(nonPipelined, ntGraphSignature(session));
+    }
+
+  }
+
+  @Test
+  public void dbpediaFragmentParallelTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200 })").consume();
+      long relCount = session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong();
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, parallelism: 4 })").next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      assertEquals(25000L, importResult.get("triplesParsed").asLong());
+
+      assertEquals(4497L, session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ")
+              .next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ")
+              .next().get("relCount").asLong());
+
+      // re-importing the same data must not duplicate anything
+      session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, parallelism: 4, pipelined: true })").consume();
+      assertEquals(4497L, session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ")
+              .next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ")
+              .next().get("relCount").asLong());
+    }
+
+  }
+
+  @Test
+  public void dbpediaFragmentNodeCacheTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      // no cache: every lookup goes to the index
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, nodeCacheSize: 0 })").next();
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      Map<String, Object> cacheMetrics = (Map<String, Object>) importResult.get("metrics")
+              .asMap().get("nodeCache");
+      assertEquals(0L, cacheMetrics.get("hits"));
+      long indexLookups = (Long) cacheMetrics.get("misses");
+      long relCount = session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong();
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      // cached ids survive partial commits, so hub resources are hit across batches
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200 })").next();
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      cacheMetrics = (Map<String, Object>) importResult.get("metrics").asMap().get("nodeCache");
+      assertTrue((Long) cacheMetrics.get("hits") > 0L);
+      assertTrue((Double) cacheMetrics.get("hitRate") > 0.0d);
+      assertTrue((Long) cacheMetrics.get("misses") < indexLookups);
+      assertEquals(4497L, session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ")
+              .next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ")
+              .next().get("relCount").asLong());
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      // a cache much smaller than the number of resources keeps evicting
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, nodeCacheSize: 50 })").next();
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      cacheMetrics = (Map<String, Object>) importResult.get("metrics").asMap().get("nodeCache");
+      assertTrue((Long) cacheMetrics.get("evictions") > 0L);
+      assertEquals(50L, cacheMetrics.get("size"));
+      assertEquals(4497L, session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ")
+              .next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ")
+              .next().get("relCount").asLong());
+    }
+
+  }
+
+  @Test
+  public void dbpediaFragmentImportMetricsTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 5000 })").next();
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      Map<String, Object> metrics = importResult.get("metrics").asMap();
+      Map<String, Object> phases = (Map<String, Object>) metrics.get("phases");
+      assertEquals(new HashSet<>(Arrays.asList("parseMillis", "mappingMillis",
+              "literalConversionMillis", "iriHandlingMillis", "nodeLookupMillis",
+              "propertyMergeMillis", "relationshipCheckMillis", "commitMillis")), phases.keySet());
+      assertTrue((Long) phases.get("parseMillis") > 0L);
+      assertTrue((Long) phases.get("nodeLookupMillis") > 0L);
+      assertTrue((Long) phases.get("commitMillis") > 0L);
+      assertTrue((Long) phases.get("literalConversionMillis") <= (Long) phases.get("mappingMillis"));
+      assertTrue((Long) metrics.get("batches") >= 5L);
+      assertTrue((Double) metrics.get("triplesPerSecond") > 0.0d);
+      Map<String, Object> slowestBatch = (Map<String, Object>) metrics.get("slowestBatch");
+      assertTrue((Long) slowestBatch.get("triples") > 0L);
+      assertTrue((Long) slowestBatch.get("millis") >= (Long) slowestBatch.get("commitMillis"));
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      // writer side phases are timed in the writer thread
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 5000, pipelined: true })").next();
+      metrics = importResult.get("metrics").asMap();
+      assertEquals(((Map<String, Object>) metrics.get("pipeline")).get("batches"),
+              metrics.get("batches"));
+      assertTrue((Long) ((Map<String, Object>) metrics.get("phases")).get("commitMillis") > 0L);
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { singleTx: true })").next();
+      metrics = importResult.get("metrics").asMap();
+      assertEquals(1L, metrics.get("batches"));
+      assertTrue((Long) ((Map<String, Object>) metrics.get("slowestBatch")).get("triples") >= 24869L);
+    }
+
+  }
+
+  @Test
+  public void blankNodesAcrossBatches() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      // every blank node shows up in several batches
+      StringBuilder turtle = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        turtle.append("<http://ex.org/c").append(i).append("> <http://ex.org/restriction> _:r")
+            .append(i).append(" .\n");
+      }
+      for (int i = 0; i < 50; i++) {
+        turtle.append("_:r").append(i).append(" <http://ex.org/onProperty> <http://ex.org/p")
+            .append(i % 5).append("> .\n");
+        turtle.append("_:r").append(i).append(" <http://ex.org/cardinality> ").append(i)
+            .append(" .\n");
+      }
+      Record importResult = session.run("CALL n10s.rdf.import.inline($turtle, 'Turtle', "
+          + "{ singleTx: false, commitSize: 20 })", Map.of("turtle", turtle.toString())).next();
+      assertEquals(150L, importResult.get("triplesLoaded").asLong());
+      Map<String, Object> bnodes = (Map<String, Object>) importResult.get("metrics").asMap()
+          .get("blankNodes");
+      assertEquals(50L, bnodes.get("size"));
+      assertTrue((Long) bnodes.get("hits") >= 50L);
+
+      Record r = session.run("MATCH (c)-[:restriction]->(b)-[:onProperty]->(p) "
+          + "WHERE b.uri STARTS WITH 'bnode://' AND c.uri ENDS WITH '/c' + b.cardinality "
+          + "RETURN count(DISTINCT b) AS restrictions, max(size(b.uri)) AS uriLength, "
+          + "count(DISTINCT p) AS props").next();
+      assertEquals(50L, r.get("restrictions").asLong());
+      assertEquals(5L, r.get("props").asLong());
+      // compact skolem uris: document id and counter
+      assertTrue(r.get("uriLength").asLong() <= 24L);
+      assertEquals(50L, session.run("MATCH (b:Resource) WHERE b.uri STARTS WITH 'bnode://' "
+          + "RETURN count(b) AS c").next().get("c").asLong());
+
+      // the blank nodes of another document (or another import of the same one) are others
+      session.run("CALL n10s.rdf.import.inline($turtle, 'Turtle', { singleTx: false, "
+          + "commitSize: 20, parallelism: 2 })", Map.of("turtle", turtle.toString())).consume();
+      assertEquals(100L, session.run("MATCH (b:Resource) WHERE b.uri STARTS WITH 'bnode://' "
+          + "AND (b)-[:onProperty]->() AND ()-[:restriction]->(b) "
+          + "RETURN count(b) AS c").next().get("c").asLong());
+
+      // only the loader compacts them: the other processors keep the uri derived from the label
+      List<String> previewed = session.run("CALL n10s.rdf.preview.inline($turtle, "
+          + "'Turtle')", Map.of("turtle", turtle.toString())).next().get("nodes")
+          .asList(v -> v.asNode().get("uri").asString());
+      assertEquals(50L, previewed.stream().filter(uri -> uri.startsWith("bnode://genid"))
+          .count());
+    }
+  }
+
+  @Test
+  public void repeatedTriplesSkipExistenceCheck() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      // the same relationships in every pass, each pass spans several batches
+      StringBuilder turtle = new StringBuilder();
+      for (int pass = 0; pass < 4; pass++) {
+        for (int s = 0; s < 50; s++) {
+          for (int o = 0; o < 3; o++) {
+            turtle.append("<http://ex.org/s").append(s).append("> <http://ex.org/rel> ")
+                .append("<http://ex.org/o").append((s + o) % 20).append("> .\n");
+          }
+        }
+      }
+      Record importResult = session.run("CALL n10s.rdf.import.inline($turtle, 'N-Triples', "
+          + "{ singleTx: false, commitSize: 100, expectedTriples: 1000 })",
+          Map.of("turtle", turtle.toString())).next();
+      assertEquals(600L, importResult.get("triplesLoaded").asLong());
+      assertEquals(150L, session.run("MATCH ()-[r:rel]->() RETURN count(r) AS c").next()
+          .get("c").asLong());
+      Map<String, Object> seen = (Map<String, Object>) importResult.get("metrics").asMap()
+          .get("importedRelationships");
+      assertEquals(450L, seen.get("hits"));
+      assertEquals(150L, seen.get("size"));
+      assertEquals(0L, seen.get("falsePositives"));
+
+      // a new import remembers nothing yet: the relationships are found in the store
+      importResult = session.run("CALL n10s.rdf.import.inline($turtle, 'N-Triples', "
+          + "{ singleTx: false, commitSize: 100, expectedTriples: 1000, parallelism: 2 })",
+          Map.of("turtle", turtle.toString())).next();
+      seen = (Map<String, Object>) importResult.get("metrics").asMap()
+          .get("importedRelationships");
+      assertEquals(450L, seen.get("hits"));
+      assertEquals(150L, seen.get("size"));
+      assertEquals(150L, session.run("MATCH ()-[r:rel]->() RETURN count(r) AS c").next()
+          .get("c").asLong());
+
+      session.run("MATCH ()-[r:rel]->() DELETE r").consume();
+      importResult = session.run("CALL n10s.rdf.import.inline($turtle, 'N-Triples', "
+          + "{ singleTx: false, commitSize: 100, pipelined: true })",
+          Map.of("turtle", turtle.toString())).next();
+      assertNull(importResult.get("metrics").asMap().get("importedRelationships"));
+      assertEquals(150L, session.run("MATCH ()-[r:rel]->() RETURN count(r) AS c").next()
+          .get("c").asLong());
+    }
+  }
+
+  @Test
+  public void multivalMergeAcrossBatchesAndImports() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+              "{ handleVocabUris: 'IGNORE', handleMultival: 'ARRAY' }");
+
+      StringBuilder turtle = new StringBuilder();
+      for (int i = 299; i >= 0; i--) {
+        turtle.append("<http://ex.org/n> <http://ex.org/tag> \"t").append(i % 150).append("\" .\n")
+                .append("<http://ex.org/n> <http://ex.org/num> ").append(i).append(" .\n")
+                .append("<http://ex.org/n> <http://ex.org/flag> ").append(i % 2 == 0)
+                .append(" .\n");
+      }
+      // small commits: values are merged into the arrays stored by previous batches
+      Record importResult = session.run("CALL n10s.rdf.import.inline($turtle, 'Turtle', "
+              + "{ singleTx: false, commitSize: 100 })", Map.of("turtle", turtle.toString())).next();
+      assertEquals(900L, importResult.get("triplesLoaded").asLong());
+      Record n = session.run("MATCH (n:Resource { uri: 'http://ex.org/n' }) "
+              + "RETURN n.tag AS tag, n.num AS num, n.flag AS flag").next();
+      assertEquals(150, new HashSet<>(n.get("tag").asList()).size());
+      assertEquals(150, n.get("tag").size());
+      List<Long> expectedNums = new ArrayList<>();
+      for (long i = 0; i < 300; i++) {
+        expectedNums.add(i);
+      }
+      assertEquals(expectedNums, n.get("num").asList(Value::asLong));
+      assertEquals(Arrays.asList(false, true), n.get("flag").asList(Value::asBoolean));
+
+      // values of another type are discarded (strict) or turn the property into strings
+      importResult = session.run("CALL n10s.rdf.import.inline('"
+              + "<http://ex.org/n> <http://ex.org/num> 300, \"many\" . "
+              + "<http://ex.org/n> <http://ex.org/tag> \"t150\", 151 .', 'Turtle', "
+              + "{ strictDataTypeCheck: false })").next();
+      assertEquals(4L, importResult.get("triplesLoaded").asLong());
+      n = session.run("MATCH (n:Resource { uri: 'http://ex.org/n' }) "
+              + "RETURN n.tag AS tag, n.num AS num").next();
+      assertEquals(152, n.get("tag").size());
+      assertTrue(n.get("tag").asList().contains("151^^http://www.w3.org/2001/XMLSchema#long"));
+      assertEquals(302, n.get("num").size());
+      assertTrue(n.get("num").asList().contains("many"));
+
+      importResult = session.run("CALL n10s.rdf.import.inline('"
+              + "<http://ex.org/n> <http://ex.org/flag> true, \"yes\" .', 'Turtle')").next();
+      assertEquals(1L, importResult.get("triplesLoaded").asLong());
+      assertEquals(Arrays.asList(false, true), session.run("MATCH (n:Resource { uri: "
+              + "'http://ex.org/n' }) RETURN n.flag AS flag").next().get("flag")
+              .asList(Value::asBoolean));
+
+      // skos imports merge into the stored arrays the same way
+      session.run("CALL n10s.skos.import.inline('<http://ex.org/c> "
+              + "<http://www.w3.org/2004/02/skos/core#altLabel> \"a\", \"b\" .', 'Turtle')")
+              .consume();
+      session.run("CALL n10s.skos.import.inline('<http://ex.org/c> "
+              + "<http://www.w3.org/2004/02/skos/core#altLabel> \"b\", \"c\" .', 'Turtle')")
+              .consume();
+      assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), new HashSet<>(session.run(
+              "MATCH (c:Resource { uri: 'http://ex.org/c' }) RETURN c.altLabel AS alt").next()
+              .get("alt").asList()));
+    }
+  }
+
+  @Test
+  public void singleTxImportWrittenIncrementally() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      // whole payload buffered until the end of the parse (the default)
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { singleTx: true })").next();
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      assertEquals(1L, importResult.get("metrics").asMap().get("batches"));
+      Map<String, Set<String>> bufferedGraph = ntGraphSignature(session);
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      // same transaction, written every 1000 triples
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { singleTx: true, singleTxBufferSize: 1000 })").next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      assertTrue((Long) importResult.get("metrics").asMap().get("batches") > 20L);
+      assertEquals(bufferedGraph, ntGraphSignature(session));
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      StringBuilder brokenPayload = new StringBuilder();
+      for (int i = 0; i < 1500; i++) {
+        brokenPayload.append("<http://ex.org/r").append(i).append("> <http://ex.org/name> \"n")
+                .append(i).append("\" .\n");
+      }
+      brokenPayload.append("<http://ex.org/r0> not turtle .\n");
+
+      // buffered until the end by default, nothing written to the transaction: KO and nothing
+      // imported
+      importResult = session.run("CALL n10s.rdf.import.inline($payload, 'Turtle')",
+              Map.of("payload", brokenPayload.toString())).next();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertEquals(0L, session.run("MATCH (r:Resource) RETURN count(r) AS c").next()
+              .get("c").asLong());
+
+      // part of the payload already written: the transaction is failed as a whole
+      try {
+        session.run("CALL n10s.rdf.import.inline($payload, 'Turtle', "
+                + "{ singleTxBufferSize: 1000 })", Map.of("payload", brokenPayload.toString()))
+                .consume();
+        //should not get here
+        assertTrue(false);
+      } catch (Exception e) {
+        assertTrue(e.getMessage().contains("after part of the payload had been written"));
+      }
+      assertEquals(0L, session.run("MATCH (r:Resource) RETURN count(r) AS c").next()
+              .get("c").asLong());
+    }
+
+  }
+
+  @Test
+  public void dbpediaFragmentAdaptiveCommitTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      // batches commit well within the target, so they keep doubling
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 1000, adaptiveCommit: true, targetCommitMillis: 600000 })")
+              .next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      Map<String, Object> adaptiveMetrics = (Map<String, Object>) importResult.get("metrics")
+              .asMap().get("adaptiveCommit");
+      assertEquals(1000L, adaptiveMetrics.get("initialCommitSize"));
+      assertEquals(Arrays.asList(2000L, 4000L, 8000L, 16000L),
+              ((List<Long>) adaptiveMetrics.get("commitSizes")).subList(0, 4));
+      assertTrue((Long) adaptiveMetrics.get("maxCommitSize") >= 16000L);
+      assertTrue((Long) adaptiveMetrics.get("peakTxMemory") > 0L);
+      long relCount = session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong();
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+
+      // every transaction is over the memory ceiling, so batches shrink down to the minimum
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 4000, adaptiveCommit: true, maxTxMemory: 1, "
+              + "pipelined: true })").next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      adaptiveMetrics = (Map<String, Object>) importResult.get("metrics").asMap()
+              .get("adaptiveCommit");
+      assertEquals(1000L, adaptiveMetrics.get("lastCommitSize"));
+      assertEquals(1000L, adaptiveMetrics.get("minCommitSize"));
+      assertEquals(4497L, session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ")
+              .next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ")
+              .next().get("relCount").asLong());
+
+      // a commitSize under the minimum is a floor, commits are not made bigger than asked for
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, adaptiveCommit: true, maxTxMemory: 1 })").next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      adaptiveMetrics = (Map<String, Object>) importResult.get("metrics").asMap()
+              .get("adaptiveCommit");
+      assertEquals(200L, adaptiveMetrics.get("initialCommitSize"));
+      assertEquals(200L, adaptiveMetrics.get("maxCommitSize"));
+      assertEquals(200L, adaptiveMetrics.get("lastCommitSize"));
+    }
+
+  }
+
+  @Test
+  public void denseNodeRelationshipExistenceCheck() throws Exception {
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      StringBuilder hubFragment = new StringBuilder();
+      for (int i = 0; i < 500; i++) {
+        hubFragment.append("<http://ex.org/hub> <http://ex.org/links> <http://ex.org/leaf").append(i)
+                .append("> .\n");
+        hubFragment.append("<http://ex.org/leaf").append(i)
+                .append("> <http://ex.org/links> <http://ex.org/hub> .\n");
+      }
+      Map<String, Object> params = new HashMap<>();
+      params.put("rdf", hubFragment.toString());
+
+      session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples')", params).consume();
+      assertEquals(1000L, session.run("MATCH ()-[r:links]->() RETURN count(r) AS count")
+              .next().get("count").asLong());
+
+      // re-importing finds all the existing rels, in one batch and in several
+      Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples')",
+              params).next();
+      assertEquals(1000L, importResult.get("triplesLoaded").asLong());
+      session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples', { commitSize: 30 })", params)
+              .consume();
+      assertEquals(1000L, session.run("MATCH ()-[r:links]->() RETURN count(r) AS count")
+              .next().get("count").asLong());
+      assertEquals(500L, session.run("MATCH (:Resource { uri: 'http://ex.org/hub' })-[r:links]->() "
+              + "RETURN count(r) AS count").next().get("count").asLong());
+
+      // append only: existing rels are not looked for
+      session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples', { skipExistenceCheck: true })",
+              params).consume();
+      assertEquals(2000L, session.run("MATCH ()-[r:links]->() RETURN count(r) AS count")
+              .next().get("count").asLong());
+    }
+  }
+
+  @Test
+  public void bulkExportMatchesImport() throws Exception {
+    String outputDirName = "bulk-" + System.nanoTime();
+    File outputDir = importDirectory.resolve(outputDirName).toFile();
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY'}");
+      Map<String, Object> params = new HashMap<>();
+      params.put("url", RDFProceduresTest.class.getClassLoader()
+              .getResource("multival-multitype.ttl").toURI().toString());
+
+      // files are only written in the import directory
+      for (String outside : new String[]{outputDir.getAbsolutePath(), "../" + outputDirName,
+              outputDirName + "/../../x"}) {
+        params.put("dir", outside);
+        assertEquals("KO", session.run("CALL n10s.rdf.bulk.fetch($url, 'Turtle', $dir)",
+                params).next().get("terminationStatus").asString());
+      }
+      assertFalse(outputDir.exists());
+      params.put("dir", outputDirName);
+
+      // small batches so that resources are split across several sorted runs
+      Record exported = session.run("CALL n10s.rdf.bulk.fetch($url, 'Turtle', $dir, "
+              + "{ commitSize: 5 })", params).next();
+      assertEquals("OK", exported.get("terminationStatus").asString());
+      assertFalse(new File(outputDir, ".n10s-spill").exists());
+      assertEquals(0L, session.run("MATCH (r:Resource) RETURN count(r) AS count")
+              .next().get("count").asLong());
+
+      Record imported = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle', "
+              + "{ commitSize: 5 })", params).next();
+      assertEquals(imported.get("triplesLoaded").asLong(),
+              exported.get("triplesLoaded").asLong());
+      assertEquals(imported.get("triplesParsed").asLong(),
+              exported.get("triplesParsed").asLong());
+
+      // every node in the db (including graph config and prefixes) is in the node files
+      assertEquals(session.run("MATCH (n) RETURN count(n) AS count").next().get("count").asLong(),
+              exported.get("nodes").asLong());
+      assertEquals(session.run("MATCH ()-[r]->() RETURN count(r) AS count").next()
+              .get("count").asLong(), exported.get("relationships").asLong());
+
+      Map<String, Map<String, Set<String>>> csvResources = new HashMap<>();
+      Set<String> csvRels = new HashSet<>();
+      for (Object file : exported.get("files").asList()) {
+        List<List<String>> rows = readAdminImportCsv(new File((String) file));
+        List<String> header = rows.get(0);
+        for (List<String> row : rows.subList(1, rows.size())) {
+          if (header.get(0).equals("uri:ID")) {
+            Map<String, Set<String>> resource = new HashMap<>();
+            resource.put(":LABEL", new HashSet<>(Arrays.asList(row.get(1).split("\u001F"))));
+            for (int i = 2; i < header.size(); i++) {
+              if (!row.get(i).isEmpty()) {
+                resource.put(header.get(i).substring(0, header.get(i).lastIndexOf(':')),
+                        new HashSet<>(Arrays.asList(row.get(i).split("\u001F"))));
+              }
+            }
+            csvResources.put(row.get(0), resource);
+          } else if (header.get(0).equals(":START_ID")) {
+            csvRels.add(row.get(0) + " " + row.get(1) + " " + row.get(2));
+          }
+        }
+      }
+      assertTrue(exported.get("adminImportCommand").asString()
+              .contains(" --relationships=" + new File(outputDir, "relationships-0.csv")));
+
+      Result resources = session.run("MATCH (r:Resource) RETURN r.uri AS uri, labels(r) AS labels, "
+              + "properties(r) AS props");
+      int resourceCount = 0;
+      while (resources.hasNext()) {
+        Record resource = resources.next();
+        Map<String, Set<String>> expected = new HashMap<>();
+        expected.put(":LABEL", new HashSet<>(resource.get("labels").asList(Value::asString)));
+        for (Map.Entry<String, Object> prop : resource.get("props").asMap().entrySet()) {
+          if (!prop.getKey().equals("uri")) {
+            Set<String> values = new HashSet<>();
+            if (prop.getValue() instanceof List) {
+              ((List<?>) prop.getValue()).forEach(v -> values.add(v.toString()));
+            } else {
+              values.add(prop.getValue().toString());
+            }
+            expected.put(prop.getKey(), values);
+          }
+        }
+        assertEquals(expected, csvResources.get(resource.get("uri").asString()));
+        resourceCount++;
+      }
+      assertEquals(resourceCount, csvResources.size());
+
+      Set<String> dbRels = new HashSet<>();
+      session.run("MATCH (s)-[r]->(o) RETURN s.uri + ' ' + type(r) + ' ' + o.uri AS rel")
+              .forEachRemaining(r -> dbRels.add(r.get("rel").asString()));
+      assertEquals(dbRels, csvRels);
+    }
+  }
+
+  private static List<List<String>> readAdminImportCsv(File f) throws IOException {
+    String content = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    List<List<String>> rows = new ArrayList<>();
+    List<String> row = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < content.length(); i++) {
+      char c = content.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < content.length() && content.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        row.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n') {
+        row.add(field.toString());
+        field.setLength(0);
+        rows.add(row);
+        row = new ArrayList<>();
+      } else {
+        field.append(c);
+      }
+    }
+    return rows;
+  }
+
+  @Test
+  public void parallelNTriplesParser() throws Exception {
+    // the dbpedia fragment as N-Triples is large enough to be split in several chunks
+    File ntFile = File.createTempFile("dbpedia-fragment", ".nt");
+    ntFile.deleteOnExit();
+    try (InputStream in = RDFProceduresTest.class.getClassLoader()
+            .getResourceAsStream("dbpedia-fragment.ttl");
+         Writer out = new OutputStreamWriter(new FileOutputStream(ntFile), StandardCharsets.UTF_8)) {
+      Rio.write(Rio.parse(in, "", RDFFormat.TURTLE), out, RDFFormat.NTRIPLES);
+      out.write("<http://ex.org/a> <http://ex.org/label> \"tab\\tquote\\\" \\u00e9\\U0001F600\"@en .\n");
+      out.write("<http://ex.org/a> <http://ex.org/rel> _:b1 .\n");
+      out.write("_:b1 <http://ex.org/rel> <http://ex.org/a> . # trailing comment\n");
+    }
+    String url = ntFile.toURI().toString();
+    String params = "{ commitSize: 1000000, strictDataTypeCheck: false }";
+
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY'}");
+      Record rioResult = session.run("CALL n10s.rdf.import.fetch('" + url + "','N-Triples', "
+              + params + ")").next();
+      Map<String, Set<String>> rioGraph = ntGraphSignature(session);
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      try (Writer out = new OutputStreamWriter(new FileOutputStream(ntFile, true),
+              StandardCharsets.UTF_8)) {
+        out.write("<http://ex.org/a> <http://ex.org/label> .\n");
+        out.write("this is not a triple\n");
+      }
+      Record parallelResult = session.run("CALL n10s.rdf.import.fetch('" + url + "','N-Triples', "
+              + "{ commitSize: 1000000, strictDataTypeCheck: false, parserThreads: 4 })").next();
+
+      assertEquals("OK", parallelResult.get("terminationStatus").asString());
+      assertEquals(rioResult.get("triplesLoaded").asLong(),
+              parallelResult.get("triplesLoaded").asLong());
+      assertEquals(rioResult.get("triplesParsed").asLong(),
+              parallelResult.get("triplesParsed").asLong());
+      assertTrue(parallelResult.get("extraInfo").asString()
+              .contains("2 malformed lines were skipped"));
+      assertEquals(rioGraph, ntGraphSignature(session));
+      assertEquals("tab\tquote\" \u00e9\uD83D\uDE00", session.run("MATCH (r:Resource { uri: "
+              + "'http://ex.org/a' }) RETURN r.ns1__label[0] AS label").next().get("label").asString());
+      assertEquals(1L, session.run("MATCH (:Resource { uri: 'http://ex.org/a' })-[:ns1__rel]->"
+              + "(b)-[:ns1__rel]->(:Resource { uri: 'http://ex.org/a' }) WHERE b.uri STARTS WITH "
+              + "'bnode://' RETURN count(*) AS count").next().get("count").asLong());
+    }
+  }
+
+  @Test
+  public void importAllFilesInDirectory() throws Exception {
+    // the dbpedia fragment split round robin in several files, so that most resources are
+    // written by more than one of the concurrent imports
+    // fetchAll only reads files in the import directory
+    String dirName = "fetch-all-" + System.nanoTime();
+    File dir = importDirectory.resolve(dirName).toFile();
+    dir.mkdirs();
+    dir.deleteOnExit();
+    List<String> triples = new ArrayList<>();
+    try (InputStream in = RDFProceduresTest.class.getClassLoader()
+            .getResourceAsStream("dbpedia-fragment.ttl")) {
+      Rio.parse(in, "", RDFFormat.TURTLE).forEach(st -> {
+        StringWriter line = new StringWriter();
+        Rio.write(List.of(st), line, RDFFormat.NTRIPLES);
+        triples.add(line.toString());
+      });
+    }
+    Writer[] parts = new Writer[4];
+    for (int i = 0; i < parts.length; i++) {
+      File part = new File(dir, "part-" + i + ".nt");
+      part.deleteOnExit();
+      parts[i] = new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8);
+    }
+    for (int i = 0; i < triples.size(); i++) {
+      parts[i % parts.length].write(triples.get(i));
+    }
+    for (Writer part : parts) {
+      part.close();
+    }
+    File broken = new File(dir, "broken.nt");
+    broken.deleteOnExit();
+    Files.writeString(broken.toPath(), "this is not a triple\n");
+    String params = "{ commitSize: 500, strictDataTypeCheck: false, workers: 3 }";
+
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY'}");
+      for (int i = 0; i < parts.length; i++) {
+        session.run("CALL n10s.rdf.import.fetch('" + new File(dir, "part-" + i + ".nt").toURI()
+                + "','N-Triples', " + params + ")").consume();
+      }
+      Map<String, Set<String>> sequentialGraph = ntGraphSignature(session);
+      long relCount = session.run("MATCH ()-[r]->() RETURN count(r) AS count").next()
+              .get("count").asLong();
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      Record result = session.run("CALL n10s.rdf.import.fetchAll('" + dirName
+              + "','N-Triples', " + params + ")").next();
+      assertEquals("KO", result.get("terminationStatus").asString());
+      assertEquals(4L, result.get("filesLoaded").asLong());
+      assertEquals(1L, result.get("filesFailed").asLong());
+      assertEquals(triples.size(), result.get("triplesParsed").asLong());
+      List<Map<String, Object>> files = result.get("files").asList(Value::asMap);
+      assertEquals(broken.toPath().toUri().toString(), files.get(0).get("url"));
+      assertEquals("KO", files.get(0).get("terminationStatus"));
+      assertEquals("OK", files.get(1).get("terminationStatus"));
+      assertEquals(sequentialGraph, ntGraphSignature(session));
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) AS count").next()
+              .get("count").asLong());
+
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      result = session.run("CALL n10s.rdf.import.fetchAll('" + dirName
+              + "/part-*.nt','N-Triples', " + params + ")").next();
+      assertEquals("OK", result.get("terminationStatus").asString());
+      assertEquals(4L, result.get("filesLoaded").asLong());
+      assertEquals(triples.size(), result.get("triplesParsed").asLong());
+      assertEquals(sequentialGraph, ntGraphSignature(session));
+
+      // files written on parallel writers as well: resources shared by the files are merged
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      result = session.run("CALL n10s.rdf.import.fetchAll('" + dirName + "/part-*.nt','N-Triples', "
+              + "{ commitSize: 500, strictDataTypeCheck: false, workers: 3, parallelism: 3 })")
+              .next();
+      assertEquals("OK", result.get("terminationStatus").asString());
+      assertEquals(triples.size(), result.get("triplesParsed").asLong());
+      assertEquals(sequentialGraph, ntGraphSignature(session));
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) AS count").next()
+              .get("count").asLong());
+
+      // nothing is read outside of the import directory
+      for (String outside : Arrays.asList(dir.getAbsolutePath(), "file://" + dir.getAbsolutePath(),
+              dirName + "/../..", "../*.nt")) {
+        result = session.run("CALL n10s.rdf.import.fetchAll($dir, 'N-Triples')",
+                Collections.singletonMap("dir", outside)).next();
+        assertEquals("KO", result.get("terminationStatus").asString());
+        assertEquals(0L, result.get("filesLoaded").asLong());
+      }
+      result = session.run("CALL n10s.rdf.import.fetchAll('" + dirName
+              + "','N-Triples', { singleTx: true })").next();
+      assertEquals("KO", result.get("terminationStatus").asString());
+      assertTrue(result.get("extraInfo").asString().contains("singleTx"));
+      result = session.run("CALL n10s.rdf.import.fetchAll('" + dirName
+              + "','N-Triples', { workers: 'many' })").next();
+      assertEquals("KO", result.get("terminationStatus").asString());
+      assertEquals("'workers' must be a positive integer", result.get("extraInfo").asString());
+    }
+  }
+
+  @Test
+  public void resumeCheckpointedImport() throws Exception {
+    StringBuilder nt = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      // r75 has the same name as r5: with a uniqueness constraint on name, the 8th partial
+      // commit (statements 141 to 160) fails
+      nt.append("<http://ex.org/r").append(i).append("> <http://ex.org/name> \"n")
+              .append(i == 75 ? 5 : i).append("\" .\n");
+      nt.append("<http://ex.org/r").append(i).append("> <http://ex.org/knows> <http://ex.org/r")
+              .append((i + 1) % 100).append("> .\n");
+    }
+    File ntFile = File.createTempFile("checkpointed", ".nt");
+    ntFile.deleteOnExit();
+    Files.writeString(ntFile.toPath(), nt.toString());
+    File ttlFile = File.createTempFile("checkpointed", ".ttl");
+    ttlFile.deleteOnExit();
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(ttlFile),
+            StandardCharsets.UTF_8)) {
+      Rio.write(Rio.parse(new StringReader(nt.toString()), "", RDFFormat.NTRIPLES), out,
+              RDFFormat.TURTLE);
+    }
+
+    try (Session session = driver.session()) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+      session.run("CALL n10s.rdf.import.fetch('" + ntFile.toURI() + "','N-Triples')").consume();
+      Map<String, Set<String>> expected = ntGraphSignature(session);
+
+      // offsets are recorded by the line based parser, used when asked for with parserThreads
+      for (String[] payload : new String[][]{
+              {ntFile.toURI().toString(), "N-Triples", ", parserThreads: 2"},
+              {ttlFile.toURI().toString(), "Turtle", ""}}) {
+        session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+        session.run("CREATE CONSTRAINT unique_name FOR (r:Resource) REQUIRE r.name IS UNIQUE")
+                .consume();
+        Record failed = session.run("CALL n10s.rdf.import.fetch('" + payload[0] + "','"
+                + payload[1] + "', { commitSize: 20, checkpoint: true" + payload[2] + " })")
+                .next();
+        assertEquals("KO", failed.get("terminationStatus").asString());
+        String checkpointId = failed.get("checkpointId").asString();
+        Record checkpoint = session.run("MATCH (c:_ImportCheckpoint { id: $id }) RETURN c.status "
+                + "AS status, c.triplesParsed AS parsed, c.byteOffset AS offset",
+                Map.of("id", checkpointId)).next();
+        assertEquals("FAILED", checkpoint.get("status").asString());
+        assertEquals(140L, checkpoint.get("parsed").asLong());
+        if (payload[1].equals("N-Triples")) {
+          assertEquals(nt.indexOf("<http://ex.org/r70> <http://ex.org/name>"),
+                  checkpoint.get("offset").asLong());
+          // a resumed import starts at the offset: the lines before it are not read again
+          try (RandomAccessFile raf = new RandomAccessFile(ntFile, "rw")) {
+            raf.write("this line is not parsed".getBytes(StandardCharsets.UTF_8));
+          }
+        }
+        assertEquals(140L, session.run("MATCH (r:Resource) WHERE r.name IS NOT NULL "
+                + "RETURN count(r) * 2 AS count").next().get("count").asLong());
+
+        session.run("DROP CONSTRAINT unique_name").consume();
+        Record resumed = session.run("CALL n10s.rdf.import.resume($id)",
+                Map.of("id", checkpointId)).next();
+        assertEquals("OK", resumed.get("terminationStatus").asString());
+        assertEquals("", resumed.get("extraInfo").asString());
+        assertEquals(200L, resumed.get("triplesParsed").asLong());
+        assertEquals(200L, resumed.get("triplesLoaded").asLong());
+        assertEquals(expected, ntGraphSignature(session));
+        assertEquals("COMPLETE", session.run("MATCH (c:_ImportCheckpoint { id: $id }) "
+                + "RETURN c.status AS status", Map.of("id", checkpointId)).next()
+                .get("status").asString());
+        assertEquals("The import was already complete", session.run(
+                "CALL n10s.rdf.import.resume($id)", Map.of("id", checkpointId)).next()
+                .get("extraInfo").asString());
+      }
+
+      // without parserThreads a checkpointed import parses like any other: a malformed line
+      // fails it
+      File malformed = File.createTempFile("malformed", ".nt");
+      malformed.deleteOnExit();
+      Files.writeString(malformed.toPath(), "<http://ex.org/a> <http://ex.org/name> \"a\" .\n"
+              + "<http://ex.org/b> <http://ex.org/name> \"b .\n");
+      assertEquals("KO", session.run("CALL n10s.rdf.import.fetch('" + malformed.toURI()
+              + "','N-Triples', { checkpoint: true })").next().get("terminationStatus")
+              .asString());
+    }
+  }
+
+  /**
+   * properties and outgoing relationships by node (blank node ids are different in every
+   * import so they are left out)
+   */
+  private static Map<String, Set<String>> ntGraphSignature(Session session) {
+    Map<String, Set<String>> signature = new HashMap<>();
+    session.run("MATCH (n:Resource) WHERE NOT n.uri STARTS WITH 'bnode://' "
+            + "OPTIONAL MATCH (n)-[r]->(o) RETURN n.uri AS uri, properties(n) AS props, "
+            + "collect(type(r) + ' ' + CASE WHEN o.uri STARTS WITH 'bnode://' THEN 'bnode' "
+            + "ELSE o.uri END) AS rels").forEachRemaining(r -> {
+      Set<String> elements = new HashSet<>(r.get("rels").asList(Value::asString));
+      r.get("props").asMap().forEach((k, v) -> elements.add(k + "=" + (v instanceof List
+              ? new TreeSet<>(((List<?>) v).stream().map(String::valueOf)
+              .collect(Collectors.toList())) : v)));
+      signature.put(r.get("uri").asString(), elements);
+    });
+    return signature;
+  }
+
   @Test
   public void multivalMultitypeSamePartialTx() throws Exception {
     try (Session session = driver.session()) {
@@ -3497,6 +4586,149 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void testDeleteManyMultiLiteralsAndRelationships() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+              "{handleVocabUris: 'IGNORE', handleMultival: 'ARRAY'}");
+
+      StringBuilder triples = new StringBuilder();
+      StringBuilder toDelete = new StringBuilder();
+      for (int i = 0; i < 400; i++) {
+        String tag = "<http://ex.org/hub> <http://ex.org/tag> \"tag" + i + "\" .\n";
+        String num = "<http://ex.org/hub> <http://ex.org/num> \"" + i
+            + "\"^^<http://www.w3.org/2001/XMLSchema#long> .\n";
+        String link = "<http://ex.org/hub> <http://ex.org/links> <http://ex.org/r" + i + "> .\n"
+            + "<http://ex.org/r" + i + "> <http://ex.org/name> \"r" + i + "\" .\n";
+        triples.append(tag).append(num).append(link);
+        if (i % 4 != 0) {
+          toDelete.append(tag).append(num)
+              .append("<http://ex.org/hub> <http://ex.org/links> <http://ex.org/r" + i + "> .\n");
+        }
+      }
+      session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples')",
+          Map.of("rdf", triples.toString())).consume();
+
+      Record deleteResult = session.run("CALL n10s.rdf.delete.inline($rdf, 'N-Triples', "
+          + "{ commitSize: 250 })", Map.of("rdf", toDelete.toString())).next();
+      assertEquals(900L, deleteResult.get("triplesDeleted").asLong());
+
+      Record record = session.run("MATCH (n { uri: 'http://ex.org/hub' }) "
+          + "RETURN n.tag AS tags, n.num AS nums, size([(n)-[:links]->() | 1]) AS links")
+          .next();
+      assertEquals(100, record.get("tags").asList().size());
+      assertTrue(record.get("tags").asList().contains("tag8"));
+      assertFalse(record.get("tags").asList().contains("tag9"));
+      assertEquals(100, record.get("nums").asList().size());
+      assertTrue(record.get("nums").asList().contains(8L));
+      assertFalse(record.get("nums").asList().contains(9L));
+      assertEquals(100L, record.get("links").asLong());
+      // linked resources keep their names
+      assertEquals(401L, session.run("MATCH (n:Resource) RETURN count(n) AS c").next()
+          .get("c").asLong());
+
+      // deleting the values left takes the properties away
+      StringBuilder rest = new StringBuilder();
+      for (int i = 0; i < 400; i += 4) {
+        rest.append("<http://ex.org/hub> <http://ex.org/tag> \"tag").append(i).append("\" .\n");
+        rest.append("<http://ex.org/hub> <http://ex.org/num> \"").append(i)
+            .append("\"^^<http://www.w3.org/2001/XMLSchema#long> .\n");
+      }
+      session.run("CALL n10s.rdf.delete.inline($rdf, 'N-Triples')",
+          Map.of("rdf", rest.toString())).consume();
+      record = session.run("MATCH (n { uri: 'http://ex.org/hub' }) "
+          + "RETURN n.tag AS tags, n.num AS nums").next();
+      assertTrue(record.get("tags").isNull());
+      assertTrue(record.get("nums").isNull());
+    }
+  }
+
+  @Test
+  public void testSyncSnapshot() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleMultival: 'ARRAY', "
+          + "multivalPropList: ['http://ex.org/tag'] }");
+
+      StringBuilder snapshot = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        String r = "<http://ex.org/r" + i + ">";
+        snapshot.append(r).append(" <http://ex.org/name> \"n").append(i).append("\" .\n");
+        // integers are stored as longs (and exported as xsd:long)
+        snapshot.append(r).append(" <http://ex.org/age> \"").append(i)
+            .append("\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n");
+        snapshot.append(r).append(" <http://ex.org/tag> \"t").append(i % 2).append("\" .\n");
+        snapshot.append(r).append(" <http://ex.org/tag> \"t").append(i % 2 + 1).append("\" .\n");
+        snapshot.append(r).append(" <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> ")
+            .append("<http://ex.org/Person> .\n");
+        snapshot.append(r).append(" <http://ex.org/knows> <http://ex.org/r").append((i + 1) % 50)
+            .append("> .\n");
+      }
+      snapshot.append("<http://ex.org/r0> <http://ex.org/address> _:a .\n");
+      snapshot.append("_:a <http://ex.org/city> \"Bilbao\" .\n");
+      File snapshotFile = File.createTempFile("snapshot", ".nt");
+      snapshotFile.deleteOnExit();
+      Files.writeString(snapshotFile.toPath(), snapshot.toString());
+      session.run("CALL n10s.rdf.import.fetch('" + snapshotFile.toURI() + "','N-Triples')")
+          .consume();
+
+      // same snapshot again: nothing to write
+      Record syncResult = session.run("CALL n10s.rdf.sync.fetch('" + snapshotFile.toURI()
+          + "','N-Triples', { commitSize: 3 })").next();
+      assertEquals("OK", syncResult.get("terminationStatus").asString());
+      assertEquals(302L, syncResult.get("triplesParsed").asLong());
+      assertEquals(0L, syncResult.get("triplesAdded").asLong());
+      assertEquals(0L, syncResult.get("triplesRemoved").asLong());
+      assertTrue(syncResult.get("extraInfo").asString().startsWith("2 of the triples"));
+
+      String next = snapshot.toString()
+          .replace("<http://ex.org/r3> <http://ex.org/name> \"n3\"",
+              "<http://ex.org/r3> <http://ex.org/name> \"renamed\"")
+          .replace("<http://ex.org/r4> <http://ex.org/tag> \"t1\" .\n", "")
+          .replace("<http://ex.org/r5> <http://ex.org/knows> <http://ex.org/r6> .\n", "")
+          .replace("<http://ex.org/r6> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> "
+              + "<http://ex.org/Person>", "<http://ex.org/r6> "
+              + "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://ex.org/Robot>")
+          + "<http://ex.org/r50> <http://ex.org/name> \"n50\" .\n"
+          + "<http://ex.org/r50> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> "
+          + "<http://ex.org/Person> .\n";
+      Files.writeString(snapshotFile.toPath(), next);
+      syncResult = session.run("CALL n10s.rdf.sync.fetch('" + snapshotFile.toURI()
+          + "','N-Triples', { commitSize: 3 })").next();
+      assertEquals("OK", syncResult.get("terminationStatus").asString());
+      assertEquals(4L, syncResult.get("triplesAdded").asLong());
+      assertEquals(4L, syncResult.get("triplesRemoved").asLong());
+
+      assertEquals("renamed", session.run("MATCH (n { uri: 'http://ex.org/r3' }) "
+          + "RETURN n.ns0__name AS name").next().get("name").asString());
+      assertEquals(Arrays.asList("t0"), session.run("MATCH (n { uri: 'http://ex.org/r4' }) "
+          + "RETURN n.ns0__tag AS tags").next().get("tags").asList());
+      assertEquals(0L, session.run("MATCH ({ uri: 'http://ex.org/r5' })-[r:ns0__knows]->() "
+          + "RETURN count(r) AS c").next().get("c").asLong());
+      assertEquals(Arrays.asList("Resource", "ns0__Robot"), session.run("MATCH (n { uri: "
+          + "'http://ex.org/r6' }) RETURN labels(n) AS labels").next().get("labels")
+          .asList(v -> v.asString()).stream().sorted().collect(Collectors.toList()));
+      assertEquals(50L, session.run("MATCH (n:ns0__Person) RETURN count(n) AS c").next().get("c")
+          .asLong());
+      assertEquals(1L, session.run("MATCH ({ uri: 'http://ex.org/r0' })-[:ns0__address]->(a) "
+          + "RETURN count(a) AS c").next().get("c").asLong());
+
+      // not grouped by subject: r7 is described again after it was compared, nothing changes
+      String r7Name = "<http://ex.org/r7> <http://ex.org/name> \"n7\" .\n";
+      Files.writeString(snapshotFile.toPath(), next.replace(r7Name, "") + r7Name);
+      syncResult = session.run("CALL n10s.rdf.sync.fetch('" + snapshotFile.toURI()
+          + "','N-Triples', { commitSize: 3 })").next();
+      assertEquals("OK", syncResult.get("terminationStatus").asString());
+      assertEquals(0L, syncResult.get("triplesAdded").asLong());
+      assertEquals(0L, syncResult.get("triplesRemoved").asLong());
+      assertEquals("n7", session.run("MATCH (n { uri: 'http://ex.org/r7' }) "
+          + "RETURN n.ns0__name AS name").next().get("name").asString());
+      assertEquals(2L, session.run("MATCH (n { uri: 'http://ex.org/r7' }) "
+          + "RETURN size(n.ns0__tag) AS c").next().get("c").asLong());
+    }
+  }
+
   @Test
   public void testDeleteSubjectNode() throws Exception {
     try (Session session = driver.session()) {
@@ -3965,6 +5197,70 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void quadImportAcrossBatchesWithIndexSeeks() throws Exception {
+    try (Session session = driver.session()) {
+
+      // resources in named graphs are looked up through the (uri, graphUri) index
+      session.run(CREATE_URI_INDEX).consume();
+      session.run("CALL n10s.graphconfig.init({ handleVocabUris: 'IGNORE' })").consume();
+      StringBuilder nquads = new StringBuilder();
+      for (int i = 0; i < 30; i++) {
+        for (String graph : Arrays.asList("<http://ex.org/g1>", "<http://ex.org/g2>", "")) {
+          nquads.append("<http://ex.org/r").append(i).append("> <http://ex.org/next> ")
+              .append("<http://ex.org/r").append((i + 1) % 30).append("> ").append(graph)
+              .append(" .\n");
+          nquads.append("<http://ex.org/r").append(i).append("> <http://ex.org/num> \"")
+              .append(i).append("\"^^<http://www.w3.org/2001/XMLSchema#long> ").append(graph)
+              .append(" .\n");
+        }
+      }
+      Record importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($quads, "
+          + "'N-Quads', { commitSize: 7 })", Map.of("quads", nquads.toString())).next();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertTrue(importResult.get("extraInfo").asString().contains(":Resource(uri, graphUri)"));
+
+      session.run(CREATE_URI_GRAPH_URI_INDEX).consume();
+      importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($quads, "
+          + "'N-Quads', { commitSize: 7 })", Map.of("quads", nquads.toString())).next();
+      assertEquals(180L, importResult.get("triplesLoaded").asLong());
+      // nodes resolved in earlier batches are not looked up again
+      Map<String, Object> cacheMetrics = (Map<String, Object>) importResult.get("metrics")
+          .asMap().get("nodeCache");
+      assertTrue((Long) cacheMetrics.get("hits") > 0);
+      assertEquals(90L, session.run("MATCH (n:Resource) RETURN count(n) AS c").next().get("c")
+          .asLong());
+      assertEquals(30L, session.run("MATCH (n:Resource) WHERE n.graphUri IS NULL "
+          + "RETURN count(n) AS c").next().get("c").asLong());
+      assertEquals(90L, session.run("MATCH (a)-[r:next]->(b) WHERE a.graphUri = b.graphUri "
+          + "OR (a.graphUri IS NULL AND b.graphUri IS NULL) RETURN count(r) AS c").next()
+          .get("c").asLong());
+      assertEquals(7L, session.run("MATCH (n:Resource { uri: 'http://ex.org/r7', "
+          + "graphUri: 'http://ex.org/g2' }) RETURN n.num AS num").next().get("num").asLong());
+
+      // importing again changes nothing
+      importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($quads, "
+          + "'N-Quads', { commitSize: 7 })", Map.of("quads", nquads.toString())).next();
+      assertEquals(180L, importResult.get("triplesLoaded").asLong());
+      assertEquals(90L, session.run("MATCH ()-[r:next]->() RETURN count(r) AS c").next()
+          .get("c").asLong());
+
+      // deleting a whole graph across batches takes its nodes too
+      String g1 = Arrays.stream(nquads.toString().split("\n"))
+          .filter(q -> q.contains("<http://ex.org/g1>")).collect(Collectors.joining("\n"));
+      Record deleteResult = session.run("CALL n10s.experimental.quadrdf.delete.inline($quads, "
+          + "'N-Quads', { commitSize: 7 })", Map.of("quads", g1)).next();
+      assertEquals(60L, deleteResult.get("triplesDeleted").asLong());
+      assertEquals(0L, session.run("MATCH (n:Resource { graphUri: 'http://ex.org/g1' }) "
+          + "RETURN count(n) AS c").next().get("c").asLong());
+      assertEquals(60L, session.run("MATCH (n:Resource) RETURN count(n) AS c").next().get("c")
+          .asLong());
+      assertEquals(60L, session.run("MATCH ()-[r:next]->() RETURN count(r) AS c").next()
+          .get("c").asLong());
+    }
+  }
+
+
   private void initialiseGraphDB(GraphDatabaseService db, String graphConfigParams) {
     db.executeTransactionally(UNIQUENESS_CONSTRAINT_STATEMENT);
     db.executeTransactionally("CALL n10s.graphconfig.init(" +
@@ -3973,6 +5269,7 @@ public class RDFProceduresTest {
 
   private void initialiseGraphDBForQuads(GraphDatabaseService db, String graphConfigParams) {
     db.executeTransactionally(CREATE_URI_INDEX);
+    db.executeTransactionally(CREATE_URI_GRAPH_URI_INDEX);
     db.executeTransactionally("CALL n10s.graphconfig.init(" +
             (graphConfigParams != null ? graphConfigParams : "{}") + ")");
   }
@@ -90,6 +90,7 @@ public class RDFEndpointTest {
         driver.session().run("match (n) detach delete n").consume();
         driver.session().run("drop constraint n10s_unique_uri if exists").consume();
         driver.session().run("drop index uri_index if exists").consume();
+        driver.session().run("drop index uri_graph_uri_index if exists").consume();
 
 
         tempDriver.session().run("match (n) detach delete n").consume();
@@ -2359,6 +2360,7 @@ public class RDFEndpointTest {
   public void testCypherOnQuadRDFSerializeAsTriG() throws Exception {
     try (Transaction tx = graphDatabaseService.beginTx()) {
       tx.execute("CREATE INDEX uri_index FOR (r:Resource) ON (r.uri)");
+      tx.execute("CREATE INDEX uri_graph_uri_index FOR (r:Resource) ON (r.uri, r.graphUri)");
       tx.commit();
     }
     try (Transaction tx = graphDatabaseService.beginTx()) {
@@ -2395,6 +2397,7 @@ public class RDFEndpointTest {
   public void testCypherOnQuadRDFSerializeAsNQuads() throws Exception {
     try (Transaction tx = graphDatabaseService.beginTx()) {
       tx.execute("CREATE INDEX uri_index FOR (r:Resource) ON (r.uri)");
+      tx.execute("CREATE INDEX uri_graph_uri_index FOR (r:Resource) ON (r.uri, r.graphUri)");
       tx.commit();
     }
     try (Transaction tx = graphDatabaseService.beginTx()) {
@@ -2431,6 +2434,7 @@ public class RDFEndpointTest {
   public void testNodeByUriOnQuadRDF() throws Exception {
     try (Transaction tx = graphDatabaseService.beginTx()) {
       tx.execute("CREATE INDEX uri_index FOR (r:Resource) ON (r.uri)");
+      tx.execute("CREATE INDEX uri_graph_uri_index FOR (r:Resource) ON (r.uri, r.graphUri)");
       tx.commit();
     }
     try (Transaction tx = graphDatabaseService.beginTx()) {
@@ -2464,6 +2468,7 @@ public class RDFEndpointTest {
   public void testNodeByUriWithGraphUriOnQuadRDFTrig() throws Exception {
     try (Transaction tx = graphDatabaseService.beginTx()) {
       tx.execute("CREATE INDEX uri_index FOR (r:Resource) ON (r.uri)");
+      tx.execute("CREATE INDEX uri_graph_uri_index FOR (r:Resource) ON (r.uri, r.graphUri)");
       tx.commit();
     }
     try (Transaction tx = graphDatabaseService.beginTx()) {
@@ -2504,6 +2509,7 @@ public class RDFEndpointTest {
   public void testNodeByUriWithGraphUriOnQuadRDFNQuads() throws Exception {
     try (Transaction tx = graphDatabaseService.beginTx()) {
       tx.execute("CREATE INDEX uri_index FOR (r:Resource) ON (r.uri)");
+      tx.execute("CREATE INDEX uri_graph_uri_index FOR (r:Resource) ON (r.uri, r.graphUri)");
       tx.commit();
     }
     try (Transaction tx = graphDatabaseService.beginTx()) {
@@ -2541,6 +2547,7 @@ public class RDFEndpointTest {
   public void testCypherOnQuadRDFAfterDeleteRDFBNodes() throws Exception {
     try (Transaction tx = graphDatabaseService.beginTx()) {
       tx.execute("CREATE INDEX uri_index FOR (r:Resource) ON (r.uri)");
+      tx.execute("CREATE INDEX uri_graph_uri_index FOR (r:Resource) ON (r.uri, r.graphUri)");
       tx.commit();
     }
     try (Transaction tx = graphDatabaseService.beginTx()) {
@@ -0,0 +1,46 @@
+package n10s.quadrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import n10s.utils.NodeIdCache;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+
+public class ContextResourceNodesTest {
+
+  @ClassRule
+  public static Neo4jRule neo4j = new Neo4jRule();
+
+  @Test
+  public void cachedIdIsOnlyReusedForTheSameUriAndGraph() {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    NodeIdCache<ContextResource> cache = new NodeIdCache<>(10, ContextResourceNodes::identifies);
+    ContextResource inGraph = new ContextResource("http://ex.org/a", "http://ex.org/g1");
+    ContextResource inOtherGraph = new ContextResource("http://ex.org/a", "http://ex.org/g2");
+    ContextResource inDefaultGraph = new ContextResource("http://ex.org/a", null);
+    String elementId;
+    try (Transaction tx = db.beginTx()) {
+      Node node = tx.createNode(Label.label("Resource"));
+      node.setProperty("uri", "http://ex.org/a");
+      node.setProperty("graphUri", "http://ex.org/g1");
+      elementId = node.getElementId();
+      tx.commit();
+    }
+    cache.put(inGraph, elementId);
+    cache.put(inOtherGraph, elementId);
+    cache.put(inDefaultGraph, elementId);
+    try (Transaction tx = db.beginTx()) {
+      assertEquals(elementId, cache.getIfPresent(tx, inGraph).getElementId());
+      assertNull(cache.getIfPresent(tx, inOtherGraph));
+      assertNull(cache.getIfPresent(tx, inDefaultGraph));
+      assertEquals(1L, cache.size());
+    }
+  }
+
+}
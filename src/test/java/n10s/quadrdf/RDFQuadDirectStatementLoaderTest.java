@@ -0,0 +1,138 @@
+package n10s.quadrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import n10s.graphconfig.GraphConfig;
+import n10s.graphconfig.RDFParserConfig;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+import org.neo4j.logging.NullLog;
+
+public class RDFQuadDirectStatementLoaderTest {
+
+  private static final ValueFactory VF = SimpleValueFactory.getInstance();
+  private static final IRI NEXT = VF.createIRI("http://ex.org/next");
+  private static final IRI TAG = VF.createIRI("http://ex.org/tag");
+  private static final IRI NAME = VF.createIRI("http://ex.org/name");
+
+  @ClassRule
+  public static Neo4jRule neo4j = new Neo4jRule();
+
+  @Before
+  public void cleanDatabase() {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    db.executeTransactionally("MATCH (n) DETACH DELETE n");
+    db.executeTransactionally("DROP CONSTRAINT unique_quad_name IF EXISTS");
+    db.executeTransactionally("CREATE INDEX uri_index IF NOT EXISTS FOR (n:Resource) ON (n.uri)");
+    db.executeTransactionally("CREATE INDEX uri_graph_uri_index IF NOT EXISTS "
+        + "FOR (n:Resource) ON (n.uri, n.graphUri)");
+  }
+
+  @Test
+  public void partitionedByGraph() throws Throwable {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    // each graph goes to its own writer, batches are committed concurrently
+    RDFQuadDirectStatementLoader loader = load(4, this::ringsInTwelveGraphs);
+    assertEquals(480L, loader.totalTriplesMapped);
+    assertEquals(240L, count(db, "MATCH (n:Resource) RETURN count(n) AS c"));
+    assertEquals(240L, count(db, "MATCH (a)-[r:next]->(b) WHERE a.graphUri = b.graphUri "
+        + "OR (a.graphUri IS NULL AND b.graphUri IS NULL) RETURN count(r) AS c"));
+    assertEquals(Arrays.asList("t1"), Arrays.asList((String[]) db.executeTransactionally(
+        "MATCH (n:Resource { uri: 'http://ex.org/r7', graphUri: 'http://ex.org/g5' }) "
+            + "RETURN n.tag AS tag", Map.of(), r -> r.next().get("tag"))));
+
+    // loading again, in parallel or not, changes nothing
+    assertEquals(480L, load(4, this::ringsInTwelveGraphs).totalTriplesMapped);
+    load(1, this::ringsInTwelveGraphs);
+    assertEquals(240L, count(db, "MATCH (n:Resource) RETURN count(n) AS c"));
+    assertEquals(240L, count(db, "MATCH ()-[r:next]->() RETURN count(r) AS c"));
+    assertEquals(1L, count(db, "MATCH (n:Resource { uri: 'http://ex.org/r7', "
+        + "graphUri: 'http://ex.org/g5' }) RETURN size(n.tag) AS c"));
+  }
+
+  @Test
+  public void failingPartitionFailsTheImport() throws Throwable {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    db.executeTransactionally("CREATE CONSTRAINT unique_quad_name FOR (r:Resource) "
+        + "REQUIRE r.name IS UNIQUE");
+    RDFQuadDirectStatementLoader loader = new RDFQuadDirectStatementLoader(db, null,
+        config(4, 100), NullLog.getInstance());
+    try {
+      loader.startRDF();
+      for (int g = 20; g < 24; g++) {
+        for (int i = 0; i < 10; i++) {
+          // the last name of g21 is the first one of g21 again
+          loader.handleStatement(VF.createStatement(VF.createIRI("http://ex.org/r" + i), NAME,
+              VF.createLiteral(g == 21 && i == 9 ? "21-0" : g + "-" + i),
+              VF.createIRI("http://ex.org/g" + g)));
+        }
+      }
+      loader.endRDF();
+      //should not get here
+      assertTrue(false);
+    } catch (RDFHandlerException e) {
+      assertTrue(e.getMessage().contains("Problems when writing a partition of named graphs"));
+    } finally {
+      loader.close();
+    }
+    // only the partitions committed are counted
+    long namedNodes = count(db, "MATCH (n:Resource) WHERE n.name IS NOT NULL "
+        + "RETURN count(n) AS c");
+    assertTrue(namedNodes < 40);
+    assertEquals(namedNodes, loader.totalTriplesMapped);
+  }
+
+  private void ringsInTwelveGraphs(RDFQuadDirectStatementLoader loader) {
+    for (int g = 0; g < 12; g++) {
+      IRI graph = g == 0 ? null : VF.createIRI("http://ex.org/g" + g);
+      for (int i = 0; i < 20; i++) {
+        IRI resource = VF.createIRI("http://ex.org/r" + i);
+        loader.handleStatement(VF.createStatement(resource, NEXT,
+            VF.createIRI("http://ex.org/r" + (i + 1) % 20), graph));
+        loader.handleStatement(VF.createStatement(resource, TAG, VF.createLiteral("t" + i % 3),
+            graph));
+      }
+    }
+  }
+
+  private static RDFQuadDirectStatementLoader load(long parallelism,
+      Consumer<RDFQuadDirectStatementLoader> quads) throws Throwable {
+    RDFQuadDirectStatementLoader loader = new RDFQuadDirectStatementLoader(
+        neo4j.defaultDatabaseService(), null, config(parallelism, 25), NullLog.getInstance());
+    try {
+      loader.startRDF();
+      quads.accept(loader);
+      loader.endRDF();
+    } finally {
+      loader.close();
+    }
+    return loader;
+  }
+
+  private static RDFParserConfig config(long parallelism, long commitSize) throws Throwable {
+    Map<String, Object> graphConfig = new HashMap<>();
+    graphConfig.put("handleVocabUris", "IGNORE");
+    graphConfig.put("handleMultival", "ARRAY");
+    Map<String, Object> params = new HashMap<>();
+    params.put("parallelism", parallelism);
+    params.put("commitSize", commitSize);
+    return new RDFParserConfig(params, new GraphConfig(graphConfig));
+  }
+
+  private static long count(GraphDatabaseService db, String query) {
+    return db.executeTransactionally(query, Map.of(), r -> (Long) r.next().get("c"));
+  }
+
+}
@@ -0,0 +1,143 @@
+package n10s.rdf.load;
+
+import static n10s.CommonProcedures.UNIQUENESS_CONSTRAINT_STATEMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import n10s.graphconfig.GraphConfig;
+import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+import org.neo4j.logging.NullLog;
+
+public class DirectStatementLoaderTest {
+
+  private static final ValueFactory VF = SimpleValueFactory.getInstance();
+  private static final IRI P = VF.createIRI("http://ex.org/p");
+  private static final IRI R = VF.createIRI("http://ex.org/r");
+
+  @ClassRule
+  public static Neo4jRule neo4j = new Neo4jRule();
+
+  @Before
+  public void cleanDatabase() {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    db.executeTransactionally("MATCH (n) DETACH DELETE n");
+    db.executeTransactionally("DROP CONSTRAINT n10s_unique_uri IF EXISTS");
+    db.executeTransactionally(UNIQUENESS_CONSTRAINT_STATEMENT);
+  }
+
+  @Test
+  public void blankNodesPastTheCompactUriLimitKeepTheirLabel() throws Throwable {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    DirectStatementLoader loader = new DirectStatementLoader(db, null, config(),
+        NullLog.getInstance()) {
+      {
+        compactBNodes(3);
+      }
+    };
+    loader.startRDF();
+    // every blank node shows up again in a later batch
+    for (int i = 0; i < 5; i++) {
+      loader.handleStatement(VF.createStatement(VF.createBNode("b" + i), P,
+          VF.createLiteral((long) i)));
+    }
+    for (int i = 0; i < 5; i++) {
+      BNode bnode = VF.createBNode("b" + i);
+      loader.handleStatement(VF.createStatement(VF.createIRI("http://ex.org/c" + i), R, bnode));
+    }
+    loader.endRDF();
+    loader.close();
+
+    assertEquals(10L, loader.totalTriplesMapped);
+    try (Transaction tx = db.beginTx()) {
+      Map<String, Object> r = tx.execute("MATCH (c)-[:r]->(b) WHERE c.uri = 'http://ex.org/c' + b.p "
+          + "RETURN count(DISTINCT b) AS bnodes, "
+          + "sum(CASE WHEN b.uri = 'bnode://b' + b.p THEN 1 ELSE 0 END) AS labelled").next();
+      assertEquals(5L, r.get("bnodes"));
+      assertEquals(2L, r.get("labelled"));
+      assertEquals(5L, tx.execute("MATCH (b:Resource) WHERE b.uri STARTS WITH 'bnode://' "
+          + "RETURN count(b) AS c").next().get("c"));
+    }
+  }
+
+  @Test
+  public void prefetchResourcesInChunks() throws Throwable {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    prefetch(new DirectStatementLoader(db, null, config(), NullLog.getInstance()));
+  }
+
+  @Test
+  public void prefetchResourcesMergedWhenShared() throws Throwable {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    RDFParserConfig conf = config();
+    prefetch(new DirectStatementLoader(db, null, conf, NullLog.getInstance(),
+        new NodeIdCache<>(conf.getNodeCacheSize())));
+  }
+
+  /**
+   * Prefetches more resources than fit in a lookup chunk, every other one already in the graph,
+   * plus a relationship end that is neither in the graph nor a resource of the batch.
+   */
+  private static void prefetch(DirectStatementLoader loader) {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    int resources = 25000;
+    db.executeTransactionally("UNWIND range(0, $max, 2) AS i "
+        + "CREATE (:Resource { uri: 'http://ex.org/r' + i, existing: true })",
+        Map.of("max", resources - 1));
+    Map<String, Set<String>> labels = new HashMap<>();
+    for (int i = 0; i < resources; i++) {
+      labels.put("http://ex.org/r" + i, new HashSet<>());
+    }
+    RelationshipBuffer rels = new RelationshipBuffer();
+    rels.add("http://ex.org/r1", R, "http://ex.org/outside");
+    rels.add("http://ex.org/r2", R, "http://ex.org/r3");
+    ImportBatch batch = new ImportBatch(rels, labels, new HashMap<>(), resources + 2);
+
+    try (Transaction tx = db.beginTx()) {
+      Map<String, Node> nodes = loader.prefetchResources(tx, batch);
+      assertEquals(resources, nodes.size());
+      assertFalse(nodes.containsKey("http://ex.org/outside"));
+      for (int i = 0; i < resources; i++) {
+        Node node = nodes.get("http://ex.org/r" + i);
+        assertEquals("http://ex.org/r" + i, node.getProperty("uri"));
+        assertEquals(i % 2 == 0, node.hasProperty("existing"));
+      }
+      tx.commit();
+    }
+    try (Transaction tx = db.beginTx()) {
+      assertEquals((long) resources, tx.execute("MATCH (r:Resource) "
+          + "RETURN count(DISTINCT r.uri) AS c").next().get("c"));
+      assertEquals((long) resources, tx.execute("MATCH (r:Resource) RETURN count(r) AS c")
+          .next().get("c"));
+      // found again through the cache
+      Map<String, Node> nodes = loader.prefetchResources(tx, batch);
+      assertEquals(resources, nodes.size());
+      assertEquals(resources, loader.getNodeCache().size());
+    }
+  }
+
+  private static RDFParserConfig config() throws Throwable {
+    Map<String, Object> graphConfig = new HashMap<>();
+    graphConfig.put("handleVocabUris", "IGNORE");
+    Map<String, Object> params = new HashMap<>();
+    params.put("commitSize", 2L);
+    params.put("nodeCacheSize", 30000L);
+    return new RDFParserConfig(params, new GraphConfig(graphConfig));
+  }
+
+}
@@ -0,0 +1,93 @@
+package n10s.rdf.load;
+
+import static n10s.CommonProcedures.UNIQUENESS_CONSTRAINT_STATEMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import n10s.graphconfig.GraphConfig;
+import n10s.graphconfig.RDFParserConfig;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientTransactionFailureException;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.logging.NullLog;
+
+public class ParallelBatchWriterTest {
+
+  private static final ValueFactory VF = SimpleValueFactory.getInstance();
+  private static final IRI P = VF.createIRI("http://ex.org/p");
+
+  @ClassRule
+  public static Neo4jRule neo4j = new Neo4jRule();
+
+  @Before
+  public void cleanDatabase() {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    db.executeTransactionally("MATCH (n) DETACH DELETE n");
+    db.executeTransactionally("DROP CONSTRAINT n10s_unique_uri IF EXISTS");
+    db.executeTransactionally(UNIQUENESS_CONSTRAINT_STATEMENT);
+  }
+
+  @Test
+  public void partitionRetriedAfterTransientFailureCountsDiscardsOnce() throws Throwable {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    // arrays of longs in the graph: the string values imported next are discarded
+    DirectStatementLoader serial = new DirectStatementLoader(db, null, config(1), NullLog
+        .getInstance());
+    load(serial, VF.createLiteral(1L));
+    assertEquals(20L, serial.totalTriplesMapped);
+
+    AtomicBoolean failed = new AtomicBoolean();
+    DirectStatementLoader parallel = new DirectStatementLoader(db, null, config(2),
+        NullLog.getInstance()) {
+      @Override
+      long setLabelsAndProperties(Node node, String uri, ImportBatch batch) {
+        long discarded = super.setLabelsAndProperties(node, uri, batch);
+        if (failed.compareAndSet(false, true)) {
+          throw new TransientTransactionFailureException(
+              Status.Transaction.DeadlockDetected, "first attempt of the partition fails");
+        }
+        return discarded;
+      }
+    };
+    load(parallel, VF.createLiteral("a"));
+    parallel.close();
+
+    assertTrue(failed.get());
+    assertEquals(0L, parallel.totalTriplesMapped);
+    try (Transaction tx = db.beginTx()) {
+      assertEquals(20L, tx.execute("MATCH (r:Resource) WHERE r.p = [1] RETURN count(r) AS c")
+          .next().get("c"));
+    }
+  }
+
+  private static RDFParserConfig config(long parallelism) throws Throwable {
+    Map<String, Object> graphConfig = new HashMap<>();
+    graphConfig.put("handleVocabUris", "IGNORE");
+    graphConfig.put("handleMultival", "ARRAY");
+    Map<String, Object> params = new HashMap<>();
+    params.put("parallelism", parallelism);
+    return new RDFParserConfig(params, new GraphConfig(graphConfig));
+  }
+
+  private static void load(DirectStatementLoader loader, Value value) {
+    loader.startRDF();
+    for (int i = 0; i < 20; i++) {
+      loader.handleStatement(VF.createStatement(VF.createIRI("http://ex.org/r" + i), P, value));
+    }
+    loader.endRDF();
+  }
+
+}
@@ -0,0 +1,111 @@
+package n10s.rdf.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.Test;
+
+public class RelationshipBufferTest {
+
+  private static final ValueFactory VF = SimpleValueFactory.getInstance();
+  private static final IRI KNOWS = VF.createIRI("http://ex.org/knows");
+  private static final IRI LIKES = VF.createIRI("http://ex.org/likes");
+
+  @Test
+  public void duplicateRelationshipsAreBufferedOnce() {
+    RelationshipBuffer buffer = new RelationshipBuffer();
+    assertTrue(buffer.isEmpty());
+    int rel = buffer.add("http://ex.org/a", KNOWS, "http://ex.org/b");
+    assertEquals(rel, buffer.add("http://ex.org/a", KNOWS, "http://ex.org/b"));
+    int other = buffer.add("http://ex.org/a", LIKES, "http://ex.org/b");
+    int reverse = buffer.add("http://ex.org/b", KNOWS, "http://ex.org/a");
+
+    assertEquals(3, buffer.size());
+    assertEquals(3, new HashSet<>(Arrays.asList(rel, other, reverse)).size());
+    assertEquals("http://ex.org/a", buffer.getSubject(rel));
+    assertEquals(KNOWS, buffer.getPredicate(rel));
+    assertEquals("http://ex.org/b", buffer.getObject(rel));
+    assertEquals(buffer.getSubjectId(rel), buffer.getObjectId(reverse));
+    assertEquals(2, buffer.getUriCount());
+    assertEquals(Arrays.asList(KNOWS, LIKES), buffer.getPredicates());
+  }
+
+  @Test
+  public void growsPastItsInitialCapacity() {
+    RelationshipBuffer buffer = new RelationshipBuffer();
+    int relationships = 5000;
+    for (int i = 0; i < relationships; i++) {
+      assertEquals(i, buffer.add("http://ex.org/s" + i % 100, i % 2 == 0 ? KNOWS : LIKES,
+          "http://ex.org/o" + i));
+    }
+    // all of them still found after the arrays and the hash table were resized
+    for (int i = 0; i < relationships; i++) {
+      assertEquals(i, buffer.add("http://ex.org/s" + i % 100, i % 2 == 0 ? KNOWS : LIKES,
+          "http://ex.org/o" + i));
+    }
+    assertEquals(relationships, buffer.size());
+    assertEquals("http://ex.org/s99", buffer.getSubject(relationships - 1));
+    assertEquals("http://ex.org/o" + (relationships - 1), buffer.getObject(relationships - 1));
+    assertEquals(100 + relationships, buffer.getUriCount());
+  }
+
+  @Test
+  public void relationshipProperties() {
+    RelationshipBuffer buffer = new RelationshipBuffer();
+    int rel = buffer.add("http://ex.org/a", KNOWS, "http://ex.org/b");
+    int other = buffer.add("http://ex.org/a", KNOWS, "http://ex.org/c");
+    assertNull(buffer.getProperties(rel));
+
+    buffer.getOrCreateProperties(rel).put("since", 2010L);
+    buffer.getOrCreateProperties(buffer.add("http://ex.org/a", KNOWS, "http://ex.org/b"))
+        .put("weight", 0.5d);
+
+    Map<String, Object> props = buffer.getProperties(rel);
+    assertEquals(2, props.size());
+    assertEquals(2010L, props.get("since"));
+    assertEquals(0.5d, props.get("weight"));
+    assertNull(buffer.getProperties(other));
+  }
+
+  @Test
+  public void sortedBySubjectAndPredicate() {
+    RelationshipBuffer buffer = new RelationshipBuffer();
+    String[][] triples = {
+        {"http://ex.org/b", "likes", "http://ex.org/x"},
+        {"http://ex.org/a", "knows", "http://ex.org/y"},
+        {"http://ex.org/b", "knows", "http://ex.org/z"},
+        {"http://ex.org/a", "likes", "http://ex.org/z"},
+        {"http://ex.org/b", "likes", "http://ex.org/y"},
+        {"http://ex.org/a", "knows", "http://ex.org/x"},
+        {"http://ex.org/c", "knows", "http://ex.org/a"}};
+    for (String[] triple : triples) {
+      buffer.add(triple[0], triple[1].equals("knows") ? KNOWS : LIKES, triple[2]);
+    }
+
+    int[] sorted = buffer.sortedBySubjectAndPredicate();
+    assertEquals(triples.length, sorted.length);
+    StringBuilder order = new StringBuilder();
+    Set<Integer> rels = new HashSet<>();
+    for (int rel : sorted) {
+      rels.add(rel);
+      order.append(buffer.getSubject(rel).substring(14)).append(' ')
+          .append(buffer.getPredicate(rel).getLocalName()).append(' ')
+          .append(buffer.getObject(rel).substring(14)).append(';');
+    }
+    assertEquals(triples.length, rels.size());
+    // subjects and predicates in the order first buffered, then the order the rels were added
+    assertEquals("b likes x;b likes y;b knows z;a likes z;a knows y;a knows x;c knows a;",
+        order.toString());
+    assertFalse(buffer.isEmpty());
+  }
+
+}
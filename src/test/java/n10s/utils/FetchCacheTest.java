@@ -0,0 +1,169 @@
+package n10s.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FetchCacheTest {
+
+  private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpServer server;
+  private String base;
+  // payload (and etag) of each path, and the response status of each request
+  private final Map<String, String> payloads = new HashMap<>();
+  private final Map<String, List<Integer>> responses = new HashMap<>();
+
+  /**
+   * Stands in for an http server: /etag* paths send an ETag, /lastmodified* a Last-Modified
+   * date and the rest no validator at all.
+   */
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      String path = exchange.getRequestURI().getPath();
+      String payload = payloads.get(path);
+      List<Integer> statuses = responses
+          .computeIfAbsent(path, p -> Collections.synchronizedList(new ArrayList<>()));
+      Headers request = exchange.getRequestHeaders();
+      String etag = "\"" + payload + "\"";
+      boolean notModified = path.startsWith("/etag")
+          ? etag.equals(request.getFirst("If-None-Match"))
+          : LAST_MODIFIED.equals(request.getFirst("If-Modified-Since"));
+      if (payload == null) {
+        statuses.add(404);
+        exchange.sendResponseHeaders(404, -1);
+      } else if (notModified) {
+        statuses.add(304);
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        statuses.add(200);
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        if (path.startsWith("/etag")) {
+          exchange.getResponseHeaders().add("ETag", etag);
+        } else if (path.startsWith("/lastmodified")) {
+          exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void conditionalRequests() throws IOException {
+    FetchCache cache = new FetchCache(folder.getRoot().toPath(), FetchCache.DEFAULT_MAX_SIZE);
+    payloads.put("/etag.nt", "v1");
+    payloads.put("/lastmodified.nt", "v1");
+    payloads.put("/novalidators.nt", "v1");
+    for (int i = 0; i < 2; i++) {
+      assertEquals("v1", fetch(cache, "/etag.nt"));
+      assertEquals("v1", fetch(cache, "/lastmodified.nt"));
+      assertEquals("v1", fetch(cache, "/novalidators.nt"));
+    }
+    assertEquals(Arrays.asList(200, 304), responses.get("/etag.nt"));
+    assertEquals(Arrays.asList(200, 304), responses.get("/lastmodified.nt"));
+    assertEquals(Arrays.asList(200, 200), responses.get("/novalidators.nt"));
+    assertFalse(Files.exists(entry("/novalidators.nt")));
+
+    // changed payload, downloaded again
+    payloads.put("/etag.nt", "v2");
+    assertEquals("v2", fetch(cache, "/etag.nt"));
+    assertEquals("v2", fetch(cache, "/etag.nt"));
+    assertEquals(Arrays.asList(200, 304, 200, 304), responses.get("/etag.nt"));
+  }
+
+  @Test
+  public void otherResponsesLeftToTheCaller() throws IOException {
+    FetchCache cache = new FetchCache(folder.getRoot().toPath(), FetchCache.DEFAULT_MAX_SIZE);
+    HttpURLConnection connection = (HttpURLConnection) new URL(base + "/etag-missing.nt")
+        .openConnection();
+    assertNull(cache.fetch(connection, FetchCache.key(base + "/etag-missing.nt", null)));
+    assertEquals(404, connection.getResponseCode());
+  }
+
+  @Test
+  public void requestHeadersArePartOfTheKey() {
+    Map<String, String> turtle = new HashMap<>();
+    turtle.put("accept", "text/turtle");
+    turtle.put("authorization", "Basic bla");
+    Map<String, String> rdfXml = new HashMap<>(turtle);
+    rdfXml.put("accept", "application/rdf+xml");
+    assertNotEquals(FetchCache.key(base, turtle), FetchCache.key(base, rdfXml));
+    assertNotEquals(FetchCache.key(base, null), FetchCache.key(base, turtle));
+    assertEquals(FetchCache.key(base, turtle), FetchCache.key(base, new HashMap<>(turtle)));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesEvicted() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    payloads.put("/etag-a.nt", "a");
+    payloads.put("/etag-b.nt", "b");
+    payloads.put("/etag-c.nt", "c");
+    fetch(new FetchCache(directory, FetchCache.DEFAULT_MAX_SIZE), "/etag-a.nt");
+    long entrySize = Files.size(entry("/etag-a.nt"));
+    // room for two entries
+    FetchCache cache = new FetchCache(directory, entrySize * 2 + entrySize / 2);
+    fetch(cache, "/etag-b.nt");
+    Files.setLastModifiedTime(entry("/etag-a.nt"), FileTime.fromMillis(1000000L));
+    Files.setLastModifiedTime(entry("/etag-b.nt"), FileTime.fromMillis(2000000L));
+    // a used again, b is the least recently used one now
+    assertEquals("a", fetch(cache, "/etag-a.nt"));
+    assertEquals("c", fetch(cache, "/etag-c.nt"));
+
+    assertTrue(Files.exists(entry("/etag-a.nt")));
+    assertFalse(Files.exists(entry("/etag-b.nt")));
+    assertTrue(Files.exists(entry("/etag-c.nt")));
+    assertEquals("b", fetch(cache, "/etag-b.nt"));
+    assertEquals(Arrays.asList(200, 200), responses.get("/etag-b.nt"));
+  }
+
+  private String fetch(FetchCache cache, String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+    try (InputStream in = cache.fetch(connection, FetchCache.key(base + path, null))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private Path entry(String path) {
+    return folder.getRoot().toPath().resolve(FetchCache.key(base + path, null) + ".cached");
+  }
+
+}
@@ -0,0 +1,144 @@
+package n10s.utils;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Conversion of a mix of typed literals through {@link LiteralConversion} and through the chain of
+ * datatype checks and general parsers it replaced. Not a unit test, run it from the test classpath:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main LiteralConversionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LiteralConversionBenchmark {
+
+  private static final int LITERALS = 1000;
+  private static final DateTimeFormatter NEO4J_ZONED_DATE_FORMAT = new DateTimeFormatterBuilder()
+      .appendPattern("yyyy-MM-dd'T'HH:mm:ss")
+      .appendFraction(ChronoField.MILLI_OF_SECOND, 0, 9, true)
+      .appendPattern("'['").appendZoneId().appendPattern("']'").toFormatter();
+
+  private Literal[] literals;
+
+  @Setup
+  public void createLiterals() {
+    ValueFactory vf = SimpleValueFactory.getInstance();
+    Random random = new Random(42);
+    literals = new Literal[LITERALS];
+    for (int i = 0; i < LITERALS; i++) {
+      switch (i % 6) {
+        case 0:
+          literals[i] = vf.createLiteral(Long.toString(random.nextInt()), XMLSchema.INTEGER);
+          break;
+        case 1:
+          literals[i] = vf.createLiteral(Double.toString(random.nextDouble() * 1000),
+              XMLSchema.DOUBLE);
+          break;
+        case 2:
+          literals[i] = vf.createLiteral(Boolean.toString(random.nextBoolean()),
+              XMLSchema.BOOLEAN);
+          break;
+        case 3:
+          literals[i] = vf.createLiteral(String.format("20%02d-%02d-%02d", random.nextInt(30),
+              1 + random.nextInt(12), 1 + random.nextInt(28)), XMLSchema.DATE);
+          break;
+        case 4:
+          literals[i] = vf.createLiteral(String.format("20%02d-%02d-%02dT%02d:%02d:%02d",
+              random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+              random.nextInt(24), random.nextInt(60), random.nextInt(60)), XMLSchema.DATETIME);
+          break;
+        default:
+          literals[i] = vf.createLiteral(String.format("20%02d-%02d-%02dT%02d:%02d:%02d.%03dZ",
+              random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+              random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000)),
+              XMLSchema.DATETIME);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LITERALS)
+  public void lookupAndScanners(Blackhole blackhole) {
+    for (Literal literal : literals) {
+      blackhole.consume(LiteralConversion.forDatatype(literal.getDatatype()).convert(literal));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LITERALS)
+  public void datatypeChecksAndParsers(Blackhole blackhole) {
+    for (Literal literal : literals) {
+      blackhole.consume(previousConversion(literal));
+    }
+  }
+
+  /**
+   * The conversion of the datatypes in the mix before {@link LiteralConversion}.
+   */
+  private static Object previousConversion(Literal literal) {
+    IRI datatype = literal.getDatatype();
+    if (datatype.equals(XMLSchema.STRING)) {
+      return literal.stringValue();
+    } else if (datatype.equals(XMLSchema.INTEGER) || datatype.equals(XMLSchema.LONG)
+        || datatype.equals(XMLSchema.INT)) {
+      return literal.longValue();
+    } else if (datatype.equals(XMLSchema.DECIMAL) || datatype.equals(XMLSchema.DOUBLE)
+        || datatype.equals(XMLSchema.FLOAT)) {
+      return literal.doubleValue();
+    } else if (datatype.equals(XMLSchema.BOOLEAN)) {
+      return literal.booleanValue();
+    } else if (datatype.equals(XMLSchema.DATETIME)) {
+      try {
+        return ZonedDateTime.parse(literal.stringValue());
+      } catch (DateTimeParseException dtpe) {
+        try {
+          // built on every call back then, once here
+          return ZonedDateTime.parse(literal.stringValue(), NEO4J_ZONED_DATE_FORMAT);
+        } catch (DateTimeParseException dtpe2) {
+          try {
+            return DateUtils.parseDateTime(literal.stringValue());
+          } catch (IllegalArgumentException e) {
+            return literal.stringValue();
+          }
+        }
+      }
+    } else if (datatype.equals(XMLSchema.DATE)) {
+      try {
+        return DateUtils.parseDate(literal.stringValue());
+      } catch (IllegalArgumentException e) {
+        return literal.stringValue();
+      }
+    }
+    return literal.stringValue();
+  }
+
+}
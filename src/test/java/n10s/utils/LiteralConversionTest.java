@@ -0,0 +1,74 @@
+package n10s.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.junit.Test;
+import org.neo4j.values.storable.PointValue;
+
+public class LiteralConversionTest {
+
+  private static final ValueFactory VF = SimpleValueFactory.getInstance();
+  private static final IRI WKT_LITERAL = VF
+      .createIRI("http://www.opengis.net/ont/geosparql#wktLiteral");
+
+  @Test
+  public void integers() {
+    assertEquals(-42L, convert("-0042", XMLSchema.INTEGER));
+    assertEquals(7L, convert("+7", XMLSchema.UNSIGNED_BYTE));
+    assertEquals(123456789012345678L, convert("123456789012345678", XMLSchema.LONG));
+    // more than 18 digits, left to the general parser
+    assertEquals(Long.MAX_VALUE, convert("9223372036854775807", XMLSchema.LONG));
+  }
+
+  @Test
+  public void doublesAndBooleans() {
+    assertEquals(12.5d, convert("12.50", XMLSchema.DECIMAL));
+    assertEquals(1500.0d, convert("1.5e3", XMLSchema.DOUBLE));
+    assertEquals(Double.NEGATIVE_INFINITY, convert("-INF", XMLSchema.DOUBLE));
+    assertEquals(true, convert("1", XMLSchema.BOOLEAN));
+    assertEquals(false, convert("false", XMLSchema.BOOLEAN));
+  }
+
+  @Test
+  public void datesAndDateTimes() {
+    assertEquals(LocalDateTime.parse("2019-06-07T10:15:30.125"),
+        convert("2019-06-07T10:15:30.125", XMLSchema.DATETIME));
+    assertEquals(ZonedDateTime.parse("2019-06-07T10:15:30-05:30"),
+        convert("2019-06-07T10:15:30-05:30", XMLSchema.DATETIME));
+    assertEquals(ZonedDateTime.parse("2017-10-11T00:00:00Z"),
+        convert("2017-10-11T00:00:00Z", XMLSchema.DATETIME));
+    // forms the scanner leaves to the general parsers
+    assertEquals(ZonedDateTime.of(LocalDateTime.parse("1956-06-25T10:00:00"),
+        ZoneId.of("Europe/Berlin")),
+        convert("1956-06-25T10:00:00[Europe/Berlin]", XMLSchema.DATETIME));
+    assertEquals(LocalDateTime.parse("2019-06-07T10:15:30.123"),
+        convert("2019-06-07T10:15:30.1234567890", XMLSchema.DATETIME));
+    // not a valid date: kept as a string
+    assertEquals("2019-02-30T10:15:30", convert("2019-02-30T10:15:30", XMLSchema.DATETIME));
+    assertEquals(LocalDate.parse("2019-06-07"), convert("2019-06-07", XMLSchema.DATE));
+  }
+
+  @Test
+  public void pointsAndOtherDatatypes() {
+    assertArrayEquals(new double[]{1.5d, 2.0d},
+        ((PointValue) convert("Point(1.5 2)", WKT_LITERAL)).coordinate(), 0.0d);
+    assertEquals("not a point", convert("not a point", WKT_LITERAL));
+    assertEquals("text", convert("text", XMLSchema.STRING));
+    assertNull(LiteralConversion.forDatatype(VF.createIRI("http://ex.org/custom")));
+  }
+
+  private static Object convert(String label, IRI datatype) {
+    return LiteralConversion.forDatatype(datatype).convert(VF.createLiteral(label, datatype));
+  }
+
+}
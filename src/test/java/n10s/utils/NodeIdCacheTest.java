@@ -0,0 +1,73 @@
+package n10s.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+
+public class NodeIdCacheTest {
+
+  private static final Label RESOURCE = Label.label("Resource");
+
+  @ClassRule
+  public static Neo4jRule neo4j = new Neo4jRule();
+
+  @Before
+  public void cleanDatabase() {
+    neo4j.defaultDatabaseService().executeTransactionally("MATCH (n) DETACH DELETE n");
+  }
+
+  @Test
+  public void cachedIdOfAnotherResourceIsDropped() {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    NodeIdCache<String> cache = new NodeIdCache<>(10);
+    String a;
+    String b;
+    try (Transaction tx = db.beginTx()) {
+      a = resource(tx, "http://ex.org/a").getElementId();
+      b = resource(tx, "http://ex.org/b").getElementId();
+      tx.commit();
+    }
+    cache.put("http://ex.org/a", a);
+    // as if the node had been deleted and its id reused by another resource
+    cache.put("http://ex.org/c", b);
+    try (Transaction tx = db.beginTx()) {
+      assertEquals(a, cache.getIfPresent(tx, "http://ex.org/a").getElementId());
+      assertNull(cache.getIfPresent(tx, "http://ex.org/c"));
+      assertEquals(1L, cache.size());
+
+      Node c = cache.get(tx, "http://ex.org/c", key -> resource(tx, key));
+      assertEquals("http://ex.org/c", c.getProperty("uri"));
+      assertEquals(c.getElementId(), cache.getIfPresent(tx, "http://ex.org/c").getElementId());
+    }
+  }
+
+  @Test
+  public void cachedIdOfDeletedNodeIsDropped() {
+    GraphDatabaseService db = neo4j.defaultDatabaseService();
+    NodeIdCache<String> cache = new NodeIdCache<>(10);
+    try (Transaction tx = db.beginTx()) {
+      cache.put("http://ex.org/a", resource(tx, "http://ex.org/a").getElementId());
+      tx.commit();
+    }
+    db.executeTransactionally("MATCH (n) DELETE n");
+    try (Transaction tx = db.beginTx()) {
+      assertNull(cache.getIfPresent(tx, "http://ex.org/a"));
+      assertEquals(0L, cache.size());
+    }
+  }
+
+  private static Node resource(Transaction tx, String uri) {
+    Node node = tx.createNode(RESOURCE);
+    node.setProperty("uri", uri);
+    return node;
+  }
+
+}
@@ -0,0 +1,63 @@
+package n10s.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ParallelBZip2InputStreamTest {
+
+  @Test
+  public void multiBlockConcatenatedStreams() throws IOException {
+    byte[] data = ntriples(20000);
+    int half = data.length / 2;
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    // two concatenated streams (as written by pbzip2) of 100k blocks
+    for (int[] range : new int[][]{{0, half}, {half, data.length}}) {
+      BZip2CompressorOutputStream stream = new BZip2CompressorOutputStream(compressed, 1);
+      stream.write(data, range[0], range[1] - range[0]);
+      stream.finish();
+    }
+    assertTrue(data.length > 4 * 100000);
+
+    for (int threads : new int[]{1, 4}) {
+      try (InputStream in = new ParallelBZip2InputStream(
+          new ByteArrayInputStream(compressed.toByteArray()), threads)) {
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedStreamFails() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (BZip2CompressorOutputStream stream = new BZip2CompressorOutputStream(compressed, 1)) {
+      stream.write(ntriples(5000));
+    }
+    byte[] truncated = Arrays.copyOf(compressed.toByteArray(), compressed.size() / 2);
+    try (InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(truncated), 2)) {
+      IOUtils.toByteArray(in);
+    }
+  }
+
+  static byte[] ntriples(int count) {
+    Random random = new Random(42);
+    StringBuilder triples = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      triples.append("<http://ex.org/r").append(random.nextInt(count))
+          .append("> <http://ex.org/p").append(random.nextInt(20)).append("> \"")
+          .append(Long.toString(random.nextLong(), 36)).append("\" .\n");
+    }
+    return triples.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,56 @@
+package n10s.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+
+  @Test
+  public void multiMemberGzip() throws IOException {
+    byte[] data = ParallelBZip2InputStreamTest.ntriples(20000);
+    int half = data.length / 2;
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    for (int[] range : new int[][]{{0, half}, {half, data.length}}) {
+      GZIPOutputStream member = new GZIPOutputStream(compressed);
+      member.write(data, range[0], range[1] - range[0]);
+      member.finish();
+    }
+    try (InputStream in = new ReadAheadInputStream(new GzipCompressorInputStream(
+        new ByteArrayInputStream(compressed.toByteArray()), true))) {
+      assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+  }
+
+  @Test
+  public void failureOfTheSourceReachesTheConsumer() throws IOException {
+    InputStream failing = new InputStream() {
+      private int read = 0;
+
+      @Override
+      public int read() throws IOException {
+        if (read++ >= 100000) {
+          throw new IOException("connection reset");
+        }
+        return 'a';
+      }
+    };
+    try (InputStream in = new ReadAheadInputStream(failing)) {
+      IOUtils.toByteArray(in);
+      //should not get here
+      assertTrue(false);
+    } catch (IOException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+  }
+
+}